@@ -27,6 +27,8 @@ public abstract class Game {
     //something of the like here, could be interchanged with a seperate engine + event loop, also probably want to thread the rendering and physics stuff?
     protected void runGameLoop() {
         //need a better loop implementation here but you get the idea
+        networking.deliverActions();
+
         for (Entity entity : entities) {
             entity.create();
         }
@@ -53,4 +55,22 @@ public abstract class Game {
      * requested the action.
      */
     public abstract void handleAction(List<String> action, String clientId);
+
+    /**
+     * method for handling a batch of messages received from the networking
+     * engine component since the last simulation step. used when the
+     * networking engine component collects messages into batches instead of
+     * passing each one on as it is received. by default each action is passed
+     * to handleAction in order, override this to handle the whole batch at once
+     *
+     * @param actions the actions received, each a String List identifying the
+     * action to run and any parameters needed for the action.
+     * @param clientIds the unique hash associated with the connected user who
+     * requested each action, at the same index as the action.
+     */
+    public void handleActionBatch(List<List<String>> actions, List<String> clientIds) {
+        for (int i = 0; i < actions.size(); i++) {
+            handleAction(actions.get(i), clientIds.get(i));
+        }
+    }
 }
@@ -30,10 +30,7 @@ public abstract class Networking {
      */
     public final void sendAction(String action, List<String> parameters, List<String> clientIds) {
         String message = encodeAction(action, parameters);
-
-        for (String clientId : clientIds) {
-            sendMessage(message, clientIds);
-        }
+        sendMessage(message, clientIds);
     }
 
     /**
@@ -45,10 +42,7 @@ public abstract class Networking {
      */
     public final void sendAction(List<String> action, List<String> clientIds) {
         String message = encodeAction(action);
-
-        for (String clientId : clientIds) {
-            sendMessage(message, clientIds);
-        }
+        sendMessage(message, clientIds);
     }
 
     /**
@@ -59,10 +53,7 @@ public abstract class Networking {
      */
     public final void sendAction(String action, List<String> clientIds) {
         String message = encodeAction(action);
-
-        for (String clientId : clientIds) {
-            sendMessage(message, clientIds);
-        }
+        sendMessage(message, clientIds);
     }
 
     /**
@@ -100,6 +91,277 @@ public abstract class Networking {
         sendMessage(message, clientId);
     }
 
+    /**
+     * sends an action to every client in a game. the action is encoded once
+     * and the same message is handed to every client, without the caller
+     * building a list of client ids
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param game the id of the game to send the action to
+     */
+    public final void sendActionBroadcast(String action, List<String> parameters, int game) {
+        String message = encodeAction(action, parameters);
+        sendMessageBroadcast(message, game);
+    }
+
+    /**
+     * sends an action to every client in a game
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param game the id of the game to send the action to
+     */
+    public final void sendActionBroadcast(List<String> action, int game) {
+        String message = encodeAction(action);
+        sendMessageBroadcast(message, game);
+    }
+
+    /**
+     * sends an action to every client in a game
+     *
+     * @param action the String to send for the action
+     * @param game the id of the game to send the action to
+     */
+    public final void sendActionBroadcast(String action, int game) {
+        String message = encodeAction(action);
+        sendMessageBroadcast(message, game);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order. use for frequently repeated data where only the latest
+     * value matters, such as per tick entity state
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionUnreliable(String action, List<String> parameters, List<String> clientIds) {
+        String message = encodeAction(action, parameters);
+        sendMessageUnreliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionUnreliable(List<String> action, List<String> clientIds) {
+        String message = encodeAction(action);
+        sendMessageUnreliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order
+     *
+     * @param action the String to send for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionUnreliable(String action, List<String> clientIds) {
+        String message = encodeAction(action);
+        sendMessageUnreliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionUnreliable(String action, List<String> parameters, String clientId) {
+        String message = encodeAction(action, parameters);
+        sendMessageUnreliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionUnreliable(List<String> action, String clientId) {
+        String message = encodeAction(action);
+        sendMessageUnreliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network without guaranteeing it arrives or
+     * arrives in order
+     *
+     * @param action the String to send for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionUnreliable(String action, String clientId) {
+        String message = encodeAction(action);
+        sendMessageUnreliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent, without holding back actions sent with
+     * sendAction if a packet is lost. use for important events such as kills,
+     * pickups and score changes
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionReliable(String action, List<String> parameters, List<String> clientIds) {
+        String message = encodeAction(action, parameters);
+        sendMessageReliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionReliable(List<String> action, List<String> clientIds) {
+        String message = encodeAction(action);
+        sendMessageReliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent
+     *
+     * @param action the String to send for the action
+     * @param clientIds the client ids to send the action to
+     */
+    public final void sendActionReliable(String action, List<String> clientIds) {
+        String message = encodeAction(action);
+        sendMessageReliable(message, clientIds);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionReliable(String action, List<String> parameters, String clientId) {
+        String message = encodeAction(action, parameters);
+        sendMessageReliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionReliable(List<String> action, String clientId) {
+        String message = encodeAction(action);
+        sendMessageReliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network over a channel that guarantees it
+     * arrives in the order sent
+     *
+     * @param action the String to send for the action
+     * @param clientId the client id to send the action to
+     */
+    public final void sendActionReliable(String action, String clientId) {
+        String message = encodeAction(action);
+        sendMessageReliable(message, clientId);
+    }
+
+    /**
+     * sends an action across the network on a logical channel. actions sent
+     * on the same channel arrive in the order sent, but do not wait behind
+     * actions sent on other channels. use separate channels to keep bulk
+     * traffic such as chat or asset downloads from delaying game actions
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientIds the client ids to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(String action, List<String> parameters, List<String> clientIds, int channel) {
+        String message = encodeAction(action, parameters);
+        sendMessageChannel(message, clientIds, channel);
+    }
+
+    /**
+     * sends an action across the network on a logical channel
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientIds the client ids to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(List<String> action, List<String> clientIds, int channel) {
+        String message = encodeAction(action);
+        sendMessageChannel(message, clientIds, channel);
+    }
+
+    /**
+     * sends an action across the network on a logical channel
+     *
+     * @param action the String to send for the action
+     * @param clientIds the client ids to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(String action, List<String> clientIds, int channel) {
+        String message = encodeAction(action);
+        sendMessageChannel(message, clientIds, channel);
+    }
+
+    /**
+     * sends an action across the network on a logical channel
+     *
+     * @param action the name of the action to send
+     * @param parameters the list of parameters to send for the action
+     * @param clientId the client id to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(String action, List<String> parameters, String clientId, int channel) {
+        String message = encodeAction(action, parameters);
+        sendMessageChannel(message, clientId, channel);
+    }
+
+    /**
+     * sends an action across the network on a logical channel
+     *
+     * @param action the action name including the list of parameters to send
+     * for the action
+     * @param clientId the client id to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(List<String> action, String clientId, int channel) {
+        String message = encodeAction(action);
+        sendMessageChannel(message, clientId, channel);
+    }
+
+    /**
+     * sends an action across the network on a logical channel
+     *
+     * @param action the String to send for the action
+     * @param clientId the client id to send the action to
+     * @param channel the id of the channel to send the action on
+     */
+    public final void sendActionChannel(String action, String clientId, int channel) {
+        String message = encodeAction(action);
+        sendMessageChannel(message, clientId, channel);
+    }
+
     /**
      * receive a message from a client
      *
@@ -109,10 +371,43 @@ public abstract class Networking {
     public void receiveMessage(String message, String clientId) {
         List<String> action = parseAction(message);
         if (!handleNetworkAction(action, clientId)) {
-            game.handleAction(action, clientId);
+            deliverAction(action, clientId);
         }
     }
 
+    /**
+     * passes an action received from a client on to the game. implementations
+     * that collect actions into batches can override this, by default the
+     * action is passed straight to the game
+     *
+     * @param action the action received from the client
+     * @param clientId the id of the client the action was received from
+     */
+    protected void deliverAction(List<String> action, String clientId) {
+        game.handleAction(action, clientId);
+    }
+
+    /**
+     * passes a batch of actions received from clients on to the game in one
+     * call
+     *
+     * @param actions the actions received from the clients
+     * @param clientIds the id of the client each action was received from, at
+     * the same index as the action
+     */
+    protected final void deliverActionBatch(List<List<String>> actions, List<String> clientIds) {
+        game.handleActionBatch(actions, clientIds);
+    }
+
+    /**
+     * passes every action collected since the last call on to the game. called
+     * by the game once per simulation step. implementations that pass each
+     * action on as it is received do not need to override this, by default it
+     * does nothing
+     */
+    public void deliverActions() {
+    }
+
     /*
      * gets an action and parameters and turns it into a string to send across the network
      */
@@ -315,6 +610,100 @@ public abstract class Networking {
      */
     protected abstract void sendMessage(String message, String clientId);
 
+    /**
+     * handles the physical sending of the message string to the specified
+     * client ids without guaranteeing it arrives. implementations without an
+     * unreliable transport do not need to override this, by default the
+     * message is sent the same way as sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientIds the client ids to send the message to
+     */
+    protected void sendMessageUnreliable(String message, List<String> clientIds) {
+        sendMessage(message, clientIds);
+    }
+
+    /**
+     * handles the physical sending of the message string to the specified
+     * client id without guaranteeing it arrives. implementations without an
+     * unreliable transport do not need to override this, by default the
+     * message is sent the same way as sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientId the client id to send the message to
+     */
+    protected void sendMessageUnreliable(String message, String clientId) {
+        sendMessage(message, clientId);
+    }
+
+    /**
+     * handles the physical sending of the message string to the specified
+     * client ids over a reliable ordered channel separate from sendMessage.
+     * implementations without a separate reliable transport do not need to
+     * override this, by default the message is sent the same way as
+     * sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientIds the client ids to send the message to
+     */
+    protected void sendMessageReliable(String message, List<String> clientIds) {
+        sendMessage(message, clientIds);
+    }
+
+    /**
+     * handles the physical sending of the message string to the specified
+     * client id over a reliable ordered channel separate from sendMessage.
+     * implementations without a separate reliable transport do not need to
+     * override this, by default the message is sent the same way as
+     * sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientId the client id to send the message to
+     */
+    protected void sendMessageReliable(String message, String clientId) {
+        sendMessage(message, clientId);
+    }
+
+    /**
+     * handles the physical sending of the message string to the specified
+     * client ids on a logical channel. implementations without channels do not
+     * need to override this, by default the message is sent the same way as
+     * sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientIds the client ids to send the message to
+     * @param channel the id of the channel to send the message on
+     */
+    protected void sendMessageChannel(String message, List<String> clientIds, int channel) {
+        sendMessage(message, clientIds);
+    }
+
+    /**
+     * handles the physical sending of the message string to the specified
+     * client id on a logical channel. implementations without channels do not
+     * need to override this, by default the message is sent the same way as
+     * sendMessage
+     *
+     * @param message the message to send over the network
+     * @param clientId the client id to send the message to
+     * @param channel the id of the channel to send the message on
+     */
+    protected void sendMessageChannel(String message, String clientId, int channel) {
+        sendMessage(message, clientId);
+    }
+
+    /**
+     * handles the physical sending of the message string to every client in a
+     * game. implementations that group their clients into games need to
+     * override this, by default it throws a NetworkingRuntimeException
+     *
+     * @param message the message to send over the network
+     * @param game the id of the game to send the message to
+     */
+    protected void sendMessageBroadcast(String message, int game) {
+        throw new NetworkingRuntimeException("Broadcasting to a game is not supported by " + getClass().getName());
+    }
+
     protected abstract void disconnect(String hash);
 
 //    /**
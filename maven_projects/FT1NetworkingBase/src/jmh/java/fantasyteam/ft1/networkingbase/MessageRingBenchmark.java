@@ -0,0 +1,154 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmark comparing the lock-free {@link MessageRing} used by a
+ * {@link MessageQueue} when setQueueRingSize is above 0 with queuing messages
+ * under a lock, which is what a {@link MessageQueue} does otherwise. Three
+ * producer threads stand in for the game, lobby and admin threads sending to
+ * the same socket while one consumer stands in for the {@link MessageQueue}
+ * thread. Producer and consumer throughput are reported separately for each
+ * group. On a single core the producers never run alongside the consumer, so
+ * the ring has nothing to gain there and measures no faster than the lock.
+ *
+ * Only compiled with the benchmark profile. Run with:
+ * mvn -P benchmark compile exec:java -Dexec.mainClass=org.openjdk.jmh.Main
+ * -Dexec.args=MessageRingBenchmark
+ *
+ * @author javu
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageRingBenchmark {
+
+    /**
+     * The number of messages the {@link MessageRing} can hold, and the
+     * number queued under the lock before producers wait for the consumer.
+     */
+    @Param({"1024", "16384"})
+    private int size;
+    /**
+     * The {@link MessageRing} used by the ring group.
+     */
+    private MessageRing ring;
+    /**
+     * The messages queued under the lock by the locked group.
+     */
+    private ArrayList<String> messages;
+    /**
+     * The batch of messages taken by the consumer of the locked group.
+     */
+    private ArrayList<String> batch;
+    /**
+     * The message queued by every producer.
+     */
+    private String message;
+
+    /**
+     * Builds the {@link MessageRing} and the locked queue.
+     *
+     * @throws InvalidArgumentException if size is not a valid ring size.
+     */
+    @Setup
+    public void setup() throws InvalidArgumentException {
+        ring = new MessageRing(size);
+        messages = new ArrayList<String>(size);
+        batch = new ArrayList<String>(size);
+        message = "MOVE" + (char) 31 + "42" + (char) 31 + "1.0" + (char) 31 + "2.0" + (char) 31;
+    }
+
+    /**
+     * Queues a message on the {@link MessageRing}.
+     *
+     * @return true if the message was queued, false if the ring was full.
+     */
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(3)
+    public boolean ringProducer() {
+        return ring.offer(message, 0);
+    }
+
+    /**
+     * Takes every published message from the {@link MessageRing}, the way a
+     * {@link MessageQueue} moves them onto its channels.
+     *
+     * @param hole consumes the messages taken.
+     * @return the number of messages taken.
+     */
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public int ringConsumer(Blackhole hole) {
+        int taken = 0;
+        String next = ring.poll();
+        while (next != null) {
+            hole.consume(next);
+            taken++;
+            next = ring.poll();
+        }
+        return taken;
+    }
+
+    /**
+     * Queues a message under the lock, unless size messages are already
+     * waiting.
+     *
+     * @return true if the message was queued, false if the queue was full.
+     */
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(3)
+    public boolean lockedProducer() {
+        synchronized (messages) {
+            if (messages.size() >= size) {
+                return false;
+            }
+            return messages.add(message);
+        }
+    }
+
+    /**
+     * Takes every queued message under the lock, the way a
+     * {@link MessageQueue} batches them on its socket.
+     *
+     * @param hole consumes the messages taken.
+     * @return the number of messages taken.
+     */
+    @Benchmark
+    @Group("locked")
+    @GroupThreads(1)
+    public int lockedConsumer(Blackhole hole) {
+        synchronized (messages) {
+            batch.addAll(messages);
+            messages.clear();
+        }
+        int taken = batch.size();
+        for (String next : batch) {
+            hole.consume(next);
+        }
+        batch.clear();
+        return taken;
+    }
+}
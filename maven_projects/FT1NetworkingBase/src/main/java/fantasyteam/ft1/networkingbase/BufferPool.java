@@ -0,0 +1,556 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * The {@link BufferPool} class hands out direct ByteBuffers used by
+ * {@link Sock} to read and write messages. Buffers are grouped into size
+ * classes, each a power of two between MIN_BUFFER_SIZE and MAX_BUFFER_SIZE.
+ * A request is served by the smallest size class that is large enough, so a
+ * buffer released by one {@link Sock} can be reused by any other. Requests
+ * larger than MAX_BUFFER_SIZE are allocated separately and are not pooled.
+ * </p>
+ * <p>
+ * Released buffers are kept in a shared pool for their size class, up to
+ * MAX_POOLED_BYTES bytes. Long lived I/O threads, such as the
+ * {@link SelectorThread}s, the {@link TimerWheel} that runs flush deadlines
+ * and the workers of a {@link WriterPool}, call enableThreadCache when they start so they also keep
+ * a small cache of buffers of the smaller size classes, and acquiring and
+ * releasing a buffer on the same thread does not touch any shared state. They
+ * call disableThreadCache before exiting, which gives the cached buffers back
+ * to the shared pools. Other threads, including short lived and virtual
+ * threads, only use the shared pools, so no buffers are stranded in the cache
+ * of a thread that has exited.
+ * </p>
+ * <p>
+ * When leak detection is turned on the stack trace of every acquire is
+ * recorded. A buffer that is garbage collected without being released, or
+ * that is released twice, is logged together with where it was acquired.
+ * Leak detection is slow and should only be used when debugging. It is turned
+ * on for the default {@link BufferPool} if the system property
+ * fantasyteam.ft1.networkingbase.bufferpool.leakdetection is set to true.
+ * </p>
+ *
+ * @author javu
+ */
+public class BufferPool {
+
+    /**
+     * System property used to turn on leak detection for the default
+     * {@link BufferPool}.
+     */
+    public static final String LEAK_DETECTION_PROPERTY = "fantasyteam.ft1.networkingbase.bufferpool.leakdetection";
+
+    /**
+     * Size in bytes of the smallest size class.
+     */
+    public static final int MIN_BUFFER_SIZE = 1024;
+
+    /**
+     * Size in bytes of the largest size class. Requests larger than this are
+     * not pooled.
+     */
+    public static final int MAX_BUFFER_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Largest size class in bytes that is kept in the per thread caches.
+     */
+    private static final int THREAD_CACHE_MAX_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of buffers of each size class kept in each thread's cache.
+     */
+    private static final int THREAD_CACHE_SIZE = 4;
+
+    /**
+     * Maximum number of bytes kept in the shared pool of each size class. At
+     * least one buffer is always kept.
+     */
+    private static final int MAX_POOLED_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * The {@link BufferPool} used by every {@link Sock}.
+     */
+    private static final BufferPool DEFAULT = new BufferPool(Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+    /**
+     * Shared pool of released buffers for each size class.
+     */
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> pools;
+    /**
+     * Number of buffers in each shared pool. Kept separately as
+     * ConcurrentLinkedQueue.size() is not a constant time operation.
+     */
+    private final List<AtomicInteger> pool_sizes;
+    /**
+     * Cache of released buffers of the smaller size classes for each thread
+     * that has called enableThreadCache. Null for every other thread.
+     */
+    private final ThreadLocal<List<ArrayDeque<ByteBuffer>>> thread_caches;
+    /**
+     * Number of direct buffers allocated by this {@link BufferPool}.
+     */
+    private final AtomicInteger allocated;
+    /**
+     * Number of buffers acquired that have not been released yet.
+     */
+    private final AtomicInteger outstanding;
+    /**
+     * Number of leaked buffers found while leak detection has been on.
+     */
+    private final AtomicInteger leaks;
+    /**
+     * Whether leak detection is turned on.
+     */
+    private volatile boolean leak_detection;
+    /**
+     * Buffers acquired while leak detection is on that have not been released
+     * yet, grouped by System.identityHashCode as ByteBuffer.hashCode depends
+     * on the buffer's contents. Access must be synchronized on the Map.
+     */
+    private final Map<Integer, List<LeakReference>> leak_references;
+    /**
+     * Queue that references to leaked buffers are added to once the buffer
+     * has been garbage collected.
+     */
+    private final ReferenceQueue<ByteBuffer> leak_queue;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(BufferPool.class.getName());
+
+    /**
+     * Reference to a buffer acquired while leak detection is on. Holds the
+     * stack trace of where the buffer was acquired.
+     */
+    private static class LeakReference extends WeakReference<ByteBuffer> {
+
+        /**
+         * Stack trace of the call to acquire.
+         */
+        private final Throwable trace;
+        /**
+         * System.identityHashCode of the buffer.
+         */
+        private final int hash;
+
+        /**
+         * Takes the buffer, its identity hash and the queue to add the
+         * reference to once the buffer has been garbage collected.
+         *
+         * @param buffer the buffer acquired.
+         * @param hash System.identityHashCode of buffer.
+         * @param queue the queue to register the reference with.
+         */
+        private LeakReference(ByteBuffer buffer, int hash, ReferenceQueue<ByteBuffer> queue) {
+            super(buffer, queue);
+            this.hash = hash;
+            trace = new Throwable("ByteBuffer of capacity " + buffer.capacity() + " acquired here");
+        }
+    }
+
+    /**
+     * Default constructor. Leak detection is turned off.
+     */
+    public BufferPool() {
+        this(false);
+    }
+
+    /**
+     * Takes a boolean specifying whether leak detection is turned on.
+     *
+     * @param leak_detection Boolean specifying whether to record where every
+     * buffer is acquired and report buffers that are never released.
+     */
+    public BufferPool(boolean leak_detection) {
+        pools = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>();
+        pool_sizes = new ArrayList<AtomicInteger>();
+        for (int size = MIN_BUFFER_SIZE; size > 0 && size <= MAX_BUFFER_SIZE; size <<= 1) {
+            pools.add(new ConcurrentLinkedQueue<ByteBuffer>());
+            pool_sizes.add(new AtomicInteger(0));
+        }
+        thread_caches = new ThreadLocal<List<ArrayDeque<ByteBuffer>>>();
+        allocated = new AtomicInteger(0);
+        outstanding = new AtomicInteger(0);
+        leaks = new AtomicInteger(0);
+        leak_references = new HashMap<Integer, List<LeakReference>>();
+        leak_queue = new ReferenceQueue<ByteBuffer>();
+        this.leak_detection = leak_detection;
+    }
+
+    /**
+     * Returns the {@link BufferPool} used by every {@link Sock}.
+     *
+     * @return the default {@link BufferPool}.
+     */
+    public static BufferPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the index of the smallest size class that can hold capacity
+     * bytes.
+     *
+     * @param capacity the number of bytes needed.
+     * @return the index of the size class, or -1 if capacity is larger than
+     * MAX_BUFFER_SIZE.
+     */
+    private static int sizeClass(int capacity) {
+        if (capacity > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        int index = 0;
+        int size = MIN_BUFFER_SIZE;
+        while (size < capacity) {
+            size <<= 1;
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the size in bytes of the given size class.
+     *
+     * @param index the index of the size class.
+     * @return the size of buffers in the size class.
+     */
+    private static int classSize(int index) {
+        return MIN_BUFFER_SIZE << index;
+    }
+
+    /**
+     * Gives the calling thread a cache of released buffers of the smaller
+     * size classes. Should only be called by long lived threads, which must
+     * call disableThreadCache before they exit. Does nothing if the thread
+     * already has a cache.
+     */
+    public void enableThreadCache() {
+        if (thread_caches.get() == null) {
+            List<ArrayDeque<ByteBuffer>> caches = new ArrayList<ArrayDeque<ByteBuffer>>();
+            for (int size = MIN_BUFFER_SIZE; size <= THREAD_CACHE_MAX_BUFFER_SIZE; size <<= 1) {
+                caches.add(new ArrayDeque<ByteBuffer>(THREAD_CACHE_SIZE));
+            }
+            thread_caches.set(caches);
+        }
+    }
+
+    /**
+     * Removes the cache of the calling thread, giving every buffer in it back
+     * to the shared pools. Does nothing if the thread does not have a cache.
+     */
+    public void disableThreadCache() {
+        List<ArrayDeque<ByteBuffer>> caches = thread_caches.get();
+        if (caches != null) {
+            thread_caches.remove();
+            for (int index = 0; index < caches.size(); index++) {
+                ByteBuffer buffer = caches.get(index).poll();
+                while (buffer != null) {
+                    pool(index, buffer);
+                    buffer = caches.get(index).poll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a cleared direct ByteBuffer with at least capacity bytes of
+     * space. The buffer must be passed to release once it is no longer used
+     * and must not be used after it has been released.
+     *
+     * @param capacity the minimum number of bytes the buffer must hold.
+     * @return a direct ByteBuffer with position 0 and limit equal to its
+     * capacity.
+     */
+    public ByteBuffer acquire(int capacity) {
+        int index = sizeClass(capacity);
+        ByteBuffer buffer = null;
+        if (index != -1) {
+            if (classSize(index) <= THREAD_CACHE_MAX_BUFFER_SIZE) {
+                List<ArrayDeque<ByteBuffer>> caches = thread_caches.get();
+                if (caches != null) {
+                    buffer = caches.get(index).poll();
+                }
+            }
+            if (buffer == null) {
+                buffer = pools.get(index).poll();
+                if (buffer != null) {
+                    pool_sizes.get(index).decrementAndGet();
+                }
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(index == -1 ? capacity : classSize(index));
+            allocated.incrementAndGet();
+        }
+        buffer.clear();
+        outstanding.incrementAndGet();
+        if (leak_detection) {
+            trackBuffer(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer acquired from this {@link BufferPool} so it can be
+     * reused. Buffers that do not belong to a size class are dropped. Does
+     * nothing if buffer is null.
+     *
+     * @param buffer the buffer to release.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (leak_detection && !untrackBuffer(buffer)) {
+            LOGGER.log(Level.SEVERE, "ByteBuffer of capacity {0} was released twice or was not acquired from this BufferPool", buffer.capacity());
+            return;
+        }
+        outstanding.decrementAndGet();
+        if (!buffer.isDirect() || buffer.capacity() > MAX_BUFFER_SIZE) {
+            return;
+        }
+        int index = sizeClass(buffer.capacity());
+        if (classSize(index) != buffer.capacity()) {
+            return;
+        }
+        if (classSize(index) <= THREAD_CACHE_MAX_BUFFER_SIZE) {
+            List<ArrayDeque<ByteBuffer>> caches = thread_caches.get();
+            if (caches != null && caches.get(index).size() < THREAD_CACHE_SIZE) {
+                caches.get(index).push(buffer);
+                return;
+            }
+        }
+        pool(index, buffer);
+    }
+
+    /**
+     * Adds a released buffer to the shared pool of its size class, unless the
+     * pool already holds MAX_POOLED_BYTES bytes.
+     *
+     * @param index the index of the size class of buffer.
+     * @param buffer the buffer to pool.
+     */
+    private void pool(int index, ByteBuffer buffer) {
+        AtomicInteger pool_size = pool_sizes.get(index);
+        if (pool_size.incrementAndGet() <= Math.max(1, MAX_POOLED_BYTES / classSize(index))) {
+            pools.get(index).add(buffer);
+        } else {
+            pool_size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Records where buffer was acquired and reports any buffers that have
+     * been garbage collected without being released.
+     *
+     * @param buffer the buffer being acquired.
+     */
+    private void trackBuffer(ByteBuffer buffer) {
+        reportCollected();
+        int hash = System.identityHashCode(buffer);
+        LeakReference reference = new LeakReference(buffer, hash, leak_queue);
+        synchronized (leak_references) {
+            List<LeakReference> references = leak_references.get(hash);
+            if (references == null) {
+                references = new ArrayList<LeakReference>(1);
+                leak_references.put(hash, references);
+            }
+            references.add(reference);
+        }
+    }
+
+    /**
+     * Stops tracking buffer as it has been released.
+     *
+     * @param buffer the buffer being released.
+     * @return false if buffer was not being tracked, meaning it has already
+     * been released or was not acquired from this {@link BufferPool}.
+     */
+    private boolean untrackBuffer(ByteBuffer buffer) {
+        int hash = System.identityHashCode(buffer);
+        synchronized (leak_references) {
+            List<LeakReference> references = leak_references.get(hash);
+            if (references != null) {
+                Iterator<LeakReference> iterator = references.iterator();
+                while (iterator.hasNext()) {
+                    LeakReference reference = iterator.next();
+                    if (reference.get() == buffer) {
+                        iterator.remove();
+                        reference.clear();
+                        if (references.isEmpty()) {
+                            leak_references.remove(hash);
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Logs every buffer that has been garbage collected without being
+     * released since the last time this was called.
+     */
+    private void reportCollected() {
+        Reference<? extends ByteBuffer> collected = leak_queue.poll();
+        while (collected != null) {
+            LeakReference reference = (LeakReference) collected;
+            boolean leaked;
+            synchronized (leak_references) {
+                List<LeakReference> references = leak_references.get(reference.hash);
+                leaked = references != null && references.remove(reference);
+                if (references != null && references.isEmpty()) {
+                    leak_references.remove(reference.hash);
+                }
+            }
+            if (leaked) {
+                leaks.incrementAndGet();
+                outstanding.decrementAndGet();
+                LOGGER.log(Level.SEVERE, "ByteBuffer was garbage collected without being released to the BufferPool", reference.trace);
+            }
+            collected = leak_queue.poll();
+        }
+    }
+
+    /**
+     * Logs where every buffer that has not been released yet was acquired.
+     * Only buffers acquired while leak detection was on are reported. Useful
+     * to call once every {@link Sock} should have been closed.
+     *
+     * @return the number of buffers reported.
+     */
+    public int reportLeaks() {
+        reportCollected();
+        List<Throwable> traces = new ArrayList<Throwable>();
+        synchronized (leak_references) {
+            for (List<LeakReference> references : leak_references.values()) {
+                for (LeakReference reference : references) {
+                    traces.add(reference.trace);
+                }
+            }
+        }
+        for (Throwable trace : traces) {
+            LOGGER.log(Level.WARNING, "ByteBuffer has not been released to the BufferPool", trace);
+        }
+        return traces.size();
+    }
+
+    /**
+     * Sets whether leak detection is turned on. Turning it off stops tracking
+     * every buffer that has not been released yet.
+     *
+     * @param leak_detection Boolean specifying whether to record where every
+     * buffer is acquired and report buffers that are never released.
+     */
+    public synchronized void setLeakDetection(boolean leak_detection) {
+        this.leak_detection = leak_detection;
+        if (!leak_detection) {
+            synchronized (leak_references) {
+                for (List<LeakReference> references : leak_references.values()) {
+                    for (LeakReference reference : references) {
+                        reference.clear();
+                    }
+                }
+                leak_references.clear();
+            }
+        }
+        LOGGER.log(Level.INFO, "BufferPool leak detection set to {0}", leak_detection);
+    }
+
+    /**
+     * Returns whether leak detection is turned on.
+     *
+     * @return the boolean leak_detection.
+     */
+    public boolean getLeakDetection() {
+        return leak_detection;
+    }
+
+    /**
+     * Returns the number of direct buffers allocated by this
+     * {@link BufferPool}. Once traffic reaches a steady state this should stop
+     * increasing.
+     *
+     * @return the number of buffers allocated.
+     */
+    public int getAllocatedBuffers() {
+        return allocated.get();
+    }
+
+    /**
+     * Returns the number of buffers acquired that have not been released yet.
+     *
+     * @return the number of outstanding buffers.
+     */
+    public int getOutstandingBuffers() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the number of buffers held in the shared pools. Buffers held in
+     * the per thread caches are not counted.
+     *
+     * @return the number of pooled buffers.
+     */
+    public int getPooledBuffers() {
+        int pooled = 0;
+        for (AtomicInteger pool_size : pool_sizes) {
+            pooled += pool_size.get();
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the number of buffers found to have been garbage collected
+     * without being released while leak detection was on.
+     *
+     * @return the number of leaked buffers.
+     */
+    public int getLeakCount() {
+        reportCollected();
+        return leaks.get();
+    }
+
+    /**
+     * Puts the attribute states of {@link BufferPool} in readable form.
+     *
+     * @return Attributes of {@link BufferPool} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link BufferPool} in readable form. Takes
+     * String input to assist formatting. Useful to add special characters to
+     * assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link BufferPool} in a readable String form.
+     */
+    public String toString(String ch) {
+        String to_string = ch + "Allocated buffers: " + allocated.get() + "\n" + ch + "Outstanding buffers: " + outstanding.get() + "\n" + ch + "Pooled buffers: " + getPooledBuffers() + "\n" + ch + "Leak detection: " + leak_detection;
+        if (leak_detection) {
+            to_string += "\n" + ch + "Leaked buffers: " + leaks.get();
+        }
+        return to_string;
+    }
+}
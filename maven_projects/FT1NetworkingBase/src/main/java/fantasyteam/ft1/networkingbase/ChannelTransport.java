@@ -0,0 +1,205 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The {@link ChannelTransport} class is the {@link Transport} used by a
+ * blocking {@link Sock} built on a SocketChannel that has no Socket, such as a
+ * Unix domain socket. SocketChannels ignore the timeout of their Socket, so
+ * the channel is put into non-blocking mode and each read and write blocks on
+ * its own Selector instead, which allows the read timeout used by the socket
+ * timeout feature of {@link SocketThread}.
+ *
+ * @author javu
+ */
+public class ChannelTransport implements Transport {
+
+    /**
+     * The connected SocketChannel.
+     */
+    private final SocketChannel channel;
+    /**
+     * Selector used to wait for the channel to become readable.
+     */
+    private final Selector read_selector;
+    /**
+     * Selector used to wait for the channel to become writable. Only opened
+     * once a write could not be completed straight away.
+     */
+    private volatile Selector write_selector;
+    /**
+     * The longest time in milliseconds a read blocks for, 0 to block until
+     * bytes are received.
+     */
+    private volatile int read_timeout;
+
+    /**
+     * Takes a connected SocketChannel as an argument. The channel is put into
+     * non-blocking mode.
+     *
+     * @param channel the connected SocketChannel.
+     * @throws IOException if an exception is encountered when setting the
+     * channel to non-blocking mode or opening the Selector.
+     */
+    public ChannelTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        read_selector = Selector.open();
+        try {
+            channel.register(read_selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            read_selector.close();
+            throw e;
+        }
+        write_selector = null;
+        read_timeout = 0;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = channel.read(dst);
+        while (read == 0 && dst.hasRemaining()) {
+            int timeout = read_timeout;
+            int selected;
+            try {
+                selected = read_selector.select(timeout);
+                read_selector.selectedKeys().clear();
+            } catch (ClosedSelectorException e) {
+                throw new ClosedChannelException();
+            }
+            if (!channel.isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (selected == 0 && timeout > 0) {
+                throw new SocketTimeoutException("Read timed out");
+            }
+            read = channel.read(dst);
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = channel.write(src);
+        if (src.hasRemaining()) {
+            synchronized (this) {
+                if (write_selector == null) {
+                    write_selector = Selector.open();
+                    channel.register(write_selector, SelectionKey.OP_WRITE);
+                }
+                while (src.hasRemaining()) {
+                    try {
+                        write_selector.select();
+                        write_selector.selectedKeys().clear();
+                    } catch (ClosedSelectorException e) {
+                        throw new ClosedChannelException();
+                    }
+                    if (!channel.isOpen()) {
+                        throw new ClosedChannelException();
+                    }
+                    written += channel.write(src);
+                }
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Closes the channel and both Selectors, waking up any thread blocked
+     * reading or writing.
+     *
+     * @throws IOException if an exception is encountered when closing the
+     * channel.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            read_selector.wakeup();
+            read_selector.close();
+            Selector selector = write_selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+            synchronized (this) {
+                if (write_selector != null) {
+                    write_selector.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        read_timeout = timeout;
+    }
+
+    /**
+     * Returns the address of the remote end. A Unix domain socket is always
+     * connected to the same host so the loopback address is returned.
+     *
+     * @return the InetAddress of the remote end.
+     */
+    @Override
+    public InetAddress getRemoteAddress() {
+        return getRemoteAddress(channel);
+    }
+
+    /**
+     * Returns the address of the remote end of a SocketChannel. A Unix domain
+     * socket is always connected to the same host so the loopback address is
+     * returned for one.
+     *
+     * @param channel the SocketChannel.
+     * @return the InetAddress of the remote end, or null if the channel is
+     * not connected.
+     */
+    static InetAddress getRemoteAddress(SocketChannel channel) {
+        try {
+            SocketAddress address = channel.getRemoteAddress();
+            if (address == null) {
+                return null;
+            } else if (address instanceof InetSocketAddress) {
+                return ((InetSocketAddress) address).getAddress();
+            }
+            return InetAddress.getLoopbackAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value of channel.
+     *
+     * @return the SocketChannel channel.
+     */
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Puts the attribute states of {@link ChannelTransport} in readable form.
+     *
+     * @return Attributes of {@link ChannelTransport} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        return "ChannelTransport " + channel;
+    }
+}
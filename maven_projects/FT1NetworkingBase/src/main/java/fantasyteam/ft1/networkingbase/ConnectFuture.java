@@ -0,0 +1,279 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link ConnectFuture} class is returned by
+ * {@link Server}.addSocketAsync and holds the result of connecting to another
+ * {@link Server} without blocking. Once the connection has been made and its
+ * {@link SocketThread} started the hash of the {@link SocketThread} can be
+ * taken from get(). If the connection could not be made get() throws an
+ * ExecutionException holding the exception that caused it to fail, which is a
+ * {@link fantasyteam.ft1.networkingbase.exceptions.TimeoutException} if the
+ * connect timeout of the {@link Server} was reached.
+ *
+ * @author javu
+ */
+public class ConnectFuture implements Future<String> {
+
+    /**
+     * Valid state for {@link ConnectFuture}, used while the connection is
+     * being made.
+     */
+    public static final int PENDING = 0;
+
+    /**
+     * Valid state for {@link ConnectFuture}, used when the connection has been
+     * made and its {@link SocketThread} started.
+     */
+    public static final int CONNECTED = 1;
+
+    /**
+     * Valid state for {@link ConnectFuture}, used when the connection could
+     * not be made.
+     */
+    public static final int FAILED = 2;
+
+    /**
+     * Valid state for {@link ConnectFuture}, used when the connection was
+     * cancelled before it was made.
+     */
+    public static final int CANCELLED = 3;
+
+    /**
+     * The IP address being connected to.
+     */
+    private final String ip;
+    /**
+     * The port number being connected to.
+     */
+    private final int port;
+    /**
+     * The time in milliseconds after which the connection fails.
+     */
+    private final long deadline;
+    /**
+     * Released once the {@link ConnectFuture} has left the PENDING state.
+     */
+    private final CountDownLatch done;
+    /**
+     * The hash of the {@link SocketThread} once the connection has been made.
+     */
+    private volatile String hash;
+    /**
+     * The exception the connection failed with.
+     */
+    private volatile Exception exception;
+    /**
+     * The current state of the {@link ConnectFuture}. Valid states are: 0 -
+     * PENDING 1 - CONNECTED 2 - FAILED 3 - CANCELLED
+     */
+    private volatile int state;
+
+    /**
+     * Takes the address being connected to and the time the connection must
+     * be made by.
+     *
+     * @param ip the IP address being connected to.
+     * @param port the port number being connected to.
+     * @param deadline the time in milliseconds after which the connection
+     * fails.
+     */
+    public ConnectFuture(String ip, int port, long deadline) {
+        this.ip = ip;
+        this.port = port;
+        this.deadline = deadline;
+        done = new CountDownLatch(1);
+        hash = null;
+        exception = null;
+        state = PENDING;
+    }
+
+    /**
+     * Sets the hash of the connected {@link SocketThread} and releases any
+     * thread waiting in get().
+     *
+     * @param hash the hash of the new {@link SocketThread}.
+     * @return true if the {@link ConnectFuture} was still PENDING.
+     */
+    synchronized boolean complete(String hash) {
+        if (state != PENDING) {
+            return false;
+        }
+        this.hash = hash;
+        state = CONNECTED;
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * Sets the exception the connection failed with and releases any thread
+     * waiting in get().
+     *
+     * @param exception the exception the connection failed with.
+     * @return true if the {@link ConnectFuture} was still PENDING.
+     */
+    synchronized boolean fail(Exception exception) {
+        if (state != PENDING) {
+            return false;
+        }
+        this.exception = exception;
+        state = FAILED;
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * Cancels the connection if it has not been made yet. The connection is
+     * closed by the {@link ConnectThread} the next time it checks its pending
+     * connections.
+     *
+     * @param mayInterruptIfRunning ignored, the connection is never made on
+     * the calling thread.
+     * @return true if the connection was cancelled.
+     */
+    @Override
+    public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+        if (state != PENDING) {
+            return false;
+        }
+        state = CANCELLED;
+        done.countDown();
+        return true;
+    }
+
+    /**
+     * Returns whether the connection was cancelled.
+     *
+     * @return true if the state is CANCELLED.
+     */
+    @Override
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     * Returns whether the connection has been made, has failed or was
+     * cancelled.
+     *
+     * @return true if the state is no longer PENDING.
+     */
+    @Override
+    public boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * Waits for the connection to be made and returns the hash of its
+     * {@link SocketThread}.
+     *
+     * @return the String hash of the new {@link SocketThread}.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws ExecutionException if the connection could not be made.
+     */
+    @Override
+    public String get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    /**
+     * Waits up to the given time for the connection to be made and returns the
+     * hash of its {@link SocketThread}.
+     *
+     * @param timeout the longest time to wait.
+     * @param unit the unit of timeout.
+     * @return the String hash of the new {@link SocketThread}.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws ExecutionException if the connection could not be made.
+     * @throws java.util.concurrent.TimeoutException if the connection was not
+     * made before the time was up.
+     */
+    @Override
+    public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, java.util.concurrent.TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new java.util.concurrent.TimeoutException("Connection to " + ip + ":" + port + " was not made in time");
+        }
+        return result();
+    }
+
+    /**
+     * Returns the result of a {@link ConnectFuture} that is no longer
+     * PENDING.
+     *
+     * @return the String hash of the new {@link SocketThread}.
+     * @throws ExecutionException if the connection could not be made.
+     */
+    private String result() throws ExecutionException {
+        if (state == CANCELLED) {
+            throw new CancellationException("Connection to " + ip + ":" + port + " was cancelled");
+        }
+        if (state == FAILED) {
+            throw new ExecutionException("Connection to " + ip + ":" + port + " failed", exception);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the attribute ip.
+     *
+     * @return the String ip.
+     */
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * Returns the attribute port.
+     *
+     * @return the int port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the time the connection must be made by.
+     *
+     * @return the long deadline in milliseconds.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Puts the attribute states of {@link ConnectFuture} in readable form.
+     *
+     * @return Attributes of {@link ConnectFuture} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link ConnectFuture} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link ConnectFuture} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "Address: " + ip + ":" + port + "\n" + ch + "State: " + state + "\n" + ch + "Hash: " + hash;
+    }
+}
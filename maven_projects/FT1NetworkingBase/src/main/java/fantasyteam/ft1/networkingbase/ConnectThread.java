@@ -0,0 +1,425 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link ConnectThread} class makes the connections started by
+ * {@link Server}.addSocketAsync. Every connection is started with a
+ * non-blocking SocketChannel and registered with a single Selector, so any
+ * number of connections can be made at the same time and a slow or unreachable
+ * address never holds up the others or the {@link Server}. Connections that are
+ * not made before the deadline of their {@link ConnectFuture} are closed and
+ * failed with a {@link TimeoutException}.
+ *
+ * Like the connections accepted by a {@link ListenThread}, connections go
+ * through two stages. The {@link ConnectThread} itself only finishes
+ * connections and expires the ones that time out. Once a connection has been
+ * made it is added to a queue, and a setup thread takes it off the queue and
+ * hands it back to the {@link Server} to create and start its
+ * {@link SocketThread}, so waiting for a {@link SocketThread} to start never
+ * holds up the other pending connections.
+ *
+ * @author javu
+ */
+public class ConnectThread extends Thread {
+
+    /**
+     * Valid state for {@link ConnectThread}, used when the thread has just
+     * been constructed but has not started run() yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link ConnectThread}, used when the thread is running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link ConnectThread}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * Longest time in milliseconds the run() loop waits for a connection to be
+     * made before checking for connections that have timed out.
+     */
+    private static final long TICK_INTERVAL = 50;
+
+    /**
+     * Longest time in milliseconds the setup thread waits for a connection
+     * that has been made before checking whether it should close.
+     */
+    private static final long POLL_INTERVAL = 100;
+
+    /**
+     * The instance of {@link Server} that created this {@link ConnectThread}.
+     */
+    private final Server server;
+    /**
+     * Selector every pending connection is registered with.
+     */
+    private final Selector selector;
+    /**
+     * Connections started since the last pass of the run() loop, waiting to be
+     * registered with selector.
+     */
+    private final Queue<Pending> new_connections;
+    /**
+     * Connections that have been made but whose {@link SocketThread} has not
+     * been set up yet.
+     */
+    private final LinkedBlockingQueue<Pending> connected;
+    /**
+     * The thread setting up the connections in connected.
+     */
+    private final Setup setup;
+    /**
+     * The current state of the {@link ConnectThread}. Valid states are: 0 -
+     * NEW 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ConnectThread.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link ConnectThread}.
+     *
+     * @param server the {@link Server} that created this
+     * {@link ConnectThread}.
+     * @throws IOException if an exception is encountered when opening the
+     * Selector.
+     */
+    public ConnectThread(Server server) throws IOException {
+        this.server = server;
+        selector = Selector.open();
+        new_connections = new ConcurrentLinkedQueue<Pending>();
+        connected = new LinkedBlockingQueue<Pending>();
+        setup = new Setup();
+        state = NEW;
+    }
+
+    /**
+     * Starts connecting to an address without blocking. The result is set on
+     * future once the connection has been made and its {@link SocketThread}
+     * started, or once it has failed.
+     *
+     * @param address the address to connect to.
+     * @param future the {@link ConnectFuture} to set the result on.
+     */
+    public void connect(InetSocketAddress address, ConnectFuture future) {
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            if (channel.connect(address)) {
+                connected.add(new Pending(channel, future));
+                if (state == CLOSED) {
+                    failPending();
+                }
+                return;
+            }
+        } catch (IOException e) {
+            closeChannel(channel);
+            future.fail(e);
+            return;
+        }
+        new_connections.add(new Pending(channel, future));
+        selector.wakeup();
+        if (state == CLOSED) {
+            failPending();
+        }
+    }
+
+    /**
+     * Starts the setup thread, then loops waiting for pending connections to
+     * be made and adds them to connected for the setup thread, failing any
+     * that time out or are cancelled.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        setup.setName(getName() + "-setup");
+        server.runThread(setup);
+        ArrayList<SelectionKey> made = new ArrayList<SelectionKey>();
+        while (state == RUNNING) {
+            try {
+                registerConnections();
+                selector.select(TICK_INTERVAL);
+                made.clear();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isConnectable() && finishConnect(key)) {
+                        key.cancel();
+                        made.add(key);
+                    }
+                }
+                if (!made.isEmpty()) {
+                    // Deregister the cancelled keys so the channels can be
+                    // switched to blocking mode by the setup thread.
+                    selector.selectNow();
+                    for (SelectionKey key : made) {
+                        connected.add(new Pending((SocketChannel) key.channel(), (ConnectFuture) key.attachment()));
+                    }
+                }
+            } catch (IOException e) {
+                if (state == RUNNING) {
+                    LOGGER.log(Level.SEVERE, "Failed to wait for pending connections", e);
+                }
+            }
+            expireConnections();
+        }
+        failPending();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close Selector", e);
+        }
+        LOGGER.log(Level.INFO, "ConnectThread has exited");
+    }
+
+    /**
+     * Registers every connection started since the last pass of the run()
+     * loop with selector.
+     */
+    private void registerConnections() {
+        Pending pending = new_connections.poll();
+        while (pending != null) {
+            try {
+                pending.channel.register(selector, SelectionKey.OP_CONNECT, pending.future);
+            } catch (IOException e) {
+                closeChannel(pending.channel);
+                pending.future.fail(e);
+            }
+            pending = new_connections.poll();
+        }
+    }
+
+    /**
+     * Finishes a connection the Selector has reported as connectable, failing
+     * its {@link ConnectFuture} if the connection was refused.
+     *
+     * @param key the SelectionKey of the connection.
+     * @return true if the connection has been made.
+     */
+    private boolean finishConnect(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        try {
+            return channel.finishConnect();
+        } catch (IOException e) {
+            ConnectFuture future = (ConnectFuture) key.attachment();
+            LOGGER.log(Level.INFO, "Failed to connect to {0}:{1}", new Object[]{future.getIp(), future.getPort()});
+            key.cancel();
+            closeChannel(channel);
+            future.fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes every pending connection that has passed the deadline of its
+     * {@link ConnectFuture} or has been cancelled.
+     */
+    private void expireConnections() {
+        long now = System.currentTimeMillis();
+        for (SelectionKey key : selector.keys()) {
+            ConnectFuture future = (ConnectFuture) key.attachment();
+            if (key.isValid() && (future.isDone() || now > future.getDeadline())) {
+                key.cancel();
+                closeChannel((SocketChannel) key.channel());
+                if (future.fail(new TimeoutException("Connection to " + future.getIp() + ":" + future.getPort() + " was not made before the connect timeout"))) {
+                    LOGGER.log(Level.INFO, "Connection to {0}:{1} timed out", new Object[]{future.getIp(), future.getPort()});
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes and fails every connection that has not been made or set up.
+     * Used once the {@link ConnectThread} has been closed.
+     */
+    private void failPending() {
+        Pending pending = new_connections.poll();
+        while (pending != null) {
+            closeChannel(pending.channel);
+            pending.future.fail(new IOException("ConnectThread was closed before the connection was made"));
+            pending = new_connections.poll();
+        }
+        failConnected();
+        if (selector.isOpen()) {
+            for (SelectionKey key : selector.keys()) {
+                closeChannel((SocketChannel) key.channel());
+                ((ConnectFuture) key.attachment()).fail(new IOException("ConnectThread was closed before the connection was made"));
+            }
+        }
+    }
+
+    /**
+     * Closes and fails every connection that has been made but not set up.
+     */
+    private void failConnected() {
+        Pending pending = connected.poll();
+        while (pending != null) {
+            failSetup(pending);
+            pending = connected.poll();
+        }
+    }
+
+    /**
+     * Closes and fails a connection that was made after the
+     * {@link ConnectThread} was closed.
+     *
+     * @param pending the connection to fail.
+     */
+    private void failSetup(Pending pending) {
+        closeChannel(pending.channel);
+        pending.future.fail(new IOException("ConnectThread was closed before the connection was set up"));
+    }
+
+    /**
+     * Closes a SocketChannel, logging any exception.
+     *
+     * @param channel the SocketChannel to close, may be null.
+     */
+    private void closeChannel(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close SocketChannel", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the {@link ConnectThread}. The run() loop will exit and fail
+     * every connection that has not been made yet.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the number of connections that have not been made or set up
+     * yet.
+     *
+     * @return the number of pending connections.
+     */
+    public int getPendingConnections() {
+        return new_connections.size() + selector.keys().size() + connected.size();
+    }
+
+    /**
+     * Puts the attribute states of {@link ConnectThread} in readable form.
+     *
+     * @return Attributes of {@link ConnectThread} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link ConnectThread} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link ConnectThread} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "State: " + state + "\n" + ch + "Pending connections: " + getPendingConnections();
+    }
+
+    /**
+     * A connection that has been started but not registered with the Selector
+     * yet, or that has been made but not set up yet.
+     */
+    private static class Pending {
+
+        /**
+         * The SocketChannel being connected.
+         */
+        private final SocketChannel channel;
+        /**
+         * The {@link ConnectFuture} to set the result on.
+         */
+        private final ConnectFuture future;
+
+        /**
+         * Takes the SocketChannel being connected and its
+         * {@link ConnectFuture}.
+         *
+         * @param channel the SocketChannel being connected.
+         * @param future the {@link ConnectFuture} to set the result on.
+         */
+        private Pending(SocketChannel channel, ConnectFuture future) {
+            this.channel = channel;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Thread that takes the connections that have been made off connected and
+     * hands them to the {@link Server} to start their {@link SocketThread}s
+     * until the {@link ConnectThread} is closed.
+     */
+    private class Setup extends Thread {
+
+        /**
+         * Loop that blocks while it waits for connections to be made and sets
+         * them up through {@link Server}.completeConnect.
+         */
+        @Override
+        public void run() {
+            while (state != CLOSED) {
+                Pending pending = null;
+                try {
+                    pending = connected.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.INFO, "ConnectThread setup was interrupted");
+                }
+                if (pending != null && state != CLOSED) {
+                    server.completeConnect(pending.future, pending.channel);
+                } else if (pending != null) {
+                    failSetup(pending);
+                }
+            }
+            failConnected();
+            LOGGER.log(Level.INFO, "ConnectThread setup has exited");
+        }
+    }
+}
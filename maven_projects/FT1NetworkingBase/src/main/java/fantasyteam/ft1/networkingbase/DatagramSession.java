@@ -0,0 +1,142 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.net.SocketAddress;
+
+/**
+ * The {@link DatagramSession} class binds a {@link SocketThread} to the
+ * unreliable channel of its {@link Server}. Every datagram sent for the
+ * session starts with the session's token, which is agreed over the
+ * {@link SocketThread}'s own connection, so the {@link DatagramThread} knows
+ * which {@link SocketThread} a datagram belongs to. The session is stored on
+ * the {@link SocketThread} so it follows the {@link SocketThread} if its hash
+ * is replaced.
+ *
+ * @author javu
+ */
+public class DatagramSession {
+
+    /**
+     * The token sent at the start of every datagram for this session.
+     */
+    private final long token;
+    /**
+     * The {@link SocketThread} this session belongs to.
+     */
+    private final SocketThread socket;
+    /**
+     * The address datagrams for this session are sent to. On a listen
+     * {@link Server} this is only known once the first datagram has been
+     * received from the client.
+     */
+    private volatile SocketAddress address;
+    /**
+     * Whether both ends know the address of the other, so datagrams can be
+     * sent in both directions.
+     */
+    private volatile boolean bound;
+    /**
+     * The state of the reliable ordered channel of this session.
+     */
+    private final ReliableChannel reliable_channel;
+
+    /**
+     * Takes the token agreed for the session and the {@link SocketThread} it
+     * belongs to.
+     *
+     * @param token the token sent at the start of every datagram.
+     * @param socket the {@link SocketThread} the session belongs to.
+     */
+    public DatagramSession(long token, SocketThread socket) {
+        this.token = token;
+        this.socket = socket;
+        address = null;
+        bound = false;
+        reliable_channel = new ReliableChannel();
+    }
+
+    /**
+     * Sets the address datagrams for this session are sent to.
+     *
+     * @param address the remote address of the session.
+     */
+    void setAddress(SocketAddress address) {
+        this.address = address;
+    }
+
+    /**
+     * Sets whether both ends know the address of the other.
+     *
+     * @param bound Boolean specifying whether the session is bound.
+     */
+    void setBound(boolean bound) {
+        this.bound = bound;
+    }
+
+    /**
+     * Returns the attribute token.
+     *
+     * @return the long token.
+     */
+    public long getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the {@link SocketThread} this session belongs to.
+     *
+     * @return the {@link SocketThread} socket.
+     */
+    public SocketThread getSocket() {
+        return socket;
+    }
+
+    /**
+     * Returns the address datagrams for this session are sent to.
+     *
+     * @return the SocketAddress address, or null if it is not known yet.
+     */
+    public SocketAddress getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns whether both ends know the address of the other.
+     *
+     * @return the boolean bound.
+     */
+    public boolean getBound() {
+        return bound;
+    }
+
+    /**
+     * Returns the {@link ReliableChannel} of this session.
+     *
+     * @return the {@link ReliableChannel} reliable_channel.
+     */
+    public ReliableChannel getReliableChannel() {
+        return reliable_channel;
+    }
+
+    /**
+     * Puts the attribute states of {@link DatagramSession} in readable form.
+     *
+     * @return Attributes of {@link DatagramSession} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link DatagramSession} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link DatagramSession} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "Hash: " + socket.getHash() + "\n" + ch + "Address: " + address + "\n" + ch + "Bound: " + bound;
+    }
+}
@@ -0,0 +1,584 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link DatagramThread} class sends and receives the datagrams of the
+ * unreliable channel feature of {@link Server}. A single DatagramChannel is
+ * shared by every {@link SocketThread} on the {@link Server}, each bound to it
+ * through a {@link DatagramSession}. Every datagram starts with the 8 byte
+ * token of its session followed by a single byte giving its kind. A datagram
+ * holding only a token is used to tell a listen {@link Server} the address of
+ * the client, which the client resends until the listen {@link Server}
+ * confirms it over the {@link SocketThread}'s own connection.
+ *
+ * An UNRELIABLE datagram holds a UTF-8 encoded message. The RELIABLE kinds
+ * carry a fragment of a message sent on the {@link ReliableChannel} of the
+ * session: the sequence number of the fragment, the acknowledgement of the
+ * fragments received from the other end (the next expected sequence number,
+ * the highest sequence number received and a 32 bit bitfield) and the bytes
+ * of the fragment. An ACK datagram holds only the acknowledgement and is sent
+ * when fragments have been received but there is nothing to send back.
+ *
+ * @author javu
+ */
+public class DatagramThread extends Thread {
+
+    /**
+     * Valid state for {@link DatagramThread}, used when the thread has just
+     * been constructed but has not started run() yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link DatagramThread}, used when the thread is running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link DatagramThread}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * Largest datagram in bytes, including the header, that can be sent or
+     * received. Messages that do not fit are sent through the
+     * {@link SocketThread} instead.
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65507;
+
+    /**
+     * Number of bytes used by the token at the start of every datagram.
+     */
+    private static final int TOKEN_LENGTH = 8;
+
+    /**
+     * Time in milliseconds between resending the datagram used to bind an
+     * unbound client session.
+     */
+    private static final long BIND_INTERVAL = 100;
+
+    /**
+     * Longest time in milliseconds the run() loop waits for a datagram before
+     * checking for fragments to retransmit.
+     */
+    private static final long TICK_INTERVAL = 10;
+
+    /**
+     * Kind of a datagram holding an unreliable message.
+     */
+    private static final byte UNRELIABLE = 0;
+
+    /**
+     * Kind of a datagram holding the last fragment of a reliable message.
+     */
+    private static final byte RELIABLE = 1;
+
+    /**
+     * Kind of a datagram holding a fragment of a reliable message that is
+     * followed by more fragments.
+     */
+    private static final byte RELIABLE_FRAGMENT = 2;
+
+    /**
+     * Kind of a datagram holding only an acknowledgement.
+     */
+    private static final byte ACK = 3;
+
+    /**
+     * Number of bytes used by an acknowledgement.
+     */
+    private static final int ACK_LENGTH = 12;
+
+    /**
+     * The instance of {@link Server} that created this {@link DatagramThread}.
+     */
+    private final Server server;
+    /**
+     * Channel every datagram is sent and received through.
+     */
+    private final DatagramChannel channel;
+    /**
+     * Selector used to wait for datagrams without blocking sends.
+     */
+    private final Selector selector;
+    /**
+     * Every {@link DatagramSession} using this {@link DatagramThread} keyed by
+     * its token.
+     */
+    private final Map<Long, DatagramSession> sessions;
+    /**
+     * Buffer datagrams are received into. Only used by the run() loop.
+     */
+    private ByteBuffer receive_buffer;
+    /**
+     * Buffer datagrams are encoded into before being sent. Access must be
+     * synchronized on send_buffer.
+     */
+    private final ByteBuffer send_buffer;
+    /**
+     * Encoder used to encode messages into send_buffer.
+     */
+    private final CharsetEncoder encoder;
+    /**
+     * Decoder used to decode messages from receive_buffer.
+     */
+    private final CharsetDecoder decoder;
+    /**
+     * Reusable buffer messages are decoded into.
+     */
+    private final CharBuffer decode_buffer;
+    /**
+     * Used to generate the token of each new {@link DatagramSession}.
+     */
+    private final SecureRandom random;
+    /**
+     * Reusable List of the fragments due to be sent by a session. Only used
+     * by the run() loop.
+     */
+    private final ArrayList<ReliableChannel.Fragment> due;
+    /**
+     * Reusable List of the reliable messages completed by a datagram. Only
+     * used by the run() loop.
+     */
+    private final ArrayList<String> delivered;
+    /**
+     * The current state of the {@link DatagramThread}. Valid states are: 0 -
+     * NEW 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DatagramThread.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link DatagramThread} and the port to receive datagrams on.
+     *
+     * @param server the {@link Server} that created this
+     * {@link DatagramThread}.
+     * @param port the port to bind the DatagramChannel to, or 0 to use any
+     * free port.
+     * @throws IOException if an exception is encountered when opening or
+     * binding the DatagramChannel.
+     */
+    public DatagramThread(Server server, int port) throws IOException {
+        this.server = server;
+        channel = DatagramChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        sessions = new ConcurrentHashMap<Long, DatagramSession>();
+        receive_buffer = BufferPool.getDefault().acquire(MAX_DATAGRAM_SIZE);
+        send_buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+        encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decode_buffer = CharBuffer.allocate(MAX_DATAGRAM_SIZE);
+        random = new SecureRandom();
+        due = new ArrayList<ReliableChannel.Fragment>();
+        delivered = new ArrayList<String>();
+        state = NEW;
+    }
+
+    /**
+     * Loop that receives datagrams and passes each message on to the
+     * {@link SocketThread} of its session. Also sends the fragments and
+     * acknowledgements of every reliable channel that are due, and resends the
+     * bind datagram of any client session that has not been confirmed yet.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        long last_bind = 0;
+        while (state == RUNNING) {
+            try {
+                selector.select(TICK_INTERVAL);
+                selector.selectedKeys().clear();
+                SocketAddress from = channel.receive(receive_buffer);
+                while (from != null) {
+                    receive_buffer.flip();
+                    handleDatagram(from);
+                    receive_buffer.clear();
+                    from = channel.receive(receive_buffer);
+                }
+            } catch (IOException e) {
+                if (state == RUNNING) {
+                    LOGGER.log(Level.SEVERE, "Failed to receive datagram", e);
+                }
+            }
+            sendReliable();
+            if (System.currentTimeMillis() - last_bind >= BIND_INTERVAL) {
+                last_bind = System.currentTimeMillis();
+                for (DatagramSession session : sessions.values()) {
+                    if (!session.getBound() && session.getAddress() != null && server.getState() == Server.CLIENT) {
+                        sendDatagram(session, null);
+                    }
+                }
+            }
+        }
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close DatagramChannel", e);
+        }
+        BufferPool.getDefault().release(receive_buffer);
+        receive_buffer = null;
+        sessions.clear();
+        LOGGER.log(Level.INFO, "DatagramThread has exited");
+    }
+
+    /**
+     * Handles the datagram held in receive_buffer. Datagrams with an unknown
+     * token are dropped. On a listen {@link Server} the address of the session
+     * is set to the address the datagram came from, and the session is
+     * confirmed to the client the first time this happens.
+     *
+     * @param from the address the datagram was received from.
+     */
+    private void handleDatagram(SocketAddress from) {
+        if (receive_buffer.remaining() < TOKEN_LENGTH) {
+            LOGGER.log(Level.INFO, "Dropped datagram too short to hold a token from {0}", from);
+            return;
+        }
+        DatagramSession session = sessions.get(receive_buffer.getLong());
+        if (session == null) {
+            LOGGER.log(Level.INFO, "Dropped datagram with unknown token from {0}", from);
+            return;
+        }
+        if (server.getState() == Server.LISTEN) {
+            if (!from.equals(session.getAddress())) {
+                session.setAddress(from);
+                LOGGER.log(Level.INFO, "Unreliable channel for SocketThread {0} bound to {1}", new Object[]{session.getSocket().getHash(), from});
+            }
+            if (!session.getBound()) {
+                session.setBound(true);
+                server.confirmDatagramSession(session);
+            }
+        } else if (!from.equals(session.getAddress())) {
+            LOGGER.log(Level.INFO, "Dropped datagram for SocketThread {0} from unexpected address {1}", new Object[]{session.getSocket().getHash(), from});
+            return;
+        }
+        if (!receive_buffer.hasRemaining()) {
+            return;
+        }
+        byte kind = receive_buffer.get();
+        if (kind == UNRELIABLE) {
+            decode_buffer.clear();
+            decoder.reset();
+            decoder.decode(receive_buffer, decode_buffer, true);
+            decoder.flush(decode_buffer);
+            decode_buffer.flip();
+            session.getSocket().handleMessage(decode_buffer.toString());
+        } else if ((kind == RELIABLE || kind == RELIABLE_FRAGMENT) && receive_buffer.remaining() >= 4 + ACK_LENGTH) {
+            ReliableChannel reliable = session.getReliableChannel();
+            int sequence = receive_buffer.getInt();
+            reliable.acknowledge(receive_buffer.getInt(), receive_buffer.getInt(), receive_buffer.getInt(), System.currentTimeMillis());
+            reliable.receive(sequence, receive_buffer, kind == RELIABLE, delivered);
+            for (String message : delivered) {
+                session.getSocket().handleMessage(message);
+            }
+            delivered.clear();
+        } else if (kind == ACK && receive_buffer.remaining() >= ACK_LENGTH) {
+            session.getReliableChannel().acknowledge(receive_buffer.getInt(), receive_buffer.getInt(), receive_buffer.getInt(), System.currentTimeMillis());
+        } else {
+            LOGGER.log(Level.INFO, "Dropped malformed datagram from {0}", from);
+        }
+    }
+
+    /**
+     * Sends every fragment that is due on the reliable channel of each bound
+     * session, along with an acknowledgement of the fragments received. A
+     * session whose reliable channel has failed has its {@link SocketThread}
+     * disconnected, as delivery can no longer be guaranteed.
+     */
+    private void sendReliable() {
+        long now = System.currentTimeMillis();
+        for (DatagramSession session : sessions.values()) {
+            if (!session.getBound()) {
+                continue;
+            }
+            ReliableChannel reliable = session.getReliableChannel();
+            boolean ack = reliable.takeAckPending();
+            reliable.poll(now, due);
+            for (ReliableChannel.Fragment fragment : due) {
+                sendFragment(session, fragment);
+            }
+            if (due.isEmpty() && ack) {
+                sendFragment(session, null);
+            }
+            due.clear();
+            if (reliable.getFailed()) {
+                LOGGER.log(Level.SEVERE, "Reliable channel of SocketThread {0} failed, disconnecting", session.getSocket().getHash());
+                removeSession(session);
+                server.disconnect(session.getSocket().getHash());
+            }
+        }
+    }
+
+    /**
+     * Creates a new {@link DatagramSession} with a unique random token for a
+     * {@link SocketThread} on a listen {@link Server}. The address of the
+     * session is set once the client sends its first datagram.
+     *
+     * @param socket the {@link SocketThread} to create the session for.
+     * @return the new {@link DatagramSession}.
+     */
+    public DatagramSession addSession(SocketThread socket) {
+        DatagramSession session = new DatagramSession(random.nextLong(), socket);
+        while (session.getToken() == 0 || sessions.containsKey(session.getToken())) {
+            session = new DatagramSession(random.nextLong(), socket);
+        }
+        addSession(session);
+        return session;
+    }
+
+    /**
+     * Creates a new {@link DatagramSession} for a {@link SocketThread} on a
+     * client {@link Server} using the token and address given by the listen
+     * {@link Server}, and sends the first bind datagram.
+     *
+     * @param socket the {@link SocketThread} to create the session for.
+     * @param token the token given by the listen {@link Server}.
+     * @param address the address of the listen {@link Server}'s
+     * DatagramChannel.
+     * @return the new {@link DatagramSession}.
+     */
+    public DatagramSession addSession(SocketThread socket, long token, SocketAddress address) {
+        DatagramSession session = new DatagramSession(token, socket);
+        session.setAddress(address);
+        addSession(session);
+        sendDatagram(session, null);
+        return session;
+    }
+
+    /**
+     * Stores a new {@link DatagramSession}, replacing any session the
+     * {@link SocketThread} already had.
+     *
+     * @param session the session to store.
+     */
+    private void addSession(DatagramSession session) {
+        DatagramSession old_session = session.getSocket().getDatagramSession();
+        if (old_session != null) {
+            removeSession(old_session);
+        }
+        sessions.put(session.getToken(), session);
+        session.getSocket().setDatagramSession(session);
+        LOGGER.log(Level.INFO, "Added DatagramSession for SocketThread {0}", session.getSocket().getHash());
+    }
+
+    /**
+     * Removes a {@link DatagramSession}. Datagrams received for it afterwards
+     * are dropped.
+     *
+     * @param session the session to remove.
+     */
+    public void removeSession(DatagramSession session) {
+        if (sessions.remove(session.getToken()) != null) {
+            LOGGER.log(Level.INFO, "Removed DatagramSession for SocketThread {0}", session.getSocket().getHash());
+        }
+        if (session.getSocket().getDatagramSession() == session) {
+            session.getSocket().setDatagramSession(null);
+        }
+    }
+
+    /**
+     * Sends a message as a single datagram. The message is not sent if the
+     * session has not been bound yet or the message is too large to fit in a
+     * datagram.
+     *
+     * @param session the session to send the message on.
+     * @param message the String message to send.
+     * @return true if the datagram was sent, false if the message must be sent
+     * another way.
+     */
+    public boolean send(DatagramSession session, String message) {
+        if (!session.getBound() || session.getAddress() == null || state == CLOSED) {
+            return false;
+        }
+        return sendDatagram(session, message);
+    }
+
+    /**
+     * Encodes the token of session followed by message into send_buffer and
+     * sends it to the address of session.
+     *
+     * @param session the session to send the datagram on.
+     * @param message the String message to send, or null to send only the
+     * token.
+     * @return true if the datagram was sent.
+     */
+    private boolean sendDatagram(DatagramSession session, String message) {
+        synchronized (send_buffer) {
+            send_buffer.clear();
+            send_buffer.putLong(session.getToken());
+            if (message != null) {
+                send_buffer.put(UNRELIABLE);
+                encoder.reset();
+                if (encoder.encode(CharBuffer.wrap(message), send_buffer, true).isOverflow() || encoder.flush(send_buffer).isOverflow()) {
+                    LOGGER.log(Level.INFO, "Message is too large to send as a datagram: {0}", message);
+                    return false;
+                }
+            }
+            send_buffer.flip();
+            try {
+                if (channel.send(send_buffer, session.getAddress()) == 0) {
+                    LOGGER.log(Level.INFO, "Datagram dropped as the DatagramChannel is busy: {0}", message);
+                } else {
+                    LOGGER.log(Level.INFO, "Sent datagram {0}", message);
+                }
+                return true;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to send datagram", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Queues a message to be sent on the reliable channel of a session and
+     * wakes the run() loop to send it. Messages queued before the session is
+     * bound are sent once it is.
+     *
+     * @param session the session to send the message on.
+     * @param message the String message to send.
+     * @return true if the message was queued, false if the
+     * {@link DatagramThread} has been closed.
+     */
+    public boolean sendReliable(DatagramSession session, String message) {
+        if (state == CLOSED) {
+            return false;
+        }
+        session.getReliableChannel().queue(message);
+        selector.wakeup();
+        return true;
+    }
+
+    /**
+     * Encodes a fragment of the reliable channel of session into send_buffer,
+     * along with the acknowledgement of the fragments received, and sends it
+     * to the address of session.
+     *
+     * @param session the session to send the datagram on.
+     * @param fragment the fragment to send, or null to send only the
+     * acknowledgement.
+     */
+    private void sendFragment(DatagramSession session, ReliableChannel.Fragment fragment) {
+        ReliableChannel reliable = session.getReliableChannel();
+        synchronized (send_buffer) {
+            send_buffer.clear();
+            send_buffer.putLong(session.getToken());
+            if (fragment == null) {
+                send_buffer.put(ACK);
+            } else {
+                send_buffer.put(fragment.last ? RELIABLE : RELIABLE_FRAGMENT);
+                send_buffer.putInt(fragment.sequence);
+            }
+            send_buffer.putInt(reliable.getCumulativeAck());
+            send_buffer.putInt(reliable.getLatestAck());
+            send_buffer.putInt(reliable.getAckBits());
+            if (fragment != null) {
+                send_buffer.put(fragment.payload);
+            }
+            send_buffer.flip();
+            try {
+                channel.send(send_buffer, session.getAddress());
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to send datagram", e);
+            }
+        }
+    }
+
+    /**
+     * Closes the {@link DatagramThread}. The run() loop will exit and close
+     * the DatagramChannel.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the local port of the DatagramChannel.
+     *
+     * @return the port datagrams are received on, or -1 if the channel has
+     * been closed.
+     */
+    public int getPort() {
+        if (channel.socket() == null || !channel.isOpen()) {
+            return -1;
+        }
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns every {@link DatagramSession} using this {@link DatagramThread}.
+     *
+     * @return the Map of sessions keyed by token.
+     */
+    public Map<Long, DatagramSession> getSessions() {
+        return sessions;
+    }
+
+    /**
+     * Puts the attribute states of {@link DatagramThread} in readable form.
+     *
+     * @return Attributes of {@link DatagramThread} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link DatagramThread} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link DatagramThread} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "State: " + state + "\n" + ch + "Port: " + getPort() + "\n" + ch + "Sessions: " + sessions.size();
+    }
+}
@@ -0,0 +1,504 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link FileTransfer} class streams a single file between two
+ * {@link Server}s for the file transfer feature. The file is sent over its own
+ * data connection rather than the connection of the {@link SocketThread} it
+ * belongs to, so large files never hold up actions sent to the same client.
+ *
+ * A SEND transfer is created by {@link Server}.sendFile and started by the
+ * {@link FileTransferThread} once the receiving end has connected to it. The
+ * file is written straight from the FileChannel to the SocketChannel using
+ * FileChannel.transferTo in chunks of at most CHUNK_SIZE bytes, so the file
+ * contents are never copied onto the heap. TCP flow control stops the sender
+ * from getting ahead of the receiver and the rate set by
+ * {@link Server}.setFileTransferRate can be used to limit the bandwidth used.
+ *
+ * A RECEIVE transfer connects to the sending end, sends the id of the transfer
+ * and the offset to start from, then writes the file to a temporary file
+ * ending in PART_SUFFIX using FileChannel.transferFrom. If a temporary file is
+ * left from an earlier attempt the transfer resumes from the end of it. The
+ * temporary file is renamed once the whole file has been received.
+ *
+ * @author javu
+ */
+public class FileTransfer extends Thread {
+
+    /**
+     * Valid state for {@link FileTransfer}, used when the transfer has been
+     * created but is not sending or receiving yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link FileTransfer}, used when the file is being sent
+     * or received.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link FileTransfer}, used when the whole file has been
+     * sent or received.
+     */
+    public static final int COMPLETE = 2;
+
+    /**
+     * Valid state for {@link FileTransfer}, used when the transfer stopped
+     * before the whole file was sent or received.
+     */
+    public static final int FAILED = 3;
+
+    /**
+     * Valid state for {@link FileTransfer}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 4;
+
+    /**
+     * Valid direction for {@link FileTransfer}, used when the file is sent to
+     * the other end.
+     */
+    public static final int SEND = 0;
+
+    /**
+     * Valid direction for {@link FileTransfer}, used when the file is received
+     * from the other end.
+     */
+    public static final int RECEIVE = 1;
+
+    /**
+     * Largest number of bytes passed to a single transferTo or transferFrom
+     * call.
+     */
+    public static final long CHUNK_SIZE = 1048576;
+
+    /**
+     * Ending added to the name of a file while it is being received.
+     */
+    public static final String PART_SUFFIX = ".part";
+
+    /**
+     * Number of bytes used by the header sent by the receiving end when it
+     * connects, holding the id of the transfer and the offset to start from.
+     */
+    public static final int HEADER_LENGTH = 16;
+
+    /**
+     * The instance of {@link Server} that created this {@link FileTransfer}.
+     */
+    private final Server server;
+    /**
+     * Identifier of the transfer, agreed between both ends when the file is
+     * offered.
+     */
+    private final long id;
+    /**
+     * The hash of the {@link SocketThread} the file is sent to or received
+     * from.
+     */
+    private final String hash;
+    /**
+     * The file being sent, or the file the received file is saved as.
+     */
+    private final File file;
+    /**
+     * The length of the file in bytes.
+     */
+    private final long length;
+    /**
+     * Whether the file is being sent or received. Valid directions are: 0 -
+     * SEND 1 - RECEIVE
+     */
+    private final int direction;
+    /**
+     * The address of the sending end's {@link FileTransferThread}. Only used
+     * by RECEIVE transfers.
+     */
+    private final InetSocketAddress address;
+    /**
+     * The time the transfer was created in milliseconds.
+     */
+    private final long created;
+    /**
+     * The data connection the file is streamed through.
+     */
+    private volatile SocketChannel channel;
+    /**
+     * The offset in bytes the transfer started from.
+     */
+    private volatile long offset;
+    /**
+     * The number of bytes sent or received since the transfer started.
+     */
+    private volatile long transferred;
+    /**
+     * The current state of the {@link FileTransfer}. Valid states are: 0 - NEW
+     * 1 - RUNNING 2 - COMPLETE 3 - FAILED 4 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileTransfer.class.getName());
+
+    /**
+     * Creates a transfer sending a file to a {@link SocketThread}.
+     *
+     * @param server the {@link Server} that created this {@link FileTransfer}.
+     * @param id the identifier of the transfer.
+     * @param hash the hash of the {@link SocketThread} the file is sent to.
+     * @param file the file to send.
+     */
+    public FileTransfer(Server server, long id, String hash, File file) {
+        this(server, id, hash, file, file.length(), SEND, null);
+    }
+
+    /**
+     * Creates a transfer receiving a file from a {@link SocketThread}.
+     *
+     * @param server the {@link Server} that created this {@link FileTransfer}.
+     * @param id the identifier of the transfer given by the sending end.
+     * @param hash the hash of the {@link SocketThread} the file is received
+     * from.
+     * @param file the file to save the received file as.
+     * @param length the length of the file in bytes given by the sending end.
+     * @param address the address of the sending end's
+     * {@link FileTransferThread}.
+     */
+    public FileTransfer(Server server, long id, String hash, File file, long length, InetSocketAddress address) {
+        this(server, id, hash, file, length, RECEIVE, address);
+    }
+
+    /**
+     * Sets every attribute of the {@link FileTransfer}.
+     *
+     * @param server the {@link Server} that created this {@link FileTransfer}.
+     * @param id the identifier of the transfer.
+     * @param hash the hash of the {@link SocketThread} the transfer belongs
+     * to.
+     * @param file the file being sent or received.
+     * @param length the length of the file in bytes.
+     * @param direction whether the file is sent or received.
+     * @param address the address of the sending end's
+     * {@link FileTransferThread}, or null for a SEND transfer.
+     */
+    private FileTransfer(Server server, long id, String hash, File file, long length, int direction, InetSocketAddress address) {
+        this.server = server;
+        this.id = id;
+        this.hash = hash;
+        this.file = file;
+        this.length = length;
+        this.direction = direction;
+        this.address = address;
+        created = System.currentTimeMillis();
+        channel = null;
+        offset = 0;
+        transferred = 0;
+        state = NEW;
+    }
+
+    /**
+     * Sends or receives the file, then tells the {@link Server} the transfer
+     * has finished.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        try {
+            if (direction == SEND) {
+                sendFile();
+            } else {
+                receiveFile();
+            }
+        } catch (IOException e) {
+            if (state == RUNNING) {
+                LOGGER.log(Level.SEVERE, "File transfer " + id + " of " + file.getName() + " failed", e);
+                state = FAILED;
+            }
+        } finally {
+            closeChannel();
+        }
+        server.finishFileTransfer(this);
+    }
+
+    /**
+     * Streams the file from offset to the data connection.
+     *
+     * @throws IOException if an exception is encountered when reading the file
+     * or writing to the data connection.
+     */
+    private void sendFile() throws IOException {
+        try (FileChannel file_channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            long started = System.currentTimeMillis();
+            while (position < length && state == RUNNING) {
+                long chunk = Math.min(CHUNK_SIZE, length - position);
+                long rate = server.getFileTransferRate();
+                if (rate > 0) {
+                    chunk = Math.min(chunk, Math.max(rate / 10, 1));
+                }
+                long sent = file_channel.transferTo(position, chunk, channel);
+                if (sent <= 0 && file_channel.size() <= position) {
+                    throw new IOException("File " + file.getName() + " was shortened while being sent");
+                }
+                position += sent;
+                transferred = position - offset;
+                if (rate > 0) {
+                    throttle(started, rate);
+                }
+            }
+        }
+        if (state == RUNNING) {
+            state = COMPLETE;
+            LOGGER.log(Level.INFO, "Sent file {0} to SocketThread {1}", new Object[]{file.getName(), hash});
+        }
+    }
+
+    /**
+     * Connects to the sending end and streams the file from the data
+     * connection into the temporary file, resuming from the end of any
+     * temporary file left from an earlier attempt.
+     *
+     * @throws IOException if an exception is encountered when connecting,
+     * writing the file or the data connection is closed early.
+     */
+    private void receiveFile() throws IOException {
+        File part = getPartFile();
+        if (part.exists() && part.length() <= length) {
+            offset = part.length();
+        }
+        try (FileChannel file_channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            file_channel.truncate(offset);
+            channel = SocketChannel.open(address);
+            if (state != RUNNING) {
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putLong(id);
+            header.putLong(offset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            long position = offset;
+            while (position < length && state == RUNNING) {
+                long received = file_channel.transferFrom(channel, position, Math.min(CHUNK_SIZE, length - position));
+                if (received <= 0) {
+                    throw new IOException("Data connection closed before file " + file.getName() + " was received");
+                }
+                position += received;
+                transferred = position - offset;
+            }
+        }
+        if (state == RUNNING) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            state = COMPLETE;
+            LOGGER.log(Level.INFO, "Received file {0} from SocketThread {1}", new Object[]{file.getName(), hash});
+        }
+    }
+
+    /**
+     * Sleeps for as long as needed to keep the average rate of the transfer
+     * at or below rate.
+     *
+     * @param started the time the transfer started in milliseconds.
+     * @param rate the largest number of bytes to send per second.
+     */
+    private void throttle(long started, long rate) {
+        long wait = (transferred * 1000 / rate) - (System.currentTimeMillis() - started);
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts a SEND transfer on the data connection accepted by the
+     * {@link FileTransferThread}.
+     *
+     * @param channel the data connection to stream the file through.
+     * @param offset the offset in bytes asked for by the receiving end.
+     * @return true if the transfer can be started, false if it has already
+     * been started, closed or the offset is past the end of the file.
+     */
+    synchronized boolean accept(SocketChannel channel, long offset) {
+        if (direction != SEND || state != NEW || this.channel != null || offset < 0 || offset > length) {
+            return false;
+        }
+        this.channel = channel;
+        this.offset = offset;
+        return true;
+    }
+
+    /**
+     * Flags a transfer that has not started as failed. Used when the receiving
+     * end rejects the file or never connects.
+     *
+     * @return true if the transfer had not started yet.
+     */
+    synchronized boolean fail() {
+        if (state != NEW || channel != null) {
+            return false;
+        }
+        state = FAILED;
+        return true;
+    }
+
+    /**
+     * Closes the data connection if it is open.
+     */
+    private void closeChannel() {
+        SocketChannel current = channel;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close data connection of file transfer " + id, e);
+            }
+        }
+    }
+
+    /**
+     * Closes the {@link FileTransfer}. Any blocked transferTo or transferFrom
+     * call is stopped by closing the data connection. The temporary file of a
+     * RECEIVE transfer is kept so the transfer can be resumed.
+     */
+    public synchronized void close() {
+        if (state == NEW || state == RUNNING) {
+            state = CLOSED;
+        }
+        closeChannel();
+    }
+
+    /**
+     * Returns the temporary file a RECEIVE transfer writes to.
+     *
+     * @return the File the received file is written to until it is complete.
+     */
+    public File getPartFile() {
+        return new File(file.getPath() + PART_SUFFIX);
+    }
+
+    /**
+     * Returns the attribute id.
+     *
+     * @return the long id.
+     */
+    public long getTransferId() {
+        return id;
+    }
+
+    /**
+     * Returns the attribute hash.
+     *
+     * @return the String hash.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns the attribute file.
+     *
+     * @return the File file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the attribute length.
+     *
+     * @return the long length.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the attribute direction.
+     *
+     * @return the int direction.
+     */
+    public int getDirection() {
+        return direction;
+    }
+
+    /**
+     * Returns the time the transfer was created.
+     *
+     * @return the long created in milliseconds.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns the attribute offset.
+     *
+     * @return the long offset the transfer started from.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the attribute transferred.
+     *
+     * @return the long number of bytes sent or received since the transfer
+     * started.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Puts the attribute states of {@link FileTransfer} in readable form.
+     *
+     * @return Attributes of {@link FileTransfer} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link FileTransfer} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link FileTransfer} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "Id: " + id + "\n" + ch + "Hash: " + hash + "\n" + ch + "File: " + file.getName() + "\n" + ch + "Direction: " + direction + "\n" + ch + "State: " + state + "\n" + ch + "Offset: " + offset + "\n" + ch + "Transferred: " + transferred + "\n" + ch + "Length: " + length;
+    }
+}
@@ -0,0 +1,304 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link FileTransferThread} class accepts the data connections of the
+ * file transfer feature of {@link Server}. When a file is offered to another
+ * {@link Server} the port of this thread is sent with the offer, and the
+ * receiving end connects to it and sends the id of the transfer and the offset
+ * to resume from. Once that header has been read the data connection is handed
+ * to the matching SEND {@link FileTransfer}, which is started on its own
+ * thread. Headers are read without blocking so a slow or broken receiver can
+ * not hold up any other transfer. Offers that are not connected to within
+ * OFFER_TIMEOUT are failed.
+ *
+ * @author javu
+ */
+public class FileTransferThread extends Thread {
+
+    /**
+     * Valid state for {@link FileTransferThread}, used when the thread has
+     * just been constructed but has not started run() yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link FileTransferThread}, used when the thread is
+     * running normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link FileTransferThread}, used when it is flagged to
+     * be closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * Longest time in milliseconds an offered file waits for the receiving end
+     * to connect before the transfer is failed.
+     */
+    public static final long OFFER_TIMEOUT = 30000;
+
+    /**
+     * Longest time in milliseconds the run() loop waits for a connection
+     * before checking for offers that have timed out.
+     */
+    private static final long TICK_INTERVAL = 100;
+
+    /**
+     * The instance of {@link Server} that created this
+     * {@link FileTransferThread}.
+     */
+    private final Server server;
+    /**
+     * Channel data connections are accepted on.
+     */
+    private final ServerSocketChannel channel;
+    /**
+     * Selector used to wait for data connections and their headers.
+     */
+    private final Selector selector;
+    /**
+     * The current state of the {@link FileTransferThread}. Valid states are: 0
+     * - NEW 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileTransferThread.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link FileTransferThread} and opens the ServerSocketChannel on any free
+     * port.
+     *
+     * @param server the {@link Server} that created this
+     * {@link FileTransferThread}.
+     * @throws IOException if an exception is encountered when opening or
+     * binding the ServerSocketChannel.
+     */
+    public FileTransferThread(Server server) throws IOException {
+        this.server = server;
+        channel = ServerSocketChannel.open();
+        try {
+            channel.bind(new InetSocketAddress(0));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        state = NEW;
+    }
+
+    /**
+     * Loop that accepts data connections, reads their headers and starts the
+     * matching {@link FileTransfer}s.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        ArrayList<SelectionKey> ready = new ArrayList<SelectionKey>();
+        while (state == RUNNING) {
+            try {
+                selector.select(TICK_INTERVAL);
+                ready.clear();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        SocketChannel accepted = channel.accept();
+                        if (accepted != null) {
+                            accepted.configureBlocking(false);
+                            accepted.register(selector, SelectionKey.OP_READ, ByteBuffer.allocate(FileTransfer.HEADER_LENGTH));
+                        }
+                    } else if (key.isReadable() && readHeader(key)) {
+                        key.cancel();
+                        ready.add(key);
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    selector.selectNow();
+                    for (SelectionKey key : ready) {
+                        startTransfer((SocketChannel) key.channel(), (ByteBuffer) key.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                if (state == RUNNING) {
+                    LOGGER.log(Level.SEVERE, "Failed to accept data connection", e);
+                }
+            }
+            expireOffers();
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.channel() != channel) {
+                closeQuietly((SocketChannel) key.channel());
+            }
+        }
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close ServerSocketChannel", e);
+        }
+        LOGGER.log(Level.INFO, "FileTransferThread has exited");
+    }
+
+    /**
+     * Reads the header of a data connection. The connection is closed if it
+     * ends before the whole header has been read.
+     *
+     * @param key the SelectionKey of the data connection.
+     * @return true once the whole header has been read.
+     */
+    private boolean readHeader(SelectionKey key) {
+        SocketChannel accepted = (SocketChannel) key.channel();
+        ByteBuffer header = (ByteBuffer) key.attachment();
+        try {
+            if (accepted.read(header) >= 0) {
+                return !header.hasRemaining();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to read header of data connection", e);
+        }
+        key.cancel();
+        closeQuietly(accepted);
+        return false;
+    }
+
+    /**
+     * Hands a data connection whose header has been read to the matching
+     * {@link FileTransfer} and starts it, or closes the connection if no
+     * transfer matches. The SelectionKey of the connection must already have
+     * been cancelled and flushed from the Selector.
+     *
+     * @param accepted the data connection.
+     * @param header the header read from the data connection.
+     */
+    private void startTransfer(SocketChannel accepted, ByteBuffer header) {
+        header.flip();
+        long id = header.getLong();
+        long offset = header.getLong();
+        try {
+            accepted.configureBlocking(true);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to set data connection to blocking", e);
+            closeQuietly(accepted);
+            return;
+        }
+        FileTransfer transfer = server.getFileTransfers().get(id);
+        if (transfer == null || !transfer.accept(accepted, offset)) {
+            LOGGER.log(Level.WARNING, "Closed data connection for unknown or invalid file transfer {0}", id);
+            closeQuietly(accepted);
+            return;
+        }
+        server.runThread(transfer);
+        LOGGER.log(Level.INFO, "Started file transfer {0} from offset {1}", new Object[]{id, offset});
+    }
+
+    /**
+     * Fails every SEND {@link FileTransfer} that has not been connected to
+     * within OFFER_TIMEOUT.
+     */
+    private void expireOffers() {
+        long now = System.currentTimeMillis();
+        for (FileTransfer transfer : server.getFileTransfers().values()) {
+            if (transfer.getDirection() == FileTransfer.SEND && now - transfer.getCreated() > OFFER_TIMEOUT && transfer.fail()) {
+                LOGGER.log(Level.INFO, "File transfer {0} was not connected to in time", transfer.getTransferId());
+                server.finishFileTransfer(transfer);
+            }
+        }
+    }
+
+    /**
+     * Closes a data connection, logging any exception.
+     *
+     * @param socket the SocketChannel to close.
+     */
+    private void closeQuietly(SocketChannel socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close data connection", e);
+        }
+    }
+
+    /**
+     * Closes the {@link FileTransferThread}. The run() loop will exit and
+     * close the ServerSocketChannel. Transfers that have already started are
+     * not affected.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        selector.wakeup();
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the local port of the ServerSocketChannel.
+     *
+     * @return the port data connections are accepted on, or -1 if the channel
+     * has been closed.
+     */
+    public int getPort() {
+        if (!channel.isOpen()) {
+            return -1;
+        }
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Puts the attribute states of {@link FileTransferThread} in readable
+     * form.
+     *
+     * @return Attributes of {@link FileTransferThread} in a readable String
+     * form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link FileTransferThread} in readable
+     * form. Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link FileTransferThread} in a readable String
+     * form.
+     */
+    public String toString(String ch) {
+        return ch + "State: " + state + "\n" + ch + "Port: " + getPort();
+    }
+}
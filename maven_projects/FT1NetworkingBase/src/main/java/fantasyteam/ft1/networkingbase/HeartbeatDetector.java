@@ -0,0 +1,211 @@
+package fantasyteam.ft1.networkingbase;
+
+/**
+ * The {@link HeartbeatDetector} class is a phi accrual failure detector used
+ * by the heartbeat feature of {@link Server}. Each {@link SocketThread} has
+ * one, which records the time between the heartbeats received from the remote
+ * {@link Server} and the time the last message of any kind was received.
+ *
+ * Rather than counting missed heartbeats it works out phi, a measure of how
+ * unlikely it is that nothing has been received for this long if the remote
+ * {@link Server} is still alive, based on the mean and standard deviation of
+ * the last WINDOW_SIZE heartbeat intervals. A phi of 1 means there is a 10%
+ * chance the remote {@link Server} is still alive, a phi of 2 a 1% chance, a
+ * phi of 3 a 0.1% chance and so on. The {@link HeartbeatThread} disconnects a
+ * {@link SocketThread} once phi passes the heartbeat threshold of the
+ * {@link Server}. As the intervals are measured rather than assumed, a
+ * connection with steady heartbeats is detected as failed much sooner than a
+ * connection whose heartbeats arrive with a lot of jitter.
+ *
+ * The {@link HeartbeatDetector} is only active once a heartbeat has been
+ * received, so a remote {@link Server} that does not use the heartbeat feature
+ * is never disconnected by it.
+ *
+ * @author javu
+ */
+public class HeartbeatDetector {
+
+    /**
+     * The number of heartbeat intervals used to work out phi.
+     */
+    public static final int WINDOW_SIZE = 100;
+
+    /**
+     * The standard deviation used is never less than the heartbeat interval
+     * divided by this, so a connection with very steady heartbeats is not
+     * disconnected by a small delay.
+     */
+    private static final int MIN_DEVIATION_DIVISOR = 4;
+
+    /**
+     * The last WINDOW_SIZE intervals in milliseconds between heartbeats.
+     */
+    private final long[] intervals;
+    /**
+     * The number of intervals stored in intervals.
+     */
+    private int count;
+    /**
+     * The index in intervals the next interval is stored at.
+     */
+    private int index;
+    /**
+     * The sum of every interval stored in intervals.
+     */
+    private long sum;
+    /**
+     * The sum of the square of every interval stored in intervals.
+     */
+    private double sum_squares;
+    /**
+     * The time in milliseconds the last heartbeat was received, -1 if no
+     * heartbeat has been received.
+     */
+    private long last_heartbeat;
+    /**
+     * The time in milliseconds the last message of any kind was received.
+     */
+    private volatile long last_message;
+
+    /**
+     * Constructs an inactive {@link HeartbeatDetector}.
+     */
+    public HeartbeatDetector() {
+        intervals = new long[WINDOW_SIZE];
+        count = 0;
+        index = 0;
+        sum = 0;
+        sum_squares = 0;
+        last_heartbeat = -1;
+        last_message = System.currentTimeMillis();
+    }
+
+    /**
+     * Records that a heartbeat was received, adding the time since the last
+     * heartbeat to the intervals used to work out phi.
+     *
+     * @param now the time in milliseconds the heartbeat was received.
+     */
+    public synchronized void heartbeat(long now) {
+        if (last_heartbeat != -1) {
+            long interval = Math.max(now - last_heartbeat, 0);
+            if (count == WINDOW_SIZE) {
+                long oldest = intervals[index];
+                sum -= oldest;
+                sum_squares -= (double) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[index] = interval;
+            index = (index + 1) % WINDOW_SIZE;
+            sum += interval;
+            sum_squares += (double) interval * interval;
+        }
+        last_heartbeat = now;
+        last_message = now;
+    }
+
+    /**
+     * Records that a message was received. Any message shows the remote
+     * {@link Server} is still alive, so phi is worked out from the time of the
+     * last message rather than the last heartbeat.
+     *
+     * @param now the time in milliseconds the message was received.
+     */
+    public void messageReceived(long now) {
+        last_message = now;
+    }
+
+    /**
+     * Works out phi for the time since the last message was received.
+     *
+     * @param now the current time in milliseconds.
+     * @param heartbeat_interval the interval in milliseconds heartbeats are
+     * sent at. Used as the mean until intervals have been measured, and to
+     * set the smallest standard deviation used.
+     * @return phi, 0 if no heartbeat has been received.
+     */
+    public synchronized double phi(long now, long heartbeat_interval) {
+        if (last_heartbeat == -1) {
+            return 0;
+        }
+        double mean = heartbeat_interval;
+        double deviation = 0;
+        if (count > 0) {
+            mean = (double) sum / count;
+            deviation = Math.sqrt(Math.max(sum_squares / count - mean * mean, 0));
+        }
+        deviation = Math.max(deviation, (double) heartbeat_interval / MIN_DEVIATION_DIVISOR);
+        double y = (now - last_message - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (y > 0) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    /**
+     * Returns whether a heartbeat has been received.
+     *
+     * @return true if the {@link HeartbeatDetector} is active.
+     */
+    public synchronized boolean isActive() {
+        return last_heartbeat != -1;
+    }
+
+    /**
+     * Returns the number of heartbeat intervals being used to work out phi.
+     *
+     * @return the number of intervals.
+     */
+    public synchronized int getIntervals() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the heartbeat intervals.
+     *
+     * @return the mean interval in milliseconds, 0 if no interval has been
+     * measured.
+     */
+    public synchronized double getMeanInterval() {
+        if (count == 0) {
+            return 0;
+        }
+        return (double) sum / count;
+    }
+
+    /**
+     * Returns the time the last message was received.
+     *
+     * @return the time in milliseconds.
+     */
+    public long getLastMessage() {
+        return last_message;
+    }
+
+    /**
+     * Puts the attribute states of {@link HeartbeatDetector} in readable form.
+     *
+     * @return Attributes of {@link HeartbeatDetector} in a readable String
+     * form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link HeartbeatDetector} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link HeartbeatDetector} in a readable String
+     * form.
+     */
+    public synchronized String toString(String ch) {
+        return ch + "Active: " + (last_heartbeat != -1) + "\n" + ch + "Intervals: " + count + "\n" + ch + "Mean interval: " + getMeanInterval();
+    }
+}
@@ -0,0 +1,151 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link HeartbeatThread} class is used by the heartbeat feature of
+ * {@link Server}. Once every heartbeat interval it sends a heartbeat to every
+ * confirmed {@link SocketThread} and checks the {@link HeartbeatDetector} of
+ * each one, disconnecting any whose phi has passed the heartbeat threshold of
+ * the {@link Server}. A disconnected {@link SocketThread} goes through the
+ * same process as any other disconnection, so when the disconnected sockets
+ * feature is in use its hash is moved to the disconnected sockets list.
+ *
+ * The {@link HeartbeatThread} sleeps between intervals, and as dead
+ * connections are detected by the heartbeats no {@link SocketThread} needs to
+ * break blocking on its socket to check for them.
+ *
+ * @author javu
+ */
+public class HeartbeatThread extends Thread {
+
+    /**
+     * Valid state for {@link HeartbeatThread}, used when the thread has just
+     * been constructed but has not started run() yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link HeartbeatThread}, used when the thread is running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link HeartbeatThread}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * The instance of {@link Server} that created this
+     * {@link HeartbeatThread}.
+     */
+    private final Server server;
+    /**
+     * The current state of the {@link HeartbeatThread}. Valid states are: 0 -
+     * NEW 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(HeartbeatThread.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link HeartbeatThread} as a parameter.
+     *
+     * @param server the {@link Server} that created this
+     * {@link HeartbeatThread}.
+     */
+    public HeartbeatThread(Server server) {
+        this.server = server;
+        state = NEW;
+    }
+
+    /**
+     * Loop that checks and sends a heartbeat to every confirmed
+     * {@link SocketThread} on the {@link Server} once every heartbeat
+     * interval.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        while (state == RUNNING) {
+            long interval = server.getHeartbeatInterval();
+            Map<String, SocketThread> socket_list = server.getSocketList();
+            if (socket_list != null) {
+                ArrayList<SocketThread> sockets;
+                synchronized (socket_list) {
+                    sockets = new ArrayList<SocketThread>(socket_list.values());
+                }
+                long now = System.currentTimeMillis();
+                for (SocketThread socket : sockets) {
+                    if (socket.getRun() == SocketThread.CONFIRMED) {
+                        double phi = socket.getHeartbeatDetector().phi(now, interval);
+                        if (phi > server.getHeartbeatThreshold()) {
+                            LOGGER.log(Level.INFO, "Heartbeat lost, phi {0} is above the threshold. Closing SocketThread. Hash {1}", new Object[]{phi, socket.getHash()});
+                            server.receiveMessage("disconnect", socket.getHash());
+                        } else {
+                            socket.sendHeartbeat();
+                        }
+                    }
+                }
+            }
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.INFO, "HeartbeatThread was interrupted while waiting");
+            }
+        }
+        LOGGER.log(Level.INFO, "HeartbeatThread has exited");
+    }
+
+    /**
+     * Closes the {@link HeartbeatThread}. The loop will exit the next time it
+     * wakes up.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Puts the attribute states of {@link HeartbeatThread} in readable form.
+     *
+     * @return Attributes of {@link HeartbeatThread} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link HeartbeatThread} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link HeartbeatThread} in a readable String form.
+     */
+    public String toString(String ch) {
+        String to_string = ch + "State: " + state;
+        return to_string;
+    }
+}
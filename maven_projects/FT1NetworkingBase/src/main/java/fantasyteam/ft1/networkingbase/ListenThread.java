@@ -1,12 +1,24 @@
 package fantasyteam.ft1.networkingbase;
 
-import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
-import fantasyteam.ft1.networkingbase.exceptions.NullException;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotSupportedException;
 import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
 import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
 import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,14 +28,42 @@ import java.util.logging.Logger;
  * allow it to block for input and wait for new clients to connect without
  * blocking the normal execution of the {@link Server} instance that created it.
  *
+ * New connections go through two stages. One or more acceptor threads do
+ * nothing but accept connections from the ServerSocket and add them to a
+ * queue, so clients connecting at the same time are taken off the ServerSocket
+ * backlog straight away. The {@link ListenThread} itself takes each accepted
+ * connection off the queue and sets up its {@link SocketThread} through
+ * {@link Server}.setupSocket. The time from a connection being accepted to its
+ * {@link SocketThread} being ready is measured for every connection.
+ *
+ * If the {@link Server} has a Unix domain path set the {@link ListenThread}
+ * listens on a Unix domain socket at that path instead of the TCP port, using
+ * a ServerSocketChannel as a Unix domain socket has no ServerSocket. The
+ * socket file is deleted when the {@link ListenThread} is closed.
+ *
  * @author javu
  */
 public class ListenThread extends Thread {
 
+    /**
+     * Longest time in milliseconds the setup stage waits for an accepted
+     * connection before checking whether it should close.
+     */
+    private static final long POLL_INTERVAL = 100;
+
     /**
      * ServerSocket used to accept new client connections.
      */
     private ServerSocket server_socket;
+    /**
+     * ServerSocketChannel used to accept new client connections on a Unix
+     * domain socket. Null unless unix_domain_path is set.
+     */
+    private ServerSocketChannel server_channel;
+    /**
+     * Path of the Unix domain socket to listen on, or null to listen on port.
+     */
+    private final String unix_domain_path;
     /**
      * The instance of {@link Server} that created this instance of
      * {@link ListenThread}.
@@ -37,6 +77,48 @@ public class ListenThread extends Thread {
      * Boolean used to determine if the thread is running or not.
      */
     private volatile boolean run;
+    /**
+     * Counted down once the listen loop has started, which releases any
+     * thread waiting in awaitStart.
+     */
+    private final CountDownLatch started;
+    /**
+     * Counted down once run is set to false, which releases any thread
+     * waiting in awaitStop.
+     */
+    private final CountDownLatch stopped;
+    /**
+     * The number of connections the ServerSocket queues before they are
+     * accepted.
+     */
+    private final int backlog;
+    /**
+     * The acceptor threads accepting connections from server_socket.
+     */
+    private final ArrayList<Acceptor> acceptors;
+    /**
+     * Connections that have been accepted but not set up yet.
+     */
+    private final LinkedBlockingQueue<Accepted> pending;
+    /**
+     * The number of connections that have been set up.
+     */
+    private volatile long ready_count;
+    /**
+     * The total time in nanoseconds taken from accepting to setting up every
+     * connection in ready_count.
+     */
+    private volatile long total_ready_latency;
+    /**
+     * The longest time in nanoseconds taken from accepting to setting up a
+     * connection.
+     */
+    private volatile long max_ready_latency;
+    /**
+     * The time in nanoseconds taken from accepting to setting up the last
+     * connection.
+     */
+    private volatile long last_ready_latency;
 
     /**
      * Logger for logging important actions and exceptions.
@@ -45,66 +127,202 @@ public class ListenThread extends Thread {
 
     /**
      * Takes the instance of {@link Server} that created this ListenThread as a
-     * parameter.
+     * parameter. If the {@link Server} is using the selector transport feature
+     * the ServerSocket is opened through a ServerSocketChannel so accepted
+     * connections can be handed to a {@link SelectorThread}. The ServerSocket
+     * is bound with the listen backlog of the {@link Server}. If the
+     * {@link Server} has a Unix domain path set a Unix domain socket is bound
+     * at that path instead.
      *
      * @param server the {@link Server} that created this {@link ListenThread}.
      * @throws IOException if an exception is encountered when constructing the
-     * ServerSocket.
+     * ServerSocket or binding the Unix domain socket.
+     * @throws FeatureNotSupportedException if a Unix domain path is set and
+     * the Java runtime does not support Unix domain sockets.
      */
-    public ListenThread(Server server) throws IOException {
+    public ListenThread(Server server) throws IOException, FeatureNotSupportedException {
         this.server = server;
         port = this.server.getPort();
-        server_socket = new ServerSocket(port);
+        backlog = this.server.getListenBacklog();
+        unix_domain_path = this.server.getUnixDomainPath();
+        server_channel = null;
+        if (unix_domain_path != null) {
+            server_channel = bindUnixDomain(unix_domain_path, backlog);
+            server_socket = null;
+        } else if (this.server.getUseSelectorTransport()) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                channel.socket().bind(new InetSocketAddress(port), backlog);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            server_socket = channel.socket();
+        } else {
+            server_socket = new ServerSocket(port, backlog);
+        }
         run = false;
-        LOGGER.log(Level.INFO, "Constructed new ListenThread on port {0}", port);
+        started = new CountDownLatch(1);
+        stopped = new CountDownLatch(1);
+        acceptors = new ArrayList<Acceptor>();
+        pending = new LinkedBlockingQueue<Accepted>();
+        ready_count = 0;
+        total_ready_latency = 0;
+        max_ready_latency = 0;
+        last_ready_latency = 0;
+        LOGGER.log(Level.INFO, "Constructed new ListenThread on {0}", getAddress());
     }
 
     /**
-     * Loop that blocks while it accepts new connections through server_socket.
+     * Binds a ServerSocketChannel to a Unix domain socket. If the socket file
+     * already exists and nothing is listening on it, it was left behind by a
+     * process that did not close cleanly and is deleted first.
+     *
+     * @param path the path of the Unix domain socket.
+     * @param backlog the number of connections to queue before they are
+     * accepted.
+     * @return the bound ServerSocketChannel.
+     * @throws IOException if another process is listening on path or an
+     * exception is encountered when binding the ServerSocketChannel.
+     * @throws FeatureNotSupportedException if the Java runtime does not
+     * support Unix domain sockets.
+     */
+    private static ServerSocketChannel bindUnixDomain(String path, int backlog) throws IOException, FeatureNotSupportedException {
+        SocketAddress address = Server.createUnixDomainAddress(path);
+        if (Files.exists(Paths.get(path))) {
+            boolean in_use = false;
+            try {
+                SocketChannel existing = SocketChannel.open(address);
+                existing.close();
+                in_use = true;
+            } catch (IOException e) {
+                LOGGER.log(Level.INFO, "Deleting stale Unix domain socket {0}", path);
+                Files.deleteIfExists(Paths.get(path));
+            }
+            if (in_use) {
+                throw new BindException("Unix domain socket " + path + " is already in use");
+            }
+        }
+        ServerSocketChannel channel = Server.openUnixDomainServerChannel();
+        try {
+            channel.bind(address, backlog);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Starts the acceptor threads, then loops setting up the connections they
+     * accept until the {@link ListenThread} is closed.
      */
     @Override
     public void run() {
         run = true;
+        started.countDown();
+        int count = server.getAcceptorCount();
+        for (int i = 0; i < count; i++) {
+            Acceptor acceptor = new Acceptor();
+            acceptor.setName(getName() + "-acceptor-" + i);
+            acceptors.add(acceptor);
+            server.runThread(acceptor);
+        }
         while (run) {
+            Accepted accepted = null;
             try {
-                server.listen();
-            } catch (SocketException e) {
-                LOGGER.log(Level.INFO, "ServerSocket has been closed. ListenThread will now terminate");
-                run = false;
-            } catch (TimeoutException e) {
-                LOGGER.log(Level.SEVERE, "New SocketThread failed to start in time. TimeoutException details", e);
-            } catch (NullException e) {
-                LOGGER.log(Level.SEVERE, "server.listen_thread is null, cannot run listen. ListenThread will terminate");
-                run = false;
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Failed to accept new connection. ListenThread will now terminate", e);
-                run = false;
-            } catch (FeatureNotUsedException e) {
-                LOGGER.log(Level.SEVERE, "server.state is not set to LISTEN. ListenThread will terminate", e);
-                run = false;
+                accepted = pending.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                stopRunning();
+            }
+            if (accepted != null && run) {
+                setupSocket(accepted);
+            } else if (accepted != null) {
+                closeSocket(accepted);
             }
         }
-        LOGGER.log(Level.INFO, "Listen loop has exited on port {0}", port);
+        LOGGER.log(Level.INFO, "Listen loop has exited on {0}", getAddress());
         try {
             this.close();
         } catch (ServerSocketCloseException e) {
             LOGGER.log(Level.SEVERE, "Failed to close and interrupt ListenThread. Thread may not have terminated correctly and could be tieing up system resources", e);
         }
+        Accepted accepted = pending.poll();
+        while (accepted != null) {
+            closeSocket(accepted);
+            accepted = pending.poll();
+        }
+    }
+
+    /**
+     * Sets up the {@link SocketThread} of an accepted connection and records
+     * the time taken from the connection being accepted to it being ready.
+     *
+     * @param accepted the accepted connection.
+     */
+    private void setupSocket(Accepted accepted) {
+        try {
+            if (accepted.channel != null) {
+                server.setupSocket(accepted.channel);
+            } else {
+                server.setupSocket(accepted.socket);
+            }
+            long latency = System.nanoTime() - accepted.time;
+            last_ready_latency = latency;
+            total_ready_latency += latency;
+            if (latency > max_ready_latency) {
+                max_ready_latency = latency;
+            }
+            ready_count++;
+        } catch (TimeoutException e) {
+            LOGGER.log(Level.SEVERE, "New SocketThread failed to start in time. TimeoutException details", e);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to set up new connection", e);
+            closeSocket(accepted);
+        }
+    }
+
+    /**
+     * Closes an accepted connection that will not be set up.
+     *
+     * @param accepted the accepted connection to close.
+     */
+    private void closeSocket(Accepted accepted) {
+        try {
+            if (accepted.channel != null) {
+                accepted.channel.close();
+            } else {
+                accepted.socket.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close accepted connection", e);
+        }
     }
 
     /**
-     * Closes server_socket and interrupts the thread.
+     * Closes server_socket and interrupts the thread. When listening on a Unix
+     * domain socket server_channel is closed and the socket file is deleted.
      *
      * @throws ServerSocketCloseException if an exception is encountered when closing the
      * ServerSocket.
      */
     public synchronized void close() throws ServerSocketCloseException {
-        if (server_socket != null) {
+        if (server_channel != null) {
+            try {
+                server_channel.close();
+                server_channel = null;
+                Files.deleteIfExists(Paths.get(unix_domain_path));
+                LOGGER.log(Level.INFO, "Closed ListenThread on Unix domain socket {0}", unix_domain_path);
+                stopRunning();
+            } catch (IOException e) {
+                throw new ServerSocketCloseException("Failed to close ServerSocketChannel on ListenThread. Unix domain socket " + unix_domain_path + " may still be in use", e);
+            }
+        } else if (server_socket != null) {
             try {
                 server_socket.close();
                 server_socket = null;
                 LOGGER.log(Level.INFO, "Closed ListenThread on port {0}", port);
-                run = false;
+                stopRunning();
             } catch(IOException e) {
                 throw new ServerSocketCloseException("Failed to close ServerSocket on ListenThread. Port may still be in use", e);
             }  
@@ -122,6 +340,48 @@ public class ListenThread extends Thread {
         return server_socket;
     }
 
+    /**
+     * Returns the ServerSocketChannel used to listen for new connections on a
+     * Unix domain socket.
+     *
+     * @return The ServerSocketChannel attribute server_channel, null unless
+     * listening on a Unix domain socket.
+     */
+    public ServerSocketChannel getServerChannel() {
+        return server_channel;
+    }
+
+    /**
+     * Returns whether the {@link ListenThread} is still bound, that is it has
+     * an open ServerSocket or ServerSocketChannel.
+     *
+     * @return true if the {@link ListenThread} has not been closed.
+     */
+    public boolean isBound() {
+        return server_socket != null || server_channel != null;
+    }
+
+    /**
+     * Returns the path of the Unix domain socket listened on.
+     *
+     * @return the String unix_domain_path, null if listening on port.
+     */
+    public String getUnixDomainPath() {
+        return unix_domain_path;
+    }
+
+    /**
+     * Returns a readable description of the address listened on.
+     *
+     * @return the Unix domain path or the port number.
+     */
+    private String getAddress() {
+        if (unix_domain_path != null) {
+            return "Unix domain socket " + unix_domain_path;
+        }
+        return "port " + port;
+    }
+
     /**
      * Returns the port number used to listen on.
      *
@@ -131,6 +391,80 @@ public class ListenThread extends Thread {
         return port;
     }
 
+    /**
+     * Returns the number of connections the ServerSocket queues before they
+     * are accepted.
+     *
+     * @return the int backlog.
+     */
+    public int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns the number of acceptor threads started by this
+     * {@link ListenThread}.
+     *
+     * @return the number of acceptor threads.
+     */
+    public int getAcceptorCount() {
+        return acceptors.size();
+    }
+
+    /**
+     * Returns the number of connections that have been accepted but not set
+     * up yet.
+     *
+     * @return the number of pending connections.
+     */
+    public int getPendingConnections() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of connections that have been set up.
+     *
+     * @return the long ready_count.
+     */
+    public long getReadyConnections() {
+        return ready_count;
+    }
+
+    /**
+     * Returns the average time from a connection being accepted to its
+     * {@link SocketThread} being ready.
+     *
+     * @return the average latency in microseconds, or 0 if no connections
+     * have been set up.
+     */
+    public long getAverageReadyLatency() {
+        long count = ready_count;
+        if (count == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMicros(total_ready_latency / count);
+    }
+
+    /**
+     * Returns the longest time from a connection being accepted to its
+     * {@link SocketThread} being ready.
+     *
+     * @return the longest latency in microseconds.
+     */
+    public long getMaxReadyLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(max_ready_latency);
+    }
+
+    /**
+     * Returns the time from the last connection being accepted to its
+     * {@link SocketThread} being ready.
+     *
+     * @return the last latency in microseconds.
+     */
+    public long getLastReadyLatency() {
+        return TimeUnit.NANOSECONDS.toMicros(last_ready_latency);
+    }
+
     /**
      * Returns the state of the ListenThread.
      *
@@ -147,7 +481,50 @@ public class ListenThread extends Thread {
      * @param run boolean to set run to.
      */
     public synchronized void setRun(boolean run) {
-        this.run = run;
+        if (run) {
+            this.run = true;
+        } else {
+            stopRunning();
+        }
+    }
+
+    /**
+     * Sets run to false and releases any thread waiting in awaitStop.
+     */
+    private void stopRunning() {
+        run = false;
+        stopped.countDown();
+    }
+
+    /**
+     * Blocks until the listen loop has started or timeout milliseconds have
+     * passed.
+     *
+     * @param timeout the longest time in milliseconds to wait.
+     * @return true if the listen loop started before timeout was reached.
+     */
+    public boolean awaitStart(long timeout) {
+        try {
+            return started.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return run;
+        }
+    }
+
+    /**
+     * Blocks until run is set to false or timeout milliseconds have passed.
+     *
+     * @param timeout the longest time in milliseconds to wait.
+     * @return true if run was set to false before timeout was reached.
+     */
+    public boolean awaitStop(long timeout) {
+        try {
+            return stopped.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !run;
+        }
     }
 
     /**
@@ -170,13 +547,124 @@ public class ListenThread extends Thread {
      * @return Attributes of {@link ListenThread} in a readable String form.
      */
     public String toString(String ch) {
-        String to_string = ch + "Port: " + port + "\n" + ch + "Running: " + run;
+        String to_string = ch + "Port: " + port + "\n" + ch + "Running: " + run + "\n" + ch + "Backlog: " + backlog + "\n" + ch + "Acceptors: " + acceptors.size() + "\n" + ch + "Pending connections: " + pending.size() + "\n" + ch + "Ready connections: " + ready_count + "\n" + ch + "Average ready latency: " + getAverageReadyLatency() + "us";
+        if (unix_domain_path != null) {
+            to_string += "\n" + ch + "Unix domain path: " + unix_domain_path;
+        }
         to_string += "\n" + ch + "Server Socket:";
-        if (server_socket != null) {
+        if (server_channel != null) {
+            to_string += "\n" + ch + "\t" + server_channel.toString();
+        } else if (server_socket != null) {
             to_string += "\n" + ch + "\t" + server_socket.toString();
         } else {
             to_string += " Sock has been closed";
         }
         return to_string;
     }
+
+    /**
+     * A connection accepted by an {@link Acceptor} along with the time it was
+     * accepted.
+     */
+    private static class Accepted {
+
+        /**
+         * The accepted connection, null if it was accepted on a Unix domain
+         * socket.
+         */
+        private final Socket socket;
+        /**
+         * The connection accepted on a Unix domain socket, null if it was
+         * accepted on a ServerSocket.
+         */
+        private final SocketChannel channel;
+        /**
+         * The value of System.nanoTime() when the connection was accepted.
+         */
+        private final long time;
+
+        /**
+         * Takes the accepted connection and the time it was accepted.
+         *
+         * @param socket the accepted connection.
+         * @param time the value of System.nanoTime() when the connection was
+         * accepted.
+         */
+        private Accepted(Socket socket, long time) {
+            this.socket = socket;
+            channel = null;
+            this.time = time;
+        }
+
+        /**
+         * Takes the connection accepted on a Unix domain socket and the time
+         * it was accepted.
+         *
+         * @param channel the accepted connection.
+         * @param time the value of System.nanoTime() when the connection was
+         * accepted.
+         */
+        private Accepted(SocketChannel channel, long time) {
+            socket = null;
+            this.channel = channel;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Thread that accepts connections from server_socket or server_channel and
+     * adds them to pending until it is closed.
+     */
+    private class Acceptor extends Thread {
+
+        /**
+         * Loop that blocks while it accepts new connections through
+         * server_socket, or server_channel when listening on a Unix domain
+         * socket.
+         */
+        @Override
+        public void run() {
+            ServerSocketChannel channel = server_channel;
+            if (channel != null) {
+                acceptChannels(channel);
+                return;
+            }
+            ServerSocket socket = server_socket;
+            while (run && socket != null) {
+                try {
+                    Socket accepted = socket.accept();
+                    LOGGER.log(Level.INFO, "Connection detected on ListenThread. ListenThread running is set to {0}", run);
+                    pending.add(new Accepted(accepted, System.nanoTime()));
+                } catch (SocketException e) {
+                    LOGGER.log(Level.INFO, "ServerSocket has been closed. Acceptor will now terminate");
+                    socket = null;
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to accept new connection. ListenThread will now terminate", e);
+                    stopRunning();
+                }
+            }
+        }
+
+        /**
+         * Loop that blocks while it accepts new connections through a Unix
+         * domain ServerSocketChannel.
+         *
+         * @param channel the ServerSocketChannel to accept connections from.
+         */
+        private void acceptChannels(ServerSocketChannel channel) {
+            while (run && channel != null) {
+                try {
+                    SocketChannel accepted = channel.accept();
+                    LOGGER.log(Level.INFO, "Connection detected on ListenThread. ListenThread running is set to {0}", run);
+                    pending.add(new Accepted(accepted, System.nanoTime()));
+                } catch (ClosedChannelException e) {
+                    LOGGER.log(Level.INFO, "ServerSocketChannel has been closed. Acceptor will now terminate");
+                    channel = null;
+                } catch (IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to accept new connection. ListenThread will now terminate", e);
+                    stopRunning();
+                }
+            }
+        }
+    }
 }
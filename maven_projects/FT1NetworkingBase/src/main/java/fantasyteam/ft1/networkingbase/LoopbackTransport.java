@@ -0,0 +1,353 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The {@link LoopbackTransport} class is an in-process {@link Transport} used
+ * to connect two {@link Server}s running in the same JVM without going through
+ * the kernel. Two {@link LoopbackTransport}s are created as a connected pair,
+ * each writing into a ring buffer the other one reads from, so bytes are
+ * passed between them at memory speed. This separates the cost of the
+ * transport from the cost of the {@link Server} and {@link MessageQueue} in
+ * tests and benchmarks. See addLoopbackSocket in {@link Server}.
+ *
+ * Like a TCP connection, a write blocks while the ring buffer of the remote end
+ * is full, a read blocks until bytes are received or the read timeout is
+ * reached, and once one end is closed the other end reads the bytes left in
+ * its ring buffer followed by the end of the stream.
+ *
+ * @author javu
+ */
+public class LoopbackTransport implements Transport {
+
+    /**
+     * Size in bytes of the ring buffer in each direction.
+     */
+    public static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The {@link Pipe} bytes are read from.
+     */
+    private final Pipe in;
+    /**
+     * The {@link Pipe} bytes are written to.
+     */
+    private final Pipe out;
+    /**
+     * The longest time in milliseconds a read blocks for, 0 to block until
+     * bytes are received.
+     */
+    private volatile int read_timeout;
+
+    /**
+     * Takes the {@link Pipe}s to read from and write to.
+     *
+     * @param in the {@link Pipe} to read from.
+     * @param out the {@link Pipe} to write to.
+     */
+    private LoopbackTransport(Pipe in, Pipe out) {
+        this.in = in;
+        this.out = out;
+        read_timeout = 0;
+    }
+
+    /**
+     * Creates two connected {@link LoopbackTransport}s using the default
+     * buffer size.
+     *
+     * @return an array holding both ends of the connection.
+     */
+    public static LoopbackTransport[] createPair() {
+        return createPair(BUFFER_SIZE);
+    }
+
+    /**
+     * Creates two connected {@link LoopbackTransport}s. Bytes written to
+     * either one are read from the other.
+     *
+     * @param buffer_size the size in bytes of the ring buffer in each
+     * direction.
+     * @return an array holding both ends of the connection.
+     */
+    public static LoopbackTransport[] createPair(int buffer_size) {
+        Pipe first = new Pipe(buffer_size);
+        Pipe second = new Pipe(buffer_size);
+        return new LoopbackTransport[]{new LoopbackTransport(first, second), new LoopbackTransport(second, first)};
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return in.read(dst, read_timeout);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return out.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !in.isReaderClosed();
+    }
+
+    /**
+     * Closes this end of the connection. Any thread blocked reading from or
+     * writing to either end is woken up.
+     */
+    @Override
+    public void close() {
+        in.closeReader();
+        out.closeWriter();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+        read_timeout = timeout;
+    }
+
+    /**
+     * Returns the loopback address, as the remote end is always in the same
+     * JVM.
+     *
+     * @return the loopback InetAddress.
+     */
+    @Override
+    public InetAddress getRemoteAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    /**
+     * Returns the number of bytes received that have not been read yet.
+     *
+     * @return the number of bytes waiting to be read.
+     */
+    public int available() {
+        return in.available();
+    }
+
+    /**
+     * Puts the attribute states of {@link LoopbackTransport} in readable form.
+     *
+     * @return Attributes of {@link LoopbackTransport} in a readable String
+     * form.
+     */
+    @Override
+    public String toString() {
+        return "LoopbackTransport available: " + in.available() + " open: " + isOpen();
+    }
+
+    /**
+     * A ring buffer carrying bytes in one direction between two
+     * {@link LoopbackTransport}s.
+     */
+    private static class Pipe {
+
+        /**
+         * The ring buffer.
+         */
+        private final byte[] buffer;
+        /**
+         * Index in buffer of the next byte to read.
+         */
+        private int head;
+        /**
+         * Number of bytes in buffer that have not been read.
+         */
+        private int count;
+        /**
+         * Set once the reading end has been closed.
+         */
+        private boolean reader_closed;
+        /**
+         * Set once the writing end has been closed.
+         */
+        private boolean writer_closed;
+        /**
+         * Lock held while accessing the buffer.
+         */
+        private final ReentrantLock lock;
+        /**
+         * Signalled when bytes are written or either end is closed.
+         */
+        private final Condition not_empty;
+        /**
+         * Signalled when bytes are read or either end is closed.
+         */
+        private final Condition not_full;
+
+        /**
+         * Takes the size of the ring buffer.
+         *
+         * @param size the size in bytes of the ring buffer.
+         */
+        private Pipe(int size) {
+            buffer = new byte[size];
+            head = 0;
+            count = 0;
+            reader_closed = false;
+            writer_closed = false;
+            lock = new ReentrantLock();
+            not_empty = lock.newCondition();
+            not_full = lock.newCondition();
+        }
+
+        /**
+         * Reads as many bytes as are available into dst, blocking until at
+         * least one byte is available.
+         *
+         * @param dst the buffer to read into.
+         * @param timeout the longest time in milliseconds to block, 0 to block
+         * until bytes are received.
+         * @return the number of bytes read, or -1 if the writing end has been
+         * closed and every byte has been read.
+         * @throws IOException if the reading end has been closed, the thread
+         * was interrupted or the timeout was reached.
+         */
+        private int read(ByteBuffer dst, int timeout) throws IOException {
+            lock.lock();
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (count == 0 && !writer_closed && !reader_closed) {
+                    try {
+                        if (timeout > 0) {
+                            if (remaining <= 0) {
+                                throw new SocketTimeoutException("Read timed out");
+                            }
+                            remaining = not_empty.awaitNanos(remaining);
+                        } else {
+                            not_empty.await();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while reading", e);
+                    }
+                }
+                if (reader_closed) {
+                    throw new ClosedChannelException();
+                }
+                if (count == 0) {
+                    return -1;
+                }
+                int length = Math.min(count, dst.remaining());
+                int first = Math.min(length, buffer.length - head);
+                dst.put(buffer, head, first);
+                if (first < length) {
+                    dst.put(buffer, 0, length - first);
+                }
+                head = (head + length) % buffer.length;
+                count -= length;
+                not_full.signal();
+                return length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Writes every byte in src, blocking while the ring buffer is full.
+         *
+         * @param src the buffer to write.
+         * @return the number of bytes written.
+         * @throws IOException if either end has been closed or the thread was
+         * interrupted.
+         */
+        private int write(ByteBuffer src) throws IOException {
+            int written = 0;
+            lock.lock();
+            try {
+                while (src.hasRemaining()) {
+                    while (count == buffer.length && !reader_closed && !writer_closed) {
+                        try {
+                            not_full.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while writing", e);
+                        }
+                    }
+                    if (writer_closed) {
+                        throw new ClosedChannelException();
+                    }
+                    if (reader_closed) {
+                        throw new IOException("Connection closed by remote end");
+                    }
+                    int tail = (head + count) % buffer.length;
+                    int length = Math.min(src.remaining(), buffer.length - count);
+                    int first = Math.min(length, buffer.length - tail);
+                    src.get(buffer, tail, first);
+                    if (first < length) {
+                        src.get(buffer, 0, length - first);
+                    }
+                    count += length;
+                    written += length;
+                    not_empty.signal();
+                }
+                return written;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the reading end, waking up every blocked thread.
+         */
+        private void closeReader() {
+            lock.lock();
+            try {
+                reader_closed = true;
+                not_empty.signalAll();
+                not_full.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Closes the writing end, waking up every blocked thread.
+         */
+        private void closeWriter() {
+            lock.lock();
+            try {
+                writer_closed = true;
+                not_empty.signalAll();
+                not_full.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns whether the reading end has been closed.
+         *
+         * @return true if the reading end has been closed.
+         */
+        private boolean isReaderClosed() {
+            lock.lock();
+            try {
+                return reader_closed;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the number of bytes that have not been read.
+         *
+         * @return the number of bytes in the ring buffer.
+         */
+        private int available() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -1,11 +1,25 @@
 package fantasyteam.ft1.networkingbase;
 
-import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.exceptions.FT1EngineError;
 import fantasyteam.ft1.networkingbase.exceptions.HashNotFoundException;
 import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import fantasyteam.ft1.networkingbase.exceptions.NullException;
 import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,10 +31,64 @@ import java.util.logging.Logger;
  * through its {@link Sock} on its {@link MessageQueue}, which will action the
  * messages depending on the queues state.
  *
- * The implementation currently only has options to pause, resume and clear the
- * queue. It will be fleshed out to include error handling and a system for
- * acknowledging whether each message is received on the other end and resending
- * messages if they are not acknowledged within a specified timeout.
+ * Messages can be queued on logical channels, each with its own queue so the
+ * messages on one channel keep their order without waiting behind another
+ * channel. Every time the queue is flushed channels are batched in order of
+ * the priority set with the setChannelPriority function of {@link Server},
+ * and while more than one channel has messages waiting at most
+ * CHANNEL_BATCH_LIMIT messages times the weight of the channel are taken from
+ * each, so a large backlog on a bulk channel never holds up messages on a
+ * higher priority channel for more than one batch. With the DRAIN_STRICT mode
+ * only the highest priority channels with messages waiting are batched, so
+ * lower priority channels wait until they are empty. Messages queued without
+ * a channel use the channel set for their action name with the
+ * setActionChannel function of {@link Server}, or channel 0.
+ *
+ * The queue can be bounded with setCapacity, in which case a message queued
+ * while capacity messages are already waiting is handled by the overflow
+ * policy: OVERFLOW_DROP_OLDEST drops the oldest message on the lowest
+ * priority channel that has messages waiting, OVERFLOW_DROP_NEWEST drops the
+ * new message, OVERFLOW_COALESCE replaces the latest message on the same
+ * channel with the same action name and OVERFLOW_DISCONNECT disconnects the
+ * socket. A message is never dropped to make room for one on a lower priority
+ * channel. Once the number of queued messages reaches the high watermark set
+ * with setWatermarks the queue is no longer writable and the {@link Server}
+ * passes QUEUE_UNWRITABLE to the Game, and once it has been flushed down to
+ * the low watermark QUEUE_WRITABLE is passed, so a Game can stop sending to a
+ * slow client before anything is dropped.
+ *
+ * When the coalescing feature of the {@link Server} is in use, a message for
+ * an action given to setCoalesceKey replaces the unsent message on the same
+ * channel with the same coalescing key, keeping the position of the message it
+ * replaces, so the backlog of a client that falls behind is bounded by the
+ * number of keys rather than the number of updates.
+ *
+ * When setRingSize is given a size above 0, threads queuing messages add them
+ * to a lock-free {@link MessageRing} instead of taking the lock on the
+ * {@link MessageQueue}. The {@link MessageQueue} moves them onto its channels
+ * each time it loops, or before its queued messages are read, and coalescing
+ * is applied then. The {@link MessageRing} is only used while the message
+ * would neither reach the capacity nor the high watermark, counting the
+ * messages already on the {@link MessageRing}, so the overflow policy and the
+ * watermarks are applied as soon as a message is queued. Otherwise, or if the
+ * {@link MessageRing} is full, the message is queued under the lock as
+ * normal.
+ *
+ * A {@link MessageQueue} is only serviced when it is signalled: by a message
+ * being queued, by its own state or the state of its {@link SocketThread}
+ * changing, or by one of its own deadlines on the {@link TimerWheel} of the
+ * {@link Server}, such as the retry of a failed flush. It normally runs its
+ * own thread, which parks until it is signalled. When the writer pool feature
+ * of the {@link Server} is in use it is attached to a {@link WriterPool}
+ * instead, and a signal hands it to one of the pool's workers, so an idle
+ * {@link MessageQueue} uses no CPU time either way.
+ *
+ * When the queue spill feature of the {@link Server} is in use the messages
+ * queued while the socket is disconnected are moved to a {@link QueueSpill}
+ * instead of being discarded, so they are held off the heap until the socket
+ * reconnects. Once the queue is running again the spilled messages are sent,
+ * SPILL_BATCH_LIMIT at a time, before any message queued after the
+ * reconnection.
  *
  * @author javu
  */
@@ -63,27 +131,106 @@ public class MessageQueue extends Thread {
     public static final int CLOSED = 5;
 
     /**
-     * ArraList<String> used to queue messages to be sent on the {@link Sock}.
+     * Largest number of messages batched from one channel each time the queue
+     * is flushed while other channels also have messages waiting.
+     */
+    public static final int CHANNEL_BATCH_LIMIT = 64;
+    /**
+     * Drain mode where every channel with messages waiting is batched each
+     * time the queue is flushed, in order of priority, taking at most
+     * CHANNEL_BATCH_LIMIT messages times its weight.
+     */
+    public static final int DRAIN_WEIGHTED = 0;
+    /**
+     * Drain mode where only the channels with the highest priority that have
+     * messages waiting are batched each time the queue is flushed.
+     */
+    public static final int DRAIN_STRICT = 1;
+
+    /**
+     * Largest number of spilled messages batched each time the queue is
+     * flushed while replaying its {@link QueueSpill}.
+     */
+    public static final int SPILL_BATCH_LIMIT = 1024;
+
+    /**
+     * The number of milliseconds waited before retrying to send messages
+     * after sending them failed.
+     */
+    public static final long RETRY_INTERVAL = 10;
+
+    /**
+     * Overflow policy used when the queue is full, drops the oldest message
+     * queued on the lowest priority channel to make room for the new one. If
+     * every queued message is on a higher priority channel than the new one
+     * the new message is dropped instead.
+     */
+    public static final int OVERFLOW_DROP_OLDEST = 0;
+
+    /**
+     * Overflow policy used when the queue is full, drops the new message.
+     */
+    public static final int OVERFLOW_DROP_NEWEST = 1;
+
+    /**
+     * Overflow policy used when the queue is full, replaces the latest message
+     * queued on the same channel with the same action name with the new one.
+     * If there is no such message the oldest message is dropped as with
+     * OVERFLOW_DROP_OLDEST.
+     */
+    public static final int OVERFLOW_COALESCE = 2;
+
+    /**
+     * Overflow policy used when the queue is full, drops the new message and
+     * disconnects the socket.
+     */
+    public static final int OVERFLOW_DISCONNECT = 3;
+
+    /**
+     * {@link Lane} used to queue messages to be sent on the {@link Sock} on
+     * channel 0.
+     */
+    private volatile Lane messages;
+    /**
+     * Messages queued on every channel other than channel 0, keyed by channel
+     * id. Channel 0 uses messages. A channel is removed once all of its
+     * messages have been batched.
      */
-    private volatile ArrayList<String> messages;
+    private final Map<Integer, Lane> channel_messages;
+    /**
+     * Reusable list of the channels with messages waiting, sorted by priority
+     * each time the queue is flushed.
+     */
+    private final ArrayList<Integer> ready_channels;
+    /**
+     * Sorts channels by their priority on server, highest first, and then by
+     * channel id.
+     */
+    private final Comparator<Integer> priority_order;
     /**
      * The instance of {@link Server} that created this instance of
      * {@link MessageThread}.
      */
     private volatile Server server;
     /**
-     * {@link fantasyteam.ft1.Timing} used to timeout the socket if an exception
-     * is caught when sending messages and is not recovered from in the time
-     * given by timeout_error.
+     * {@link TimerWheel.Timeout} used to timeout the socket if an exception is
+     * caught when sending messages and is not recovered from in the time given
+     * by timeout_error.
      */
-    private Timing timer_error;
+    private TimerWheel.Timeout timer_error;
     /**
-     * {@link fantasyteam.ft1.Timing} used to timeout disconnections by the
-     * socket. If the socket does not reconnect in the time given by
-     * timeout_disconnect then the sockets hash is removed from the disconnected
-     * sockets list and this queue is closed.
+     * {@link TimerWheel.Timeout} used to timeout disconnections by the socket.
+     * If the socket does not reconnect in the time given by timeout_disconnect
+     * then the sockets hash is removed from the disconnected sockets list and
+     * this queue is closed.
      */
-    private Timing timer_disconnect;
+    private TimerWheel.Timeout timer_disconnect;
+    /**
+     * {@link TimerWheel.Timeout} used to signal this {@link MessageQueue} to
+     * retry sending messages RETRY_INTERVAL milliseconds after sending them
+     * failed.
+     */
+    private TimerWheel.Timeout timer_retry;
     /**
      * The long in milliseconds used when determining the timeout offset for
      * error handling.
@@ -105,6 +252,118 @@ public class MessageQueue extends Thread {
      * RUNNING 2 - ERROR 3 - PAUSED 4 - DISCONNECT 5 - CLOSED
      */
     private volatile int state;
+    /**
+     * Set when messages have been batched on the {@link Sock} but writing them
+     * failed, so the next loop retries the flush even if no new messages have
+     * been queued.
+     */
+    private boolean flush_pending;
+    /**
+     * Set by requestFlush when the flush deadline of the batch on the
+     * {@link Sock} has passed, so the next loop flushes it even if no messages
+     * have been queued.
+     */
+    private volatile boolean flush_requested;
+    /**
+     * The largest number of messages that can be queued on every channel
+     * before the overflow policy is used, 0 for no limit.
+     */
+    private volatile int capacity;
+    /**
+     * The number of queued messages at which the queue stops being writable, 0
+     * to never stop being writable.
+     */
+    private volatile int high_watermark;
+    /**
+     * The number of queued messages the queue has to be flushed down to before
+     * it is writable again.
+     */
+    private volatile int low_watermark;
+    /**
+     * The policy used when a message is queued while the queue is full. Valid
+     * policies are: 0 - OVERFLOW_DROP_OLDEST 1 - OVERFLOW_DROP_NEWEST 2 -
+     * OVERFLOW_COALESCE 3 - OVERFLOW_DISCONNECT
+     */
+    private volatile int overflow_policy;
+    /**
+     * False from when the number of queued messages reaches high_watermark
+     * until it has been flushed down to low_watermark.
+     */
+    private volatile boolean writable;
+    /**
+     * The number of messages queued on every channel.
+     */
+    private volatile int queued_messages;
+    /**
+     * The largest number of messages that have been queued at once.
+     */
+    private volatile int peak_queued_messages;
+    /**
+     * The number of messages dropped by the overflow policy.
+     */
+    private volatile long dropped_messages;
+    /**
+     * The number of messages replaced by a newer message with the
+     * OVERFLOW_COALESCE policy.
+     */
+    private volatile long coalesced_messages;
+    /**
+     * Set once the socket has been scheduled to be disconnected by the
+     * OVERFLOW_DISCONNECT policy.
+     */
+    private boolean overflow_disconnect;
+    /**
+     * The {@link QueueSpill} holding the messages queued while the socket was
+     * disconnected. Null when nothing has been spilled.
+     */
+    private volatile QueueSpill spill;
+    /**
+     * The {@link MessageRing} messages are queued on without taking the lock
+     * on this {@link MessageQueue}. Null when not in use.
+     */
+    private volatile MessageRing ring;
+    /**
+     * The {@link MessageRing} replaced by setRingSize, kept until every
+     * message a thread was still adding to it has been moved onto its
+     * channel. Null when there is none.
+     */
+    private volatile MessageRing retired_ring;
+    /**
+     * The {@link WriterPool} serving this {@link MessageQueue}. Null when it
+     * runs its own thread.
+     */
+    private volatile WriterPool pool;
+    /**
+     * True while this {@link MessageQueue} is waiting for or being served by
+     * a worker of pool.
+     */
+    private final AtomicBoolean scheduled;
+    /**
+     * Set by signal, so a signal that arrives while this {@link MessageQueue}
+     * is being serviced makes it service again afterwards instead of parking
+     * or waiting for the next signal.
+     */
+    private volatile boolean signalled;
+    /**
+     * The thread running run() when this {@link MessageQueue} runs its own
+     * thread, unparked by signal. Null otherwise.
+     */
+    private volatile Thread runner;
+    /**
+     * Counted down once state is first changed from NEW, which releases any
+     * thread waiting in awaitStart.
+     */
+    private final CountDownLatch started;
+    /**
+     * Where the unsent message with each coalescing key was queued.
+     */
+    private final HashMap<String, CoalesceSlot> coalesce_slots;
+    /**
+     * The number of messages taken from the front of each channel while
+     * coalesce_slots was not empty, keyed by channel id. Used to find the
+     * current index of a {@link CoalesceSlot}.
+     */
+    private final HashMap<Integer, Long> channel_heads;
     /**
      * Logger for logging important actions and exceptions.
      */
@@ -121,14 +380,50 @@ public class MessageQueue extends Thread {
      * identifier on its owning {@link Server}.
      */
     public MessageQueue(Server server, String hash) {
-        messages = new ArrayList<String>();
+        messages = new Lane();
+        channel_messages = new ConcurrentHashMap<Integer, Lane>();
+        ready_channels = new ArrayList<Integer>();
+        priority_order = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer channel1, Integer channel2) {
+                int priority1 = MessageQueue.this.server.getChannelPriority(channel1);
+                int priority2 = MessageQueue.this.server.getChannelPriority(channel2);
+                if (priority1 != priority2) {
+                    return priority1 > priority2 ? -1 : 1;
+                }
+                return channel1.compareTo(channel2);
+            }
+        };
         this.server = server;
         this.hash = hash;
         timer_error = null;
         timer_disconnect = null;
+        timer_retry = null;
         timeout_error = 300000;
         timeout_disconnect = 300000;
         state = NEW;
+        flush_pending = false;
+        flush_requested = false;
+        capacity = 0;
+        high_watermark = 0;
+        low_watermark = 0;
+        overflow_policy = OVERFLOW_DROP_OLDEST;
+        writable = true;
+        queued_messages = 0;
+        peak_queued_messages = 0;
+        dropped_messages = 0;
+        coalesced_messages = 0;
+        overflow_disconnect = false;
+        spill = null;
+        ring = null;
+        retired_ring = null;
+        pool = null;
+        scheduled = new AtomicBoolean(false);
+        signalled = false;
+        runner = null;
+        started = new CountDownLatch(1);
+        coalesce_slots = new HashMap<String, CoalesceSlot>();
+        channel_heads = new HashMap<Integer, Long>();
     }
 
     /**
@@ -136,95 +431,580 @@ public class MessageQueue extends Thread {
      */
     public synchronized void close() {
         state = CLOSED;
+        started.countDown();
+        signal();
     }
 
     /**
-     * Loop used to handle messages in the messages ArrayList. If state is set
-     * to CLOSED the loop will exit and the Thread will terminate.
+     * Loop used to handle messages in the messages ArrayList when this
+     * {@link MessageQueue} runs its own thread. Every message queued is taken
+     * at once and batched on the {@link Sock}, which then writes the whole
+     * backlog with a single gathering write. Once there is nothing left to do
+     * the thread parks until it is signalled. If state is set to CLOSED the
+     * loop will exit and the Thread will terminate.
      */
     @Override
     public void run() {
+        runner = Thread.currentThread();
         state = RUNNING;
+        started.countDown();
         while (state >= 1 && state <= 4) {
-            if (state == RUNNING || state == ERROR) {
-                if (!messages.isEmpty() && server.getSocketList() != null && server.getSocketList().containsKey(hash) && (socket().getRun() == SocketThread.RUNNING || socket().getRun() == SocketThread.CONFIRMED || socket().getRun() == SocketThread.ERROR)) {
-                    try {
-                        LOGGER.log(Level.INFO, "Attempting to send message {0} through MessageQueue for SocketThread {1}", new Object[]{messages.get(0), hash});
-                        socket().getSocket().sendMessage(messages.get(0));
-                        messages.remove(0);
-                        state = RUNNING;
-                        if (timer_error != null) {
-                            timer_error = null;
-                        }
-                        if(timer_disconnect != null) {
-                            timer_disconnect = null;
-                        }
-                    } catch (IOException e) {
-                        state = ERROR;
-                        if (timer_error == null) {
-                            timer_error = new Timing();
-                        }
-                        LOGGER.log(Level.SEVERE, "Could not send message: {0}. Exception: {1}", new Object[]{messages.get(0), e});
-                        if (timer_error.getTime() > timeout_error) {
-                            LOGGER.log(Level.SEVERE, "Sending message has timed out. Disconnecting socket. Message: ", messages.get(0));
-                            server.disconnect(hash);
+            signalled = false;
+            if (!service() && !signalled && state >= 1 && state <= 4) {
+                LockSupport.park(this);
+            }
+        }
+        runner = null;
+        finish();
+    }
+
+    /**
+     * Runs one pass of the loop: sends the queued messages if the socket is
+     * ready, or handles the DISCONNECT state. Run by the loop of this
+     * {@link MessageQueue}'s own thread, or by a worker of its
+     * {@link WriterPool}. Must never be run by two threads at once.
+     *
+     * @return true if messages were sent and there are more waiting to be
+     * sent.
+     */
+    private boolean service() {
+        drainRing();
+        if (state == RUNNING || state == ERROR) {
+            if ((!messages.isEmpty() || !channel_messages.isEmpty() || flush_pending || flush_requested || spill != null) && server.getSocketList() != null && server.getSocketList().containsKey(hash) && (socket().getRun() == SocketThread.RUNNING || socket().getRun() == SocketThread.CONFIRMED || socket().getRun() == SocketThread.ERROR)) {
+                try {
+                    Sock sock = socket().getSocket();
+                    synchronized (this) {
+                        if (state != RUNNING && state != ERROR) {
+                            // Paused, disconnected or closed since the state
+                            // was checked, leave the messages queued.
+                            return false;
+                        } else if (spill != null) {
+                            replaySpill(sock);
+                        } else if (!channel_messages.isEmpty()) {
+                            batchChannels(sock);
+                        } else if (!messages.isEmpty()) {
+                            LOGGER.log(Level.INFO, "Attempting to send {0} messages through MessageQueue for SocketThread {1}", new Object[]{messages.size(), hash});
+                            sock.batchMessages(messages);
+                            queued_messages -= messages.size();
+                            advanceHead(0, messages.size());
+                            messages.clear();
+                            pruneCoalesced();
                         }
                     }
-                }
-            } else if (state == DISCONNECT) {
-                if (server.getUseDisconnectedSockets()) {
-                    if (server.getDisconnectedSockets().contains(hash)) {
-                        if (timer_disconnect == null) {
-                            LOGGER.log(Level.INFO, "SocketThread with hash {0} has been disconnected, waiting to re-establish connection", hash);
-                            timer_disconnect = new Timing();
-                        } else if (timer_disconnect.getTime() > timeout_disconnect) {
-                            LOGGER.log(Level.INFO, "SocketThread with hash {0} did not reconnect within the given timeout", hash);
-                            try {
-                                server.removeDisconnectedSocket(hash);
-                            } catch (HashNotFoundException | NullException e) {
-                                LOGGER.log(Level.INFO, "Socket {0} has not been disconnect, or hash was incorrectly removed from disconnected_sockets. Queue state set to RUNNING", hash);
-                                state = RUNNING;
+                    // Every message taken is now held by the Sock, so a
+                    // failed write is retried by flushing rather than by
+                    // sending the messages again.
+                    flush_requested = false;
+                    flush_pending = true;
+                    sock.flush();
+                    flush_pending = false;
+                    if (state == ERROR) {
+                        state = RUNNING;
+                    }
+                    cancelTimeouts();
+                    checkWritable();
+                    MessageRing current = ring;
+                    return queued_messages > 0 || spill != null || (current != null && !current.isEmpty());
+                } catch (IOException e) {
+                    state = ERROR;
+                    scheduleRetry();
+                    if (timer_error == null) {
+                        timer_error = server.getTimerWheel().schedule(timeout_error, new Runnable() {
+                            @Override
+                            public void run() {
+                                expireError();
                             }
-                            if (state != RUNNING) {
-                                try {
-                                    server.removeQueue(hash);
-                                } catch (HashNotFoundException | NullException e) {
-                                    LOGGER.log(Level.SEVERE, "Failed to remove self from queue_list on server", e);
-                                }
-                                state = CLOSED;
+                        });
+                    }
+                    if (flush_pending) {
+                        LOGGER.log(Level.SEVERE, "Could not flush batched messages. Exception: {0}", e);
+                    } else {
+                        LOGGER.log(Level.SEVERE, "Could not send queued messages. Exception: {0}", e);
+                    }
+                }
+            } else {
+                if (timer_disconnect != null) {
+                    // Reconnected before the disconnect timeout.
+                    timer_disconnect.cancel();
+                    timer_disconnect = null;
+                }
+                checkWritable();
+            }
+        } else if (state == DISCONNECT) {
+            if (server.getUseDisconnectedSockets()) {
+                if (server.getDisconnectedSockets().contains(hash)) {
+                    if (timer_disconnect == null) {
+                        LOGGER.log(Level.INFO, "SocketThread with hash {0} has been disconnected, waiting to re-establish connection", hash);
+                        timer_disconnect = server.getTimerWheel().schedule(timeout_disconnect, new Runnable() {
+                            @Override
+                            public void run() {
+                                expireDisconnect();
                             }
-                        } else {
-                            messages.clear();
+                        });
+                    }
+                    synchronized (this) {
+                        if (server.getUseQueueSpill()) {
+                            spillMessages();
                         }
-                    } else {
-                        LOGGER.log(Level.INFO, "Socket {0} has not been disconnect, or hash was incorrectly removed from disconnected_sockets. Queue state set to RUNNING", hash);
-                        state = RUNNING;
+                        messages.clear();
+                        channel_messages.clear();
+                        queued_messages = 0;
+                        clearCoalesced();
+                        overflow_disconnect = false;
                     }
                 } else {
+                    LOGGER.log(Level.INFO, "Socket {0} has not been disconnect, or hash was incorrectly removed from disconnected_sockets. Queue state set to RUNNING", hash);
                     state = RUNNING;
-                    LOGGER.log(Level.INFO, "Server is not set to use disconnecting functionality. MessageQueue cannot be set to state DISCONNECT. State set to RUNNING");
+                    return true;
                 }
+            } else {
+                state = RUNNING;
+                LOGGER.log(Level.INFO, "Server is not set to use disconnecting functionality. MessageQueue cannot be set to state DISCONNECT. State set to RUNNING");
+                return true;
             }
         }
-        messages.clear();
-        messages = null;
-        timer_error = null;
-        timer_disconnect = null;
+        return false;
+    }
+
+    /**
+     * Schedules a signal on the {@link TimerWheel} of the {@link Server} so
+     * sending is retried RETRY_INTERVAL milliseconds after it failed, unless a
+     * retry is already scheduled.
+     */
+    private void scheduleRetry() {
+        if (timer_retry == null || timer_retry.isExpired()) {
+            timer_retry = server.getTimerWheel().schedule(RETRY_INTERVAL, new Runnable() {
+                @Override
+                public void run() {
+                    signal();
+                }
+            });
+        }
+    }
+
+    /**
+     * Asks this {@link MessageQueue} to flush the messages batched on its
+     * {@link Sock}. Run by the flush deadline of the write batching feature
+     * on the {@link TimerWheel} of the {@link Server}, which must not write
+     * itself, so the flush is done by the thread serving this
+     * {@link MessageQueue}.
+     */
+    void requestFlush() {
+        flush_requested = true;
+        signal();
+    }
+
+    /**
+     * Serves this {@link MessageQueue} on a worker of its {@link WriterPool}.
+     * Hands it back to the pool straight away if it has more messages to send
+     * or was signalled while it was being served, otherwise it waits for the
+     * next signal. Once the {@link MessageQueue} has been closed its
+     * messages are cleared and it is detached from the pool.
+     */
+    void serve() {
+        WriterPool current = pool;
+        if (current == null) {
+            return;
+        }
+        signalled = false;
+        boolean more = false;
+        if (state >= 1 && state <= 4) {
+            more = service();
+        } else if (state == CLOSED) {
+            pool = null;
+            finish();
+            current.detach(this);
+            return;
+        }
+        scheduled.set(false);
+        if (more || signalled) {
+            signal();
+        }
+    }
+
+    /**
+     * Attaches this {@link MessageQueue} to a {@link WriterPool}, which serves
+     * it instead of it running its own thread. Sets the state to RUNNING.
+     *
+     * @param pool the {@link WriterPool} to be served by.
+     */
+    synchronized void attach(WriterPool pool) {
+        this.pool = pool;
+        state = RUNNING;
+        started.countDown();
+        signal();
+    }
+
+    /**
+     * Tells this {@link MessageQueue} it has something to do. Hands it to the
+     * workers of its {@link WriterPool}, unless it is already waiting for or
+     * being served by a worker, or unparks its own thread.
+     */
+    void signal() {
+        signalled = true;
+        WriterPool current = pool;
+        if (current != null) {
+            if (scheduled.compareAndSet(false, true)) {
+                current.submit(this);
+            }
+        } else {
+            Thread current_runner = runner;
+            if (current_runner != null) {
+                LockSupport.unpark(current_runner);
+            }
+        }
+    }
+
+    /**
+     * Clears every queued message once this {@link MessageQueue} has been
+     * closed.
+     */
+    private void finish() {
+        synchronized (this) {
+            closeSpill();
+            clearCoalesced();
+            if (ring != null) {
+                ring.clear();
+            }
+            retired_ring = null;
+            messages.clear();
+            messages = null;
+            channel_messages.clear();
+            queued_messages = 0;
+        }
+        flush_pending = false;
+        cancelTimeouts();
         LOGGER.log(Level.INFO, "MessageQueue successfully closed. State {0}", state);
     }
 
+    /**
+     * Run by the {@link TimerWheel} of the {@link Server} once timeout_error
+     * has passed since sending messages first failed. Disconnects the socket
+     * if the {@link MessageQueue} has not recovered.
+     */
+    private void expireError() {
+        if (state == ERROR) {
+            LOGGER.log(Level.SEVERE, "Sending message has timed out. Disconnecting socket. Hash: {0}", hash);
+            server.disconnect(hash);
+        }
+    }
+
+    /**
+     * Run by the {@link TimerWheel} of the {@link Server} once
+     * timeout_disconnect has passed since the {@link SocketThread} was
+     * disconnected. Removes the hash from the disconnected sockets list and
+     * closes this {@link MessageQueue} if the socket has not reconnected.
+     */
+    private void expireDisconnect() {
+        if (state != DISCONNECT) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "SocketThread with hash {0} did not reconnect within the given timeout", hash);
+        try {
+            server.removeDisconnectedSocket(hash);
+        } catch (HashNotFoundException | NullException e) {
+            LOGGER.log(Level.INFO, "Socket {0} has not been disconnect, or hash was incorrectly removed from disconnected_sockets. Queue state set to RUNNING", hash);
+            state = RUNNING;
+        }
+        if (state != RUNNING) {
+            try {
+                server.removeQueue(hash);
+            } catch (HashNotFoundException | NullException e) {
+                LOGGER.log(Level.SEVERE, "Failed to remove self from queue_list on server", e);
+            }
+            state = CLOSED;
+        }
+        signal();
+    }
+
+    /**
+     * Cancels the error and disconnect timeouts scheduled on the
+     * {@link TimerWheel} of the {@link Server}.
+     */
+    private void cancelTimeouts() {
+        if (timer_error != null) {
+            timer_error.cancel();
+            timer_error = null;
+        }
+        if (timer_disconnect != null) {
+            timer_disconnect.cancel();
+            timer_disconnect = null;
+        }
+        if (timer_retry != null) {
+            timer_retry.cancel();
+            timer_retry = null;
+        }
+    }
+
+    /**
+     * Marks the queue as writable and tells the {@link Server} if it was not
+     * writable and has been flushed down to low_watermark. Must not be called
+     * while holding the lock on this {@link MessageQueue} so the Game is never
+     * called while holding it.
+     */
+    private void checkWritable() {
+        if (writable) {
+            return;
+        }
+        int queued;
+        synchronized (this) {
+            if (writable || queued_messages > low_watermark) {
+                return;
+            }
+            writable = true;
+            queued = queued_messages;
+        }
+        LOGGER.log(Level.INFO, "MessageQueue for SocketThread {0} is writable again with {1} queued messages", new Object[]{hash, queued});
+        server.queueWritabilityChanged(hash, true, queued);
+    }
+
     private SocketThread socket() {
         return server.getSocketList().get(hash);
     }
 
     /**
-     * Sets the attribute messages, the ArrayList used to hold all the queued
-     * message for the socket.
+     * Batches the messages waiting on every channel on the {@link Sock}, in
+     * order of channel priority. If more than one channel has messages waiting
+     * at most CHANNEL_BATCH_LIMIT messages times the weight of the channel are
+     * taken from each channel, the rest are left for the next flush. When the
+     * {@link Server} drains channels with DRAIN_STRICT, channels with a lower
+     * priority than the first channel are left for a later flush. Must be
+     * called while holding the lock on this {@link MessageQueue}.
+     *
+     * @param sock the {@link Sock} to batch the messages on.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void batchChannels(Sock sock) throws IOException {
+        ready_channels.clear();
+        if (!messages.isEmpty()) {
+            ready_channels.add(0);
+        }
+        ready_channels.addAll(channel_messages.keySet());
+        Collections.sort(ready_channels, priority_order);
+        boolean limit = ready_channels.size() > 1;
+        boolean strict = server.getChannelDrain() == DRAIN_STRICT;
+        int top_priority = server.getChannelPriority(ready_channels.get(0));
+        for (Integer channel : ready_channels) {
+            if (strict && server.getChannelPriority(channel) < top_priority) {
+                break;
+            }
+            Lane queued = channel == 0 ? messages : channel_messages.get(channel);
+            List<String> batch = queued;
+            int batch_limit = CHANNEL_BATCH_LIMIT * server.getChannelWeight(channel);
+            if (limit && queued.size() > batch_limit) {
+                batch = queued.subList(0, batch_limit);
+            }
+            LOGGER.log(Level.INFO, "Attempting to send {0} messages on channel {1} through MessageQueue for SocketThread {2}", new Object[]{batch.size(), channel, hash});
+            try {
+                sock.batchMessages(batch, channel);
+            } catch (InvalidArgumentException e) {
+                throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when running Sock.batchMessages() from MessageQueue.batchChannels()", e);
+            }
+            queued_messages -= batch.size();
+            advanceHead(channel, batch.size());
+            batch.clear();
+            if (channel != 0 && queued.isEmpty()) {
+                channel_messages.remove(channel);
+            }
+        }
+        pruneCoalesced();
+    }
+
+    /**
+     * Moves every queued message to the end of spill, creating it if needed.
+     * Messages that do not fit are dropped. Must be called while holding the
+     * lock on this {@link MessageQueue}.
+     */
+    private void spillMessages() {
+        if (messages.isEmpty() && channel_messages.isEmpty()) {
+            return;
+        }
+        if (spill == null) {
+            try {
+                spill = QueueSpill.create(server.getQueueSpillSize());
+                LOGGER.log(Level.INFO, "Spilling messages for disconnected SocketThread {0} to {1}", new Object[]{hash, spill.getFile()});
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not create spill file for MessageQueue " + hash + ". Queued messages are dropped", e);
+                dropped_messages += queued_messages;
+                return;
+            }
+        }
+        spillMessages(messages, 0);
+        for (Map.Entry<Integer, Lane> channel : channel_messages.entrySet()) {
+            spillMessages(channel.getValue(), channel.getKey());
+        }
+    }
+
+    /**
+     * Appends the messages queued on one channel to spill, counting any that
+     * do not fit as dropped.
+     *
+     * @param queued the messages queued on channel.
+     * @param channel the id of the channel.
+     */
+    private void spillMessages(List<String> queued, int channel) {
+        for (String message : queued) {
+            if (!spill.append(message, channel)) {
+                dropped_messages++;
+            }
+        }
+    }
+
+    /**
+     * Batches up to SPILL_BATCH_LIMIT spilled messages on the {@link Sock} in
+     * the order they were spilled, closing spill once every message has been
+     * replayed. Must be called while holding the lock on this
+     * {@link MessageQueue}.
+     *
+     * @param sock the {@link Sock} to batch the messages on.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void replaySpill(Sock sock) throws IOException {
+        ArrayList<String> batch = new ArrayList<String>();
+        int channel = spill.peekChannel();
+        LOGGER.log(Level.INFO, "Replaying spilled messages for SocketThread {0}, {1} left", new Object[]{hash, spill.getSpilledMessages()});
+        for (int replayed = 0; replayed < SPILL_BATCH_LIMIT && spill.getSpilledMessages() > 0; replayed++) {
+            if (spill.peekChannel() != channel) {
+                batchSpilled(sock, batch, channel);
+                channel = spill.peekChannel();
+            }
+            batch.add(spill.read());
+        }
+        batchSpilled(sock, batch, channel);
+        if (spill.getSpilledMessages() == 0) {
+            closeSpill();
+        }
+    }
+
+    /**
+     * Batches spilled messages read from one channel on the {@link Sock} and
+     * clears batch.
+     *
+     * @param sock the {@link Sock} to batch the messages on.
+     * @param batch the messages to batch.
+     * @param channel the id of the channel the messages were queued on.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void batchSpilled(Sock sock, ArrayList<String> batch, int channel) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            sock.batchMessages(batch, channel);
+        } catch (InvalidArgumentException e) {
+            throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when running Sock.batchMessages() from MessageQueue.batchSpilled()", e);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Closes spill, deleting its file. Must be called while holding the lock
+     * on this {@link MessageQueue}.
+     */
+    private void closeSpill() {
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    /**
+     * Sets the attribute messages, the {@link Lane} used to hold all the
+     * queued message for the socket on channel 0, to a copy of messages.
      *
      * @param messages ArrayList(String) to set messages to.
      */
     public synchronized void setMessages(ArrayList<String> messages) {
-        this.messages = messages;
+        this.messages = new Lane(messages);
+        clearCoalesced();
+        int queued = messages.size();
+        for (Lane channel : channel_messages.values()) {
+            queued += channel.size();
+        }
+        queued_messages = queued;
+    }
+
+    /**
+     * Sets the attribute capacity, the largest number of messages that can be
+     * queued on every channel before the overflow policy is used.
+     *
+     * @param capacity int to set capacity to, 0 for no limit.
+     * @throws InvalidArgumentException if the parameter capacity is less than
+     * 0.
+     */
+    public synchronized void setCapacity(int capacity) throws InvalidArgumentException {
+        if (capacity >= 0) {
+            this.capacity = capacity;
+        } else {
+            throw new InvalidArgumentException("Value of capacity must be greater than or equal to 0");
+        }
+    }
+
+    /**
+     * Sets the size of the {@link MessageRing} messages are queued on without
+     * taking the lock on this {@link MessageQueue}. Any messages on the
+     * current {@link MessageRing} are moved onto their channels first.
+     *
+     * @param size the number of messages the {@link MessageRing} can hold,
+     * rounded up to a power of two, or 0 to queue every message under the
+     * lock.
+     * @throws InvalidArgumentException if size is less than 0 or too large
+     * for a {@link MessageRing}.
+     */
+    public void setRingSize(int size) throws InvalidArgumentException {
+        if (size < 0) {
+            throw new InvalidArgumentException("Value of ring size must be greater than or equal to 0");
+        }
+        MessageRing new_ring = size == 0 ? null : new MessageRing(size);
+        synchronized (this) {
+            if (ring != null) {
+                if (retired_ring != null) {
+                    drainRing(retired_ring);
+                }
+                retired_ring = ring;
+            }
+            ring = new_ring;
+        }
+        drainRing();
+    }
+
+    /**
+     * Sets the attributes low_watermark and high_watermark. The queue stops
+     * being writable once high_watermark messages are queued and is writable
+     * again once it has been flushed down to low_watermark messages.
+     *
+     * @param low int to set low_watermark to.
+     * @param high int to set high_watermark to, 0 to never stop being
+     * writable.
+     * @throws InvalidArgumentException if low is less than 0, or if high is
+     * not 0 and not greater than low.
+     */
+    public synchronized void setWatermarks(int low, int high) throws InvalidArgumentException {
+        if (low >= 0 && (high == 0 || high > low)) {
+            low_watermark = low;
+            high_watermark = high;
+        } else {
+            throw new InvalidArgumentException("Value of low must be greater than or equal to 0 and value of high must be 0 or greater than low. low = " + low + ", high = " + high);
+        }
+    }
+
+    /**
+     * Sets the attribute overflow_policy, the policy used when a message is
+     * queued while the queue is full. Valid policies are: 0 -
+     * OVERFLOW_DROP_OLDEST 1 - OVERFLOW_DROP_NEWEST 2 - OVERFLOW_COALESCE 3 -
+     * OVERFLOW_DISCONNECT.
+     *
+     * @param policy int to set overflow_policy to.
+     * @throws InvalidArgumentException if parameter policy !=
+     * OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_NEWEST, OVERFLOW_COALESCE or
+     * OVERFLOW_DISCONNECT.
+     */
+    public synchronized void setOverflowPolicy(int policy) throws InvalidArgumentException {
+        if (policy == OVERFLOW_DROP_OLDEST || policy == OVERFLOW_DROP_NEWEST || policy == OVERFLOW_COALESCE || policy == OVERFLOW_DISCONNECT) {
+            overflow_policy = policy;
+        } else {
+            throw new InvalidArgumentException("Policy must equal OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_NEWEST, OVERFLOW_COALESCE or OVERFLOW_DISCONNECT. Policy equals " + policy);
+        }
     }
 
     /**
@@ -271,6 +1051,7 @@ public class MessageQueue extends Thread {
      */
     public synchronized void setHash(String hash) {
         this.hash = hash;
+        signal();
     }
 
     /**
@@ -285,18 +1066,180 @@ public class MessageQueue extends Thread {
     public synchronized void setRun(int state) throws InvalidArgumentException {
         if (state == NEW || state == RUNNING || state == ERROR || state == PAUSED || state == DISCONNECT || state == CLOSED) {
             this.state = state;
+            if (state != NEW) {
+                started.countDown();
+            }
+            signal();
         } else {
             throw new InvalidArgumentException("State must equal NEW, RUNNING, ERROR, PAUSED, DISCONNECT or CLOSED. State equals " + state);
         }
     }
 
     /**
-     * Returns the attribute messages.
+     * Returns a copy of the attribute messages, the messages waiting to be
+     * sent on channel 0.
      *
-     * @return the ArrayList(String) messages.
+     * @return the ArrayList(String) of messages, or null once this
+     * {@link MessageQueue} has been closed.
      */
     public ArrayList<String> getMessages() {
-        return messages;
+        drainRing();
+        synchronized (this) {
+            Lane current = messages;
+            if (current == null) {
+                return null;
+            }
+            return new ArrayList<String>(current);
+        }
+    }
+
+    /**
+     * Returns the messages waiting to be sent on a channel.
+     *
+     * @param channel the id of the channel.
+     * @return the ArrayList(String) of messages queued on channel, empty if
+     * there are none.
+     */
+    public ArrayList<String> getChannelMessages(int channel) {
+        drainRing();
+        synchronized (this) {
+            return channelMessages(channel);
+        }
+    }
+
+    /**
+     * Returns a copy of the messages waiting to be sent on a channel. Must be
+     * called while holding the lock on this {@link MessageQueue}.
+     *
+     * @param channel the id of the channel.
+     * @return the ArrayList(String) of messages queued on channel.
+     */
+    private ArrayList<String> channelMessages(int channel) {
+        if (channel == 0) {
+            return new ArrayList<String>(messages);
+        }
+        Lane queued = channel_messages.get(channel);
+        if (queued == null) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(queued);
+    }
+
+    /**
+     * Returns the number of messages waiting to be sent on every channel.
+     *
+     * @return the number of queued messages.
+     */
+    public int getQueuedMessages() {
+        drainRing();
+        return queued_messages;
+    }
+
+    /**
+     * Returns the number of messages held in the {@link QueueSpill} waiting to
+     * be replayed.
+     *
+     * @return the number of spilled messages.
+     */
+    public int getSpilledMessages() {
+        QueueSpill current = spill;
+        if (current == null) {
+            return 0;
+        }
+        return current.getSpilledMessages();
+    }
+
+    /**
+     * Returns the attribute peak_queued_messages, the largest number of
+     * messages that have been queued at once.
+     *
+     * @return the int peak_queued_messages.
+     */
+    public int getPeakQueuedMessages() {
+        return peak_queued_messages;
+    }
+
+    /**
+     * Returns the attribute dropped_messages, the number of messages dropped
+     * by the overflow policy.
+     *
+     * @return the long dropped_messages.
+     */
+    public long getDroppedMessages() {
+        return dropped_messages;
+    }
+
+    /**
+     * Returns the attribute coalesced_messages, the number of messages
+     * replaced by a newer message with the OVERFLOW_COALESCE policy.
+     *
+     * @return the long coalesced_messages.
+     */
+    public long getCoalescedMessages() {
+        return coalesced_messages;
+    }
+
+    /**
+     * Returns the attribute writable. False from when the number of queued
+     * messages reaches high_watermark until it has been flushed down to
+     * low_watermark.
+     *
+     * @return the boolean writable.
+     */
+    public boolean getWritable() {
+        drainRing();
+        return writable;
+    }
+
+    /**
+     * Returns the attribute capacity.
+     *
+     * @return the int capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of messages the {@link MessageRing} of this
+     * {@link MessageQueue} can hold.
+     *
+     * @return the int size of the {@link MessageRing}, or 0 if messages are
+     * queued under the lock.
+     */
+    public int getRingSize() {
+        MessageRing current = ring;
+        if (current == null) {
+            return 0;
+        }
+        return current.getCapacity();
+    }
+
+    /**
+     * Returns the attribute high_watermark.
+     *
+     * @return the int high_watermark.
+     */
+    public int getHighWatermark() {
+        return high_watermark;
+    }
+
+    /**
+     * Returns the attribute low_watermark.
+     *
+     * @return the int low_watermark.
+     */
+    public int getLowWatermark() {
+        return low_watermark;
+    }
+
+    /**
+     * Returns the attribute overflow_policy.
+     *
+     * @return the int overflow_policy.
+     */
+    public int getOverflowPolicy() {
+        return overflow_policy;
     }
 
     /**
@@ -335,15 +1278,428 @@ public class MessageQueue extends Thread {
         return state;
     }
 
+    /**
+     * Blocks until state is changed from NEW, either by the
+     * {@link MessageQueue} starting or by it being closed, or until timeout
+     * milliseconds have passed.
+     *
+     * @param timeout the longest time in milliseconds to wait.
+     * @return true if state was changed from NEW before timeout was reached.
+     */
+    public boolean awaitStart(long timeout) {
+        try {
+            return started.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return state != NEW;
+        }
+    }
+
     /**
      * Adds a String message to the ArrayList(String) messages. This is the
      * method used to queue messages for handling by the {@link MessageQueue}.
+     * If a channel has been set for the action name of the message with the
+     * setActionChannel function of {@link Server} the message is queued on
+     * that channel instead.
      *
      * @param message the String to queue in messages.
      */
-    public synchronized void queueMessage(String message) {
-        LOGGER.log(Level.INFO, "Queued message {0} for SocketThread {1}", new Object[]{message, hash});
-        messages.add(message);
+    public void queueMessage(String message) {
+        int channel = 0;
+        Map<String, Integer> action_channels = server.getActionChannels();
+        if (!action_channels.isEmpty()) {
+            Integer mapped = action_channels.get(actionName(message));
+            if (mapped != null) {
+                channel = mapped;
+            }
+        }
+        LOGGER.log(Level.INFO, "Queued message {0} on channel {1} for SocketThread {2}", new Object[]{message, channel, hash});
+        enqueue(message, channel);
+    }
+
+    /**
+     * Adds a String message to the queue of a channel. Messages on the same
+     * channel are sent in the order they are queued. Unlike
+     * queueMessage(String message) the channel set for the action name of the
+     * message is not used.
+     *
+     * @param message the String to queue.
+     * @param channel the id of the channel to send the message on.
+     * @throws InvalidArgumentException if channel is less than 0.
+     */
+    public void queueMessage(String message, int channel) throws InvalidArgumentException {
+        if (channel < 0) {
+            throw new InvalidArgumentException("Channel must be >= 0. channel = " + channel);
+        }
+        LOGGER.log(Level.INFO, "Queued message {0} on channel {1} for SocketThread {2}", new Object[]{message, channel, hash});
+        enqueue(message, channel);
+    }
+
+    /**
+     * Adds a String message to the queue of a channel, using the overflow
+     * policy if the queue is full. Tells the {@link Server} once the queue
+     * stops being writable, after releasing the lock on this
+     * {@link MessageQueue}.
+     *
+     * @param message the String to queue.
+     * @param channel the id of the channel to send the message on.
+     */
+    private void enqueue(String message, int channel) {
+        MessageRing current = ring;
+        if (current != null) {
+            if (ringHasRoom(current) && current.offer(message, channel)) {
+                signal();
+                return;
+            }
+            // The ring is full. Move its messages onto the channels first so
+            // this message stays behind them.
+            drainRing();
+        }
+        String key = coalesceKey(message);
+        boolean unwritable;
+        int queued;
+        synchronized (this) {
+            unwritable = append(message, channel, key);
+            queued = queued_messages;
+        }
+        signal();
+        if (!unwritable) {
+            return;
+        }
+        LOGGER.log(Level.INFO, "MessageQueue for SocketThread {0} is no longer writable with {1} queued messages", new Object[]{hash, queued});
+        server.queueWritabilityChanged(hash, false, queued);
+    }
+
+    /**
+     * Returns whether a message can be added to a {@link MessageRing} without
+     * the queue reaching its capacity, or its high watermark while it is
+     * writable, once the messages on the {@link MessageRing} are counted.
+     * Threads queuing at the same time can each see room for one message, so
+     * the channels can still be handed a few messages over capacity when the
+     * {@link MessageRing} is drained, where the overflow policy drops them.
+     *
+     * @param current the {@link MessageRing} the message would be added to.
+     * @return true if the message can be added to current.
+     */
+    private boolean ringHasRoom(MessageRing current) {
+        int pending = queued_messages + current.size() + 1;
+        return (capacity == 0 || pending <= capacity) && (high_watermark == 0 || !writable || pending < high_watermark);
+    }
+
+    /**
+     * Moves every message published on ring onto its channel, in the order
+     * they were queued. Tells the {@link Server} once the queue stops being
+     * writable, after releasing the lock on this {@link MessageQueue}.
+     */
+    private void drainRing() {
+        MessageRing current = ring;
+        if ((current == null || current.isEmpty()) && retired_ring == null) {
+            return;
+        }
+        boolean unwritable;
+        int queued;
+        synchronized (this) {
+            unwritable = false;
+            if (retired_ring != null) {
+                unwritable = drainRing(retired_ring);
+                if (retired_ring.isEmpty()) {
+                    retired_ring = null;
+                }
+            }
+            if (current != null && drainRing(current)) {
+                unwritable = true;
+            }
+            queued = queued_messages;
+        }
+        if (unwritable) {
+            LOGGER.log(Level.INFO, "MessageQueue for SocketThread {0} is no longer writable with {1} queued messages", new Object[]{hash, queued});
+            server.queueWritabilityChanged(hash, false, queued);
+        }
+    }
+
+    /**
+     * Moves every message published on a {@link MessageRing} onto its
+     * channel. Must be called while holding the lock on this
+     * {@link MessageQueue}.
+     *
+     * @param current the {@link MessageRing} to take the messages from.
+     * @return true if the queue stopped being writable.
+     */
+    private boolean drainRing(MessageRing current) {
+        boolean unwritable = false;
+        int channel = current.peekChannel();
+        while (channel != -1) {
+            String message = current.poll();
+            if (append(message, channel, coalesceKey(message))) {
+                unwritable = true;
+            }
+            channel = current.peekChannel();
+        }
+        return unwritable;
+    }
+
+    /**
+     * Adds a String message to the queue of a channel, using the overflow
+     * policy if the queue is full. Must be called while holding the lock on
+     * this {@link MessageQueue}.
+     *
+     * @param message the String to queue.
+     * @param channel the id of the channel to send the message on.
+     * @param key the coalescing key of message, or null if it is not
+     * coalesced.
+     * @return true if the queue stopped being writable when message was
+     * queued.
+     */
+    private boolean append(String message, int channel, String key) {
+        Lane channel_queue = channel == 0 ? messages : channel_messages.get(channel);
+        if (key != null && channel_queue != null && coalesce(key, message, channel, channel_queue)) {
+            return false;
+        }
+        if (capacity > 0 && queued_messages >= capacity && !overflow(message, channel, channel_queue)) {
+            return false;
+        }
+        if (channel_queue == null) {
+            channel_queue = new Lane();
+            channel_messages.put(channel, channel_queue);
+        }
+        channel_queue.add(message);
+        if (key != null) {
+            coalesce_slots.put(key, new CoalesceSlot(channel_queue, channel, head(channel) + channel_queue.size() - 1, message));
+        }
+        int queued = ++queued_messages;
+        if (queued > peak_queued_messages) {
+            peak_queued_messages = queued;
+        }
+        if (!writable || high_watermark == 0 || queued < high_watermark) {
+            return false;
+        }
+        writable = false;
+        return true;
+    }
+
+    /**
+     * Uses the overflow policy to make room for a message queued while the
+     * queue is full. Must be called while holding the lock on this
+     * {@link MessageQueue}.
+     *
+     * @param message the String being queued.
+     * @param channel the id of the channel the message is being queued on.
+     * @param channel_queue the messages already queued on channel, or null if
+     * there are none.
+     * @return true if the message should still be queued, false if it was
+     * dropped or has replaced a queued message.
+     */
+    private boolean overflow(String message, int channel, Lane channel_queue) {
+        boolean has_queued = channel_queue != null && !channel_queue.isEmpty();
+        if (overflow_policy == OVERFLOW_COALESCE && has_queued) {
+            String action = actionName(message);
+            for (int i = channel_queue.size() - 1; i >= 0; i--) {
+                if (actionName(channel_queue.get(i)).equals(action)) {
+                    channel_queue.set(i, message);
+                    coalesced_messages++;
+                    return false;
+                }
+            }
+        }
+        dropped_messages++;
+        if (overflow_policy == OVERFLOW_DROP_OLDEST || overflow_policy == OVERFLOW_COALESCE) {
+            int victim = evictionChannel(channel);
+            if (victim != -1) {
+                LOGGER.log(Level.INFO, "MessageQueue for SocketThread {0} is full, dropping oldest message on channel {1} to queue a message on channel {2}", new Object[]{hash, victim, channel});
+                Lane victim_queue = victim == 0 ? messages : channel_messages.get(victim);
+                victim_queue.removeFirst();
+                advanceHead(victim, 1);
+                queued_messages--;
+                return true;
+            }
+        }
+        LOGGER.log(Level.INFO, "MessageQueue for SocketThread {0} is full, dropping message on channel {1}", new Object[]{hash, channel});
+        if (overflow_policy == OVERFLOW_DISCONNECT && !overflow_disconnect) {
+            overflow_disconnect = true;
+            LOGGER.log(Level.SEVERE, "MessageQueue for SocketThread {0} overflowed. Disconnecting socket", hash);
+            server.getTimerWheel().schedule(0, new Runnable() {
+                @Override
+                public void run() {
+                    server.disconnect(hash);
+                }
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Returns the channel whose oldest message is dropped to make room for a
+     * message queued on channel while the queue is full. This is the lowest
+     * priority channel with messages waiting. Between channels of the same
+     * priority channel itself is used if it has messages waiting, otherwise
+     * the channel with the highest id, as it would be sent last. Must be
+     * called while holding the lock on this {@link MessageQueue}.
+     *
+     * @param channel the id of the channel the new message is being queued
+     * on.
+     * @return the int id of the channel to drop a message from, or -1 if every
+     * waiting message is on a higher priority channel than channel.
+     */
+    private int evictionChannel(int channel) {
+        int priority = server.getChannelPriority(channel);
+        int victim = -1;
+        int victim_priority = priority;
+        if (!messages.isEmpty()) {
+            int channel_priority = server.getChannelPriority(0);
+            if (channel_priority <= victim_priority) {
+                victim = 0;
+                victim_priority = channel_priority;
+            }
+        }
+        for (Map.Entry<Integer, Lane> entry : channel_messages.entrySet()) {
+            int id = entry.getKey();
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            int channel_priority = server.getChannelPriority(id);
+            if (channel_priority < victim_priority || (channel_priority == victim_priority && victim != channel && (victim == -1 || id == channel || id > victim))) {
+                victim = id;
+                victim_priority = channel_priority;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Returns the coalescing key of an encoded message, its action name
+     * followed by its parameters up to and including the parameter set with
+     * the setCoalesceKey function of {@link Server}.
+     *
+     * @param message the encoded message.
+     * @return the coalescing key of message, or null if the message is not
+     * coalesced.
+     */
+    private String coalesceKey(String message) {
+        if (!server.getUseCoalescing()) {
+            return null;
+        }
+        String action = actionName(message);
+        Integer field = server.getCoalesceKeys().get(action);
+        if (field == null) {
+            return null;
+        }
+        int end = action.length();
+        for (int i = 0; i < field && end != -1 && end < message.length(); i++) {
+            end = message.indexOf((char) 31, end + 1);
+        }
+        if (end == -1 || end > message.length()) {
+            return message;
+        }
+        return message.substring(0, end);
+    }
+
+    /**
+     * Replaces the unsent message queued with the same coalescing key as a new
+     * message. Must be called while holding the lock on this
+     * {@link MessageQueue}.
+     *
+     * @param key the coalescing key of message.
+     * @param message the String being queued.
+     * @param channel the id of the channel the message is being queued on.
+     * @param channel_queue the messages already queued on channel.
+     * @return true if message replaced a queued message, false if no unsent
+     * message on channel has the same key.
+     */
+    private boolean coalesce(String key, String message, int channel, Lane channel_queue) {
+        CoalesceSlot slot = coalesce_slots.get(key);
+        if (slot == null || slot.queue != channel_queue) {
+            return false;
+        }
+        long index = slot.position - head(channel);
+        if (index < 0 || index >= channel_queue.size() || channel_queue.get((int) index) != slot.message) {
+            return false;
+        }
+        channel_queue.set((int) index, message);
+        slot.message = message;
+        coalesced_messages++;
+        return true;
+    }
+
+    /**
+     * Returns the number of messages taken from the front of a channel while
+     * coalesce_slots was not empty.
+     *
+     * @param channel the id of the channel.
+     * @return the long number of messages taken from channel.
+     */
+    private long head(int channel) {
+        Long head = channel_heads.get(channel);
+        if (head == null) {
+            return 0;
+        }
+        return head;
+    }
+
+    /**
+     * Counts messages taken from the front of a channel so the index of each
+     * {@link CoalesceSlot} on it can still be found. Must be called while
+     * holding the lock on this {@link MessageQueue}.
+     *
+     * @param channel the id of the channel.
+     * @param taken the number of messages taken.
+     */
+    private void advanceHead(int channel, int taken) {
+        if (!coalesce_slots.isEmpty()) {
+            channel_heads.put(channel, head(channel) + taken);
+        }
+    }
+
+    /**
+     * Removes the coalescing keys of messages that have been sent once there
+     * are more keys than queued messages, so coalesce_slots does not grow with
+     * every key ever queued. Must be called while holding the lock on this
+     * {@link MessageQueue}.
+     */
+    private void pruneCoalesced() {
+        if (coalesce_slots.isEmpty()) {
+            return;
+        }
+        if (queued_messages == 0) {
+            clearCoalesced();
+            return;
+        }
+        if (coalesce_slots.size() <= queued_messages * 2) {
+            return;
+        }
+        Iterator<CoalesceSlot> slots = coalesce_slots.values().iterator();
+        while (slots.hasNext()) {
+            CoalesceSlot slot = slots.next();
+            Lane channel_queue = slot.channel == 0 ? messages : channel_messages.get(slot.channel);
+            long index = slot.position - head(slot.channel);
+            if (channel_queue != slot.queue || index < 0 || index >= channel_queue.size() || channel_queue.get((int) index) != slot.message) {
+                slots.remove();
+            }
+        }
+    }
+
+    /**
+     * Forgets every coalescing key. Must be called while holding the lock on
+     * this {@link MessageQueue} whenever the queued messages are cleared or
+     * replaced.
+     */
+    private void clearCoalesced() {
+        coalesce_slots.clear();
+        channel_heads.clear();
+    }
+
+    /**
+     * Returns the action name of an encoded message, the text before the
+     * first seperator.
+     *
+     * @param message the encoded message.
+     * @return the action name of message.
+     */
+    private static String actionName(String message) {
+        int end = message.indexOf((char) 31);
+        if (end == -1) {
+            return message;
+        }
+        return message.substring(0, end);
     }
 
     /**
@@ -362,15 +1718,27 @@ public class MessageQueue extends Thread {
      */
     public synchronized void resumeQueue() {
         state = RUNNING;
+        signal();
         LOGGER.log(Level.INFO, "Resumed MessageQueue for SocketThread {0}", hash);
     }
 
     /**
      * Clears the ArrayList(String) messages. All messages still queued and not
-     * handled will be discarded.
+     * handled will be discarded, including any held in the {@link QueueSpill}.
      */
     public synchronized void clearQueue() {
         messages.clear();
+        channel_messages.clear();
+        queued_messages = 0;
+        closeSpill();
+        clearCoalesced();
+        if (ring != null) {
+            ring.clear();
+        }
+        if (retired_ring != null) {
+            retired_ring.clear();
+            retired_ring = null;
+        }
         LOGGER.log(Level.INFO, "Cleared MessageQueue for SocketThread {0}", hash);
     }
 
@@ -380,6 +1748,7 @@ public class MessageQueue extends Thread {
      */
     public synchronized void queueDisconnected() {
         state = DISCONNECT;
+        signal();
         LOGGER.log(Level.INFO, "Set MessageQueue for SocketThread {0} to disconnected", hash);
     }
 
@@ -403,7 +1772,15 @@ public class MessageQueue extends Thread {
      * @return Attributes of {@link MessageQueue} in a readable String form.
      */
     public String toString(String ch) {
-        String to_string = ch + "Owning SocketThread hash: " + hash + "\n" + ch + "State: " + state;
+        String to_string = ch + "Owning SocketThread hash: " + hash + "\n" + ch + "State: " + state + "\n" + ch + "Writable: " + writable + "\n" + ch + "Capacity: " + capacity + "\n" + ch + "Watermarks: " + low_watermark + " - " + high_watermark + "\n" + ch + "Overflow policy: " + overflow_policy + "\n" + ch + "Peak queued messages: " + peak_queued_messages + "\n" + ch + "Dropped messages: " + dropped_messages + "\n" + ch + "Coalesced messages: " + coalesced_messages;
+        QueueSpill current = spill;
+        if (current != null) {
+            to_string += "\n" + ch + current.toString();
+        }
+        MessageRing current_ring = ring;
+        if (current_ring != null) {
+            to_string += "\n" + ch + current_ring.toString();
+        }
         if (!messages.isEmpty()) {
             to_string += "\n" + ch + "Queued messages:";
             for (String message : messages) {
@@ -412,6 +1789,215 @@ public class MessageQueue extends Thread {
         } else {
             to_string += "\n" + ch + "There are no queued messages";
         }
+        for (Map.Entry<Integer, Lane> channel : channel_messages.entrySet()) {
+            to_string += "\n" + ch + "Queued messages on channel " + channel.getKey() + ": " + channel.getValue().size();
+        }
         return to_string;
     }
+
+    /**
+     * Where an unsent message with a coalescing key was queued. The position
+     * counts every message taken from the front of the channel, so the index
+     * of the message is its position less the head of the channel.
+     */
+    private static final class CoalesceSlot {
+
+        /**
+         * The queue of the channel the message was queued on.
+         */
+        private final Lane queue;
+        /**
+         * The id of the channel the message was queued on.
+         */
+        private final int channel;
+        /**
+         * The position the message was queued at.
+         */
+        private final long position;
+        /**
+         * The message queued at position.
+         */
+        private String message;
+
+        /**
+         * Takes the queue, channel and position a message was queued at.
+         *
+         * @param queue the queue of the channel.
+         * @param channel the id of the channel.
+         * @param position the position of the message.
+         * @param message the message queued.
+         */
+        private CoalesceSlot(Lane queue, int channel, long position, String message) {
+            this.queue = queue;
+            this.channel = channel;
+            this.position = position;
+            this.message = message;
+        }
+    }
+
+    /**
+     * The messages queued on one channel, oldest first. The messages are held
+     * in a ring of slots that grows as needed, so taking messages from the
+     * front, whether one at a time when the overflow policy drops the oldest
+     * message or a whole batch through subList(0, n).clear(), does not shift
+     * the messages behind them. Messages can only be added to the end.
+     */
+    private static final class Lane extends AbstractList<String> implements RandomAccess {
+
+        /**
+         * The slots holding the messages. Its length is always a power of two.
+         */
+        private String[] slots;
+        /**
+         * The slot of the oldest message.
+         */
+        private int head;
+        /**
+         * The number of messages in the lane.
+         */
+        private int size;
+
+        /**
+         * Creates an empty lane.
+         */
+        private Lane() {
+            slots = new String[16];
+            head = 0;
+            size = 0;
+        }
+
+        /**
+         * Creates a lane holding the messages of a list, in order.
+         *
+         * @param messages the messages to add.
+         */
+        private Lane(List<String> messages) {
+            this();
+            addAll(messages);
+        }
+
+        @Override
+        public String get(int index) {
+            checkIndex(index);
+            return slots[(head + index) & (slots.length - 1)];
+        }
+
+        @Override
+        public String set(int index, String message) {
+            checkIndex(index);
+            int slot = (head + index) & (slots.length - 1);
+            String replaced = slots[slot];
+            slots[slot] = message;
+            return replaced;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Adds a message to the end of the lane.
+         *
+         * @param index must equal the size of the lane.
+         * @param message the message to add.
+         * @throws UnsupportedOperationException if index is not the size of the
+         * lane.
+         */
+        @Override
+        public void add(int index, String message) {
+            if (index != size) {
+                throw new UnsupportedOperationException("Messages can only be added to the end of a Lane");
+            }
+            if (size == slots.length) {
+                String[] grown = new String[slots.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = slots[(head + i) & (slots.length - 1)];
+                }
+                slots = grown;
+                head = 0;
+            }
+            slots[(head + size) & (slots.length - 1)] = message;
+            size++;
+            modCount++;
+        }
+
+        /**
+         * Removes and returns the oldest message in the lane.
+         *
+         * @return the String message removed.
+         * @throws NoSuchElementException if the lane is empty.
+         */
+        private String removeFirst() {
+            if (size == 0) {
+                throw new NoSuchElementException("Lane is empty");
+            }
+            String removed = slots[head];
+            slots[head] = null;
+            head = (head + 1) & (slots.length - 1);
+            size--;
+            modCount++;
+            return removed;
+        }
+
+        @Override
+        public String remove(int index) {
+            if (index == 0) {
+                return removeFirst();
+            }
+            String removed = get(index);
+            removeRange(index, index + 1);
+            return removed;
+        }
+
+        /**
+         * Removes the messages from index from up to index to. Removing from
+         * the front of the lane only clears the slots removed.
+         *
+         * @param from the index of the first message to remove.
+         * @param to the index after the last message to remove.
+         */
+        @Override
+        protected void removeRange(int from, int to) {
+            int removed = to - from;
+            if (removed <= 0) {
+                return;
+            }
+            int mask = slots.length - 1;
+            if (from == 0) {
+                for (int i = 0; i < removed; i++) {
+                    slots[(head + i) & mask] = null;
+                }
+                head = (head + removed) & mask;
+            } else {
+                for (int i = from; i < size - removed; i++) {
+                    slots[(head + i) & mask] = slots[(head + i + removed) & mask];
+                }
+                for (int i = size - removed; i < size; i++) {
+                    slots[(head + i) & mask] = null;
+                }
+            }
+            size -= removed;
+            modCount++;
+        }
+
+        @Override
+        public void clear() {
+            removeRange(0, size);
+            head = 0;
+        }
+
+        /**
+         * Checks index is the index of a message in the lane.
+         *
+         * @param index the index to check.
+         * @throws IndexOutOfBoundsException if index is not the index of a
+         * message.
+         */
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+        }
+    }
 }
@@ -0,0 +1,230 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The {@link MessageRing} class is a bounded, lock-free ring buffer of
+ * messages that many threads can add to at once and a single thread takes
+ * from. It is used by a {@link MessageQueue} so threads sending messages do not
+ * have to take the lock on the {@link MessageQueue}, which is otherwise held
+ * while its messages are batched on the {@link Sock}. It is only an intake in
+ * front of the channels of the {@link MessageQueue}, which still hold the
+ * queued messages and are still used under the lock when the
+ * {@link MessageRing} is full or the queue is close to its limits.
+ *
+ * Producers claim a slot by moving the tail sequence forward with a
+ * compare-and-set, write the message and its channel id into the slot and then
+ * publish the slot by setting its sequence. The consumer only takes a slot once
+ * it has been published, so messages are taken in the order their slots were
+ * claimed. The head and tail sequences are padded so producers updating the
+ * tail do not keep invalidating the cache line the consumer updates the head
+ * on.
+ *
+ * Only one thread may take from a {@link MessageRing} at a time. A
+ * {@link MessageQueue} only calls peekChannel, poll and clear while holding
+ * its own lock.
+ *
+ * @author javu
+ */
+public class MessageRing {
+
+    /**
+     * A sequence counter followed by a cache line of padding, so the head and
+     * tail sequences are never on the same cache line.
+     */
+    @SuppressWarnings("unused")
+    private static final class PaddedSequence extends AtomicLong {
+
+        /**
+         * AtomicLong is Serializable, so a version is declared even though a
+         * {@link MessageRing} is never serialized.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Padding after the value of the sequence.
+         */
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    /**
+     * The sequence of the next slot to be taken by the consumer.
+     */
+    private final PaddedSequence head;
+    /**
+     * The sequence of the next slot to be claimed by a producer.
+     */
+    private final PaddedSequence tail;
+    /**
+     * The sequence each slot is waiting for. A slot holds a published
+     * message when its sequence is one more than the sequence it was claimed
+     * with, and is free when its sequence equals the sequence that will next
+     * claim it.
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * The messages held in each slot.
+     */
+    private final AtomicReferenceArray<String> messages;
+    /**
+     * The channel id of the message held in each slot. Written before the
+     * slot is published, so it is visible to the consumer once the slot's
+     * sequence is.
+     */
+    private final int[] channels;
+    /**
+     * Used to find the slot of a sequence. One less than the number of slots.
+     */
+    private final int mask;
+
+    /**
+     * Takes the number of messages the {@link MessageRing} can hold, which is
+     * rounded up to a power of two.
+     *
+     * @param size the number of messages the {@link MessageRing} can hold.
+     * @throws InvalidArgumentException if size is less than 1 or greater than
+     * 2^30.
+     */
+    public MessageRing(int size) throws InvalidArgumentException {
+        if (size < 1 || size > 1 << 30) {
+            throw new InvalidArgumentException("Ring size must be between 1 and " + (1 << 30) + ". size = " + size);
+        }
+        int slots = Integer.highestOneBit(size);
+        if (slots < size) {
+            slots <<= 1;
+        }
+        mask = slots - 1;
+        sequences = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            sequences.set(i, i);
+        }
+        messages = new AtomicReferenceArray<String>(slots);
+        channels = new int[slots];
+        head = new PaddedSequence();
+        tail = new PaddedSequence();
+    }
+
+    /**
+     * Adds a message to the end of the {@link MessageRing} without blocking.
+     * Can be run by any number of threads at once. The only limit checked is
+     * the number of slots, a {@link MessageQueue} checks its own capacity and
+     * watermarks before offering a message.
+     *
+     * @param message the message to add.
+     * @param channel the id of the channel the message is queued on.
+     * @return true if the message was added, false if the
+     * {@link MessageRing} is full.
+     */
+    public boolean offer(String message, int channel) {
+        while (true) {
+            long sequence = tail.get();
+            int slot = (int) sequence & mask;
+            long available = sequences.get(slot);
+            if (available == sequence) {
+                if (tail.compareAndSet(sequence, sequence + 1)) {
+                    channels[slot] = channel;
+                    messages.lazySet(slot, message);
+                    sequences.set(slot, sequence + 1);
+                    return true;
+                }
+            } else if (available < sequence) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the channel id of the next message, without taking it. Must
+     * only be run by the consumer.
+     *
+     * @return the channel id of the next message, or -1 if no message has
+     * been published.
+     */
+    public int peekChannel() {
+        long sequence = head.get();
+        int slot = (int) sequence & mask;
+        if (sequences.get(slot) != sequence + 1) {
+            return -1;
+        }
+        return channels[slot];
+    }
+
+    /**
+     * Takes the next message. Must only be run by the consumer.
+     *
+     * @return the next message, or null if no message has been published.
+     */
+    public String poll() {
+        long sequence = head.get();
+        int slot = (int) sequence & mask;
+        if (sequences.get(slot) != sequence + 1) {
+            return null;
+        }
+        String message = messages.get(slot);
+        messages.lazySet(slot, null);
+        head.lazySet(sequence + 1);
+        sequences.set(slot, sequence + mask + 1);
+        return message;
+    }
+
+    /**
+     * Discards every published message. Must only be run by the consumer.
+     *
+     * @return the number of messages discarded.
+     */
+    public int clear() {
+        int cleared = 0;
+        while (poll() != null) {
+            cleared++;
+        }
+        return cleared;
+    }
+
+    /**
+     * Returns whether there are no messages in the {@link MessageRing}. Can be
+     * run by any thread.
+     *
+     * @return true if no slot has been claimed since the last message was
+     * taken.
+     */
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Returns the number of messages in the {@link MessageRing}, counting
+     * claimed slots that have not been published yet. Can be run by any
+     * thread, in which case the result may already be out of date.
+     *
+     * @return the number of messages in the {@link MessageRing}.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, mask + 1);
+    }
+
+    /**
+     * Returns the number of messages the {@link MessageRing} can hold.
+     *
+     * @return the int capacity of the {@link MessageRing}.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Puts the attribute states of {@link MessageRing} in readable form.
+     *
+     * @return Attributes of {@link MessageRing} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        return "MessageRing " + size() + " of " + (mask + 1) + " messages";
+    }
+}
@@ -0,0 +1,220 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link QueueSpill} class is an append-only segment file used by a
+ * {@link MessageQueue} to hold the messages queued for a disconnected socket
+ * off the heap until the socket reconnects. The whole segment is memory-mapped
+ * when it is created, so spilling a message is a copy into the mapped buffer
+ * rather than a write to the file, and messages are read back in the order
+ * they were appended. Each message is stored as its channel id, its length in
+ * bytes and its UTF-8 bytes. Once the segment is full no more messages are
+ * appended. The file is deleted when the {@link QueueSpill} is closed.
+ *
+ * @author javu
+ */
+public class QueueSpill {
+
+    /**
+     * The number of bytes stored before each message, its channel id followed
+     * by its length.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * The segment file.
+     */
+    private final File file;
+    /**
+     * The FileChannel the segment file is mapped through.
+     */
+    private final FileChannel file_channel;
+    /**
+     * The memory-mapped segment. Set to null once closed.
+     */
+    private MappedByteBuffer buffer;
+    /**
+     * The position in buffer the next message is appended at.
+     */
+    private int write_position;
+    /**
+     * The position in buffer the next message is read from.
+     */
+    private int read_position;
+    /**
+     * The number of messages appended and not yet read.
+     */
+    private int spilled_messages;
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(QueueSpill.class.getName());
+
+    /**
+     * Takes the segment file and its size. The file is created if it does not
+     * exist and size bytes of it are memory-mapped.
+     *
+     * @param file the segment file.
+     * @param size the size of the segment in bytes.
+     * @throws IOException if the file could not be opened or mapped.
+     */
+    public QueueSpill(File file, int size) throws IOException {
+        this.file = file;
+        file_channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            buffer = file_channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            file_channel.close();
+            throw e;
+        }
+        write_position = 0;
+        read_position = 0;
+        spilled_messages = 0;
+    }
+
+    /**
+     * Creates a {@link QueueSpill} on a new temporary file.
+     *
+     * @param size the size of the segment in bytes.
+     * @return the new {@link QueueSpill}.
+     * @throws IOException if the file could not be created or mapped.
+     */
+    public static QueueSpill create(int size) throws IOException {
+        File file = File.createTempFile("ft1queue", ".spill");
+        try {
+            return new QueueSpill(file, size);
+        } catch (IOException e) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Appends a message to the end of the segment.
+     *
+     * @param message the message to append.
+     * @param channel the id of the channel the message was queued on.
+     * @return true if the message was appended, false if the segment is full
+     * or closed.
+     */
+    public synchronized boolean append(String message, int channel) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        if (buffer == null || buffer.capacity() - write_position < HEADER_SIZE + bytes.length) {
+            return false;
+        }
+        buffer.putInt(write_position, channel);
+        buffer.putInt(write_position + 4, bytes.length);
+        ByteBuffer view = buffer.duplicate();
+        view.position(write_position + HEADER_SIZE);
+        view.put(bytes);
+        write_position += HEADER_SIZE + bytes.length;
+        spilled_messages++;
+        return true;
+    }
+
+    /**
+     * Returns the channel id of the next message to be read.
+     *
+     * @return the channel id of the next message, or -1 if there are no
+     * messages left to read.
+     */
+    public synchronized int peekChannel() {
+        if (spilled_messages == 0) {
+            return -1;
+        }
+        return buffer.getInt(read_position);
+    }
+
+    /**
+     * Reads the next message. Once every message appended has been read the
+     * segment is reused from the start.
+     *
+     * @return the next message, or null if there are no messages left to
+     * read.
+     */
+    public synchronized String read() {
+        if (spilled_messages == 0) {
+            return null;
+        }
+        int length = buffer.getInt(read_position + 4);
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(read_position + HEADER_SIZE);
+        view.get(bytes);
+        spilled_messages--;
+        if (spilled_messages == 0) {
+            read_position = 0;
+            write_position = 0;
+        } else {
+            read_position += HEADER_SIZE + length;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the segment and deletes the file. Any messages not yet read are
+     * lost.
+     */
+    public synchronized void close() {
+        buffer = null;
+        spilled_messages = 0;
+        try {
+            file_channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close spill file " + file, e);
+        }
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Returns the attribute spilled_messages, the number of messages appended
+     * and not yet read.
+     *
+     * @return the int spilled_messages.
+     */
+    public synchronized int getSpilledMessages() {
+        return spilled_messages;
+    }
+
+    /**
+     * Returns the number of bytes of the segment used by messages not yet
+     * read.
+     *
+     * @return the number of bytes used.
+     */
+    public synchronized int getUsedBytes() {
+        return write_position - read_position;
+    }
+
+    /**
+     * Returns the attribute file.
+     *
+     * @return the File file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Puts the attribute states of {@link QueueSpill} in readable form.
+     *
+     * @return Attributes of {@link QueueSpill} in a readable String form.
+     */
+    @Override
+    public synchronized String toString() {
+        return "QueueSpill " + file + ", spilled messages: " + spilled_messages + ", used bytes: " + (write_position - read_position) + (buffer == null ? ", closed" : " of " + buffer.capacity());
+    }
+}
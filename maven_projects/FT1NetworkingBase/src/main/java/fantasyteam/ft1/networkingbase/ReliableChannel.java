@@ -0,0 +1,464 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link ReliableChannel} class holds the state of the reliable ordered
+ * channel of a single {@link DatagramSession}. Messages are split into
+ * fragments that each fit in one datagram, and every fragment is given the
+ * next sequence number. The receiving end acknowledges fragments with the
+ * sequence number it expects next, the highest sequence number it has
+ * received and a bitfield marking which of the 32 sequence numbers before the
+ * highest it has received. Fragments that are not acknowledged within the
+ * retransmit timeout are sent again, the timeout being worked out from the
+ * measured round trip time. Received fragments are held until every fragment
+ * before them has arrived, so messages are passed on in the order they were
+ * sent and only once.
+ *
+ * The {@link ReliableChannel} does not send or receive datagrams itself, that
+ * is done by the {@link DatagramThread}. All functions are synchronized as
+ * messages are queued by the thread sending them and acknowledged by the
+ * {@link DatagramThread}.
+ *
+ * @author javu
+ */
+public class ReliableChannel {
+
+    /**
+     * Largest number of bytes of a message sent in a single fragment. Kept
+     * below the usual path MTU so fragments are not split by IP.
+     */
+    public static final int MAX_FRAGMENT_SIZE = 1200;
+
+    /**
+     * Largest distance between the oldest unacknowledged sequence number and
+     * the newest sequence number sent. Fragments received further ahead of
+     * the next expected sequence number than this are dropped.
+     */
+    public static final int WINDOW_SIZE = 256;
+
+    /**
+     * Number of times a fragment is sent without being acknowledged before
+     * the channel is flagged as failed.
+     */
+    public static final int MAX_TRANSMISSIONS = 20;
+
+    /**
+     * Retransmit timeout in milliseconds used before the first round trip
+     * time has been measured.
+     */
+    private static final long INITIAL_TIMEOUT = 200;
+
+    /**
+     * Smallest retransmit timeout in milliseconds.
+     */
+    private static final long MIN_TIMEOUT = 20;
+
+    /**
+     * Largest retransmit timeout in milliseconds, including backoff.
+     */
+    private static final long MAX_TIMEOUT = 2000;
+
+    /**
+     * A single fragment of a message waiting to be sent or acknowledged.
+     */
+    static final class Fragment {
+
+        /**
+         * The sequence number of the fragment.
+         */
+        final int sequence;
+        /**
+         * The bytes of the message held by the fragment.
+         */
+        final byte[] payload;
+        /**
+         * Whether this is the last fragment of its message.
+         */
+        final boolean last;
+        /**
+         * Number of times the fragment has been sent.
+         */
+        int transmissions;
+        /**
+         * Time in milliseconds the fragment was last sent.
+         */
+        long sent_time;
+        /**
+         * Time in milliseconds the fragment is next due to be sent again.
+         */
+        long resend_time;
+
+        /**
+         * Takes the sequence number, bytes and last flag of the fragment.
+         *
+         * @param sequence the sequence number of the fragment.
+         * @param payload the bytes of the message held by the fragment.
+         * @param last whether this is the last fragment of its message.
+         */
+        Fragment(int sequence, byte[] payload, boolean last) {
+            this.sequence = sequence;
+            this.payload = payload;
+            this.last = last;
+            transmissions = 0;
+            sent_time = 0;
+            resend_time = 0;
+        }
+    }
+
+    /**
+     * Sequence number given to the next fragment queued.
+     */
+    private int next_sequence;
+    /**
+     * Fragments that have been queued but not sent yet, in sequence order.
+     */
+    private final ArrayDeque<Fragment> waiting;
+    /**
+     * Fragments that have been sent but not acknowledged yet, in sequence
+     * order.
+     */
+    private final LinkedHashMap<Integer, Fragment> in_flight;
+    /**
+     * The smoothed round trip time in milliseconds, or -1 before it has been
+     * measured.
+     */
+    private long round_trip_time;
+    /**
+     * The smoothed variation of the round trip time in milliseconds.
+     */
+    private long round_trip_variation;
+    /**
+     * The current retransmit timeout in milliseconds.
+     */
+    private long retransmit_timeout;
+    /**
+     * Total number of fragments that have been sent again.
+     */
+    private long retransmissions;
+    /**
+     * Whether a fragment has been sent MAX_TRANSMISSIONS times without being
+     * acknowledged.
+     */
+    private boolean failed;
+    /**
+     * Sequence number of the next fragment to be passed on.
+     */
+    private int next_expected;
+    /**
+     * Highest sequence number received.
+     */
+    private int highest_received;
+    /**
+     * Fragments received ahead of next_expected keyed by sequence number.
+     */
+    private final Map<Integer, Fragment> received;
+    /**
+     * Bytes of the message currently being put back together.
+     */
+    private final ByteArrayOutputStream assembly;
+    /**
+     * Whether fragments have been received since the last acknowledgement was
+     * sent.
+     */
+    private boolean ack_pending;
+
+    /**
+     * Constructs an empty {@link ReliableChannel}.
+     */
+    public ReliableChannel() {
+        next_sequence = 0;
+        waiting = new ArrayDeque<Fragment>();
+        in_flight = new LinkedHashMap<Integer, Fragment>();
+        round_trip_time = -1;
+        round_trip_variation = 0;
+        retransmit_timeout = INITIAL_TIMEOUT;
+        retransmissions = 0;
+        failed = false;
+        next_expected = 0;
+        highest_received = -1;
+        received = new HashMap<Integer, Fragment>();
+        assembly = new ByteArrayOutputStream();
+        ack_pending = false;
+    }
+
+    /**
+     * Splits a message into fragments and queues them to be sent.
+     *
+     * @param message the String message to send.
+     */
+    public synchronized void queue(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        int offset = 0;
+        do {
+            int length = Math.min(MAX_FRAGMENT_SIZE, bytes.length - offset);
+            byte[] payload = new byte[length];
+            System.arraycopy(bytes, offset, payload, 0, length);
+            offset += length;
+            waiting.add(new Fragment(next_sequence, payload, offset == bytes.length));
+            next_sequence++;
+        } while (offset < bytes.length);
+    }
+
+    /**
+     * Adds every fragment that is due to be sent to due. This is any waiting
+     * fragment that fits in the window and any fragment in flight whose
+     * retransmit timeout has passed. The send time and next resend time of
+     * each fragment are updated, doubling the timeout for every time a
+     * fragment has already been sent.
+     *
+     * @param now the current time in milliseconds.
+     * @param due the List to add the fragments to send to.
+     */
+    synchronized void poll(long now, List<Fragment> due) {
+        for (Fragment fragment : in_flight.values()) {
+            if (fragment.resend_time <= now) {
+                if (fragment.transmissions >= MAX_TRANSMISSIONS) {
+                    failed = true;
+                    return;
+                }
+                retransmissions++;
+                transmit(fragment, now);
+                due.add(fragment);
+            }
+        }
+        while (!waiting.isEmpty() && (in_flight.isEmpty() || waiting.peek().sequence - oldestInFlight() < WINDOW_SIZE)) {
+            Fragment fragment = waiting.poll();
+            in_flight.put(fragment.sequence, fragment);
+            transmit(fragment, now);
+            due.add(fragment);
+        }
+    }
+
+    /**
+     * Marks a fragment as sent at time now.
+     *
+     * @param fragment the fragment being sent.
+     * @param now the current time in milliseconds.
+     */
+    private void transmit(Fragment fragment, long now) {
+        long timeout = retransmit_timeout << Math.min(fragment.transmissions, 16);
+        fragment.transmissions++;
+        fragment.sent_time = now;
+        fragment.resend_time = now + Math.min(timeout, MAX_TIMEOUT);
+    }
+
+    /**
+     * Returns the sequence number of the oldest fragment in flight.
+     *
+     * @return the oldest sequence number in flight.
+     */
+    private int oldestInFlight() {
+        return in_flight.values().iterator().next().sequence;
+    }
+
+    /**
+     * Handles an acknowledgement from the other end. Every fragment before
+     * cumulative, the fragment latest and each fragment marked in bits is
+     * removed from in_flight. The round trip time is measured from fragments
+     * that were only sent once.
+     *
+     * @param cumulative the sequence number the other end expects next.
+     * @param latest the highest sequence number the other end has received.
+     * @param bits bitfield where bit i marks sequence number latest - 1 - i as
+     * received.
+     * @param now the current time in milliseconds.
+     */
+    public synchronized void acknowledge(int cumulative, int latest, int bits, long now) {
+        Iterator<Fragment> iterator = in_flight.values().iterator();
+        while (iterator.hasNext()) {
+            Fragment fragment = iterator.next();
+            int distance = latest - fragment.sequence;
+            if (fragment.sequence - cumulative < 0 || distance == 0 || (distance > 0 && distance <= 32 && (bits & (1 << (distance - 1))) != 0)) {
+                if (fragment.transmissions == 1) {
+                    measure(now - fragment.sent_time);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Updates the smoothed round trip time and retransmit timeout with a new
+     * sample in the same way as TCP.
+     *
+     * @param sample the measured round trip time in milliseconds.
+     */
+    private void measure(long sample) {
+        if (round_trip_time < 0) {
+            round_trip_time = sample;
+            round_trip_variation = sample / 2;
+        } else {
+            round_trip_variation = (3 * round_trip_variation + Math.abs(round_trip_time - sample)) / 4;
+            round_trip_time = (7 * round_trip_time + sample) / 8;
+        }
+        retransmit_timeout = Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, round_trip_time + 4 * round_trip_variation));
+    }
+
+    /**
+     * Handles a fragment received from the other end. Fragments that have
+     * already been received or are outside the window are dropped. Any
+     * message completed by the fragment, along with any messages held back
+     * waiting for it, is added to delivered in order.
+     *
+     * @param sequence the sequence number of the fragment.
+     * @param payload buffer holding the bytes of the fragment between its
+     * position and limit.
+     * @param last whether this is the last fragment of its message.
+     * @param delivered the List to add completed messages to.
+     */
+    public synchronized void receive(int sequence, ByteBuffer payload, boolean last, List<String> delivered) {
+        int distance = sequence - next_expected;
+        if (distance >= WINDOW_SIZE) {
+            return;
+        }
+        ack_pending = true;
+        if (distance < 0 || received.containsKey(sequence)) {
+            return;
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        received.put(sequence, new Fragment(sequence, bytes, last));
+        if (sequence - highest_received > 0) {
+            highest_received = sequence;
+        }
+        Fragment fragment = received.remove(next_expected);
+        while (fragment != null) {
+            assembly.write(fragment.payload, 0, fragment.payload.length);
+            if (fragment.last) {
+                delivered.add(new String(assembly.toByteArray(), StandardCharsets.UTF_8));
+                assembly.reset();
+            }
+            next_expected++;
+            fragment = received.remove(next_expected);
+        }
+    }
+
+    /**
+     * Returns whether fragments have been received since the last
+     * acknowledgement was sent, and clears the flag.
+     *
+     * @return true if an acknowledgement should be sent.
+     */
+    synchronized boolean takeAckPending() {
+        boolean pending = ack_pending;
+        ack_pending = false;
+        return pending;
+    }
+
+    /**
+     * Returns the sequence number of the next fragment to be passed on, sent
+     * as the cumulative acknowledgement.
+     *
+     * @return the int next_expected.
+     */
+    public synchronized int getCumulativeAck() {
+        return next_expected;
+    }
+
+    /**
+     * Returns the highest sequence number received.
+     *
+     * @return the int highest_received.
+     */
+    public synchronized int getLatestAck() {
+        return highest_received;
+    }
+
+    /**
+     * Returns the bitfield marking which of the 32 sequence numbers before
+     * the highest sequence number have been received. Bit i marks sequence
+     * number highest_received - 1 - i.
+     *
+     * @return the int bitfield.
+     */
+    public synchronized int getAckBits() {
+        int bits = 0;
+        for (int i = 0; i < 32; i++) {
+            int sequence = highest_received - 1 - i;
+            if (sequence - next_expected < 0 || received.containsKey(sequence)) {
+                bits |= 1 << i;
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Returns the smoothed round trip time.
+     *
+     * @return the round trip time in milliseconds, or -1 if it has not been
+     * measured yet.
+     */
+    public synchronized long getRoundTripTime() {
+        return round_trip_time;
+    }
+
+    /**
+     * Returns the current retransmit timeout.
+     *
+     * @return the retransmit timeout in milliseconds.
+     */
+    public synchronized long getRetransmitTimeout() {
+        return retransmit_timeout;
+    }
+
+    /**
+     * Returns the total number of fragments that have been sent again.
+     *
+     * @return the long retransmissions.
+     */
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    /**
+     * Returns the number of fragments queued or in flight that have not been
+     * acknowledged.
+     *
+     * @return the number of unacknowledged fragments.
+     */
+    public synchronized int getUnacknowledged() {
+        return waiting.size() + in_flight.size();
+    }
+
+    /**
+     * Returns whether a fragment has been sent MAX_TRANSMISSIONS times without
+     * being acknowledged.
+     *
+     * @return the boolean failed.
+     */
+    public synchronized boolean getFailed() {
+        return failed;
+    }
+
+    /**
+     * Puts the attribute states of {@link ReliableChannel} in readable form.
+     *
+     * @return Attributes of {@link ReliableChannel} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link ReliableChannel} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link ReliableChannel} in a readable String form.
+     */
+    public synchronized String toString(String ch) {
+        return ch + "Unacknowledged: " + (waiting.size() + in_flight.size()) + "\n" + ch + "Round trip time: " + round_trip_time + "\n" + ch + "Retransmit timeout: " + retransmit_timeout + "\n" + ch + "Retransmissions: " + retransmissions + "\n" + ch + "Failed: " + failed;
+    }
+}
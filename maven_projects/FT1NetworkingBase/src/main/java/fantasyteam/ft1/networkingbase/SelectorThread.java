@@ -0,0 +1,358 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link SelectorThread} class is an event loop used to read and write
+ * messages for many {@link SocketThread}s at once using a single
+ * java.nio.channels.Selector. When the selector transport feature is turned on
+ * the {@link Server} creates a small number of {@link SelectorThread}s (by
+ * default one per available processor) and registers each new connection with
+ * one of them instead of starting a new {@link SocketThread} for each
+ * connection. The {@link SocketThread}s are still stored in the socket_list on
+ * the {@link Server} and keep their state, hash and game values, they simply
+ * never run their own blocking loop. The key of a {@link SocketThread} is
+ * cancelled by the {@link SocketThread} itself when it stops running, so the
+ * select loop only ever looks at the keys that are ready.
+ *
+ * @author javu
+ */
+public class SelectorThread extends Thread {
+
+    /**
+     * Valid state for {@link SelectorThread}, used when the thread has just
+     * been constructed but has not started run() yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link SelectorThread}, used when the thread is running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link SelectorThread}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * Valid state for {@link SelectorThread}, used when the selector transport
+     * feature has been turned off. The thread keeps serving the channels
+     * already registered with it and closes once none are left.
+     */
+    public static final int RETIRING = 3;
+
+    /**
+     * Selector used to wait on all registered channels.
+     */
+    private final Selector selector;
+    /**
+     * The instance of {@link Server} that created this
+     * {@link SelectorThread}.
+     */
+    private final Server server;
+    /**
+     * {@link SocketThread}s waiting to be registered with selector. Channels
+     * can only be registered safely from the thread running the select loop.
+     */
+    private final ConcurrentLinkedQueue<SocketThread> pending_registrations;
+    /**
+     * {@link Sock}s that have data waiting to be written and need OP_WRITE
+     * added to their interest set.
+     */
+    private final ConcurrentLinkedQueue<Sock> pending_writes;
+    /**
+     * {@link SocketThread}s whose batched messages have reached their flush
+     * deadline and should be flushed by the select loop.
+     */
+    private final ConcurrentLinkedQueue<SocketThread> pending_flushes;
+    /**
+     * The current state of the {@link SelectorThread}. Valid states are: 0 -
+     * NEW 1 - RUNNING 2 - CLOSED 3 - RETIRING
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SelectorThread.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link SelectorThread} as a parameter.
+     *
+     * @param server the {@link Server} that created this
+     * {@link SelectorThread}.
+     * @throws IOException if an exception is encountered when opening the
+     * Selector.
+     */
+    public SelectorThread(Server server) throws IOException {
+        this.server = server;
+        selector = Selector.open();
+        pending_registrations = new ConcurrentLinkedQueue<SocketThread>();
+        pending_writes = new ConcurrentLinkedQueue<Sock>();
+        pending_flushes = new ConcurrentLinkedQueue<SocketThread>();
+        state = NEW;
+    }
+
+    /**
+     * Loop that blocks on the Selector until a registered channel is ready to
+     * be read from or written to. Complete messages are passed to the owning
+     * {@link SocketThread} to handle in the same way its own run() loop would.
+     * Once RETIRING the loop exits when no channels are registered. Cancelled
+     * keys are only removed from the Selector by a select, so a RETIRING
+     * loop runs selectNow() before checking.
+     */
+    @Override
+    public void run() {
+        if (state == NEW) {
+            state = RUNNING;
+        }
+        BufferPool.getDefault().enableThreadCache();
+        while (state == RUNNING || state == RETIRING) {
+            try {
+                if (state == RETIRING) {
+                    selector.selectNow();
+                    if (selector.keys().isEmpty() && pending_registrations.isEmpty()) {
+                        state = CLOSED;
+                        break;
+                    }
+                }
+                selector.select();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Selector failed while waiting for channels. SelectorThread will now terminate", e);
+                state = CLOSED;
+                break;
+            }
+            registerPending();
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                SocketThread socket = (SocketThread) key.attachment();
+                Sock sock = socket.getSocket();
+                try {
+                    if (key.isValid() && key.isWritable()) {
+                        if (sock == null || sock.flushWrites()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                        }
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        boolean open = sock != null && sock.readChannel();
+                        if (sock != null) {
+                            String message = sock.nextMessage();
+                            while (message != null) {
+                                socket.selectorMessage(message);
+                                message = sock.nextMessage();
+                            }
+                        }
+                        if (!open) {
+                            key.cancel();
+                            socket.selectorMessage(null);
+                        }
+                    }
+                } catch (CancelledKeyException e) {
+                    LOGGER.log(Level.INFO, "Channel for SocketThread {0} was closed while being handled", socket.getHash());
+                } catch (IOException e) {
+                    key.cancel();
+                    if (server.getSocketList() != null && server.getSocketList().containsKey(socket.getHash())) {
+                        LOGGER.log(Level.SEVERE, "Could not read from socket. Hash {0}", socket.getHash());
+                        socket.handleMessage(null);
+                    }
+                }
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            key.cancel();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to close Selector", e);
+        }
+        BufferPool.getDefault().disableThreadCache();
+        LOGGER.log(Level.INFO, "SelectorThread has exited");
+    }
+
+    /**
+     * Registers any {@link SocketThread}s and write requests queued by other
+     * threads, then flushes the batches handed over by requestFlush. Channels
+     * are non-blocking, so anything that cannot be written straight away is
+     * left for OP_WRITE. Only called from the select loop.
+     */
+    private void registerPending() {
+        SocketThread socket = pending_registrations.poll();
+        while (socket != null) {
+            Sock sock = socket.getSocket();
+            if (sock != null && sock.getChannel() != null) {
+                try {
+                    sock.getChannel().register(selector, SelectionKey.OP_READ, socket);
+                    LOGGER.log(Level.INFO, "Registered SocketThread {0} with SelectorThread", socket.getHash());
+                } catch (ClosedChannelException e) {
+                    LOGGER.log(Level.INFO, "Channel for SocketThread {0} was closed before it could be registered", socket.getHash());
+                }
+            }
+            socket = pending_registrations.poll();
+        }
+        Sock sock = pending_writes.poll();
+        while (sock != null) {
+            if (sock.getChannel() != null) {
+                SelectionKey key = sock.getChannel().keyFor(selector);
+                if (key != null && key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+            }
+            sock = pending_writes.poll();
+        }
+        socket = pending_flushes.poll();
+        while (socket != null) {
+            socket.flush();
+            socket = pending_flushes.poll();
+        }
+    }
+
+    /**
+     * Queues a {@link SocketThread} to be registered with this
+     * {@link SelectorThread}. The {@link SocketThread} is set to RUNNING if it
+     * has not already been set to a running state, which is the equivalent of
+     * starting the {@link SocketThread}.
+     *
+     * @param socket the {@link SocketThread} to register. Its {@link Sock}
+     * must have been constructed with a SocketChannel.
+     */
+    public void addSocket(SocketThread socket) {
+        socket.getSocket().setSelectorThread(this);
+        if (socket.getRun() == SocketThread.NEW) {
+            socket.startSelector();
+        }
+        pending_registrations.add(socket);
+        selector.wakeup();
+    }
+
+    /**
+     * Removes the channel of a {@link Sock} from this {@link SelectorThread}.
+     * Called by the {@link SocketThread} of the {@link Sock} when it stops
+     * running, so the select loop never has to check the state of the
+     * {@link SocketThread}s registered with it.
+     *
+     * @param sock the {@link Sock} whose channel should no longer be
+     * selected.
+     */
+    void removeSocket(Sock sock) {
+        if (sock.getChannel() != null) {
+            SelectionKey key = sock.getChannel().keyFor(selector);
+            if (key != null) {
+                key.cancel();
+                selector.wakeup();
+            }
+        }
+    }
+
+    /**
+     * Asks the select loop to finish writing the queued data on a
+     * {@link Sock} once its channel becomes writable.
+     *
+     * @param sock the {@link Sock} with data still waiting to be written.
+     */
+    void requestWrite(Sock sock) {
+        pending_writes.add(sock);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the select loop to flush the batched messages on the {@link Sock}
+     * of a {@link SocketThread}. Used by the flush deadline of the write
+     * batching feature, which must not write on the thread of the
+     * {@link TimerWheel}.
+     *
+     * @param socket the {@link SocketThread} whose {@link Sock} should be
+     * flushed.
+     */
+    void requestFlush(SocketThread socket) {
+        pending_flushes.add(socket);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the {@link SelectorThread}. The select loop will exit and the
+     * Selector will be closed. Any channels still registered are not closed,
+     * they are closed when their {@link SocketThread} is disconnected.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        selector.wakeup();
+    }
+
+    /**
+     * Retires the {@link SelectorThread}. No new channels should be
+     * registered with it, and the select loop keeps serving the channels
+     * already registered until they have all been removed, then closes the
+     * Selector and exits. Does nothing if the thread has already been closed.
+     */
+    public synchronized void retire() {
+        if (state == NEW || state == RUNNING) {
+            state = RETIRING;
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the number of channels currently registered with the Selector.
+     *
+     * @return the number of registered channels.
+     */
+    public int getSocketCount() {
+        if (selector.isOpen()) {
+            return selector.keys().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Puts the attribute states of {@link SelectorThread} in readable form.
+     *
+     * @return Attributes of {@link SelectorThread} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link SelectorThread} in readable form.
+     * Takes String input to assist formatting. Useful to add special
+     * characters to assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link SelectorThread} in a readable String form.
+     */
+    public String toString(String ch) {
+        String to_string = ch + "State: " + state;
+        if (selector.isOpen()) {
+            to_string += "\n" + ch + "Registered channels: " + selector.keys().size();
+        } else {
+            to_string += "\n" + ch + "Selector has been closed";
+        }
+        return to_string;
+    }
+}
@@ -1,28 +1,44 @@
 package fantasyteam.ft1.networkingbase;
 
 import fantasyteam.ft1.Game;
-import fantasyteam.ft1.Timing;
 import fantasyteam.ft1.exceptions.FT1EngineError;
 import fantasyteam.ft1.exceptions.InvalidActionException;
 import fantasyteam.ft1.exceptions.NetworkingIOException;
 import fantasyteam.ft1.exceptions.NetworkingRuntimeException;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotSupportedException;
 import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
 import fantasyteam.ft1.networkingbase.exceptions.HashNotFoundException;
 import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import fantasyteam.ft1.networkingbase.exceptions.NullException;
 import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
 import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
 import java.net.Socket;
+import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Adler32;
 
 /**
  * <p>
@@ -89,6 +105,61 @@ import java.util.logging.Logger;
  * use)</td><td>nill</td><td>nill</td></tr>
  * <tr><td>setUseSocketTimeout</td><td>setUseSocketTimeout(boolean
  * use)</td><td>SocketException</td><td>nill</td></tr>
+ * <tr><td>setUseBinaryFraming</td><td>setUseBinaryFraming(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setUseChannels</td><td>setUseChannels(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setChannelPriority</td><td>setChannelPriority(int channel, int
+ * priority)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setChannelWeight</td><td>setChannelWeight(int channel, int
+ * weight)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setChannelDrain</td><td>setChannelDrain(int
+ * mode)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setActionChannel</td><td>setActionChannel(String action, int
+ * channel)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUseCoalescing</td><td>setUseCoalescing(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setCoalesceKey</td><td>setCoalesceKey(String action, int
+ * field)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>removeCoalesceKey</td><td>removeCoalesceKey(String
+ * action)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setUseCompression</td><td>setUseCompression(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setCompressionActions</td><td>setCompressionActions(List(String)
+ * actions)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setUseWriteBatching</td><td>setUseWriteBatching(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setMaxFlushDelay</td><td>setMaxFlushDelay(long
+ * delay)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUseSelectorTransport</td><td>setUseSelectorTransport(boolean
+ * use)</td><td>IOException, ServerSocketCloseException,
+ * TimeoutException</td><td>nill</td></tr>
+ * <tr><td>setSelectorThreadCount</td><td>setSelectorThreadCount(int
+ * count)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setListenBacklog</td><td>setListenBacklog(int
+ * backlog)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setAcceptorCount</td><td>setAcceptorCount(int
+ * count)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUnixDomainPath</td><td>setUnixDomainPath(String
+ * path)</td><td>IOException, ServerSocketCloseException,
+ * TimeoutException</td><td>FeatureNotSupportedException</td></tr>
+ * <tr><td>setConnectTimeout</td><td>setConnectTimeout(long
+ * timeout)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUseBatchedDelivery</td><td>setUseBatchedDelivery(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>deliverActions</td><td>deliverActions()</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setUseHeartbeat</td><td>setUseHeartbeat(boolean
+ * use)</td><td>SocketException</td><td>nill</td></tr>
+ * <tr><td>setHeartbeatInterval</td><td>setHeartbeatInterval(long
+ * interval)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setHeartbeatThreshold</td><td>setHeartbeatThreshold(double
+ * threshold)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUseVirtualThreads</td><td>setUseVirtualThreads(boolean
+ * use)</td><td>nill</td><td>FeatureNotSupportedException</td></tr>
+ * <tr><td>setUseWriterPool</td><td>setUseWriterPool(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setWriterPoolSize</td><td>setWriterPoolSize(int
+ * size)</td><td>nill</td><td>InvalidArgumentException</td></tr>
  * <tr><td>setDisconnectedSockets</td><td>setDisconnectedSockets(ArrayList(String)
  * disconnected_sockets)</td><td>nill</td><td>nill</td></tr>
  * <tr><td>setListenThread</td><td>setListenThread()</td><td>IOException,
@@ -105,6 +176,18 @@ import java.util.logging.Logger;
  * <tr><td>setQueueTimeoutDisconnectIndividual</td><td>setQueueTimeoutDisconnectIndividual(String
  * hash, long timeout)</td><td>nill</td><td>FeatureNotUsedException,
  * NullException, HashNotFoundException, InvalidArgumentException</td></tr>
+ * <tr><td>setQueueCapacity</td><td>setQueueCapacity(int
+ * capacity)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setQueueRingSize</td><td>setQueueRingSize(int
+ * size)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setQueueWatermarks</td><td>setQueueWatermarks(int low, int
+ * high)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setQueueOverflowPolicy</td><td>setQueueOverflowPolicy(int
+ * policy)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>setUseQueueSpill</td><td>setUseQueueSpill(boolean
+ * use)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setQueueSpillSize</td><td>setQueueSpillSize(int
+ * size)</td><td>nill</td><td>InvalidArgumentException</td></tr>
  * <tr><td>disconnect</td><td>disconnect(String
  * hash)</td><td>nill</td><td>nill</td></tr>
  * <tr><td>removeQueue</td><td>removeQueue(String
@@ -121,6 +204,11 @@ import java.util.logging.Logger;
  * TimeoutException</td><td>nill</td></tr>
  * <tr><td>addSocketIPPort</td><td>addSocket(String ip, int
  * port)</td><td>IOException, TimeoutException</td><td>nill</td></tr>
+ * <tr><td>addSocketAsync</td><td>addSocketAsync(String ip, int
+ * port)</td><td>IOException</td><td>nill</td></tr>
+ * <tr><td>addUnixDomainSocket</td><td>addUnixDomainSocket(String
+ * path)</td><td>IOException,
+ * TimeoutException</td><td>FeatureNotSupportedException</td></tr>
  * <tr><td>addQueue</td><td>addQueue(String
  * hash)</td><td>TimeoutException</td><td>FeatureNotUsedException</td></tr>
  * <tr><td>replaceHash</td><td>replaceHash(String old_hash, String
@@ -132,10 +220,30 @@ import java.util.logging.Logger;
  * <tr><td>startThread</td><td>startThread()</td><td>IOException,
  * ServerSocketCloseException</td><td>FeatureNotUsedException</td></tr>
  * <tr><td>pingSockets</td><td>pingSockets()</td><td>IOException</td><td>nill</td></tr>
+ * <tr><td>flushSockets</td><td>flushSockets()</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setUseUnreliableChannel</td><td>setUseUnreliableChannel(boolean
+ * use)</td><td>IOException</td><td>nill</td></tr>
+ * <tr><td>setUseFileTransfer</td><td>setUseFileTransfer(boolean
+ * use)</td><td>IOException</td><td>nill</td></tr>
+ * <tr><td>setFileDirectory</td><td>setFileDirectory(String
+ * directory)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>setFileTransferRate</td><td>setFileTransferRate(long
+ * rate)</td><td>nill</td><td>InvalidArgumentException</td></tr>
+ * <tr><td>sendFile</td><td>sendFile(String hash, String
+ * path)</td><td>IOException</td><td>FeatureNotUsedException,
+ * HashNotFoundException</td></tr>
  * <tr><td>sendMessageList</td><td>sendMessage(String message, List(String)
  * clientIds)</td><td>nill</td><td>nill</td></tr>
  * <tr><td>sendMessageHash</td><td>sendMessage(String message, String
  * clientId)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>sendMessageUnreliableList</td><td>sendMessageUnreliable(String
+ * message, List(String) clientIds)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>sendMessageUnreliableHash</td><td>sendMessageUnreliable(String
+ * message, String clientId)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>sendMessageReliableList</td><td>sendMessageReliable(String
+ * message, List(String) clientIds)</td><td>nill</td><td>nill</td></tr>
+ * <tr><td>sendMessageReliableHash</td><td>sendMessageReliable(String
+ * message, String clientId)</td><td>nill</td><td>nill</td></tr>
  * </table>
  *
  * @author javu
@@ -200,6 +308,38 @@ public class Server extends fantasyteam.ft1.Networking {
      * The default value of timeout_disconnect for each {@link MessageQueue}.
      */
     protected long queue_timeout_disconnect;
+    /**
+     * The default value of capacity for each {@link MessageQueue}.
+     */
+    protected int queue_capacity;
+    /**
+     * The default size of the {@link MessageRing} of each
+     * {@link MessageQueue}, 0 when they are not used.
+     */
+    protected int queue_ring_size;
+    /**
+     * The default value of low_watermark for each {@link MessageQueue}.
+     */
+    protected int queue_low_watermark;
+    /**
+     * The default value of high_watermark for each {@link MessageQueue}.
+     */
+    protected int queue_high_watermark;
+    /**
+     * The default value of overflow_policy for each {@link MessageQueue}.
+     */
+    protected int queue_overflow_policy;
+    /**
+     * Boolean used to specify whether {@link MessageQueue}s of disconnected
+     * sockets move their messages to a {@link QueueSpill} instead of
+     * discarding them.
+     */
+    protected volatile boolean use_queue_spill;
+    /**
+     * The size in bytes of the {@link QueueSpill} created by each
+     * {@link MessageQueue}.
+     */
+    protected volatile int queue_spill_size;
     /**
      * Boolean used to specify whether to keep the hashes of disconnected
      * sockets.
@@ -219,6 +359,156 @@ public class Server extends fantasyteam.ft1.Networking {
      * Boolean used to specify whether to use the socket timeout feature.
      */
     protected volatile boolean use_socket_timeout;
+    /**
+     * Boolean used to specify whether to negotiate BINARY framing with remote
+     * {@link Server}s during connection confirmation.
+     */
+    protected volatile boolean use_binary_framing;
+    /**
+     * Boolean used to specify whether to negotiate CHANNEL framing with remote
+     * {@link Server}s during connection confirmation.
+     */
+    protected volatile boolean use_channels;
+    /**
+     * The priority of each logical channel, keyed by channel id. Channels not
+     * in the Map have priority 0.
+     */
+    protected Map<Integer, Integer> channel_priorities;
+    /**
+     * The weight of each logical channel, keyed by channel id. Channels not
+     * in the Map have weight 1.
+     */
+    protected Map<Integer, Integer> channel_weights;
+    /**
+     * How each {@link MessageQueue} drains its channels, either
+     * MessageQueue.DRAIN_WEIGHTED or MessageQueue.DRAIN_STRICT.
+     */
+    protected volatile int channel_drain;
+    /**
+     * The channel messages are queued on by action name when they are sent
+     * without a channel. Actions not in the Map are queued on channel 0.
+     */
+    protected Map<String, Integer> action_channels;
+    /**
+     * Boolean used to specify whether each {@link MessageQueue} replaces
+     * unsent messages that have the same coalescing key.
+     */
+    protected volatile boolean use_coalescing;
+    /**
+     * The parameter each action is coalesced by, keyed by action name. Actions
+     * not in the Map are never coalesced.
+     */
+    protected Map<String, Integer> coalesce_keys;
+    /**
+     * Boolean used to specify whether to negotiate compression with remote
+     * {@link Server}s during connection confirmation.
+     */
+    protected volatile boolean use_compression;
+    /**
+     * The preset dictionary used to compress connections when using the
+     * compression feature. Built from the action names given to
+     * setCompressionActions.
+     */
+    protected volatile byte[] compression_dictionary;
+    /**
+     * Boolean used to specify whether to use the write batching feature. When
+     * true messages sent through each {@link Sock} are batched and flushed
+     * together instead of being written one at a time.
+     */
+    protected volatile boolean use_write_batching;
+    /**
+     * The longest time in milliseconds a batched message can wait before it is
+     * flushed when using the write batching feature.
+     */
+    protected volatile long max_flush_delay;
+    /**
+     * Boolean used to specify whether to use the unreliable channel feature.
+     * When true messages sent with sendActionUnreliable are sent as UDP
+     * datagrams instead of through the {@link SocketThread}'s connection.
+     */
+    protected volatile boolean use_unreliable_channel;
+    /**
+     * The {@link DatagramThread} used by the unreliable channel feature. Set
+     * to null while the feature is not in use.
+     */
+    protected volatile DatagramThread datagram_thread;
+    /**
+     * Boolean specifying whether files can be sent to and received from other
+     * {@link Server}s over separate data connections.
+     */
+    protected volatile boolean use_file_transfer;
+    /**
+     * The directory received files are saved in. Offered files are rejected
+     * while this is null.
+     */
+    protected volatile String file_directory;
+    /**
+     * The largest number of bytes per second each file is sent at when using
+     * the file transfer feature. 0 means no limit.
+     */
+    protected volatile long file_transfer_rate;
+    /**
+     * The {@link FileTransferThread} accepting the data connections of files
+     * offered by this {@link Server} when using the file transfer feature.
+     */
+    protected volatile FileTransferThread file_thread;
+    /**
+     * Every {@link FileTransfer} that has not finished yet keyed by its id.
+     */
+    protected volatile Map<Long, FileTransfer> file_transfers;
+    /**
+     * Boolean used to specify whether to use the selector transport feature.
+     * When true new connections are handled by a small pool of
+     * {@link SelectorThread}s instead of each {@link SocketThread} running its
+     * own thread.
+     */
+    protected volatile boolean use_selector_transport;
+    /**
+     * The number of {@link SelectorThread}s to start when the selector
+     * transport feature is turned on. Defaults to the number of available
+     * processors.
+     */
+    protected int selector_thread_count;
+    /**
+     * The {@link SelectorThread}s used by the selector transport feature. Set
+     * to null while the feature is not in use.
+     */
+    protected volatile ArrayList<SelectorThread> selector_threads;
+    /**
+     * Index of the {@link SelectorThread} in selector_threads to register the
+     * next new connection with.
+     */
+    private int next_selector_thread;
+    /**
+     * Boolean used to specify whether to use the virtual threads feature. When
+     * true {@link SocketThread}s, {@link MessageQueue}s and the
+     * {@link ListenThread} are run on virtual threads created by
+     * thread_factory. Requires Java 21 or later.
+     */
+    protected volatile boolean use_virtual_threads;
+    /**
+     * The ThreadFactory used to create the threads that run
+     * {@link SocketThread}s, {@link MessageQueue}s and the
+     * {@link ListenThread}. When set to null each of these is started as its
+     * own platform thread.
+     */
+    protected volatile ThreadFactory thread_factory;
+    /**
+     * Boolean used to specify whether to use the writer pool feature. When
+     * true newly started {@link MessageQueue}s are served by writer_pool
+     * instead of running their own threads.
+     */
+    protected volatile boolean use_writer_pool;
+    /**
+     * The number of worker threads started by writer_pool.
+     */
+    protected int writer_pool_size;
+    /**
+     * The {@link WriterPool} serving {@link MessageQueue}s when the writer
+     * pool feature is in use. Set to null until the feature is first turned
+     * on.
+     */
+    protected volatile WriterPool writer_pool;
     /**
      * Map used to hold {@link SocketThread}s and the keys to associate them
      * with.
@@ -238,6 +528,197 @@ public class Server extends fantasyteam.ft1.Networking {
      * interface with it. Only used if true is passed through the constructor.
      */
     protected volatile ListenThread listen_thread;
+    /**
+     * The number of connections the ServerSocket of the {@link ListenThread}
+     * queues before they are accepted.
+     */
+    protected int listen_backlog;
+    /**
+     * The number of threads the {@link ListenThread} accepts connections on.
+     */
+    protected int acceptor_count;
+    /**
+     * The path of the Unix domain socket the {@link ListenThread} listens on
+     * instead of port. Null to listen on port.
+     */
+    protected volatile String unix_domain_path;
+    /**
+     * Boolean used to specify whether to collect actions received for the
+     * {@link Game} into batches passed on by deliverActions, instead of
+     * passing each one on from the thread that received it.
+     */
+    protected volatile boolean use_batched_delivery;
+    /**
+     * The actions collected for the next batch when using the batched
+     * delivery feature, keyed by the hash of the socket they were received
+     * from. Replaced with an empty map each time the batch is delivered.
+     */
+    private TreeMap<String, ArrayList<List<String>>> inbound_actions;
+    /**
+     * Lock held while adding to or replacing inbound_actions, so threads
+     * receiving actions never wait on the lock of this {@link Server}.
+     */
+    private final Object inbound_lock = new Object();
+    /**
+     * Thread making the connections started by addSocketAsync. Started the
+     * first time addSocketAsync is called.
+     */
+    protected volatile ConnectThread connect_thread;
+    /**
+     * The time in milliseconds a connection started by addSocketAsync has to
+     * be made before it fails with a TimeoutException.
+     */
+    protected long connect_timeout;
+    /**
+     * The {@link TimerWheel} shared by every {@link SocketThread} and
+     * {@link MessageQueue} of this {@link Server} to schedule their timeouts.
+     * Also used to wait for threads to start and close without spinning.
+     */
+    protected final TimerWheel timer_wheel;
+    /**
+     * Boolean used to specify whether to use the heartbeat feature. When true
+     * a {@link HeartbeatThread} sends heartbeats to every confirmed
+     * {@link SocketThread} and disconnects any that stop sending them.
+     */
+    protected volatile boolean use_heartbeat;
+    /**
+     * The interval in milliseconds heartbeats are sent at when using the
+     * heartbeat feature.
+     */
+    protected volatile long heartbeat_interval;
+    /**
+     * The phi a {@link HeartbeatDetector} must pass before its
+     * {@link SocketThread} is disconnected by the heartbeat feature.
+     */
+    protected volatile double heartbeat_threshold;
+    /**
+     * The {@link HeartbeatThread} used by the heartbeat feature. Set to null
+     * while the feature is not in use.
+     */
+    protected volatile HeartbeatThread heartbeat_thread;
+
+    /**
+     * Parameter of the customnetwork1 action sent by a client {@link Server}
+     * to ask the listen {@link Server} to use BINARY framing.
+     */
+    private static final String BINARY_FRAMING_REQUEST = "binary";
+    /**
+     * Parameter of the customnetwork1 action sent by a listen {@link Server}
+     * to accept a BINARY_FRAMING_REQUEST. Every message the listen
+     * {@link Server} sends after this uses BINARY framing.
+     */
+    private static final String BINARY_FRAMING_ACCEPT = "binaryaccept";
+    /**
+     * Parameter of the customnetwork1 action sent by a client {@link Server}
+     * once it has received BINARY_FRAMING_ACCEPT. Every message the client
+     * {@link Server} sends after this uses BINARY framing.
+     */
+    private static final String BINARY_FRAMING_START = "binarystart";
+    /**
+     * Parameter added to BINARY_FRAMING_REQUEST, BINARY_FRAMING_ACCEPT and
+     * BINARY_FRAMING_START to use CHANNEL framing instead of BINARY framing.
+     */
+    private static final String CHANNEL_FRAMING = "channel";
+    /**
+     * Parameter of the customnetwork1 action sent by a client {@link Server}
+     * to ask the listen {@link Server} for a {@link DatagramSession}.
+     */
+    private static final String UNRELIABLE_REQUEST = "udp";
+    /**
+     * Parameter of the customnetwork1 action used to offer a file to the
+     * other end, followed by the transfer id, file name, file length and the
+     * port of the {@link FileTransferThread}.
+     */
+    private static final String FILE_OFFER = "file";
+    /**
+     * Parameter of the customnetwork1 action used to reject an offered file,
+     * followed by the transfer id.
+     */
+    private static final String FILE_REJECT = "filereject";
+    /**
+     * Action passed to the {@link Game} when a file has been received,
+     * followed by the file name and the path it was saved to.
+     */
+    public static final String FILE_RECEIVED = "filereceived";
+    /**
+     * Action passed to the {@link Game} when a file has been sent, followed by
+     * the file name.
+     */
+    public static final String FILE_SENT = "filesent";
+    /**
+     * Action passed to the {@link Game} when a file could not be sent or
+     * received, followed by the file name.
+     */
+    public static final String FILE_FAILED = "filefailed";
+    /**
+     * Action passed to the {@link Game} when the {@link MessageQueue} of a
+     * socket has reached its high watermark, followed by the number of queued
+     * messages. Stop sending to the socket until QUEUE_WRITABLE is passed.
+     */
+    public static final String QUEUE_UNWRITABLE = "queueunwritable";
+    /**
+     * Action passed to the {@link Game} when the {@link MessageQueue} of a
+     * socket has been flushed down to its low watermark after
+     * QUEUE_UNWRITABLE, followed by the number of queued messages.
+     */
+    public static final String QUEUE_WRITABLE = "queuewritable";
+    /**
+     * Parameter of the customnetwork1 action sent by a client {@link Server}
+     * to ask the listen {@link Server} to compress the connection. Followed
+     * by the checksum of the client's compression dictionary.
+     */
+    private static final String COMPRESSION_REQUEST = "deflate";
+    /**
+     * Parameter of the customnetwork1 action sent by a listen {@link Server}
+     * to accept a COMPRESSION_REQUEST. Every message the listen
+     * {@link Server} sends after this is compressed.
+     */
+    private static final String COMPRESSION_ACCEPT = "deflateaccept";
+    /**
+     * Parameter of the customnetwork1 action sent by a client {@link Server}
+     * once it has received COMPRESSION_ACCEPT. Every message the client
+     * {@link Server} sends after this is compressed.
+     */
+    private static final String COMPRESSION_START = "deflatestart";
+    /**
+     * Action names every compression dictionary starts with, the actions
+     * handled by {@link fantasyteam.ft1.Networking} itself.
+     */
+    private static final String[] NETWORK_ACTIONS = {"disconnect", "customnetwork1"};
+    /**
+     * Largest compression dictionary in bytes that deflate can make use of.
+     */
+    private static final int MAX_DICTIONARY_SIZE = 32768;
+    /**
+     * Parameter of the customnetwork1 action sent by a listen {@link Server}
+     * to accept an UNRELIABLE_REQUEST. Followed by the token of the new
+     * {@link DatagramSession} and the port of the listen {@link Server}'s
+     * {@link DatagramThread}.
+     */
+    private static final String UNRELIABLE_ACCEPT = "udpaccept";
+    /**
+     * Parameter of the customnetwork1 action sent by a listen {@link Server}
+     * once it has received the first datagram of a {@link DatagramSession}.
+     * Datagrams are sent in both directions after this.
+     */
+    private static final String UNRELIABLE_BOUND = "udpbound";
+    /**
+     * Parameter of the customnetwork1 action sent once every heartbeat
+     * interval by a {@link Server} using the heartbeat feature.
+     */
+    private static final String HEARTBEAT = "heartbeat";
+    /**
+     * The encoded heartbeat message. Heartbeats are recognised and recorded by
+     * the {@link SocketThread} that reads them and are never passed on to the
+     * {@link Server}.
+     */
+    static final String HEARTBEAT_MESSAGE = "customnetwork1" + Character.toString((char) 31) + HEARTBEAT + Character.toString((char) 31);
+
+    /**
+     * The name of the system property that, when set to true, turns on the
+     * virtual threads feature for every newly constructed {@link Server}.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY = "fantasyteam.ft1.networkingbase.virtualthreads";
 
     /**
      * Logger for logging important actions and exceptions.
@@ -257,13 +738,67 @@ public class Server extends fantasyteam.ft1.Networking {
         socket_timeout_count = 5;
         queue_timeout_error = 300000;
         queue_timeout_disconnect = 300000;
+        queue_capacity = 0;
+        queue_ring_size = 0;
+        queue_low_watermark = 0;
+        queue_high_watermark = 0;
+        queue_overflow_policy = MessageQueue.OVERFLOW_DROP_OLDEST;
+        use_queue_spill = false;
+        queue_spill_size = 16777216;
         use_disconnected_sockets = false;
         use_message_queues = false;
         use_connection_confirmation = false;
         use_socket_timeout = false;
+        use_binary_framing = false;
+        use_channels = false;
+        channel_priorities = new ConcurrentHashMap<Integer, Integer>();
+        channel_weights = new ConcurrentHashMap<Integer, Integer>();
+        channel_drain = MessageQueue.DRAIN_WEIGHTED;
+        action_channels = new ConcurrentHashMap<String, Integer>();
+        use_coalescing = false;
+        coalesce_keys = new ConcurrentHashMap<String, Integer>();
+        use_compression = false;
+        compression_dictionary = buildCompressionDictionary(new ArrayList<String>());
+        use_write_batching = false;
+        max_flush_delay = 5;
+        use_unreliable_channel = false;
+        datagram_thread = null;
+        use_file_transfer = false;
+        file_directory = null;
+        file_transfer_rate = 0;
+        file_thread = null;
+        file_transfers = new ConcurrentHashMap<Long, FileTransfer>();
+        use_selector_transport = false;
+        selector_thread_count = Runtime.getRuntime().availableProcessors();
+        selector_threads = null;
+        next_selector_thread = 0;
+        use_virtual_threads = false;
+        thread_factory = null;
+        use_writer_pool = false;
+        writer_pool_size = Runtime.getRuntime().availableProcessors();
+        writer_pool = null;
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            try {
+                setUseVirtualThreads(true);
+            } catch (FeatureNotSupportedException e) {
+                LOGGER.log(Level.WARNING, "System property " + VIRTUAL_THREADS_PROPERTY + " is set but virtual threads are not supported by this Java runtime. Using platform threads", e);
+            }
+        }
         socket_list = Collections.synchronizedMap(new HashMap<String, SocketThread>());
         queue_list = Collections.synchronizedMap(new HashMap<String, MessageQueue>());
         disconnected_sockets = new ArrayList<String>();
+        listen_backlog = 50;
+        acceptor_count = 1;
+        unix_domain_path = null;
+        use_batched_delivery = false;
+        inbound_actions = new TreeMap<String, ArrayList<List<String>>>();
+        connect_timeout = 5000;
+        connect_thread = null;
+        timer_wheel = new TimerWheel();
+        use_heartbeat = false;
+        heartbeat_interval = 100;
+        heartbeat_threshold = 8.0;
+        heartbeat_thread = null;
         listen_thread = null;
         state = CLIENT;
     }
@@ -293,13 +828,67 @@ public class Server extends fantasyteam.ft1.Networking {
         socket_timeout_count = 5;
         queue_timeout_error = 300000;
         queue_timeout_disconnect = 300000;
+        queue_capacity = 0;
+        queue_ring_size = 0;
+        queue_low_watermark = 0;
+        queue_high_watermark = 0;
+        queue_overflow_policy = MessageQueue.OVERFLOW_DROP_OLDEST;
+        use_queue_spill = false;
+        queue_spill_size = 16777216;
         use_disconnected_sockets = false;
         use_message_queues = false;
         use_connection_confirmation = false;
         use_socket_timeout = false;
+        use_binary_framing = false;
+        use_channels = false;
+        channel_priorities = new ConcurrentHashMap<Integer, Integer>();
+        channel_weights = new ConcurrentHashMap<Integer, Integer>();
+        channel_drain = MessageQueue.DRAIN_WEIGHTED;
+        action_channels = new ConcurrentHashMap<String, Integer>();
+        use_coalescing = false;
+        coalesce_keys = new ConcurrentHashMap<String, Integer>();
+        use_compression = false;
+        compression_dictionary = buildCompressionDictionary(new ArrayList<String>());
+        use_write_batching = false;
+        max_flush_delay = 5;
+        use_unreliable_channel = false;
+        datagram_thread = null;
+        use_file_transfer = false;
+        file_directory = null;
+        file_transfer_rate = 0;
+        file_thread = null;
+        file_transfers = new ConcurrentHashMap<Long, FileTransfer>();
+        use_selector_transport = false;
+        selector_thread_count = Runtime.getRuntime().availableProcessors();
+        selector_threads = null;
+        next_selector_thread = 0;
+        use_virtual_threads = false;
+        thread_factory = null;
+        use_writer_pool = false;
+        writer_pool_size = Runtime.getRuntime().availableProcessors();
+        writer_pool = null;
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            try {
+                setUseVirtualThreads(true);
+            } catch (FeatureNotSupportedException e) {
+                LOGGER.log(Level.WARNING, "System property " + VIRTUAL_THREADS_PROPERTY + " is set but virtual threads are not supported by this Java runtime. Using platform threads", e);
+            }
+        }
         socket_list = Collections.synchronizedMap(new HashMap<String, SocketThread>());
         queue_list = Collections.synchronizedMap(new HashMap<String, MessageQueue>());
         disconnected_sockets = new ArrayList<String>();
+        listen_backlog = 50;
+        acceptor_count = 1;
+        unix_domain_path = null;
+        use_batched_delivery = false;
+        inbound_actions = new TreeMap<String, ArrayList<List<String>>>();
+        connect_timeout = 5000;
+        connect_thread = null;
+        timer_wheel = new TimerWheel();
+        use_heartbeat = false;
+        heartbeat_interval = 100;
+        heartbeat_threshold = 8.0;
+        heartbeat_thread = null;
         if (listen) {
             try {
                 setListenThread();
@@ -335,13 +924,6 @@ public class Server extends fantasyteam.ft1.Networking {
                     disconnect(String.valueOf(socket_hash));
                 }
             }
-            boolean not_disconnected = true;
-            Timing timer = new Timing();
-            while (not_disconnected) {
-                if (socket_list.isEmpty() || timer.getTime() > timeout) {
-                    not_disconnected = false;
-                }
-            }
         }
         if (queue_list != null) {
             if (!queue_list.isEmpty()) {
@@ -355,14 +937,32 @@ public class Server extends fantasyteam.ft1.Networking {
                     }
                 }
             }
-            boolean not_disconnected = true;
-            Timing timer = new Timing();
-            while (not_disconnected) {
-                if (queue_list.isEmpty() || timer.getTime() > timeout) {
-                    not_disconnected = false;
-                }
-            }
         }
+        if (writer_pool != null) {
+            writer_pool.close();
+            writer_pool = null;
+        }
+        if (datagram_thread != null) {
+            datagram_thread.close();
+            datagram_thread = null;
+        }
+        if (file_thread != null) {
+            file_thread.close();
+            file_thread = null;
+        }
+        if (connect_thread != null) {
+            connect_thread.close();
+            connect_thread = null;
+        }
+        if (heartbeat_thread != null) {
+            heartbeat_thread.close();
+            heartbeat_thread = null;
+        }
+        for (FileTransfer transfer : file_transfers.values()) {
+            transfer.close();
+        }
+        closeSelectorThreads();
+        timer_wheel.close();
         socket_list = null;
         queue_list = null;
         disconnected_sockets = null;
@@ -385,14 +985,8 @@ public class Server extends fantasyteam.ft1.Networking {
             if (listen_thread.getRun()) {
                 LOGGER.log(Level.INFO, "Attempting to close running listen_thread on port {0}", listen_thread.getPort());
                 listen_thread.close();
-                boolean running = true;
-                Timing new_timer = new Timing();
-                while (running) {
-                    if (!listen_thread.getRun()) {
-                        running = false;
-                    } else if (new_timer.getTime() > timeout) {
-                        throw new TimeoutException("Failed to close ListenThread in time");
-                    }
+                if (!listen_thread.awaitStop(timeout)) {
+                    throw new TimeoutException("Failed to close ListenThread in time");
                 }
                 LOGGER.log(Level.INFO, "Successfully closed running listen_thread");
             } else {
@@ -605,400 +1199,1833 @@ public class Server extends fantasyteam.ft1.Networking {
     }
 
     /**
-     * Sets the list of connections to the {@link Server} using a
-     * pre-constructed Map(String,{@link SocketThread}).
+     * <p>
+     * Sets the attribute use_binary_framing, the flag specifying whether to
+     * negotiate BINARY framing on new connections. BINARY framing sends each
+     * message as a varint length prefix followed by the message bytes instead
+     * of a line of text, see {@link Sock} for more information.</p><p>
+     * The framing is negotiated as part of the connection confirmation
+     * feature, so the connection confirmation feature must be turned on on
+     * the listen {@link Server}. Once the client {@link Server} has received
+     * the connection confirmation it asks the listen {@link Server} to use
+     * BINARY framing. If both {@link Server}s have this feature turned on they
+     * switch to BINARY framing, otherwise both keep using TEXT framing. This
+     * means a {@link Server} using this feature can still be connected to and
+     * from {@link Server}s that do not support it. Connections that already
+     * exist when the feature is turned on or off keep the framing they were
+     * created with.</p>
      *
-     * @param socket_list Map(String,{@link SocketThread}) to use as list of
-     * {@link Server} connections.
+     * @param use Boolean specifying whether to use the binary framing feature.
      */
-    public synchronized void setSocketList(Map<String, SocketThread> socket_list) {
-        this.socket_list = socket_list;
+    public synchronized void setUseBinaryFraming(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_binary_framing: {0}", use);
+        use_binary_framing = use;
     }
 
     /**
-     * Sets the list of {@link MessageQueue}s associated with each
-     * {@link SocketThread} to the {@link Server} using a pre-constructed
-     * Map(String,{@link MessageQueue}).
+     * <p>
+     * Sets the attribute use_channels, the flag specifying whether to
+     * negotiate CHANNEL framing on new connections. CHANNEL framing is BINARY
+     * framing with the id of a logical channel sent in front of each message,
+     * see {@link Sock} for more information. Messages sent with the
+     * sendActionChannel functions keep their order on each channel, and when
+     * the message queues feature is in use the channels are sent in order of
+     * the priority set with setChannelPriority, so several streams such as
+     * chat, lobby state and game actions can share one connection without the
+     * bulk streams delaying the others.</p><p>
+     * The framing is negotiated the same way as the binary framing feature. A
+     * listen {@link Server} that does not use this feature but does use the
+     * binary framing feature falls back to BINARY framing, in which case
+     * messages are still queued by channel but the channel id is not sent. On
+     * the receiving end the channel a message arrived on can be found with
+     * getReceiveChannel while the message is being handled. Connections that
+     * already exist when the feature is turned on or off keep the framing they
+     * were created with.</p>
      *
-     * @param queue_list Map(String,{@link MessageQueue}) to use as a list of
-     * {@link MessageQueue}s on the {@link Server}.
+     * @param use Boolean specifying whether to use the channels feature.
      */
-    public synchronized void setQueueList(Map<String, MessageQueue> queue_list) {
-        this.queue_list = queue_list;
-        if (this.queue_list != null) {
-            LOGGER.log(Level.INFO, "Changing queue_list. New queue_list:\n{0}", queue_list.toString());
+    public synchronized void setUseChannels(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_channels: {0}", use);
+        use_channels = use;
+    }
+
+    /**
+     * Sets the priority of a logical channel. When the message queues feature
+     * is in use channels with a higher priority are sent first each time a
+     * {@link MessageQueue} is flushed. Every channel starts with priority 0.
+     *
+     * @param channel the id of the channel.
+     * @param priority the priority of the channel, higher is sent first.
+     * @throws InvalidArgumentException if the parameter channel is less than
+     * 0.
+     */
+    public synchronized void setChannelPriority(int channel, int priority) throws InvalidArgumentException {
+        if (channel < 0) {
+            throw new InvalidArgumentException("Channel must be >= 0. channel = " + channel);
+        }
+        if (priority == 0) {
+            channel_priorities.remove(channel);
         } else {
-            LOGGER.log(Level.INFO, "Changing queue_list. New queue_list: null");
+            channel_priorities.put(channel, priority);
         }
     }
 
     /**
-     * Sets the list of disconnected sockets hashes.
+     * Sets the weight of a logical channel. When the message queues feature is
+     * in use and channels are drained with MessageQueue.DRAIN_WEIGHTED, a
+     * channel sends at most weight * MessageQueue.CHANNEL_BATCH_LIMIT messages
+     * each time a {@link MessageQueue} is flushed while other channels also
+     * have messages waiting. Every channel starts with weight 1.
      *
-     * @param disconnected_sockets ArrayList{String) to use as list of hashes of
-     * disconnected sockets.
+     * @param channel the id of the channel.
+     * @param weight the weight of the channel, must be at least 1.
+     * @throws InvalidArgumentException if the parameter channel is less than
+     * 0 or weight is less than 1.
      */
-    public synchronized void setDisconnectedSockets(ArrayList<String> disconnected_sockets) {
-        this.disconnected_sockets = disconnected_sockets;
-        LOGGER.log(Level.INFO, "Changing disconnected_sockets: {0}", disconnected_sockets);
+    public synchronized void setChannelWeight(int channel, int weight) throws InvalidArgumentException {
+        if (channel < 0) {
+            throw new InvalidArgumentException("Channel must be >= 0. channel = " + channel);
+        }
+        if (weight < 1) {
+            throw new InvalidArgumentException("Weight must be >= 1. weight = " + weight);
+        }
+        if (weight == 1) {
+            channel_weights.remove(channel);
+        } else {
+            channel_weights.put(channel, weight);
+        }
     }
 
     /**
-     * Sets the attribute listen_thread.
+     * Sets how each {@link MessageQueue} drains its channels.
+     * MessageQueue.DRAIN_WEIGHTED sends every channel with messages waiting
+     * each flush, in order of priority and limited by its weight.
+     * MessageQueue.DRAIN_STRICT only sends the channels with the highest
+     * priority that have messages waiting, so lower priority channels wait
+     * until they are empty.
      *
-     * @throws IOException if an exception is found when creating a new
-     * {@link ListenThread} or when closing an existing one before attempting to
-     * create the new one.
-     * @throws ServerSocketCloseException if the ServerSocket on ListenThread
-     * fails to close when attempting to create a new {@link ListenThread} when
-     * one is already running.
-     * @throws TimeoutException if {@link ListenThread} fails to close before
-     * reaching timeout when attempting to close the currently running
-     * {@link ListenThread} before creating the new one.
+     * @param mode the drain mode, MessageQueue.DRAIN_WEIGHTED or
+     * MessageQueue.DRAIN_STRICT.
+     * @throws InvalidArgumentException if mode is not a valid drain mode.
      */
-    public synchronized void setListenThread() throws IOException, ServerSocketCloseException, TimeoutException {
-        closeListenThread();
-        try {
-            listen_thread = new ListenThread(this);
-            state = LISTEN;
-        } catch (IOException e) {
-            state = ERROR;
-            throw new IOException("Could not create ListenThread on port" + port + ". Exception received: " + e);
+    public synchronized void setChannelDrain(int mode) throws InvalidArgumentException {
+        if (mode != MessageQueue.DRAIN_WEIGHTED && mode != MessageQueue.DRAIN_STRICT) {
+            throw new InvalidArgumentException("Drain mode must be " + MessageQueue.DRAIN_WEIGHTED + " or " + MessageQueue.DRAIN_STRICT + ". mode = " + mode);
         }
+        LOGGER.log(Level.INFO, "Setting channel drain mode: {0}", mode);
+        channel_drain = mode;
     }
 
     /**
-     * Changes to value of game on the {@link SocketThread} specified by hash.
-     * This int value is used to seperate {@link SocketThread}s into groups to
-     * allow for a single {@link Server} to run and handle multiple different
-     * games.
+     * Sets the channel an action is queued on when it is sent without a
+     * channel, so latency critical actions can be given a higher priority
+     * channel than bulk traffic without changing the code that sends them.
+     * Setting an action to channel 0 removes it. Only used when the message
+     * queues feature is in use.
      *
-     * @param hash Hash identifier of {@link SocketThread} to change the value
-     * of game on.
-     * @param game int to change the value of game to on {@link SocketThread}
-     * specified by hash.
-     * @throws NullException If socket_list is set to null.
-     * @throws HashNotFoundException If the parameter hash does not exist as a
-     * key in socket_list.
+     * @param action the name of the action.
+     * @param channel the id of the channel to queue the action on.
+     * @throws InvalidArgumentException if the parameter channel is less than
+     * 0.
      */
-    public synchronized void setSocketGame(String hash, int game) throws NullException, HashNotFoundException {
-        if (socket_list != null) {
-            if (socket_list.containsKey(hash)) {
-                socket_list.get(hash).setGame(game);
-            } else {
-                throw new HashNotFoundException("Hash " + hash + " does not exist in socket_list");
-            }
+    public synchronized void setActionChannel(String action, int channel) throws InvalidArgumentException {
+        if (channel < 0) {
+            throw new InvalidArgumentException("Channel must be >= 0. channel = " + channel);
+        }
+        if (channel == 0) {
+            action_channels.remove(action);
         } else {
-            throw new NullException("Socket list is currently set to null");
+            action_channels.put(action, channel);
         }
     }
 
     /**
-     * Changes the value of timeout_error for all current and future
-     * {@link MessageQueue}s.
+     * Sets the attribute use_coalescing, the flag specifying whether to use
+     * the coalescing feature. When this feature and the message queues feature
+     * are in use, queuing a message for an action given to setCoalesceKey
+     * replaces any unsent message on the same channel with the same
+     * coalescing key instead of being added to the end of the queue. A client
+     * that falls behind then only has the latest state of each entity waiting
+     * to be sent rather than every update.
      *
-     * @param timeout Time (in ms) to set queue_timeout_error to.
-     * @throws InvalidArgumentException If the parameter timeout fails input
-     * validation.
+     * @param use Boolean specifying whether to use the coalescing feature.
      */
-    public synchronized void setQueueTimeoutError(long timeout) throws InvalidArgumentException {
-        if (timeout >= 0) {
-            queue_timeout_error = timeout;
-            if (queue_list != null && !queue_list.isEmpty()) {
-                for (MessageQueue queue : queue_list.values()) {
-                    queue.setTimeoutError(timeout);
-                }
-            }
-        } else {
-            throw new InvalidArgumentException("Value of queue_timeout_error must be equal to or greater than 0");
+    public synchronized void setUseCoalescing(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_coalescing: {0}", use);
+        use_coalescing = use;
+    }
+
+    /**
+     * Sets the parameter an action is coalesced by. The coalescing key of a
+     * message is its action name followed by its parameters up to and
+     * including parameter field, so a field of 0 coalesces every message of
+     * the action and a field of 1 coalesces messages with the same first
+     * parameter, such as an entity id.
+     *
+     * @param action the name of the action.
+     * @param field the number of the parameter the action is coalesced by,
+     * counting from 1, or 0 to coalesce by action name alone.
+     * @throws InvalidArgumentException if the parameter field is less than 0.
+     */
+    public synchronized void setCoalesceKey(String action, int field) throws InvalidArgumentException {
+        if (field < 0) {
+            throw new InvalidArgumentException("Field must be >= 0. field = " + field);
         }
+        coalesce_keys.put(action, field);
     }
 
     /**
-     * Changes the value of timeout_disconnect for all current and future
-     * {@link MessageQueue}s.
+     * Stops an action given to setCoalesceKey from being coalesced.
      *
-     * @param timeout Time (in ms) to set queue_timeout_error to.
-     * @throws InvalidArgumentException If the parameter timeout fails input
-     * validation.
+     * @param action the name of the action.
      */
-    public synchronized void setQueueTimeoutDisconnect(long timeout) throws InvalidArgumentException {
-        if (timeout >= 0) {
-            queue_timeout_disconnect = timeout;
-            if (queue_list != null && !queue_list.isEmpty()) {
-                for (MessageQueue queue : queue_list.values()) {
-                    queue.setTimeoutDisconnect(timeout);
-                }
-            }
-        } else {
-            throw new InvalidArgumentException("Value of queue_timeout_disconnect must be equal to or greater than 0");
+    public synchronized void removeCoalesceKey(String action) {
+        coalesce_keys.remove(action);
+    }
+
+    /**
+     * <p>
+     * Sets the attribute use_compression, the flag specifying whether to
+     * negotiate compression on new connections. Compressed connections run
+     * every byte sent through a deflate stream, see {@link Sock} for more
+     * information. The stream starts from a preset dictionary built from the
+     * action names given to setCompressionActions, so even the first messages
+     * sent are compressed well.</p><p>
+     * Compression is negotiated as part of the connection confirmation
+     * feature, so the connection confirmation feature must be turned on on
+     * the listen {@link Server}. Once the client {@link Server} has received
+     * the connection confirmation it asks the listen {@link Server} to
+     * compress the connection. Both ends only switch to compression if both
+     * use this feature and have built the same dictionary, otherwise the
+     * connection stays uncompressed. Connections that already exist when the
+     * feature is turned on or off are not changed.</p>
+     *
+     * @param use Boolean specifying whether to use the compression feature.
+     */
+    public synchronized void setUseCompression(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_compression: {0}", use);
+        use_compression = use;
+    }
+
+    /**
+     * Builds the preset dictionary used by the compression feature from a
+     * list of action names. The actions most often sent should be at the end
+     * of the list, as deflate finds matches near the end of the dictionary
+     * more cheaply. Both ends of a connection must use the same list, only
+     * connections created afterwards use the new dictionary.
+     *
+     * @param actions the action names the {@link fantasyteam.ft1.Game}
+     * sends.
+     */
+    public synchronized void setCompressionActions(List<String> actions) {
+        compression_dictionary = buildCompressionDictionary(actions);
+        LOGGER.log(Level.INFO, "Compression dictionary built from {0} actions", actions.size());
+    }
+
+    /**
+     * Builds a compression dictionary holding every action in NETWORK_ACTIONS
+     * and actions encoded the same way as
+     * {@link fantasyteam.ft1.Networking}.sendAction, followed by the digits.
+     * Only the last MAX_DICTIONARY_SIZE bytes are kept.
+     *
+     * @param actions the action names to add to the dictionary.
+     * @return the dictionary bytes.
+     */
+    private static byte[] buildCompressionDictionary(List<String> actions) {
+        char seperator = (char) 31;
+        StringBuilder dictionary = new StringBuilder();
+        for (String action : NETWORK_ACTIONS) {
+            dictionary.append(action).append(seperator);
         }
+        for (String action : actions) {
+            dictionary.append(action).append(seperator);
+        }
+        dictionary.append("0123456789").append(seperator);
+        byte[] bytes = dictionary.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_DICTIONARY_SIZE) {
+            bytes = Arrays.copyOfRange(bytes, bytes.length - MAX_DICTIONARY_SIZE, bytes.length);
+        }
+        return bytes;
     }
 
     /**
-     * Changes the value of timeout_error for a single {@link MessageQueue}.
+     * Returns the checksum sent with COMPRESSION_REQUEST so the listen
+     * {@link Server} can check both ends use the same dictionary.
      *
-     * @param hash Hash identifier of {@link MessageQueue} to change the value
-     * of timeout_error on.
-     * @param timeout Time (in ms) to set timeout_error to.
-     * @throws FeatureNotUsedException If the {@link MessageQueue} feature is
-     * set to be used.
-     * @throws NullException If queue_list is set to null.
-     * @throws HashNotFoundException If the parameter hash does not exist as a
-     * key in queue_list.
-     * @throws InvalidArgumentException If the parameter timeout fails input
-     * validation.
+     * @param dictionary the dictionary to check.
+     * @return the Adler-32 checksum of dictionary.
      */
-    public synchronized void setQueueTimeoutErrorIndividual(String hash, long timeout) throws FeatureNotUsedException, NullException, HashNotFoundException, InvalidArgumentException {
-        if (use_message_queues) {
-            if (queue_list != null) {
-                if (queue_list.containsKey(hash)) {
-                    queue_list.get(hash).setTimeoutError(timeout);
-                } else {
-                    throw new HashNotFoundException("Hash " + hash + " does not exist in queue_list");
+    private static long dictionaryChecksum(byte[] dictionary) {
+        Adler32 checksum = new Adler32();
+        checksum.update(dictionary, 0, dictionary.length);
+        return checksum.getValue();
+    }
+
+    /**
+     * <p>
+     * Sets the attribute use_write_batching, the flag specifying whether to
+     * use the write batching feature. By default every message is written to
+     * the socket as soon as it is sent, which usually means one write and one
+     * packet per message. When this feature is turned on messages are batched
+     * by each {@link Sock} and written together when the batch is flushed.</p><p>
+     * A batch is flushed at the end of each drain cycle of a
+     * {@link MessageQueue}, whenever flushSockets() is called, which the
+     * {@link fantasyteam.ft1.Game} should do once per tick, and at the latest
+     * once its oldest message has waited max_flush_delay milliseconds. Turning
+     * the feature off flushes every batch straight away.</p>
+     *
+     * @param use Boolean specifying whether to use the write batching feature.
+     */
+    public synchronized void setUseWriteBatching(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_write_batching: {0}", use);
+        if (use != use_write_batching) {
+            use_write_batching = use;
+            if (socket_list != null) {
+                ArrayList<SocketThread> sockets;
+                synchronized (socket_list) {
+                    sockets = new ArrayList<SocketThread>(socket_list.values());
+                }
+                for (SocketThread socket : sockets) {
+                    if (socket.getSocket() != null) {
+                        socket.getSocket().setAutoFlush(!use);
+                        socket.setFlushDeadline(use);
+                        if (!use) {
+                            socket.flush();
+                        }
+                    }
                 }
-            } else {
-                throw new NullException("Queue list is currently set to null");
             }
-        } else {
-            throw new FeatureNotUsedException("Message Queue feature is not being used");
         }
     }
 
     /**
-     * Changes the value of timeout_disconnect for a single
-     * {@link MessageQueue}.
+     * <p>
+     * Sets the attribute use_unreliable_channel, the flag specifying whether
+     * to use the unreliable channel feature. When this feature is turned on a
+     * {@link DatagramThread} is started alongside the {@link SocketThread}s.
+     * On a listen {@link Server} it receives datagrams on the same port number
+     * as the {@link ListenThread}, on a client {@link Server} it uses any free
+     * port.</p><p>
+     * Each connection is given a {@link DatagramSession} as part of the
+     * connection confirmation feature, so the connection confirmation feature
+     * must be turned on on the listen {@link Server}. Once the client
+     * {@link Server} has received the connection confirmation it asks the
+     * listen {@link Server} for a session token, then sends datagrams
+     * containing the token until the listen {@link Server} confirms it has
+     * received one. Messages sent with sendActionUnreliable are sent through
+     * the connection instead until the session is bound, if the remote
+     * {@link Server} does not use this feature, or if the message does not fit
+     * in a single datagram. Messages sent as datagrams may be lost, duplicated
+     * or arrive out of order.</p><p>
+     * Messages sent with sendActionReliable are sent over the
+     * {@link ReliableChannel} of the session instead, which resends lost
+     * datagrams and passes messages on in the order they were sent. As the
+     * reliable channel is separate from the connection, a lost datagram only
+     * holds back other reliable messages. Reliable messages sent before the
+     * session is bound are held until it is. Connections that already exist
+     * when the feature is turned on are not given a session.</p>
      *
-     * @param hash Hash identifier of {@link MessageQueue} to change the value
-     * of timeout_disconnect on.
-     * @param timeout Time (in ms) to set timeout_disconnect to.
-     * @throws FeatureNotUsedException If the {@link MessageQueue} feature is
-     * set to be used.
-     * @throws NullException If queue_list is set to null.
-     * @throws HashNotFoundException If the parameter hash does not exist as a
-     * key in queue_list.
-     * @throws InvalidArgumentException If the parameter timeout fails input
-     * validation.
+     * @param use Boolean specifying whether to use the unreliable channel
+     * feature.
+     * @throws IOException if an exception is encountered when opening the
+     * DatagramChannel.
      */
-    public synchronized void setQueueTimeoutDisconnectIndividual(String hash, long timeout) throws FeatureNotUsedException, NullException, HashNotFoundException, InvalidArgumentException {
-        if (use_message_queues) {
-            if (queue_list != null) {
-                if (queue_list.containsKey(hash)) {
-                    queue_list.get(hash).setTimeoutDisconnect(timeout);
+    public synchronized void setUseUnreliableChannel(boolean use) throws IOException {
+        LOGGER.log(Level.INFO, "Toggling flag use_unreliable_channel: {0}", use);
+        if (use != use_unreliable_channel) {
+            if (use) {
+                if (state == LISTEN) {
+                    datagram_thread = new DatagramThread(this, port);
                 } else {
-                    throw new HashNotFoundException("Hash " + hash + " does not exist in queue_list");
+                    datagram_thread = new DatagramThread(this, 0);
                 }
-            } else {
-                throw new NullException("Queue list is currently set to null");
+                runThread(datagram_thread);
+            } else if (datagram_thread != null) {
+                datagram_thread.close();
+                datagram_thread = null;
             }
-        } else {
-            throw new FeatureNotUsedException("Message Queue feature is not being used");
+            use_unreliable_channel = use;
         }
     }
 
     /**
-     * Returns the port number used for connections.
+     * <p>
+     * Sets the attribute use_file_transfer. When set to true the
+     * {@link Server} can send files with sendFile and accepts files offered by
+     * other {@link Server}s, saving them in file_directory.</p>
      *
-     * @return the port number used to listen for connections.
+     * <p>
+     * Each file is streamed over its own data connection so large files never
+     * hold up actions sent on the same connection. The sending end offers the
+     * file through the connection of the {@link SocketThread} along with the
+     * port of its {@link FileTransferThread}, and the receiving end connects
+     * to that port. See {@link FileTransfer} for how the file is streamed and
+     * resumed. When a transfer finishes the {@link Game} is passed a
+     * FILE_RECEIVED, FILE_SENT or FILE_FAILED action from the hash of the
+     * {@link SocketThread} the file was sent to or received from.</p>
+     *
+     * @param use Boolean specifying whether to use the file transfer feature.
+     * @throws IOException if an exception is encountered when opening the
+     * ServerSocketChannel of the {@link FileTransferThread}.
      */
-    public int getPort() {
-        return port;
+    public synchronized void setUseFileTransfer(boolean use) throws IOException {
+        LOGGER.log(Level.INFO, "Toggling flag use_file_transfer: {0}", use);
+        if (use != use_file_transfer) {
+            if (use) {
+                file_thread = new FileTransferThread(this);
+                runThread(file_thread);
+            } else if (file_thread != null) {
+                file_thread.close();
+                file_thread = null;
+            }
+            use_file_transfer = use;
+        }
     }
 
     /**
-     * Returns the maximum wait time (in milliseconds) to wait for critical
-     * tasks to complete.
+     * Sets the attribute file_directory, the directory files received using
+     * the file transfer feature are saved in. The directory is created if it
+     * does not exist when a file is received.
      *
-     * @return the maximum wait time (in ms) to wait for critical tasks.
+     * @param directory the path of the directory, or null to reject every
+     * offered file.
      */
-    public long getTimeout() {
-        return timeout;
+    public synchronized void setFileDirectory(String directory) {
+        file_directory = directory;
     }
 
     /**
-     * Returns the amount of time (in ms) to wait for input on each socket
-     * before breaking blocking to process other tasks.
+     * Sets the attribute file_transfer_rate, the largest number of bytes per
+     * second each file is sent at when using the file transfer feature.
      *
-     * @return the wait time (in ms) to until breaking blocking on each socket.
+     * @param rate the largest number of bytes per second, or 0 for no limit.
+     * @throws InvalidArgumentException if the parameter rate is less than 0.
      */
-    public int getSocketTimeout() {
-        return socket_timeout;
+    public synchronized void setFileTransferRate(long rate) throws InvalidArgumentException {
+        if (rate >= 0) {
+            file_transfer_rate = rate;
+        } else {
+            throw new InvalidArgumentException("File transfer rate must be 0 or greater");
+        }
     }
 
     /**
-     * Returns the total consecutive number of times to break blocking on each
-     * socket before closing the socket.
+     * Sets the attribute max_flush_delay, the longest time in milliseconds a
+     * batched message can wait before it is flushed when using the write
+     * batching feature. The flush is run by the {@link TimerWheel}, so it may
+     * happen up to TimerWheel.TICK_DURATION milliseconds later.
      *
-     * @return the number of consecutive times to break blocking on each socket
-     * before closing the socket.
+     * @param delay the maximum delay in milliseconds.
+     * @throws InvalidArgumentException if the parameter delay is less than 0.
      */
-    public int getSocketTimeoutCount() {
-        return socket_timeout_count;
+    public synchronized void setMaxFlushDelay(long delay) throws InvalidArgumentException {
+        if (delay >= 0) {
+            max_flush_delay = delay;
+            if (use_write_batching && socket_list != null) {
+                ArrayList<SocketThread> sockets;
+                synchronized (socket_list) {
+                    sockets = new ArrayList<SocketThread>(socket_list.values());
+                }
+                for (SocketThread socket : sockets) {
+                    socket.setFlushDeadline(true);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of delay must be >= 0. delay = " + delay);
+        }
     }
 
     /**
-     * Returns whether to keep the hashes of disconnected sockets or not.
+     * <p>
+     * Sets the attribute use_selector_transport, the flag specifying whether
+     * to use the selector transport feature. When this feature is turned on
+     * every new connection is registered with one of a small pool of
+     * {@link SelectorThread}s which read and write messages for all of their
+     * connections through a single java.nio.channels.Selector, rather than
+     * each connection being given its own {@link SocketThread} thread blocking
+     * on its socket. The {@link SocketThread}s are still stored in socket_list
+     * and all other functions of the {@link Server} behave the same.</p><p>
+     * Connections that already exist when the feature is turned on or off keep
+     * the transport they were created with. When the feature is turned off the
+     * {@link SelectorThread}s are retired, each one closing once the last of
+     * its connections has been closed. If this {@link Server} is a listen
+     * {@link Server} whose {@link ListenThread} has not been started yet the
+     * {@link ListenThread} is rebuilt so accepted connections can use the new
+     * transport. A {@link ListenThread} that is already running must be
+     * rebuilt using setListenThread() before accepted connections will use the
+     * selector transport.</p>
      *
-     * @return boolean specifying whether to keep the hashes of disconnected
-     * sockets.
+     * @param use Boolean specifying whether to use the selector transport
+     * feature.
+     * @throws IOException if an exception is encountered when opening the
+     * Selectors or rebuilding the {@link ListenThread}.
+     * @throws ServerSocketCloseException if the ServerSocket on
+     * {@link ListenThread} fails to close when rebuilding it.
+     * @throws TimeoutException if the {@link ListenThread} fails to close
+     * before timeout is reached when rebuilding it.
      */
-    public boolean getUseDisconnectedSockets() {
-        return use_disconnected_sockets;
+    public synchronized void setUseSelectorTransport(boolean use) throws IOException, ServerSocketCloseException, TimeoutException {
+        LOGGER.log(Level.INFO, "Toggling flag use_selector_transport: {0}", use);
+        if (use && !use_selector_transport) {
+            startSelectorThreads();
+        } else if (!use && use_selector_transport) {
+            retireSelectorThreads();
+        }
+        boolean rebuild = use != use_selector_transport && state == LISTEN && listen_thread != null && listen_thread.isBound() && !listen_thread.getRun();
+        use_selector_transport = use;
+        if (rebuild) {
+            setListenThread();
+        }
     }
 
     /**
-     * Returns whether to construct new {@link SocketThread}s with
-     * {@link MessageQueue}s.
+     * Sets the attribute selector_thread_count, the number of
+     * {@link SelectorThread}s to start when the selector transport feature is
+     * turned on. Changing this value while the feature is in use does not
+     * change the number of {@link SelectorThread}s already running.
      *
-     * @return boolean specifying whether to construct new {@link SocketThread}s
-     * with {@link MessageQueue}s.
+     * @param count the number of {@link SelectorThread}s to use.
+     * @throws InvalidArgumentException if the parameter count is less than 1.
      */
-    public boolean getUseMessageQueues() {
-        return use_message_queues;
+    public synchronized void setSelectorThreadCount(int count) throws InvalidArgumentException {
+        if (count >= 1) {
+            selector_thread_count = count;
+        } else {
+            throw new InvalidArgumentException("Value of count must be >= 1. count = " + count);
+        }
     }
 
     /**
-     * Returns whether to use the Connection Confirmation feature. This feature
-     * causes new {@link SocketThread}s connected to a listen {@link Server}
-     * will ignore all input until it receives a confirmation from the
-     * {@link Server} that the connection has been established. If the
-     * connection is not confirmed within a given timeout the
-     * {@link SocketThread} will close.
+     * Sets the attribute listen_backlog, the number of connections the
+     * ServerSocket of the {@link ListenThread} queues before they are
+     * accepted. Only used by a {@link ListenThread} created after it is
+     * changed, see setListenThread.
      *
-     * @return boolean specifying whether to use to Connection Confirmation
-     * feature.
+     * @param backlog the number of connections to queue.
+     * @throws InvalidArgumentException if the parameter backlog is less than
+     * 1.
      */
-    public boolean getUseConnectionConfirmation() {
-        return use_connection_confirmation;
+    public synchronized void setListenBacklog(int backlog) throws InvalidArgumentException {
+        if (backlog >= 1) {
+            listen_backlog = backlog;
+        } else {
+            throw new InvalidArgumentException("Value of backlog must be >= 1. backlog = " + backlog);
+        }
     }
 
     /**
-     * Returns whether to use the Socket Timeout feature. This feature is used
-     * to cause sockets to break blocking if they do not receive input within a
-     * given timeout.
+     * Sets the attribute acceptor_count, the number of threads the
+     * {@link ListenThread} accepts connections on. Accepting on more than one
+     * thread lets connections be taken off the ServerSocket backlog while
+     * another thread is blocked handing a connection over. Only used by a
+     * {@link ListenThread} started after it is changed.
      *
-     * @return boolean specifying whether to use the Socket Timeout feature.
+     * @param count the number of acceptor threads.
+     * @throws InvalidArgumentException if the parameter count is less than 1.
      */
-    public boolean getUseSocketTimeout() {
-        return use_socket_timeout;
+    public synchronized void setAcceptorCount(int count) throws InvalidArgumentException {
+        if (count >= 1) {
+            acceptor_count = count;
+        } else {
+            throw new InvalidArgumentException("Value of count must be >= 1. count = " + count);
+        }
     }
 
     /**
-     * Returns the list of hashes of disconnected sockets.
+     * Sets the attribute unix_domain_path, the path of the Unix domain socket
+     * the {@link ListenThread} listens on instead of the TCP port. Connections
+     * between a lobby and game {@link Server}s on the same host skip the
+     * TCP/IP stack when made over a Unix domain socket. Set the path to null
+     * to listen on the TCP port again. A {@link ListenThread} that has not
+     * been started is rebuilt straight away, one that is already running must
+     * be rebuilt using setListenThread(). Unix domain sockets require Java 16
+     * or later.
      *
-     * @return the ArrayList(String) of hashes of disconnected sockets.
+     * @param path the path of the Unix domain socket, or null.
+     * @throws IOException if an exception is encountered when rebuilding the
+     * {@link ListenThread}.
+     * @throws ServerSocketCloseException if the ServerSocket on
+     * {@link ListenThread} fails to close when rebuilding it.
+     * @throws TimeoutException if the {@link ListenThread} fails to close
+     * before timeout is reached when rebuilding it.
+     * @throws FeatureNotSupportedException if path is not null and the Java
+     * runtime does not support Unix domain sockets.
      */
-    public ArrayList<String> getDisconnectedSockets() {
-        return disconnected_sockets;
+    public synchronized void setUnixDomainPath(String path) throws IOException, ServerSocketCloseException, TimeoutException, FeatureNotSupportedException {
+        LOGGER.log(Level.INFO, "Changing unix_domain_path: {0}", path);
+        if (path != null) {
+            createUnixDomainAddress(path);
+        }
+        boolean rebuild = state == LISTEN && listen_thread != null && listen_thread.isBound() && !listen_thread.getRun();
+        unix_domain_path = path;
+        if (rebuild) {
+            setListenThread();
+        }
     }
 
     /**
-     * Returns the list of connections to the {@link Server}.
+     * Sets the attribute connect_timeout, the time in milliseconds a
+     * connection started by addSocketAsync has to be made before it fails.
+     * Only used by connections started after it is changed.
      *
-     * @return the Map(String,{@link SocketThread}) socket_list, the list of
-     * connections to the {@link Server}.
+     * @param timeout the connect timeout in milliseconds.
+     * @throws InvalidArgumentException if the parameter timeout is less than
+     * 1.
      */
-    public Map<String, SocketThread> getSocketList() {
-        return socket_list;
+    public synchronized void setConnectTimeout(long timeout) throws InvalidArgumentException {
+        if (timeout >= 1) {
+            connect_timeout = timeout;
+        } else {
+            throw new InvalidArgumentException("Value of timeout must be >= 1. timeout = " + timeout);
+        }
     }
 
     /**
-     * Returns the list of {@link MessageQueue}s associated with each
-     * {@link SocketThread} on the {@link Server}.
+     * <p>
+     * Sets the attribute use_batched_delivery, the flag specifying whether to
+     * collect actions received for the {@link Game} into batches. While the
+     * feature is in use the thread that receives an action only parses it and
+     * handles any networking actions, every other action is held until the
+     * next call to deliverActions, which the {@link Game} makes once per
+     * simulation step. The whole batch is then passed to
+     * {@link Game}.handleActionBatch from the thread running the simulation.
+     * </p><p>
+     * The actions in a batch are grouped by the hash of the socket they were
+     * received from, in hash order, and each socket's actions are kept in the
+     * order they were received, so the order the simulation sees does not
+     * depend on how the threads receiving them were scheduled. Actions
+     * collected before the feature is turned off are still passed on by the
+     * next call to deliverActions.</p>
      *
-     * @return the Map(String,{@link MessageQueue}) queue_list, the list of
-     * {@link MessageQueue}s on the {@link Server}.
+     * @param use Boolean specifying whether to use the batched delivery
+     * feature.
      */
-    public Map<String, MessageQueue> getQueueList() {
-        return queue_list;
+    public synchronized void setUseBatchedDelivery(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_batched_delivery: {0}", use);
+        use_batched_delivery = use;
     }
 
     /**
-     * Returns the {@link ListenThread} listen_thread. This thread is used to
-     * accept new connections to the server. This attribute is only used if true
-     * is passed into the constructor for the {@link Server}.
+     * <p>
+     * Sets the attribute use_heartbeat, the flag specifying whether to use the
+     * heartbeat feature. While the feature is in use a {@link HeartbeatThread}
+     * sends a heartbeat to every confirmed {@link SocketThread} once every
+     * heartbeat_interval milliseconds.</p><p>
+     * Each {@link SocketThread} records the heartbeats it receives on its
+     * {@link HeartbeatDetector}, which works out from the measured intervals
+     * how unlikely it is that the remote {@link Server} is still alive. Once
+     * this passes heartbeat_threshold the {@link SocketThread} is disconnected
+     * and, if the disconnected sockets feature is in use, moved to the
+     * disconnected sockets list. With the default interval of 100
+     * milliseconds a dropped connection is detected within a few hundred
+     * milliseconds.</p><p>
+     * Only connections that receive heartbeats are checked, so a
+     * {@link Server} using this feature can still be connected to
+     * {@link Server}s that do not. The feature replaces the socket timeout
+     * feature, so turning it on turns the socket timeout feature off.</p>
      *
-     * @return the {@link ListenThread} listen_thread. This will return null if
-     * false was passed into the constructor, meaning the {@link Server} is not
-     * used for listening.
+     * @param use Boolean specifying whether to use the heartbeat feature.
+     * @throws SocketException if an exception is caught when turning off the
+     * socket timeout feature.
      */
-    public ListenThread getListenThread() {
-        return listen_thread;
+    public synchronized void setUseHeartbeat(boolean use) throws SocketException {
+        LOGGER.log(Level.INFO, "Toggling flag use_heartbeat: {0}", use);
+        if (use != use_heartbeat) {
+            use_heartbeat = use;
+            if (use) {
+                setUseSocketTimeout(false);
+                heartbeat_thread = new HeartbeatThread(this);
+                runThread(heartbeat_thread);
+            } else if (heartbeat_thread != null) {
+                heartbeat_thread.close();
+                heartbeat_thread = null;
+            }
+        }
     }
 
     /**
-     * Returns the int representing the current state of the {@link Server}.
-     * Valid states are: -1 - ERROR 0 - LISTEN 1 - CLIENT 2 - CLOSED
+     * Sets the attribute heartbeat_interval, the time in milliseconds between
+     * each heartbeat sent when using the heartbeat feature. A shorter interval
+     * detects dropped connections sooner.
      *
-     * @return the int representing the current state of the {@link Server}.
+     * @param interval the heartbeat interval in milliseconds.
+     * @throws InvalidArgumentException if the parameter interval is less than
+     * 1.
      */
-    public int getState() {
-        return state;
+    public synchronized void setHeartbeatInterval(long interval) throws InvalidArgumentException {
+        if (interval >= 1) {
+            heartbeat_interval = interval;
+        } else {
+            throw new InvalidArgumentException("Value of interval must be >= 1. interval = " + interval);
+        }
     }
 
     /**
-     * Returns the int used for the {@link SocketThread} specified by the
-     * parameter hash used to group the {@link SocketThread} so the
-     * {@link Server} can run and handle multiple games at once.
+     * Sets the attribute heartbeat_threshold, the phi at which a
+     * {@link SocketThread} is disconnected by the heartbeat feature. A phi of
+     * 1 means there is a 10% chance the remote {@link Server} is still alive,
+     * each increase of 1 is 10 times less likely. The default value is 8.
      *
-     * @param hash the String key used to identify the required
-     * {@link SocketThread}.
-     * @return int used to group the {@link SocketThread} by the {@link Server}
-     * allowing it to run and handle multiple games.
-     * @throws NullException if socket_list is set to null.
-     * @throws HashNotFoundException if the String hash does not exist as a key
-     * in socket_list.
+     * @param threshold the phi threshold.
+     * @throws InvalidArgumentException if the parameter threshold is not
+     * greater than 0.
      */
-    public int getSocketGame(String hash) throws NullException, HashNotFoundException {
-        if (socket_list != null) {
-            if (socket_list.containsKey(hash)) {
-                return socket_list.get(hash).getGame();
-            } else {
-                throw new HashNotFoundException("Hash does not exist as a key in socket list");
-            }
+    public synchronized void setHeartbeatThreshold(double threshold) throws InvalidArgumentException {
+        if (threshold > 0) {
+            heartbeat_threshold = threshold;
         } else {
-            throw new NullException("Socket list is set to null");
+            throw new InvalidArgumentException("Value of threshold must be > 0. threshold = " + threshold);
         }
     }
 
     /**
-     * Returns the default value for all {@link MessageQueue}s to wait before
-     * closing themselves if they received an IO error on their socket.
+     * <p>
+     * Sets the attribute use_virtual_threads, the flag specifying whether to
+     * run {@link SocketThread}s, {@link MessageQueue}s and the
+     * {@link ListenThread} on virtual threads. Each of these keeps its
+     * blocking loop but a blocked virtual thread only holds on to a small heap
+     * allocated stack, allowing a very large number of mostly idle connections
+     * to be held by the one {@link Server}.</p><p>
+     * Turning this feature on replaces thread_factory with a factory creating
+     * virtual threads, turning it off sets thread_factory back to null. Threads
+     * that have already been started are not affected.</p>
      *
-     * @return long specifying the default time (in ms) a {@link MessageQueue}
-     * should wait before closing itself after receiving an IO error on it's
-     * socket.
+     * @param use Boolean specifying whether to use the virtual threads feature.
+     * @throws FeatureNotSupportedException if use is true and the Java runtime
+     * does not support virtual threads (Java 21 or later is required).
      */
-    public long getQueueTimeoutError() {
-        return queue_timeout_error;
+    public synchronized void setUseVirtualThreads(boolean use) throws FeatureNotSupportedException {
+        LOGGER.log(Level.INFO, "Toggling flag use_virtual_threads: {0}", use);
+        if (use) {
+            thread_factory = createVirtualThreadFactory();
+        } else if (use_virtual_threads) {
+            thread_factory = null;
+        }
+        use_virtual_threads = use;
     }
 
     /**
-     * Returns the default value for all {@link MessageQueue}s to wait before
-     * closing themselves if their accompanying {@link SocketThread}
-     * disconnects. Used in the Disconnect/Reconnect feature.
+     * Sets the attribute use_writer_pool, the flag specifying whether to use
+     * the writer pool feature. When this feature is turned on
+     * {@link MessageQueue}s started afterwards do not run their own threads.
+     * Instead a {@link WriterPool} of writer_pool_size worker threads serves
+     * each {@link MessageQueue} only when a message is queued on it or it
+     * has work waiting, so thousands of mostly idle sockets do not each keep
+     * a thread looping. {@link MessageQueue}s already started keep their
+     * threads, and {@link MessageQueue}s attached to the pool stay on it
+     * until they close if the feature is turned off. The pool is closed with
+     * the {@link Server}.
      *
-     * @return long specifying how long each {@link MessageQueue} should wait
-     * before closing itself after it's accompanying {@link SocketThread}
-     * disconnects.
+     * @param use Boolean specifying whether to use the writer pool feature.
      */
-    public long getQueueTimeoutDisconnect() {
-        return queue_timeout_disconnect;
+    public synchronized void setUseWriterPool(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_writer_pool: {0}", use);
+        if (use && writer_pool == null) {
+            writer_pool = new WriterPool(this, writer_pool_size);
+            writer_pool.start();
+        }
+        use_writer_pool = use;
     }
 
     /**
-     * Returns the value of timeout_error in an individual {@link MessageQueue}.
-     * timeout_error is the time (in ms) the {@link MessageQueue} should wait
-     * before closing itself after receiving an IO error on it's socket.
+     * Sets the attribute writer_pool_size, the number of worker threads
+     * started by the {@link WriterPool}. Only used when the pool is created,
+     * so must be set before the writer pool feature is first turned on.
      *
-     * @param hash the String hash specifying the key to use in queue_list.
-     * @return long value of timeout_error in the {@link MessageQueue} specified
-     * by the parameter hash.
-     * @throws FeatureNotUsedException If the {@link MessageQueue} feature has
-     * not been set to be used.
-     * @throws NullException If the value of queue_list is null.
-     * @throws HashNotFoundException If the value specified by the parameter
-     * hash does not exist as a key in queue_list.
+     * @param size the number of worker threads.
+     * @throws InvalidArgumentException if size is less than 1.
+     */
+    public synchronized void setWriterPoolSize(int size) throws InvalidArgumentException {
+        if (size < 1) {
+            throw new InvalidArgumentException("Value of writer_pool_size must be greater than 0");
+        }
+        writer_pool_size = size;
+    }
+
+    /**
+     * Sets the ThreadFactory used to create the threads that run
+     * {@link SocketThread}s, {@link MessageQueue}s and the
+     * {@link ListenThread}. Setting a custom factory turns off the virtual
+     * threads feature. Pass null to start each of them as its own platform
+     * thread.
+     *
+     * @param thread_factory the ThreadFactory to use, or null.
+     */
+    public synchronized void setThreadFactory(ThreadFactory thread_factory) {
+        this.thread_factory = thread_factory;
+        use_virtual_threads = false;
+    }
+
+    /**
+     * Sets the list of connections to the {@link Server} using a
+     * pre-constructed Map(String,{@link SocketThread}).
+     *
+     * @param socket_list Map(String,{@link SocketThread}) to use as list of
+     * {@link Server} connections.
+     */
+    public synchronized void setSocketList(Map<String, SocketThread> socket_list) {
+        this.socket_list = socket_list;
+    }
+
+    /**
+     * Sets the list of {@link MessageQueue}s associated with each
+     * {@link SocketThread} to the {@link Server} using a pre-constructed
+     * Map(String,{@link MessageQueue}).
+     *
+     * @param queue_list Map(String,{@link MessageQueue}) to use as a list of
+     * {@link MessageQueue}s on the {@link Server}.
+     */
+    public synchronized void setQueueList(Map<String, MessageQueue> queue_list) {
+        this.queue_list = queue_list;
+        if (this.queue_list != null) {
+            LOGGER.log(Level.INFO, "Changing queue_list. New queue_list:\n{0}", queue_list.toString());
+        } else {
+            LOGGER.log(Level.INFO, "Changing queue_list. New queue_list: null");
+        }
+    }
+
+    /**
+     * Sets the list of disconnected sockets hashes.
+     *
+     * @param disconnected_sockets ArrayList{String) to use as list of hashes of
+     * disconnected sockets.
+     */
+    public synchronized void setDisconnectedSockets(ArrayList<String> disconnected_sockets) {
+        this.disconnected_sockets = disconnected_sockets;
+        LOGGER.log(Level.INFO, "Changing disconnected_sockets: {0}", disconnected_sockets);
+    }
+
+    /**
+     * Sets the attribute listen_thread.
+     *
+     * @throws IOException if an exception is found when creating a new
+     * {@link ListenThread} or when closing an existing one before attempting to
+     * create the new one.
+     * @throws ServerSocketCloseException if the ServerSocket on ListenThread
+     * fails to close when attempting to create a new {@link ListenThread} when
+     * one is already running.
+     * @throws TimeoutException if {@link ListenThread} fails to close before
+     * reaching timeout when attempting to close the currently running
+     * {@link ListenThread} before creating the new one.
+     */
+    public synchronized void setListenThread() throws IOException, ServerSocketCloseException, TimeoutException {
+        closeListenThread();
+        try {
+            listen_thread = new ListenThread(this);
+            state = LISTEN;
+        } catch (IOException e) {
+            state = ERROR;
+            throw new IOException("Could not create ListenThread on port" + port + ". Exception received: " + e);
+        }
+    }
+
+    /**
+     * Changes to value of game on the {@link SocketThread} specified by hash.
+     * This int value is used to seperate {@link SocketThread}s into groups to
+     * allow for a single {@link Server} to run and handle multiple different
+     * games.
+     *
+     * @param hash Hash identifier of {@link SocketThread} to change the value
+     * of game on.
+     * @param game int to change the value of game to on {@link SocketThread}
+     * specified by hash.
+     * @throws NullException If socket_list is set to null.
+     * @throws HashNotFoundException If the parameter hash does not exist as a
+     * key in socket_list.
+     */
+    public synchronized void setSocketGame(String hash, int game) throws NullException, HashNotFoundException {
+        if (socket_list != null) {
+            if (socket_list.containsKey(hash)) {
+                socket_list.get(hash).setGame(game);
+            } else {
+                throw new HashNotFoundException("Hash " + hash + " does not exist in socket_list");
+            }
+        } else {
+            throw new NullException("Socket list is currently set to null");
+        }
+    }
+
+    /**
+     * Changes the value of timeout_error for all current and future
+     * {@link MessageQueue}s.
+     *
+     * @param timeout Time (in ms) to set queue_timeout_error to.
+     * @throws InvalidArgumentException If the parameter timeout fails input
+     * validation.
+     */
+    public synchronized void setQueueTimeoutError(long timeout) throws InvalidArgumentException {
+        if (timeout >= 0) {
+            queue_timeout_error = timeout;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setTimeoutError(timeout);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of queue_timeout_error must be equal to or greater than 0");
+        }
+    }
+
+    /**
+     * Changes the value of timeout_disconnect for all current and future
+     * {@link MessageQueue}s.
+     *
+     * @param timeout Time (in ms) to set queue_timeout_error to.
+     * @throws InvalidArgumentException If the parameter timeout fails input
+     * validation.
+     */
+    public synchronized void setQueueTimeoutDisconnect(long timeout) throws InvalidArgumentException {
+        if (timeout >= 0) {
+            queue_timeout_disconnect = timeout;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setTimeoutDisconnect(timeout);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of queue_timeout_disconnect must be equal to or greater than 0");
+        }
+    }
+
+    /**
+     * Changes the value of capacity for all current and future
+     * {@link MessageQueue}s. Once capacity messages are queued on a
+     * {@link MessageQueue} the overflow policy is used for every message
+     * queued until it has been flushed.
+     *
+     * @param capacity The largest number of messages to queue, 0 for no
+     * limit.
+     * @throws InvalidArgumentException If the parameter capacity fails input
+     * validation.
+     */
+    public synchronized void setQueueCapacity(int capacity) throws InvalidArgumentException {
+        if (capacity >= 0) {
+            queue_capacity = capacity;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setCapacity(capacity);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of queue_capacity must be equal to or greater than 0");
+        }
+    }
+
+    /**
+     * Changes the size of the {@link MessageRing} for all current and future
+     * {@link MessageQueue}s. When the size is above 0 threads sending messages
+     * add them to the lock-free {@link MessageRing} of the
+     * {@link MessageQueue} rather than waiting for the lock on the
+     * {@link MessageQueue}, which is held while it batches messages on its
+     * socket. The {@link MessageRing} only sits in front of the channels of
+     * the {@link MessageQueue}, which still hold the queued messages, and a
+     * message that would reach the capacity or the high watermark is queued
+     * under the lock as before. Off by default, it is only worth trying when
+     * many threads, such as game, lobby and admin threads, send to the same
+     * sockets on a machine with several cores.
+     *
+     * @param size The number of messages each {@link MessageRing} can hold,
+     * rounded up to a power of two, or 0 to not use a {@link MessageRing}.
+     * @throws InvalidArgumentException If the parameter size fails input
+     * validation.
+     */
+    public synchronized void setQueueRingSize(int size) throws InvalidArgumentException {
+        if (size >= 0 && size <= 1 << 30) {
+            queue_ring_size = size;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setRingSize(size);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of queue_ring_size must be between 0 and " + (1 << 30));
+        }
+    }
+
+    /**
+     * Changes the value of low_watermark and high_watermark for all current
+     * and future {@link MessageQueue}s. QUEUE_UNWRITABLE is passed to the
+     * {@link Game} once high messages are queued on a {@link MessageQueue},
+     * and QUEUE_WRITABLE once it has been flushed down to low messages.
+     *
+     * @param low The number of queued messages at which a
+     * {@link MessageQueue} is writable again.
+     * @param high The number of queued messages at which a
+     * {@link MessageQueue} stops being writable, 0 to turn the watermarks off.
+     * @throws InvalidArgumentException If the parameters low or high fail
+     * input validation.
+     */
+    public synchronized void setQueueWatermarks(int low, int high) throws InvalidArgumentException {
+        if (low >= 0 && (high == 0 || high > low)) {
+            queue_low_watermark = low;
+            queue_high_watermark = high;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setWatermarks(low, high);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of low must be equal to or greater than 0 and value of high must be 0 or greater than low");
+        }
+    }
+
+    /**
+     * Changes the value of overflow_policy for all current and future
+     * {@link MessageQueue}s. See {@link MessageQueue} for the valid policies.
+     *
+     * @param policy The policy to use when a message is queued on a full
+     * {@link MessageQueue}.
+     * @throws InvalidArgumentException If the parameter policy fails input
+     * validation.
+     */
+    public synchronized void setQueueOverflowPolicy(int policy) throws InvalidArgumentException {
+        if (policy == MessageQueue.OVERFLOW_DROP_OLDEST || policy == MessageQueue.OVERFLOW_DROP_NEWEST || policy == MessageQueue.OVERFLOW_COALESCE || policy == MessageQueue.OVERFLOW_DISCONNECT) {
+            queue_overflow_policy = policy;
+            if (queue_list != null && !queue_list.isEmpty()) {
+                for (MessageQueue queue : queue_list.values()) {
+                    queue.setOverflowPolicy(policy);
+                }
+            }
+        } else {
+            throw new InvalidArgumentException("Value of queue_overflow_policy must equal OVERFLOW_DROP_OLDEST, OVERFLOW_DROP_NEWEST, OVERFLOW_COALESCE or OVERFLOW_DISCONNECT");
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the attribute use_queue_spill, the flag specifying whether to use
+     * the queue spill feature. Requires the message queues and disconnected
+     * sockets features. While a socket is disconnected its
+     * {@link MessageQueue} moves every queued message, and every message sent
+     * to the socket until it reconnects, to a memory-mapped
+     * {@link QueueSpill} file instead of discarding them. When the socket is
+     * reconnected with connectDisconnectedSocket the spilled messages are
+     * replayed before any new message, so the client does not need a full
+     * resync.</p><p>
+     * Each {@link QueueSpill} is capped at queue_spill_size bytes, messages
+     * that do not fit are dropped. The file is deleted once every message has
+     * been replayed or the {@link MessageQueue} is closed.</p>
+     *
+     * @param use Boolean specifying whether to use the queue spill feature.
+     */
+    public synchronized void setUseQueueSpill(boolean use) {
+        LOGGER.log(Level.INFO, "Toggling flag use_queue_spill: {0}", use);
+        use_queue_spill = use;
+    }
+
+    /**
+     * Changes the value of queue_spill_size, the size in bytes of each
+     * {@link QueueSpill} created from now on.
+     *
+     * @param size The size in bytes of each {@link QueueSpill}.
+     * @throws InvalidArgumentException If the parameter size fails input
+     * validation.
+     */
+    public synchronized void setQueueSpillSize(int size) throws InvalidArgumentException {
+        if (size > QueueSpill.HEADER_SIZE) {
+            queue_spill_size = size;
+        } else {
+            throw new InvalidArgumentException("Value of queue_spill_size must be greater than " + QueueSpill.HEADER_SIZE);
+        }
+    }
+
+    /**
+     * Changes the value of timeout_error for a single {@link MessageQueue}.
+     *
+     * @param hash Hash identifier of {@link MessageQueue} to change the value
+     * of timeout_error on.
+     * @param timeout Time (in ms) to set timeout_error to.
+     * @throws FeatureNotUsedException If the {@link MessageQueue} feature is
+     * set to be used.
+     * @throws NullException If queue_list is set to null.
+     * @throws HashNotFoundException If the parameter hash does not exist as a
+     * key in queue_list.
+     * @throws InvalidArgumentException If the parameter timeout fails input
+     * validation.
+     */
+    public synchronized void setQueueTimeoutErrorIndividual(String hash, long timeout) throws FeatureNotUsedException, NullException, HashNotFoundException, InvalidArgumentException {
+        if (use_message_queues) {
+            if (queue_list != null) {
+                if (queue_list.containsKey(hash)) {
+                    queue_list.get(hash).setTimeoutError(timeout);
+                } else {
+                    throw new HashNotFoundException("Hash " + hash + " does not exist in queue_list");
+                }
+            } else {
+                throw new NullException("Queue list is currently set to null");
+            }
+        } else {
+            throw new FeatureNotUsedException("Message Queue feature is not being used");
+        }
+    }
+
+    /**
+     * Changes the value of timeout_disconnect for a single
+     * {@link MessageQueue}.
+     *
+     * @param hash Hash identifier of {@link MessageQueue} to change the value
+     * of timeout_disconnect on.
+     * @param timeout Time (in ms) to set timeout_disconnect to.
+     * @throws FeatureNotUsedException If the {@link MessageQueue} feature is
+     * set to be used.
+     * @throws NullException If queue_list is set to null.
+     * @throws HashNotFoundException If the parameter hash does not exist as a
+     * key in queue_list.
+     * @throws InvalidArgumentException If the parameter timeout fails input
+     * validation.
+     */
+    public synchronized void setQueueTimeoutDisconnectIndividual(String hash, long timeout) throws FeatureNotUsedException, NullException, HashNotFoundException, InvalidArgumentException {
+        if (use_message_queues) {
+            if (queue_list != null) {
+                if (queue_list.containsKey(hash)) {
+                    queue_list.get(hash).setTimeoutDisconnect(timeout);
+                } else {
+                    throw new HashNotFoundException("Hash " + hash + " does not exist in queue_list");
+                }
+            } else {
+                throw new NullException("Queue list is currently set to null");
+            }
+        } else {
+            throw new FeatureNotUsedException("Message Queue feature is not being used");
+        }
+    }
+
+    /**
+     * Returns the port number used for connections.
+     *
+     * @return the port number used to listen for connections.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the maximum wait time (in milliseconds) to wait for critical
+     * tasks to complete.
+     *
+     * @return the maximum wait time (in ms) to wait for critical tasks.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the amount of time (in ms) to wait for input on each socket
+     * before breaking blocking to process other tasks.
+     *
+     * @return the wait time (in ms) to until breaking blocking on each socket.
+     */
+    public int getSocketTimeout() {
+        return socket_timeout;
+    }
+
+    /**
+     * Returns the total consecutive number of times to break blocking on each
+     * socket before closing the socket.
+     *
+     * @return the number of consecutive times to break blocking on each socket
+     * before closing the socket.
+     */
+    public int getSocketTimeoutCount() {
+        return socket_timeout_count;
+    }
+
+    /**
+     * Returns whether to keep the hashes of disconnected sockets or not.
+     *
+     * @return boolean specifying whether to keep the hashes of disconnected
+     * sockets.
+     */
+    public boolean getUseDisconnectedSockets() {
+        return use_disconnected_sockets;
+    }
+
+    /**
+     * Returns whether to construct new {@link SocketThread}s with
+     * {@link MessageQueue}s.
+     *
+     * @return boolean specifying whether to construct new {@link SocketThread}s
+     * with {@link MessageQueue}s.
+     */
+    public boolean getUseMessageQueues() {
+        return use_message_queues;
+    }
+
+    /**
+     * Returns whether to use the Connection Confirmation feature. This feature
+     * causes new {@link SocketThread}s connected to a listen {@link Server}
+     * will ignore all input until it receives a confirmation from the
+     * {@link Server} that the connection has been established. If the
+     * connection is not confirmed within a given timeout the
+     * {@link SocketThread} will close.
+     *
+     * @return boolean specifying whether to use to Connection Confirmation
+     * feature.
+     */
+    public boolean getUseConnectionConfirmation() {
+        return use_connection_confirmation;
+    }
+
+    /**
+     * Returns whether to use the Socket Timeout feature. This feature is used
+     * to cause sockets to break blocking if they do not receive input within a
+     * given timeout.
+     *
+     * @return boolean specifying whether to use the Socket Timeout feature.
+     */
+    public boolean getUseSocketTimeout() {
+        return use_socket_timeout;
+    }
+
+    /**
+     * Returns whether to use the Binary Framing feature. This feature causes
+     * new connections to negotiate sending messages with a length prefix
+     * instead of line separators.
+     *
+     * @return boolean specifying whether to use the Binary Framing feature.
+     */
+    public boolean getUseBinaryFraming() {
+        return use_binary_framing;
+    }
+
+    /**
+     * Returns whether to use the Channels feature. This feature causes new
+     * connections to negotiate sending the id of a logical channel with each
+     * message.
+     *
+     * @return boolean specifying whether to use the Channels feature.
+     */
+    public boolean getUseChannels() {
+        return use_channels;
+    }
+
+    /**
+     * Returns the priority of a logical channel.
+     *
+     * @param channel the id of the channel.
+     * @return the int priority of the channel, 0 if it has not been set.
+     */
+    public int getChannelPriority(int channel) {
+        Integer priority = channel_priorities.get(channel);
+        if (priority == null) {
+            return 0;
+        }
+        return priority;
+    }
+
+    /**
+     * Returns the weight of a logical channel.
+     *
+     * @param channel the id of the channel.
+     * @return the int weight of the channel, 1 if it has not been set.
+     */
+    public int getChannelWeight(int channel) {
+        Integer weight = channel_weights.get(channel);
+        if (weight == null) {
+            return 1;
+        }
+        return weight;
+    }
+
+    /**
+     * Returns the attribute channel_drain, how each {@link MessageQueue}
+     * drains its channels.
+     *
+     * @return the int channel_drain.
+     */
+    public int getChannelDrain() {
+        return channel_drain;
+    }
+
+    /**
+     * Returns the attribute action_channels, the channel each action is
+     * queued on when it is sent without a channel.
+     *
+     * @return the Map(String, Integer) action_channels.
+     */
+    public Map<String, Integer> getActionChannels() {
+        return action_channels;
+    }
+
+    /**
+     * Returns whether to use the Coalescing feature. This feature causes each
+     * {@link MessageQueue} to replace unsent messages that have the same
+     * coalescing key.
+     *
+     * @return boolean specifying whether to use the Coalescing feature.
+     */
+    public boolean getUseCoalescing() {
+        return use_coalescing;
+    }
+
+    /**
+     * Returns the attribute coalesce_keys, the parameter each action is
+     * coalesced by.
+     *
+     * @return the Map(String, Integer) coalesce_keys.
+     */
+    public Map<String, Integer> getCoalesceKeys() {
+        return coalesce_keys;
+    }
+
+    /**
+     * Returns the logical channel the last message received from a
+     * {@link SocketThread} was sent on. Call this from the handleAction
+     * function of the {@link Game} to find the channel of the action being
+     * handled, as actions are handled on the thread that read them.
+     *
+     * @param hash the hash of the {@link SocketThread}.
+     * @return the int channel id, always 0 unless the connection uses CHANNEL
+     * framing.
+     * @throws HashNotFoundException if there is no {@link SocketThread} with
+     * the given hash.
+     */
+    public int getReceiveChannel(String hash) throws HashNotFoundException {
+        SocketThread socket = socket_list.get(hash);
+        if (socket == null) {
+            throw new HashNotFoundException("Hash " + hash + " does not exist in socket_list");
+        }
+        Sock sock = socket.getSocket();
+        if (sock == null) {
+            return 0;
+        }
+        return sock.getReadChannel();
+    }
+
+    /**
+     * Returns whether to use the Compression feature. This feature causes new
+     * connections to negotiate compressing every message sent.
+     *
+     * @return boolean specifying whether to use the Compression feature.
+     */
+    public boolean getUseCompression() {
+        return use_compression;
+    }
+
+    /**
+     * Returns the preset dictionary used by the Compression feature.
+     *
+     * @return the byte array compression_dictionary.
+     */
+    public byte[] getCompressionDictionary() {
+        return compression_dictionary;
+    }
+
+    /**
+     * Returns whether to use the Write Batching feature. This feature causes
+     * messages to be batched and written together instead of one at a time.
+     *
+     * @return boolean specifying whether to use the Write Batching feature.
+     */
+    public boolean getUseWriteBatching() {
+        return use_write_batching;
+    }
+
+    /**
+     * Returns the longest time in milliseconds a batched message can wait
+     * before it is flushed when using the Write Batching feature.
+     *
+     * @return the long max_flush_delay.
+     */
+    public long getMaxFlushDelay() {
+        return max_flush_delay;
+    }
+
+    /**
+     * Returns whether to use the Unreliable Channel feature. This feature
+     * causes messages sent with sendActionUnreliable to be sent as UDP
+     * datagrams.
+     *
+     * @return boolean specifying whether to use the Unreliable Channel
+     * feature.
+     */
+    public boolean getUseUnreliableChannel() {
+        return use_unreliable_channel;
+    }
+
+    /**
+     * Returns the {@link DatagramThread} used by the Unreliable Channel
+     * feature.
+     *
+     * @return the {@link DatagramThread} datagram_thread. This will be null if
+     * the feature is not in use.
+     */
+    public DatagramThread getDatagramThread() {
+        return datagram_thread;
+    }
+
+    /**
+     * Returns whether to use the File Transfer feature. This feature allows
+     * files to be streamed to and from other {@link Server}s over separate
+     * data connections.
+     *
+     * @return boolean specifying whether to use the File Transfer feature.
+     */
+    public boolean getUseFileTransfer() {
+        return use_file_transfer;
+    }
+
+    /**
+     * Returns the directory files received by the File Transfer feature are
+     * saved in.
+     *
+     * @return the String file_directory.
+     */
+    public String getFileDirectory() {
+        return file_directory;
+    }
+
+    /**
+     * Returns the largest number of bytes per second each file is sent at.
+     *
+     * @return the long file_transfer_rate. 0 means no limit.
+     */
+    public long getFileTransferRate() {
+        return file_transfer_rate;
+    }
+
+    /**
+     * Returns the {@link FileTransferThread} used by the File Transfer
+     * feature.
+     *
+     * @return the {@link FileTransferThread} file_thread. This will be null if
+     * the feature is not in use.
+     */
+    public FileTransferThread getFileTransferThread() {
+        return file_thread;
+    }
+
+    /**
+     * Returns every {@link FileTransfer} that has not finished yet.
+     *
+     * @return the Map of file_transfers keyed by transfer id.
+     */
+    public Map<Long, FileTransfer> getFileTransfers() {
+        return file_transfers;
+    }
+
+    /**
+     * Returns whether to use the Selector Transport feature. This feature
+     * causes new connections to be read and written by a small pool of
+     * {@link SelectorThread}s instead of one thread per connection.
+     *
+     * @return boolean specifying whether to use the Selector Transport feature.
+     */
+    public boolean getUseSelectorTransport() {
+        return use_selector_transport;
+    }
+
+    /**
+     * Returns the number of connections the ServerSocket of the
+     * {@link ListenThread} queues before they are accepted.
+     *
+     * @return the int listen_backlog.
+     */
+    public int getListenBacklog() {
+        return listen_backlog;
+    }
+
+    /**
+     * Returns the number of threads the {@link ListenThread} accepts
+     * connections on.
+     *
+     * @return the int acceptor_count.
+     */
+    public int getAcceptorCount() {
+        return acceptor_count;
+    }
+
+    /**
+     * Returns the path of the Unix domain socket the {@link ListenThread}
+     * listens on.
+     *
+     * @return the String unix_domain_path, null if listening on port.
+     */
+    public String getUnixDomainPath() {
+        return unix_domain_path;
+    }
+
+    /**
+     * Returns the time in milliseconds a connection started by addSocketAsync
+     * has to be made.
+     *
+     * @return the long connect_timeout.
+     */
+    public long getConnectTimeout() {
+        return connect_timeout;
+    }
+
+    /**
+     * Returns the {@link ConnectThread} making the connections started by
+     * addSocketAsync.
+     *
+     * @return the {@link ConnectThread} connect_thread, null if addSocketAsync
+     * has not been used.
+     */
+    public ConnectThread getConnectThread() {
+        return connect_thread;
+    }
+
+    /**
+     * Returns the {@link TimerWheel} used to schedule the timeouts of every
+     * {@link SocketThread} and {@link MessageQueue} on this {@link Server}.
+     *
+     * @return the {@link TimerWheel} timer_wheel.
+     */
+    public TimerWheel getTimerWheel() {
+        return timer_wheel;
+    }
+
+    /**
+     * Returns whether to use the batched delivery feature.
+     *
+     * @return boolean specifying whether to use the batched delivery feature.
+     */
+    public boolean getUseBatchedDelivery() {
+        return use_batched_delivery;
+    }
+
+    /**
+     * Returns the number of actions collected for the next batch when using
+     * the batched delivery feature.
+     *
+     * @return the number of actions waiting to be passed to the {@link Game}.
+     */
+    public int getBatchedActions() {
+        int batched = 0;
+        synchronized (inbound_lock) {
+            for (ArrayList<List<String>> actions : inbound_actions.values()) {
+                batched += actions.size();
+            }
+        }
+        return batched;
+    }
+
+    /**
+     * Returns whether to use the heartbeat feature.
+     *
+     * @return boolean specifying whether to use the heartbeat feature.
+     */
+    public boolean getUseHeartbeat() {
+        return use_heartbeat;
+    }
+
+    /**
+     * Returns the attribute heartbeat_interval.
+     *
+     * @return the long heartbeat_interval in milliseconds.
+     */
+    public long getHeartbeatInterval() {
+        return heartbeat_interval;
+    }
+
+    /**
+     * Returns the attribute heartbeat_threshold.
+     *
+     * @return the double heartbeat_threshold.
+     */
+    public double getHeartbeatThreshold() {
+        return heartbeat_threshold;
+    }
+
+    /**
+     * Returns the {@link HeartbeatThread} used by the heartbeat feature.
+     *
+     * @return the {@link HeartbeatThread} heartbeat_thread. This will be null
+     * if the heartbeat feature is not in use.
+     */
+    public HeartbeatThread getHeartbeatThread() {
+        return heartbeat_thread;
+    }
+
+    /**
+     * Returns the number of {@link SelectorThread}s started when the Selector
+     * Transport feature is turned on.
+     *
+     * @return the int selector_thread_count.
+     */
+    public int getSelectorThreadCount() {
+        return selector_thread_count;
+    }
+
+    /**
+     * Returns the {@link SelectorThread}s used by the Selector Transport
+     * feature.
+     *
+     * @return the ArrayList({@link SelectorThread}) selector_threads. This will
+     * be null if the feature has not been turned on.
+     */
+    public ArrayList<SelectorThread> getSelectorThreads() {
+        return selector_threads;
+    }
+
+    /**
+     * Returns whether to use the Virtual Threads feature. This feature causes
+     * {@link SocketThread}s, {@link MessageQueue}s and the
+     * {@link ListenThread} to be run on virtual threads.
+     *
+     * @return boolean specifying whether to use the Virtual Threads feature.
+     */
+    public boolean getUseVirtualThreads() {
+        return use_virtual_threads;
+    }
+
+    /**
+     * Returns whether to use the Writer Pool feature. This feature causes
+     * {@link MessageQueue}s to be served by a {@link WriterPool} instead of
+     * running their own threads.
+     *
+     * @return boolean specifying whether to use the Writer Pool feature.
+     */
+    public boolean getUseWriterPool() {
+        return use_writer_pool;
+    }
+
+    /**
+     * Returns the attribute writer_pool_size.
+     *
+     * @return the int writer_pool_size.
+     */
+    public int getWriterPoolSize() {
+        return writer_pool_size;
+    }
+
+    /**
+     * Returns the attribute writer_pool.
+     *
+     * @return the {@link WriterPool} writer_pool. This will be null if the
+     * writer pool feature has not been turned on.
+     */
+    public WriterPool getWriterPool() {
+        return writer_pool;
+    }
+
+    /**
+     * Returns the ThreadFactory used to run {@link SocketThread}s,
+     * {@link MessageQueue}s and the {@link ListenThread}.
+     *
+     * @return the ThreadFactory thread_factory. This will be null if each is
+     * started as its own platform thread.
+     */
+    public ThreadFactory getThreadFactory() {
+        return thread_factory;
+    }
+
+    /**
+     * Returns the list of hashes of disconnected sockets.
+     *
+     * @return the ArrayList(String) of hashes of disconnected sockets.
+     */
+    public ArrayList<String> getDisconnectedSockets() {
+        return disconnected_sockets;
+    }
+
+    /**
+     * Returns the list of connections to the {@link Server}.
+     *
+     * @return the Map(String,{@link SocketThread}) socket_list, the list of
+     * connections to the {@link Server}.
+     */
+    public Map<String, SocketThread> getSocketList() {
+        return socket_list;
+    }
+
+    /**
+     * Returns the list of {@link MessageQueue}s associated with each
+     * {@link SocketThread} on the {@link Server}.
+     *
+     * @return the Map(String,{@link MessageQueue}) queue_list, the list of
+     * {@link MessageQueue}s on the {@link Server}.
+     */
+    public Map<String, MessageQueue> getQueueList() {
+        return queue_list;
+    }
+
+    /**
+     * Returns the {@link ListenThread} listen_thread. This thread is used to
+     * accept new connections to the server. This attribute is only used if true
+     * is passed into the constructor for the {@link Server}.
+     *
+     * @return the {@link ListenThread} listen_thread. This will return null if
+     * false was passed into the constructor, meaning the {@link Server} is not
+     * used for listening.
+     */
+    public ListenThread getListenThread() {
+        return listen_thread;
+    }
+
+    /**
+     * Returns the int representing the current state of the {@link Server}.
+     * Valid states are: -1 - ERROR 0 - LISTEN 1 - CLIENT 2 - CLOSED
+     *
+     * @return the int representing the current state of the {@link Server}.
+     */
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Returns the int used for the {@link SocketThread} specified by the
+     * parameter hash used to group the {@link SocketThread} so the
+     * {@link Server} can run and handle multiple games at once.
+     *
+     * @param hash the String key used to identify the required
+     * {@link SocketThread}.
+     * @return int used to group the {@link SocketThread} by the {@link Server}
+     * allowing it to run and handle multiple games.
+     * @throws NullException if socket_list is set to null.
+     * @throws HashNotFoundException if the String hash does not exist as a key
+     * in socket_list.
+     */
+    public int getSocketGame(String hash) throws NullException, HashNotFoundException {
+        if (socket_list != null) {
+            if (socket_list.containsKey(hash)) {
+                return socket_list.get(hash).getGame();
+            } else {
+                throw new HashNotFoundException("Hash does not exist as a key in socket list");
+            }
+        } else {
+            throw new NullException("Socket list is set to null");
+        }
+    }
+
+    /**
+     * Returns the default value for all {@link MessageQueue}s to wait before
+     * closing themselves if they received an IO error on their socket.
+     *
+     * @return long specifying the default time (in ms) a {@link MessageQueue}
+     * should wait before closing itself after receiving an IO error on it's
+     * socket.
+     */
+    public long getQueueTimeoutError() {
+        return queue_timeout_error;
+    }
+
+    /**
+     * Returns the default value for all {@link MessageQueue}s to wait before
+     * closing themselves if their accompanying {@link SocketThread}
+     * disconnects. Used in the Disconnect/Reconnect feature.
+     *
+     * @return long specifying how long each {@link MessageQueue} should wait
+     * before closing itself after it's accompanying {@link SocketThread}
+     * disconnects.
+     */
+    public long getQueueTimeoutDisconnect() {
+        return queue_timeout_disconnect;
+    }
+
+    /**
+     * Returns whether to use the queue spill feature.
+     *
+     * @return boolean specifying whether to use the queue spill feature.
+     */
+    public boolean getUseQueueSpill() {
+        return use_queue_spill;
+    }
+
+    /**
+     * Returns the value of queue_spill_size.
+     *
+     * @return the value of queue_spill_size.
+     */
+    public int getQueueSpillSize() {
+        return queue_spill_size;
+    }
+
+    /**
+     * Returns the value of queue_capacity. This value is the default value of
+     * capacity for each {@link MessageQueue}.
+     *
+     * @return the value of queue_capacity.
+     */
+    public int getQueueCapacity() {
+        return queue_capacity;
+    }
+
+    /**
+     * Returns the value of queue_ring_size. This value is the size of the
+     * {@link MessageRing} of each {@link MessageQueue}.
+     *
+     * @return the value of queue_ring_size.
+     */
+    public int getQueueRingSize() {
+        return queue_ring_size;
+    }
+
+    /**
+     * Returns the value of queue_low_watermark. This value is the default
+     * value of low_watermark for each {@link MessageQueue}.
+     *
+     * @return the value of queue_low_watermark.
+     */
+    public int getQueueLowWatermark() {
+        return queue_low_watermark;
+    }
+
+    /**
+     * Returns the value of queue_high_watermark. This value is the default
+     * value of high_watermark for each {@link MessageQueue}.
+     *
+     * @return the value of queue_high_watermark.
+     */
+    public int getQueueHighWatermark() {
+        return queue_high_watermark;
+    }
+
+    /**
+     * Returns the value of queue_overflow_policy. This value is the default
+     * value of overflow_policy for each {@link MessageQueue}.
+     *
+     * @return the value of queue_overflow_policy.
+     */
+    public int getQueueOverflowPolicy() {
+        return queue_overflow_policy;
+    }
+
+    /**
+     * Returns the number of messages waiting to be sent in an individual
+     * {@link MessageQueue}. The peak number of queued messages and the number
+     * of messages dropped or coalesced by the overflow policy can be read
+     * from the {@link MessageQueue} in queue_list.
+     *
+     * @param hash the String hash specifying the key to use in queue_list.
+     * @return the number of messages queued in the {@link MessageQueue}
+     * specified by the parameter hash.
+     * @throws FeatureNotUsedException If the {@link MessageQueue} feature has
+     * not been set to be used.
+     * @throws NullException If the value of queue_list is null.
+     * @throws HashNotFoundException If the value specified by the parameter
+     * hash does not exist as a key in queue_list.
+     */
+    public int getQueuedMessagesIndividual(String hash) throws FeatureNotUsedException, NullException, HashNotFoundException {
+        if (use_message_queues) {
+            if (queue_list != null) {
+                if (queue_list.containsKey(hash)) {
+                    return queue_list.get(hash).getQueuedMessages();
+                } else {
+                    throw new HashNotFoundException("Hash " + hash + " does not exist in queue_list");
+                }
+            } else {
+                throw new NullException("Queue list is currently set to null");
+            }
+        } else {
+            throw new FeatureNotUsedException("Message Queue feature is not being used");
+        }
+    }
+
+    /**
+     * Returns the value of timeout_error in an individual {@link MessageQueue}.
+     * timeout_error is the time (in ms) the {@link MessageQueue} should wait
+     * before closing itself after receiving an IO error on it's socket.
+     *
+     * @param hash the String hash specifying the key to use in queue_list.
+     * @return long value of timeout_error in the {@link MessageQueue} specified
+     * by the parameter hash.
+     * @throws FeatureNotUsedException If the {@link MessageQueue} feature has
+     * not been set to be used.
+     * @throws NullException If the value of queue_list is null.
+     * @throws HashNotFoundException If the value specified by the parameter
+     * hash does not exist as a key in queue_list.
      */
     public long getQueueTimeoutErrorIndividual(String hash) throws FeatureNotUsedException, NullException, HashNotFoundException {
         if (use_message_queues) {
@@ -1066,6 +3093,15 @@ public class Server extends fantasyteam.ft1.Networking {
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, "Failed to close SocketThread", e);
             }
+            DatagramSession session = socket_list.get(hash).getDatagramSession();
+            if (session != null && datagram_thread != null) {
+                datagram_thread.removeSession(session);
+            }
+            for (FileTransfer transfer : file_transfers.values()) {
+                if (transfer.getHash().equals(hash)) {
+                    transfer.close();
+                }
+            }
             socket_list.remove(hash);
             LOGGER.log(Level.INFO, "Closed SocketThread has been interrupted, removing from socket_list on Server");
             if (use_disconnected_sockets) {
@@ -1225,17 +3261,447 @@ public class Server extends fantasyteam.ft1.Networking {
      * function was called confirmConnection() instead, then the Game class
      * could never call it).
      *
-     * @param action Not used.
-     * @param clientId The hash corresponding to the {@link SocketThread} in
-     * socket_list to set its state to SocketThread.CONFIRMED.
+     * The same action is used to negotiate the binary framing, compression
+     * and unreliable channel features once the connection has been confirmed,
+     * and to offer files using the file transfer feature. In this case action
+     * contains a second parameter specifying the step of the negotiation, see
+     * negotiateFraming, negotiateCompression, negotiateUnreliable and
+     * negotiateFile.
+     *
+     * @param action The action received. Only used when negotiating binary
+     * framing, compression, the unreliable channel or a file transfer.
+     * @param clientId The hash corresponding to the {@link SocketThread} in
+     * socket_list to set its state to SocketThread.CONFIRMED.
+     */
+    @Override
+    public synchronized void customNetwork1(List<String> action, String clientId) {
+        if (action.size() > 1) {
+            String step = action.get(1);
+            if (step.equals(UNRELIABLE_REQUEST) || step.equals(UNRELIABLE_ACCEPT) || step.equals(UNRELIABLE_BOUND)) {
+                negotiateUnreliable(action, clientId);
+            } else if (step.equals(COMPRESSION_REQUEST) || step.equals(COMPRESSION_ACCEPT) || step.equals(COMPRESSION_START)) {
+                negotiateCompression(action, clientId);
+            } else if (step.equals(FILE_OFFER) || step.equals(FILE_REJECT)) {
+                negotiateFile(action, clientId);
+            } else {
+                negotiateFraming(action, clientId);
+            }
+        } else {
+            try {
+                socket_list.get(clientId).setRun(SocketThread.CONFIRMED);
+            } catch (InvalidArgumentException e) {
+                throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when running SocketThread.setRun() from Server.customNetwork1()", e);
+            }
+            if (use_channels && state == CLIENT) {
+                LOGGER.log(Level.INFO, "Requesting channel framing for SocketThread {0}", clientId);
+                socket_list.get(clientId).sendMessage(encodeNetworkAction(BINARY_FRAMING_REQUEST, CHANNEL_FRAMING));
+            } else if (use_binary_framing && state == CLIENT) {
+                LOGGER.log(Level.INFO, "Requesting binary framing for SocketThread {0}", clientId);
+                socket_list.get(clientId).sendMessage(encodeNetworkAction(BINARY_FRAMING_REQUEST));
+            }
+            if (use_compression && state == CLIENT) {
+                LOGGER.log(Level.INFO, "Requesting compression for SocketThread {0}", clientId);
+                socket_list.get(clientId).sendMessage(encodeNetworkAction(COMPRESSION_REQUEST, Long.toString(dictionaryChecksum(compression_dictionary))));
+            }
+            if (use_unreliable_channel && datagram_thread != null && state == CLIENT) {
+                LOGGER.log(Level.INFO, "Requesting unreliable channel for SocketThread {0}", clientId);
+                socket_list.get(clientId).sendMessage(encodeNetworkAction(UNRELIABLE_REQUEST));
+            }
+        }
+    }
+
+    /**
+     * Handles one step of the negotiation of the binary framing feature. The
+     * negotiation happens in three steps:
+     * <ol>
+     * <li>The client sends BINARY_FRAMING_REQUEST once it has received the
+     * connection confirmation. A listen {@link Server} that does not use the
+     * binary framing feature ignores the request and both ends keep using TEXT
+     * framing.</li>
+     * <li>The listen {@link Server} replies with BINARY_FRAMING_ACCEPT and
+     * switches to writing BINARY framing straight after it.</li>
+     * <li>The client switches to reading BINARY framing, then sends
+     * BINARY_FRAMING_START and switches to writing BINARY framing straight
+     * after it. The listen {@link Server} switches to reading BINARY framing
+     * when it receives BINARY_FRAMING_START.</li>
+     * </ol>
+     * Every switch happens directly after a specific message on the same
+     * connection, so no message is ever decoded with the wrong framing. A
+     * client using the channels feature adds CHANNEL_FRAMING to its request.
+     * If the listen {@link Server} also uses the channels feature it adds
+     * CHANNEL_FRAMING to its reply and both ends switch to CHANNEL framing
+     * instead, otherwise the listen {@link Server} replies as normal if it
+     * uses the binary framing feature.
+     *
+     * @param action the action received.
+     * @param clientId The hash corresponding to the {@link SocketThread} in
+     * socket_list the step was received on.
+     */
+    private void negotiateFraming(List<String> action, String clientId) {
+        String step = action.get(1);
+        boolean channels = action.size() > 2 && action.get(2).equals(CHANNEL_FRAMING);
+        SocketThread socket = socket_list.get(clientId);
+        if (socket == null || socket.getSocket() == null) {
+            LOGGER.log(Level.INFO, "SocketThread {0} was closed while negotiating framing", clientId);
+            return;
+        }
+        try {
+            switch (step) {
+                case BINARY_FRAMING_REQUEST:
+                    if (channels && use_channels && state == LISTEN) {
+                        socket.sendMessage(encodeNetworkAction(BINARY_FRAMING_ACCEPT, CHANNEL_FRAMING), Sock.CHANNEL);
+                        LOGGER.log(Level.INFO, "Accepted channel framing request from SocketThread {0}", clientId);
+                    } else if (use_binary_framing && state == LISTEN) {
+                        socket.sendMessage(encodeNetworkAction(BINARY_FRAMING_ACCEPT), Sock.BINARY);
+                        LOGGER.log(Level.INFO, "Accepted binary framing request from SocketThread {0}", clientId);
+                    } else {
+                        LOGGER.log(Level.INFO, "Ignored binary framing request from SocketThread {0}", clientId);
+                    }
+                    break;
+                case BINARY_FRAMING_ACCEPT:
+                    if (state == CLIENT) {
+                        if (channels) {
+                            socket.getSocket().setReadFraming(Sock.CHANNEL);
+                            socket.sendMessage(encodeNetworkAction(BINARY_FRAMING_START, CHANNEL_FRAMING), Sock.CHANNEL);
+                            LOGGER.log(Level.INFO, "SocketThread {0} is now using channel framing", clientId);
+                        } else {
+                            socket.getSocket().setReadFraming(Sock.BINARY);
+                            socket.sendMessage(encodeNetworkAction(BINARY_FRAMING_START), Sock.BINARY);
+                            LOGGER.log(Level.INFO, "SocketThread {0} is now using binary framing", clientId);
+                        }
+                    }
+                    break;
+                case BINARY_FRAMING_START:
+                    if (state == LISTEN) {
+                        socket.getSocket().setReadFraming(channels ? Sock.CHANNEL : Sock.BINARY);
+                        LOGGER.log(Level.INFO, "SocketThread {0} is now using {1} framing", new Object[]{clientId, channels ? "channel" : "binary"});
+                    }
+                    break;
+                default:
+                    LOGGER.log(Level.INFO, "Unknown customnetwork1 parameter {0} received from SocketThread {1}", new Object[]{step, clientId});
+                    break;
+            }
+        } catch (InvalidArgumentException e) {
+            throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when changing Sock framing from Server.negotiateFraming()", e);
+        }
+    }
+
+    /**
+     * Handles one step of the negotiation of the compression feature. The
+     * negotiation happens in the same three steps as negotiateFraming:
+     * <ol>
+     * <li>The client sends COMPRESSION_REQUEST and the checksum of its
+     * dictionary once it has received the connection confirmation. A listen
+     * {@link Server} that does not use the compression feature, or has built a
+     * different dictionary, ignores the request and the connection stays
+     * uncompressed.</li>
+     * <li>The listen {@link Server} replies with COMPRESSION_ACCEPT and
+     * compresses everything it writes straight after it.</li>
+     * <li>The client decompresses everything it reads after
+     * COMPRESSION_ACCEPT, then sends COMPRESSION_START and compresses
+     * everything it writes straight after it. The listen {@link Server}
+     * decompresses everything it reads after COMPRESSION_START.</li>
+     * </ol>
+     *
+     * @param action the action received.
+     * @param clientId The hash corresponding to the {@link SocketThread} in
+     * socket_list the step was received on.
+     */
+    private void negotiateCompression(List<String> action, String clientId) {
+        SocketThread socket = socket_list.get(clientId);
+        if (socket == null || socket.getSocket() == null) {
+            LOGGER.log(Level.INFO, "SocketThread {0} was closed while negotiating compression", clientId);
+            return;
+        }
+        byte[] dictionary = compression_dictionary;
+        try {
+            switch (action.get(1)) {
+                case COMPRESSION_REQUEST:
+                    if (use_compression && state == LISTEN && action.size() > 2 && action.get(2).equals(Long.toString(dictionaryChecksum(dictionary)))) {
+                        socket.startWriteCompression(encodeNetworkAction(COMPRESSION_ACCEPT), dictionary);
+                        LOGGER.log(Level.INFO, "Accepted compression request from SocketThread {0}", clientId);
+                    } else {
+                        LOGGER.log(Level.INFO, "Ignored compression request from SocketThread {0}", clientId);
+                    }
+                    break;
+                case COMPRESSION_ACCEPT:
+                    if (state == CLIENT) {
+                        socket.getSocket().setReadCompression(dictionary);
+                        socket.startWriteCompression(encodeNetworkAction(COMPRESSION_START), dictionary);
+                        LOGGER.log(Level.INFO, "SocketThread {0} is now using compression", clientId);
+                    }
+                    break;
+                case COMPRESSION_START:
+                    if (state == LISTEN) {
+                        socket.getSocket().setReadCompression(dictionary);
+                        LOGGER.log(Level.INFO, "SocketThread {0} is now using compression", clientId);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not turn on compression for SocketThread " + clientId, e);
+            disconnect(clientId);
+        }
+    }
+
+    /**
+     * Handles one step of the negotiation of the unreliable channel feature.
+     * The negotiation happens in three steps:
+     * <ol>
+     * <li>The client sends UNRELIABLE_REQUEST once it has received the
+     * connection confirmation. A listen {@link Server} that does not use the
+     * unreliable channel feature ignores the request and all messages keep
+     * being sent through the connection.</li>
+     * <li>The listen {@link Server} creates a {@link DatagramSession} and
+     * replies with UNRELIABLE_ACCEPT, the session token and the port of its
+     * {@link DatagramThread}. The client creates its own
+     * {@link DatagramSession} with the same token and starts sending bind
+     * datagrams to that port.</li>
+     * <li>The listen {@link Server} learns the client's address from the first
+     * bind datagram it receives and sends UNRELIABLE_BOUND through the
+     * connection, see confirmDatagramSession. The client stops sending bind
+     * datagrams when it receives UNRELIABLE_BOUND.</li>
+     * </ol>
+     *
+     * @param action the action received.
+     * @param clientId The hash corresponding to the {@link SocketThread} in
+     * socket_list the step was received on.
+     */
+    private void negotiateUnreliable(List<String> action, String clientId) {
+        SocketThread socket = socket_list.get(clientId);
+        if (socket == null || socket.getSocket() == null) {
+            LOGGER.log(Level.INFO, "SocketThread {0} was closed while negotiating unreliable channel", clientId);
+            return;
+        }
+        if (datagram_thread == null) {
+            LOGGER.log(Level.INFO, "Ignored unreliable channel negotiation from SocketThread {0}", clientId);
+            return;
+        }
+        switch (action.get(1)) {
+            case UNRELIABLE_REQUEST:
+                if (state == LISTEN) {
+                    DatagramSession session = datagram_thread.addSession(socket);
+                    socket.sendMessage(encodeNetworkAction(UNRELIABLE_ACCEPT, Long.toString(session.getToken()), Integer.toString(datagram_thread.getPort())));
+                    LOGGER.log(Level.INFO, "Accepted unreliable channel request from SocketThread {0}", clientId);
+                }
+                break;
+            case UNRELIABLE_ACCEPT:
+                if (state == CLIENT && action.size() > 3) {
+                    try {
+                        long token = Long.parseLong(action.get(2));
+                        int udp_port = Integer.parseInt(action.get(3));
+                        datagram_thread.addSession(socket, token, new InetSocketAddress(socket.getSocket().getRemoteAddress(), udp_port));
+                    } catch (NumberFormatException e) {
+                        LOGGER.log(Level.WARNING, "Invalid unreliable channel parameters received from SocketThread " + clientId, e);
+                    }
+                }
+                break;
+            case UNRELIABLE_BOUND:
+                if (state == CLIENT && socket.getDatagramSession() != null) {
+                    socket.getDatagramSession().setBound(true);
+                    LOGGER.log(Level.INFO, "SocketThread {0} is now using unreliable channel", clientId);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Handles a file offered by the other end, or the rejection of a file
+     * offered by this {@link Server}. An offered file is accepted if the file
+     * transfer feature is in use and file_directory is set, in which case a
+     * RECEIVE {@link FileTransfer} is started that connects to the
+     * {@link FileTransferThread} of the other end. Only the name of the
+     * offered file is used, any directories in it are dropped. Otherwise
+     * FILE_REJECT is sent back and the other end fails its transfer.
+     *
+     * @param action the action received.
+     * @param clientId The hash corresponding to the {@link SocketThread} in
+     * socket_list the step was received on.
+     */
+    private void negotiateFile(List<String> action, String clientId) {
+        SocketThread socket = socket_list.get(clientId);
+        if (socket == null || socket.getSocket() == null) {
+            LOGGER.log(Level.INFO, "SocketThread {0} was closed while negotiating file transfer", clientId);
+            return;
+        }
+        try {
+            switch (action.get(1)) {
+                case FILE_OFFER:
+                    if (action.size() > 5) {
+                        long id = Long.parseLong(action.get(2));
+                        String name = new File(action.get(3)).getName();
+                        long length = Long.parseLong(action.get(4));
+                        int file_port = Integer.parseInt(action.get(5));
+                        String directory = file_directory;
+                        File file = directory != null ? new File(directory, name) : null;
+                        if (use_file_transfer && file != null && !name.isEmpty() && length >= 0 && !file_transfers.containsKey(id) && !isReceiving(file)) {
+                            file.getParentFile().mkdirs();
+                            FileTransfer transfer = new FileTransfer(this, id, clientId, file, length, new InetSocketAddress(socket.getSocket().getRemoteAddress(), file_port));
+                            file_transfers.put(id, transfer);
+                            runThread(transfer);
+                            LOGGER.log(Level.INFO, "Accepted file {0} from SocketThread {1}", new Object[]{name, clientId});
+                        } else {
+                            socket.sendMessage(encodeNetworkAction(FILE_REJECT, action.get(2)));
+                            LOGGER.log(Level.INFO, "Rejected file {0} from SocketThread {1}", new Object[]{name, clientId});
+                        }
+                    }
+                    break;
+                case FILE_REJECT:
+                    if (action.size() > 2) {
+                        FileTransfer transfer = file_transfers.get(Long.parseLong(action.get(2)));
+                        if (transfer != null && transfer.getDirection() == FileTransfer.SEND && transfer.getHash().equals(clientId) && transfer.fail()) {
+                            LOGGER.log(Level.INFO, "SocketThread {0} rejected file {1}", new Object[]{clientId, transfer.getFile().getName()});
+                            finishFileTransfer(transfer);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Invalid file transfer parameters received from SocketThread " + clientId, e);
+        }
+    }
+
+    /**
+     * Checks whether a file is already being received, so two transfers never
+     * write to the same temporary file.
+     *
+     * @param file the file to check.
+     * @return true if a RECEIVE {@link FileTransfer} is saving to file.
+     */
+    private boolean isReceiving(File file) {
+        for (FileTransfer transfer : file_transfers.values()) {
+            if (transfer.getDirection() == FileTransfer.RECEIVE && transfer.getFile().equals(file)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by a {@link FileTransfer} when it has finished, or by this
+     * {@link Server} when an offered file is rejected or never connected to.
+     * Passes the FILE_RECEIVED, FILE_SENT or FILE_FAILED action to the
+     * {@link Game} and then removes the transfer. Nothing is passed on for
+     * transfers that were closed.
+     *
+     * @param transfer the {@link FileTransfer} that has finished.
+     */
+    void finishFileTransfer(FileTransfer transfer) {
+        if (file_transfers.get(transfer.getTransferId()) != transfer) {
+            return;
+        }
+        String seperator = Character.toString((char) 31);
+        String name = transfer.getFile().getName();
+        if (transfer.getRun() == FileTransfer.COMPLETE) {
+            if (transfer.getDirection() == FileTransfer.RECEIVE) {
+                receiveMessage(FILE_RECEIVED + seperator + name + seperator + transfer.getFile().getPath() + seperator, transfer.getHash());
+            } else {
+                receiveMessage(FILE_SENT + seperator + name + seperator, transfer.getHash());
+            }
+        } else if (transfer.getRun() == FileTransfer.FAILED) {
+            receiveMessage(FILE_FAILED + seperator + name + seperator, transfer.getHash());
+        }
+        file_transfers.remove(transfer.getTransferId(), transfer);
+    }
+
+    /**
+     * Passes an action received from a socket on to the {@link Game}, or adds
+     * it to the next batch when using the batched delivery feature.
+     *
+     * @param action the action received.
+     * @param clientId the hash of the socket the action was received from.
+     */
+    @Override
+    protected void deliverAction(List<String> action, String clientId) {
+        if (!use_batched_delivery) {
+            super.deliverAction(action, clientId);
+            return;
+        }
+        synchronized (inbound_lock) {
+            ArrayList<List<String>> actions = inbound_actions.get(clientId);
+            if (actions == null) {
+                actions = new ArrayList<List<String>>();
+                inbound_actions.put(clientId, actions);
+            }
+            actions.add(action);
+        }
+    }
+
+    /**
+     * Passes every action collected since the last call on to
+     * {@link Game}.handleActionBatch in one call when using the batched
+     * delivery feature. The {@link Game} should call this once per simulation
+     * step. Nothing is passed on if no actions have been collected.
+     */
+    @Override
+    public void deliverActions() {
+        TreeMap<String, ArrayList<List<String>>> batch;
+        synchronized (inbound_lock) {
+            if (inbound_actions.isEmpty()) {
+                return;
+            }
+            batch = inbound_actions;
+            inbound_actions = new TreeMap<String, ArrayList<List<String>>>();
+        }
+        ArrayList<List<String>> actions = new ArrayList<List<String>>();
+        ArrayList<String> hashes = new ArrayList<String>();
+        for (Map.Entry<String, ArrayList<List<String>>> entry : batch.entrySet()) {
+            for (List<String> action : entry.getValue()) {
+                actions.add(action);
+                hashes.add(entry.getKey());
+            }
+        }
+        LOGGER.log(Level.FINE, "Delivering batch of {0} actions", actions.size());
+        deliverActionBatch(actions, hashes);
+    }
+
+    /**
+     * Called by a {@link MessageQueue} when it stops being writable or becomes
+     * writable again. Passes QUEUE_UNWRITABLE or QUEUE_WRITABLE to the
+     * {@link Game} from the hash of the {@link MessageQueue}.
+     *
+     * @param hash the hash of the {@link MessageQueue}.
+     * @param writable true if the {@link MessageQueue} is writable again.
+     * @param queued the number of messages queued on the {@link MessageQueue}.
+     */
+    void queueWritabilityChanged(String hash, boolean writable, int queued) {
+        String seperator = Character.toString((char) 31);
+        receiveMessage((writable ? QUEUE_WRITABLE : QUEUE_UNWRITABLE) + seperator + queued + seperator, hash);
+    }
+
+    /**
+     * Called by the {@link DatagramThread} on a listen {@link Server} when the
+     * first datagram of a {@link DatagramSession} is received. Tells the
+     * client {@link Server} through the connection that datagrams can now be
+     * sent in both directions.
+     *
+     * @param session the {@link DatagramSession} that is now bound.
      */
-    @Override
-    public synchronized void customNetwork1(List<String> action, String clientId) {
-        try {
-            socket_list.get(clientId).setRun(SocketThread.CONFIRMED);
-        } catch (InvalidArgumentException e) {
-            throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when running SocketThread.setRun() from Server.customNetwork1()", e);
+    void confirmDatagramSession(DatagramSession session) {
+        session.getSocket().sendMessage(encodeNetworkAction(UNRELIABLE_BOUND));
+        LOGGER.log(Level.INFO, "SocketThread {0} is now using unreliable channel", session.getSocket().getHash());
+    }
+
+    /**
+     * Encodes a customnetwork1 action with the given parameters in the same
+     * form as {@link fantasyteam.ft1.Networking}.sendAction.
+     *
+     * @param parameters the parameters to send with the action.
+     * @return the encoded action String.
+     */
+    private String encodeNetworkAction(String... parameters) {
+        String seperator = Character.toString((char) 31);
+        String action = "customnetwork1" + seperator;
+        for (String parameter : parameters) {
+            action += parameter + seperator;
         }
+        return action;
     }
 
     /**
@@ -1347,6 +3813,319 @@ public class Server extends fantasyteam.ft1.Networking {
                     throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
                 }
                 break;
+            case "setUseBinaryFraming":
+                if (action.size() > 1) {
+                    setUseBinaryFraming(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseChannels":
+                if (action.size() > 1) {
+                    setUseChannels(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setChannelPriority":
+                if (action.size() > 2) {
+                    try {
+                        setChannelPriority(Integer.parseInt(action.get(1)), Integer.parseInt(action.get(2)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setChannelWeight":
+                if (action.size() > 2) {
+                    try {
+                        setChannelWeight(Integer.parseInt(action.get(1)), Integer.parseInt(action.get(2)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setChannelDrain":
+                if (action.size() > 1) {
+                    try {
+                        setChannelDrain(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setActionChannel":
+                if (action.size() > 2) {
+                    try {
+                        setActionChannel(action.get(1), Integer.parseInt(action.get(2)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseCoalescing":
+                if (action.size() > 1) {
+                    setUseCoalescing(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setCoalesceKey":
+                if (action.size() > 2) {
+                    try {
+                        setCoalesceKey(action.get(1), Integer.parseInt(action.get(2)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "removeCoalesceKey":
+                if (action.size() > 1) {
+                    removeCoalesceKey(action.get(1));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseCompression":
+                if (action.size() > 1) {
+                    setUseCompression(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setCompressionActions":
+                setCompressionActions(new ArrayList<String>(action.subList(1, action.size())));
+                break;
+            case "setUseWriteBatching":
+                if (action.size() > 1) {
+                    setUseWriteBatching(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setMaxFlushDelay":
+                if (action.size() > 1) {
+                    try {
+                        setMaxFlushDelay(Long.parseLong(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseSelectorTransport":
+                if (action.size() > 1) {
+                    try {
+                        setUseSelectorTransport(Boolean.parseBoolean(action.get(1)));
+                    } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setSelectorThreadCount":
+                if (action.size() > 1) {
+                    try {
+                        setSelectorThreadCount(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setListenBacklog":
+                if (action.size() > 1) {
+                    try {
+                        setListenBacklog(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setAcceptorCount":
+                if (action.size() > 1) {
+                    try {
+                        setAcceptorCount(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUnixDomainPath":
+                if (action.size() > 1) {
+                    try {
+                        setUnixDomainPath(action.get(1));
+                    } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    } catch (FeatureNotSupportedException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setConnectTimeout":
+                if (action.size() > 1) {
+                    try {
+                        setConnectTimeout(Long.parseLong(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseBatchedDelivery":
+                if (action.size() > 1) {
+                    setUseBatchedDelivery(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "deliverActions":
+                deliverActions();
+                break;
+            case "setUseHeartbeat":
+                if (action.size() > 1) {
+                    try {
+                        setUseHeartbeat(Boolean.parseBoolean(action.get(1)));
+                    } catch (SocketException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseQueueSpill":
+                if (action.size() > 1) {
+                    setUseQueueSpill(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setQueueSpillSize":
+                if (action.size() > 1) {
+                    try {
+                        setQueueSpillSize(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setQueueCapacity":
+                if (action.size() > 1) {
+                    try {
+                        setQueueCapacity(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setQueueRingSize":
+                if (action.size() > 1) {
+                    try {
+                        setQueueRingSize(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setQueueWatermarks":
+                if (action.size() > 2) {
+                    try {
+                        setQueueWatermarks(Integer.parseInt(action.get(1)), Integer.parseInt(action.get(2)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setQueueOverflowPolicy":
+                if (action.size() > 1) {
+                    try {
+                        setQueueOverflowPolicy(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setHeartbeatInterval":
+                if (action.size() > 1) {
+                    try {
+                        setHeartbeatInterval(Long.parseLong(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setHeartbeatThreshold":
+                if (action.size() > 1) {
+                    try {
+                        setHeartbeatThreshold(Double.parseDouble(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseVirtualThreads":
+                if (action.size() > 1) {
+                    try {
+                        setUseVirtualThreads(Boolean.parseBoolean(action.get(1)));
+                    } catch (FeatureNotSupportedException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseWriterPool":
+                if (action.size() > 1) {
+                    setUseWriterPool(Boolean.parseBoolean(action.get(1)));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setWriterPoolSize":
+                if (action.size() > 1) {
+                    try {
+                        setWriterPoolSize(Integer.parseInt(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
             case "setDisconnectedSockets":
                 if (action.size() > 1) {
                     ArrayList<String> sockets = new ArrayList<String>();
@@ -1487,6 +4266,30 @@ public class Server extends fantasyteam.ft1.Networking {
                 } else {
                     throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
                 }
+            case "addSocketAsync":
+                if (action.size() > 2) {
+                    try {
+                        addSocketAsync(action.get(1), Integer.parseInt(action.get(2)));
+                    } catch (IOException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "addUnixDomainSocket":
+                if (action.size() > 1) {
+                    try {
+                        addUnixDomainSocket(action.get(1));
+                    } catch (IOException | TimeoutException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    } catch (FeatureNotSupportedException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
             case "addQueue":
                 if (action.size() > 1) {
                     try {
@@ -1533,6 +4336,90 @@ public class Server extends fantasyteam.ft1.Networking {
                 } catch (IOException e) {
                     throw new NetworkingIOException("Exception occurred", e);
                 }
+            case "flushSockets":
+                flushSockets();
+                break;
+            case "setUseUnreliableChannel":
+                if (action.size() > 1) {
+                    try {
+                        setUseUnreliableChannel(Boolean.parseBoolean(action.get(1)));
+                    } catch (IOException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "sendMessageUnreliableList":
+                if (action.size() > 2) {
+                    sendMessageUnreliable(action.get(1), new ArrayList<String>(action.subList(2, action.size())));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "sendMessageUnreliableHash":
+                if (action.size() > 2) {
+                    sendMessageUnreliable(action.get(1), action.get(2));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "sendMessageReliableList":
+                if (action.size() > 2) {
+                    sendMessageReliable(action.get(1), new ArrayList<String>(action.subList(2, action.size())));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "sendMessageReliableHash":
+                if (action.size() > 2) {
+                    sendMessageReliable(action.get(1), action.get(2));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setUseFileTransfer":
+                if (action.size() > 1) {
+                    try {
+                        setUseFileTransfer(Boolean.parseBoolean(action.get(1)));
+                    } catch (IOException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setFileDirectory":
+                if (action.size() > 1) {
+                    setFileDirectory(action.get(1));
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "setFileTransferRate":
+                if (action.size() > 1) {
+                    try {
+                        setFileTransferRate(Long.parseLong(action.get(1)));
+                    } catch (InvalidArgumentException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
+            case "sendFile":
+                if (action.size() > 2) {
+                    try {
+                        sendFile(action.get(1), action.get(2));
+                    } catch (FeatureNotUsedException | HashNotFoundException e) {
+                        throw new NetworkingRuntimeException("Exception occurred", e);
+                    } catch (IOException e) {
+                        throw new NetworkingIOException("Exception occurred", e);
+                    }
+                } else {
+                    throw new NetworkingIOException("Parameter list is too small", new InvalidArgumentException("Parameter list is too small: " + action.size()));
+                }
+                break;
             case "sendMessageList":
                 if (action.size() > 2) {
                     String message = action.get(1);
@@ -1631,26 +4518,22 @@ public class Server extends fantasyteam.ft1.Networking {
                 if (state != CLOSED) {
                     if (socket_list.containsKey(hash)) {
                         if (state != CLOSED) {
-                            socket_list.get(hash).start();
-                            boolean started = false;
-                            Timing timer = new Timing();
-                            while (state != CLOSED && (!started && socket_list.containsKey(hash))) {
-                                if (socket_list.get(hash).getRun() == SocketThread.NEW) {
-                                    if (timer.getTime() > timeout) {
-                                        started = true;
-                                        disconnect(hash);
-                                        if (use_disconnected_sockets) {
-                                            try {
-                                                removeDisconnectedSocket(hash);
-                                            } catch (NullException | HashNotFoundException e) {
-                                                throw new FT1EngineError("Internal enginer error: Caught a NullException or HashNotFoundException when trying to run Server.removeDisconnectedSocket from Server.startSocket");
-                                            }
-                                        }
-                                        throw new TimeoutException("SocketThread was created but did not start in time");
+                            SocketThread socket = socket_list.get(hash);
+                            if (socket.getSocket() != null && socket.getSocket().getChannel() != null && selector_threads != null) {
+                                nextSelectorThread().addSocket(socket);
+                            } else {
+                                runThread(socket);
+                            }
+                            if (!socket.awaitStart(timeout)) {
+                                disconnect(hash);
+                                if (use_disconnected_sockets) {
+                                    try {
+                                        removeDisconnectedSocket(hash);
+                                    } catch (NullException | HashNotFoundException e) {
+                                        throw new FT1EngineError("Internal enginer error: Caught a NullException or HashNotFoundException when trying to run Server.removeDisconnectedSocket from Server.startSocket");
                                     }
-                                } else {
-                                    started = true;
                                 }
+                                throw new TimeoutException("SocketThread was created but did not start in time");
                             }
                         }
                     } else {
@@ -1666,7 +4549,9 @@ public class Server extends fantasyteam.ft1.Networking {
     /**
      * Starts the {@link MessageQueue} at the location in queue_list specified
      * by hash. This function will wait up to 5 seconds for the
-     * {@link MessageQueue} to start.
+     * {@link MessageQueue} to start. When the writer pool feature is in use
+     * the {@link MessageQueue} is attached to writer_pool instead of being
+     * started on its own thread.
      *
      * @param hash the String key in queue_list corresponding to the
      * {@link MessageQueue} to start.
@@ -1682,20 +4567,18 @@ public class Server extends fantasyteam.ft1.Networking {
                 if (state != CLOSED) {
                     if (queue_list.containsKey(hash)) {
                         if (state != CLOSED) {
-                            queue_list.get(hash).start();
-                            boolean started = false;
-                            Timing timer = new Timing();
-                            while (state != CLOSED && !started) {
-                                if (queue_list.get(hash).getRun() == MessageQueue.NEW) {
-                                    timer.waitTime(5);
-                                    if (timer.getTime() > timeout) {
-                                        started = true;
-                                        throw new TimeoutException("MessageQueue was created but did not start in time");
-                                    }
-                                } else {
-                                    started = true;
-                                    LOGGER.log(Level.INFO, "Successfully started MessageQueue for SocketThread {0}", hash);
-                                }
+                            MessageQueue queue = queue_list.get(hash);
+                            WriterPool pool = writer_pool;
+                            if (use_writer_pool && pool != null) {
+                                pool.attach(queue);
+                            } else {
+                                runThread(queue);
+                            }
+                            if (!queue.awaitStart(timeout)) {
+                                throw new TimeoutException("MessageQueue was created but did not start in time");
+                            }
+                            if (state != CLOSED) {
+                                LOGGER.log(Level.INFO, "Successfully started MessageQueue for SocketThread {0}", hash);
                             }
                         }
                     } else {
@@ -1744,6 +4627,12 @@ public class Server extends fantasyteam.ft1.Networking {
                 throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when running SocketThread.setSocketTimeoutCount() from Server.addSocketThread()", e);
             }
         }
+        if (state != CLOSED) {
+            if (use_write_batching && new_socket.getSocket() != null) {
+                new_socket.getSocket().setAutoFlush(false);
+                new_socket.setFlushDeadline(true);
+            }
+        }
         if (state != CLOSED) {
             socket_list.put(hash, new_socket);
         }
@@ -1768,78 +4657,434 @@ public class Server extends fantasyteam.ft1.Networking {
     }
 
     /**
-     * Creates a new {@link SocketThread} using a pre-constructed {@link Server}
-     * and adds it to HashMap(String,{@link SocketThread}) socket_list.
+     * Creates a new {@link SocketThread} using a pre-constructed {@link Server}
+     * and adds it to HashMap(String,{@link SocketThread}) socket_list.
+     *
+     * @param socket Pre-constructed {@link Server} to use for connection.
+     * @return The hash assigned to the SocketThread.
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     */
+    public synchronized String addSocket(Socket socket) throws TimeoutException, IOException {
+        Sock temp_socket = new Sock(socket);
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
+        addSocketThread(hash, new_socket);
+        return hash;
+    }
+
+    /**
+     * Creates a new {@link SocketThread} using a pre-constructed {@link Sock}
+     * and adds it to HashMap(String,{@link SocketThread}) socket_list.
+     *
+     * @param sock Pre-constructed {@link Sock} to use for connection.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when starting the new
+     * {@link SocketThread}.
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     */
+    public synchronized String addSocket(Sock sock) throws IOException, TimeoutException {
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(sock, this, hash);
+        addSocketThread(hash, new_socket);
+        return hash;
+    }
+
+    /**
+     * Attempts to connect to another {@link Server} via IP address.
+     *
+     * @param ip IP address of {@link Server}.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     */
+    public synchronized String addSocket(String ip) throws IOException, TimeoutException {
+        Sock temp_socket = createSock(ip, port);
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
+        addSocketThread(hash, new_socket);
+        return hash;
+    }
+
+    /**
+     * Attempts to connect to another {@link Server} via IP address and port
+     * number.
+     *
+     * @param ip IP address of {@link Server}.
+     * @param port Port number of {@link Server}.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     */
+    public synchronized String addSocket(String ip, int port) throws IOException, TimeoutException {
+        Sock temp_socket = createSock(ip, port);
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
+        addSocketThread(hash, new_socket);
+        return hash;
+    }
+
+    /**
+     * Attempts to connect to another {@link Server} at any SocketAddress. An
+     * InetSocketAddress is connected to the same way as addSocket(String ip,
+     * int port), any other address, such as a UnixDomainSocketAddress, is
+     * connected to through a SocketChannel.
+     *
+     * @param address the SocketAddress of the {@link Server}.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     */
+    public synchronized String addSocket(SocketAddress address) throws IOException, TimeoutException {
+        Sock temp_socket;
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet_address = (InetSocketAddress) address;
+            temp_socket = createSock(inet_address.getHostString(), inet_address.getPort());
+        } else {
+            temp_socket = createSock(SocketChannel.open(address));
+        }
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
+        addSocketThread(hash, new_socket);
+        return hash;
+    }
+
+    /**
+     * Attempts to connect to another {@link Server} on the same host through
+     * the Unix domain socket at path. See setUnixDomainPath.
+     *
+     * @param path the path of the Unix domain socket the {@link Server} is
+     * listening on.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     * @throws TimeoutException if the new SocketThread did not finish starting
+     * before timeout was reached.
+     * @throws FeatureNotSupportedException if the Java runtime does not
+     * support Unix domain sockets.
+     */
+    public String addUnixDomainSocket(String path) throws IOException, TimeoutException, FeatureNotSupportedException {
+        return addSocket(createUnixDomainAddress(path));
+    }
+
+    /**
+     * Builds a {@link Sock} on a connected SocketChannel that may not have a
+     * Socket, such as a Unix domain SocketChannel. If the selector transport
+     * feature is in use the {@link Sock} is driven by a
+     * {@link SelectorThread}, otherwise it reads and writes through a
+     * {@link ChannelTransport}.
+     *
+     * @param channel the connected SocketChannel.
+     * @return the new {@link Sock}.
+     * @throws IOException if an exception is found when building the
+     * {@link Sock}. The channel is closed.
+     */
+    private Sock createSock(SocketChannel channel) throws IOException {
+        try {
+            if (use_selector_transport && selector_threads != null) {
+                return new Sock(channel);
+            }
+            return new Sock(new ChannelTransport(channel));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects a new {@link Sock} to the given IP address and port number. If
+     * the selector transport feature is in use the {@link Sock} is built on a
+     * non-blocking SocketChannel, otherwise a normal blocking {@link Sock} is
+     * built.
+     *
+     * @param ip IP address to connect to.
+     * @param port Port number to connect to.
+     * @return the new {@link Sock}.
+     * @throws IOException if an exception is found when connecting the
+     * {@link Sock}.
+     */
+    private Sock createSock(String ip, int port) throws IOException {
+        if (use_selector_transport && selector_threads != null) {
+            return Sock.openChannel(ip, port);
+        }
+        return new Sock(ip, port);
+    }
+
+    /**
+     * Connects to a listen {@link Server} running in the same JVM through a
+     * pair of {@link LoopbackTransport}s instead of a TCP Socket. Messages are
+     * passed between the two {@link Server}s in memory without going through
+     * the kernel, which is useful for tests and for benchmarks that should
+     * only measure the cost of the {@link Server} and {@link MessageQueue}.
+     * The listen {@link Server} sets up its end of the connection the same
+     * way as a connection accepted by its {@link ListenThread}, so its
+     * {@link ListenThread} does not need to be running. Loopback connections
+     * always use a blocking {@link SocketThread}, even if the selector
+     * transport feature is in use.
+     *
+     * @param listen_server the listen {@link Server} to connect to.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when starting either new
+     * {@link SocketThread}.
+     * @throws TimeoutException if either new {@link SocketThread} did not
+     * finish starting before timeout was reached.
+     * @throws FeatureNotUsedException if listen_server is not a listen
+     * {@link Server}.
+     */
+    public String addLoopbackSocket(Server listen_server) throws IOException, TimeoutException, FeatureNotUsedException {
+        if (listen_server.getState() != LISTEN) {
+            throw new FeatureNotUsedException("Server is not set to listen. Cannot connect to it through a LoopbackTransport. State " + listen_server.getState());
+        }
+        LoopbackTransport[] transports = LoopbackTransport.createPair();
+        Sock local_sock = new Sock(transports[0]);
+        Sock remote_sock = new Sock(transports[1]);
+        try {
+            listen_server.setupSocket(remote_sock);
+        } catch (IOException | TimeoutException e) {
+            local_sock.close();
+            remote_sock.close();
+            throw e;
+        }
+        return addSocket(local_sock);
+    }
+
+    /**
+     * Connects to another {@link Server} without blocking the calling thread.
+     * The connection is made on the {@link ConnectThread}, so many connections
+     * can be started at once and made in parallel. Once the connection has
+     * been made its {@link SocketThread} is created and started the same way
+     * as addSocket(String ip, int port) and the hash is set on the returned
+     * {@link ConnectFuture}. If the connection is not made within
+     * connect_timeout milliseconds the {@link ConnectFuture} fails with a
+     * {@link TimeoutException}.
+     *
+     * @param ip IP address of {@link Server}.
+     * @param port Port number of {@link Server}.
+     * @return the {@link ConnectFuture} holding the result of the connection.
+     * @throws IOException if an exception is encountered when starting the
+     * {@link ConnectThread}.
+     */
+    public ConnectFuture addSocketAsync(String ip, int port) throws IOException {
+        ConnectFuture future = new ConnectFuture(ip, port, System.currentTimeMillis() + connect_timeout);
+        startConnectThread().connect(new InetSocketAddress(ip, port), future);
+        return future;
+    }
+
+    /**
+     * Starts the {@link ConnectThread} if it is not already running.
+     *
+     * @return the running {@link ConnectThread}.
+     * @throws IOException if an exception is encountered when opening the
+     * Selector of the {@link ConnectThread}.
+     */
+    private synchronized ConnectThread startConnectThread() throws IOException {
+        if (connect_thread == null) {
+            connect_thread = new ConnectThread(this);
+            runThread(connect_thread);
+        }
+        return connect_thread;
+    }
+
+    /**
+     * Called by the {@link ConnectThread} once a connection started by
+     * addSocketAsync has been made. Builds a {@link Sock} on the connected
+     * SocketChannel, starts its {@link SocketThread} and sets the hash on the
+     * {@link ConnectFuture}. If the {@link ConnectFuture} was cancelled in the
+     * meantime the new {@link SocketThread} is disconnected.
+     *
+     * @param future the {@link ConnectFuture} of the connection.
+     * @param channel the connected SocketChannel.
+     */
+    void completeConnect(ConnectFuture future, SocketChannel channel) {
+        if (future.isDone()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close SocketChannel", e);
+            }
+            return;
+        }
+        try {
+            Sock sock;
+            if (use_selector_transport && selector_threads != null) {
+                sock = new Sock(channel);
+            } else {
+                channel.configureBlocking(true);
+                sock = new Sock(channel.socket());
+            }
+            String hash = addSocket(sock);
+            if (!future.complete(hash)) {
+                disconnect(hash);
+            }
+        } catch (IOException | TimeoutException e) {
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                LOGGER.log(Level.SEVERE, "Failed to close SocketChannel", ex);
+            }
+            future.fail(e);
+        }
+    }
+
+    /**
+     * Starts selector_thread_count new {@link SelectorThread}s if they are not
+     * already running.
+     *
+     * @throws IOException if an exception is encountered when opening a
+     * Selector.
+     */
+    private synchronized void startSelectorThreads() throws IOException {
+        if (selector_threads == null) {
+            ArrayList<SelectorThread> new_threads = new ArrayList<SelectorThread>();
+            try {
+                for (int i = 0; i < selector_thread_count; i++) {
+                    SelectorThread selector_thread = new SelectorThread(this);
+                    new_threads.add(selector_thread);
+                    selector_thread.start();
+                }
+            } catch (IOException e) {
+                for (SelectorThread selector_thread : new_threads) {
+                    selector_thread.close();
+                }
+                throw new IOException("Could not start SelectorThreads. Exception received: " + e);
+            }
+            selector_threads = new_threads;
+            next_selector_thread = 0;
+            LOGGER.log(Level.INFO, "Started {0} SelectorThreads", selector_thread_count);
+        }
+    }
+
+    /**
+     * Closes all running {@link SelectorThread}s.
+     */
+    private synchronized void closeSelectorThreads() {
+        if (selector_threads != null) {
+            for (SelectorThread selector_thread : selector_threads) {
+                selector_thread.close();
+            }
+            selector_threads = null;
+            LOGGER.log(Level.INFO, "Closed SelectorThreads");
+        }
+    }
+
+    /**
+     * Retires all running {@link SelectorThread}s. Each one keeps serving the
+     * connections already registered with it and closes once they have all
+     * been closed. New connections are no longer registered with them.
+     */
+    private synchronized void retireSelectorThreads() {
+        if (selector_threads != null) {
+            for (SelectorThread selector_thread : selector_threads) {
+                selector_thread.retire();
+            }
+            selector_threads = null;
+            LOGGER.log(Level.INFO, "Retired SelectorThreads");
+        }
+    }
+
+    /**
+     * Returns the {@link SelectorThread} to register the next new connection
+     * with. Connections are spread over the {@link SelectorThread}s in turn.
      *
-     * @param socket Pre-constructed {@link Server} to use for connection.
-     * @return The hash assigned to the SocketThread.
-     * @throws TimeoutException if the new SocketThread did not finish starting
-     * before timeout was reached.
-     * @throws IOException if an exception is found when creating the new
-     * {@link Sock} or starting the new {@link SocketThread}.
+     * @return the next {@link SelectorThread} to use.
      */
-    public synchronized String addSocket(Socket socket) throws TimeoutException, IOException {
-        Sock temp_socket = new Sock(socket);
-        String hash = generateUniqueHash();
-        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
-        addSocketThread(hash, new_socket);
-        return hash;
+    private synchronized SelectorThread nextSelectorThread() {
+        SelectorThread selector_thread = selector_threads.get(next_selector_thread % selector_threads.size());
+        next_selector_thread = (next_selector_thread + 1) % selector_threads.size();
+        return selector_thread;
     }
 
     /**
-     * Creates a new {@link SocketThread} using a pre-constructed {@link Sock}
-     * and adds it to HashMap(String,{@link SocketThread}) socket_list.
+     * Starts one of the threaded classes held by this {@link Server}. If
+     * thread_factory is set the thread's run() loop is executed on a thread
+     * created by thread_factory, otherwise the thread is started normally.
      *
-     * @param sock Pre-constructed {@link Sock} to use for connection.
-     * @return The hash assigned to the SocketThread.
-     * @throws IOException if an exception is found when starting the new
-     * {@link SocketThread}.
-     * @throws TimeoutException if the new SocketThread did not finish starting
-     * before timeout was reached.
+     * @param thread the {@link SocketThread}, {@link MessageQueue},
+     * {@link ListenThread} or other thread of the {@link Server} to run.
      */
-    public synchronized String addSocket(Sock sock) throws IOException, TimeoutException {
-        String hash = generateUniqueHash();
-        SocketThread new_socket = new SocketThread(sock, this, hash);
-        addSocketThread(hash, new_socket);
-        return hash;
+    void runThread(Thread thread) {
+        ThreadFactory factory = thread_factory;
+        if (factory != null) {
+            Thread carrier = factory.newThread(thread);
+            carrier.setName(thread.getName());
+            carrier.start();
+        } else {
+            thread.start();
+        }
     }
 
     /**
-     * Attempts to connect to another {@link Server} via IP address.
+     * Creates a ThreadFactory that creates virtual threads. Virtual threads
+     * were added in Java 21, the factory is looked up reflectively so the
+     * engine can still be built and run on older versions of Java.
      *
-     * @param ip IP address of {@link Server}.
-     * @return The hash assigned to the SocketThread.
-     * @throws IOException if an exception is found when creating the new
-     * {@link Sock} or starting the new {@link SocketThread}.
-     * @throws TimeoutException if the new SocketThread did not finish starting
-     * before timeout was reached.
+     * @return a ThreadFactory creating virtual threads.
+     * @throws FeatureNotSupportedException if the Java runtime does not
+     * support virtual threads.
      */
-    public synchronized String addSocket(String ip) throws IOException, TimeoutException {
-        Sock temp_socket = new Sock(ip, port);
-        String hash = generateUniqueHash();
-        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
-        addSocketThread(hash, new_socket);
-        return hash;
+    public static ThreadFactory createVirtualThreadFactory() throws FeatureNotSupportedException {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException | InvocationTargetException e) {
+            throw new FeatureNotSupportedException("Virtual threads are not supported by this Java runtime, Java 21 or later is required", e);
+        }
     }
 
     /**
-     * Attempts to connect to another {@link Server} via IP address and port
-     * number.
+     * Creates a UnixDomainSocketAddress for the given path. Unix domain
+     * sockets were added in Java 16, the address is created reflectively so
+     * the engine can still be built and run on older versions of Java.
      *
-     * @param ip IP address of {@link Server}.
-     * @param port Port number of {@link Server}.
-     * @return The hash assigned to the SocketThread.
-     * @throws IOException if an exception is found when creating the new
-     * {@link Sock} or starting the new {@link SocketThread}
-     * @throws TimeoutException if the new SocketThread did not finish starting
-     * before timeout was reached.
+     * @param path the path of the Unix domain socket.
+     * @return the UnixDomainSocketAddress.
+     * @throws FeatureNotSupportedException if the Java runtime does not
+     * support Unix domain sockets.
      */
-    public synchronized String addSocket(String ip, int port) throws IOException, TimeoutException {
-        Sock temp_socket = new Sock(ip, port);
-        String hash = generateUniqueHash();
-        SocketThread new_socket = new SocketThread(temp_socket, this, hash);
-        addSocketThread(hash, new_socket);
-        return hash;
+    public static SocketAddress createUnixDomainAddress(String path) throws FeatureNotSupportedException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException e) {
+            throw new FeatureNotSupportedException("Unix domain sockets are not supported by this Java runtime, Java 16 or later is required", e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new FeatureNotSupportedException("Unix domain sockets are not supported by this Java runtime, Java 16 or later is required", e.getCause());
+        }
+    }
+
+    /**
+     * Opens an unbound Unix domain ServerSocketChannel. Looked up reflectively
+     * for the same reason as createUnixDomainAddress.
+     *
+     * @return the ServerSocketChannel.
+     * @throws IOException if an exception is encountered when opening the
+     * ServerSocketChannel.
+     * @throws FeatureNotSupportedException if the Java runtime does not
+     * support Unix domain sockets.
+     */
+    static ServerSocketChannel openUnixDomainServerChannel() throws IOException, FeatureNotSupportedException {
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            return (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        } catch (IllegalArgumentException | NoSuchMethodException | IllegalAccessException e) {
+            throw new FeatureNotSupportedException("Unix domain sockets are not supported by this Java runtime, Java 16 or later is required", e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new FeatureNotSupportedException("Unix domain sockets are not supported by this Java runtime, Java 16 or later is required", e.getCause());
+        }
     }
 
     /**
@@ -1866,6 +5111,14 @@ public class Server extends fantasyteam.ft1.Networking {
             MessageQueue new_queue = new MessageQueue(this, hash);
             new_queue.setTimeoutError(queue_timeout_error);
             new_queue.setTimeoutDisconnect(queue_timeout_disconnect);
+            try {
+                new_queue.setCapacity(queue_capacity);
+                new_queue.setRingSize(queue_ring_size);
+                new_queue.setWatermarks(queue_low_watermark, queue_high_watermark);
+                new_queue.setOverflowPolicy(queue_overflow_policy);
+            } catch (InvalidArgumentException e) {
+                throw new FT1EngineError("Internal engine error: Caught InvalidArgumentException when configuring MessageQueue in Server.addQueue", e);
+            }
             queue_list.put(hash, new_queue);
             try {
                 startQueue(hash);
@@ -1978,13 +5231,6 @@ public class Server extends fantasyteam.ft1.Networking {
                             } catch (HashNotFoundException | NullException e) {
                                 throw new FT1EngineError("Internal engine error: Caught a HashNotFoundException or NullException when running Server.removeQueue from Server.replaceHash");
                             }
-                            boolean disconnected = false;
-                            Timing new_timer = new Timing();
-                            while (!disconnected) {
-                                if (!queue_list.containsKey(old_hash) || new_timer.getTime() > timeout) {
-                                    disconnected = true;
-                                }
-                            }
                         }
                     } else {
                         throw new FT1EngineError("Internal engine error: No value at queue_list.get(" + old_hash + ") when there is a value at socket_list.get(" + old_hash + ") and use_message_queues equals true. Value expected");
@@ -2008,7 +5254,9 @@ public class Server extends fantasyteam.ft1.Networking {
      * associated with the SocketThreads old hash can be re-mapped to the new
      * hash. This function is intended to facilitate seamless reconnection to
      * game servers and allow players to pick up where they left off if a
-     * disconnect occurs.
+     * disconnect occurs. When using the queue spill feature the messages
+     * spilled by the {@link MessageQueue} while the socket was disconnected
+     * are replayed once it resumes.
      *
      * @param current_hash The hash currently associated with the SocketThread.
      * @param saved_hash The hash to check for in the list of
@@ -2033,7 +5281,7 @@ public class Server extends fantasyteam.ft1.Networking {
                     }
                     if (use_message_queues) {
                         queue_list.get(saved_hash).resumeQueue();
-                        LOGGER.log(Level.INFO, "Reconnected MessageQueue {0} for reconnected socket", saved_hash);
+                        LOGGER.log(Level.INFO, "Reconnected MessageQueue {0} for reconnected socket, replaying {1} spilled messages", new Object[]{saved_hash, queue_list.get(saved_hash).getSpilledMessages()});
                     }
                     if (disconnected_sockets.contains(saved_hash)) {
                         try {
@@ -2070,22 +5318,12 @@ public class Server extends fantasyteam.ft1.Networking {
      */
     public void startThread() throws IOException, ServerSocketCloseException, FeatureNotUsedException {
         if (state == LISTEN) {
-            listen_thread.start();
-            boolean started = false;
-            Timing timer = new Timing();
-            while (!started) {
-                if (!listen_thread.getRun()) {
-                    timer.waitTime(5);
-                    if (timer.getTime() > timeout) {
-                        started = true;
-                        try {
-                            listen_thread.close();
-                        } catch (ServerSocketCloseException e) {
-                            throw new ServerSocketCloseException("listen_thread failed to start in time. Attempted to close listen_thread but failed", e);
-                        }
-                    }
-                } else {
-                    started = true;
+            runThread(listen_thread);
+            if (!listen_thread.awaitStart(timeout)) {
+                try {
+                    listen_thread.close();
+                } catch (ServerSocketCloseException e) {
+                    throw new ServerSocketCloseException("listen_thread failed to start in time. Attempted to close listen_thread but failed", e);
                 }
             }
             LOGGER.log(Level.INFO, "Started listen_thread");
@@ -2116,17 +5354,13 @@ public class Server extends fantasyteam.ft1.Networking {
         if (state == LISTEN) {
             if (listen_thread != null) {
                 String hash = "";
+                if (listen_thread.getServerSocket() == null) {
+                    throw new FeatureNotUsedException("ListenThread is listening on a Unix domain socket. Use startThread() to accept connections");
+                }
                 Socket temp_socket = listen_thread.getServerSocket().accept();
                 LOGGER.log(Level.INFO, "Connection detected on ListenThread. ListenThread running is set to {0}", listen_thread.getRun());
                 if (listen_thread.getRun()) {
-                    Sock temp_sock = new Sock(temp_socket);
-                    hash = generateUniqueHash();
-                    SocketThread new_socket = new SocketThread(temp_sock, this, hash);
-                    addSocketThread(hash, new_socket);
-                    if (use_connection_confirmation) {
-                        sendAction("customnetwork1", hash);
-                    }
-                    LOGGER.log(Level.INFO, "New client connected to ListenServer. Connection was stored in socket_list");
+                    hash = setupSocket(temp_socket);
                 } else {
                     LOGGER.log(Level.INFO, "ListenThread is closing, new connection was ignored");
                 }
@@ -2139,6 +5373,72 @@ public class Server extends fantasyteam.ft1.Networking {
         }
     }
 
+    /**
+     * Creates and starts a new {@link SocketThread} for a connection accepted
+     * by the {@link ListenThread} and sends the connection confirmation if the
+     * feature is in use. This is the setup stage of the {@link ListenThread},
+     * run separately from accepting connections so clients connecting at the
+     * same time do not wait on each other to be accepted.
+     *
+     * @param temp_socket the accepted connection.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     * @throws TimeoutException if the new {@link SocketThread} or
+     * {@link MessageQueue} (if use_message_queues equals true) fails to start
+     * before timeout is reached.
+     */
+    String setupSocket(Socket temp_socket) throws IOException, TimeoutException {
+        Sock temp_sock;
+        if (use_selector_transport && selector_threads != null && temp_socket.getChannel() != null) {
+            temp_sock = new Sock(temp_socket.getChannel());
+        } else {
+            temp_sock = new Sock(temp_socket);
+        }
+        return setupSocket(temp_sock);
+    }
+
+    /**
+     * Creates and starts a new {@link SocketThread} for a connection accepted
+     * by the {@link ListenThread} on a Unix domain socket and sends the
+     * connection confirmation if the feature is in use.
+     *
+     * @param channel the accepted connection.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when creating the new
+     * {@link Sock} or starting the new {@link SocketThread}.
+     * @throws TimeoutException if the new {@link SocketThread} or
+     * {@link MessageQueue} (if use_message_queues equals true) fails to start
+     * before timeout is reached.
+     */
+    String setupSocket(SocketChannel channel) throws IOException, TimeoutException {
+        return setupSocket(createSock(channel));
+    }
+
+    /**
+     * Creates and starts a new {@link SocketThread} for a {@link Sock}
+     * connected to this listen {@link Server} and sends the connection
+     * confirmation if the feature is in use.
+     *
+     * @param temp_sock the connected {@link Sock}.
+     * @return The hash assigned to the SocketThread.
+     * @throws IOException if an exception is found when starting the new
+     * {@link SocketThread}.
+     * @throws TimeoutException if the new {@link SocketThread} or
+     * {@link MessageQueue} (if use_message_queues equals true) fails to start
+     * before timeout is reached.
+     */
+    String setupSocket(Sock temp_sock) throws IOException, TimeoutException {
+        String hash = generateUniqueHash();
+        SocketThread new_socket = new SocketThread(temp_sock, this, hash);
+        addSocketThread(hash, new_socket);
+        if (use_connection_confirmation) {
+            sendAction("customnetwork1", hash);
+        }
+        LOGGER.log(Level.INFO, "New client connected to ListenServer. Connection was stored in socket_list");
+        return hash;
+    }
+
     /**
      * Sends a blank String to every connected socket. If an exception is caught
      * when sending the String it removes the {@link SocketThread} from the
@@ -2157,6 +5457,67 @@ public class Server extends fantasyteam.ft1.Networking {
         sendMessage("", hash_list);
     }
 
+    /**
+     * Flushes the batched messages of every connected {@link SocketThread}.
+     * When using the write batching feature the {@link fantasyteam.ft1.Game}
+     * should call this once per tick, after it has sent all of its actions
+     * for the tick, so they are sent to each client with a single write. Does
+     * nothing for sockets with no batched messages.
+     */
+    public void flushSockets() {
+        if (socket_list != null) {
+            ArrayList<SocketThread> sockets;
+            synchronized (socket_list) {
+                sockets = new ArrayList<SocketThread>(socket_list.values());
+            }
+            for (SocketThread socket : sockets) {
+                if (socket.getSocket() != null) {
+                    socket.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Offers a file to the {@link SocketThread} specified by hash using the
+     * file transfer feature. The file is streamed once the other end connects
+     * to the {@link FileTransferThread}, see setUseFileTransfer. If the other
+     * end already has part of the file from an earlier attempt only the rest
+     * of the file is sent.
+     *
+     * @param hash the hash of the {@link SocketThread} to send the file to.
+     * @param path the path of the file to send.
+     * @return the {@link FileTransfer} sending the file.
+     * @throws FeatureNotUsedException if the file transfer feature is not in
+     * use.
+     * @throws HashNotFoundException if the parameter hash does not exist in
+     * socket_list.
+     * @throws FileNotFoundException if the parameter path is not a readable
+     * file.
+     */
+    public synchronized FileTransfer sendFile(String hash, String path) throws FeatureNotUsedException, HashNotFoundException, FileNotFoundException {
+        FileTransferThread thread = file_thread;
+        if (!use_file_transfer || thread == null) {
+            throw new FeatureNotUsedException("File transfer feature is not in use");
+        }
+        if (socket_list == null || !socket_list.containsKey(hash)) {
+            throw new HashNotFoundException("Hash " + hash + " does not exist in socket_list");
+        }
+        File file = new File(path);
+        if (!file.isFile() || !file.canRead()) {
+            throw new FileNotFoundException("File " + path + " does not exist or can not be read");
+        }
+        long id = ThreadLocalRandom.current().nextLong();
+        while (id == 0 || file_transfers.containsKey(id)) {
+            id = ThreadLocalRandom.current().nextLong();
+        }
+        FileTransfer transfer = new FileTransfer(this, id, hash, file);
+        file_transfers.put(id, transfer);
+        socket_list.get(hash).sendMessage(encodeNetworkAction(FILE_OFFER, Long.toString(id), file.getName(), Long.toString(transfer.getLength()), Integer.toString(thread.getPort())));
+        LOGGER.log(Level.INFO, "Offered file {0} to SocketThread {1}", new Object[]{file.getName(), hash});
+        return transfer;
+    }
+
     /**
      * Puts the attribute states of {@link Server} in readable form.
      *
@@ -2185,7 +5546,7 @@ public class Server extends fantasyteam.ft1.Networking {
         } else {
             to_string += "Server ";
         }
-        to_string += "attribute values:\n" + ch + "\tState: " + state + "\n" + ch + "\tPort: " + port + "\n" + ch + "\tUse disconnected sockets: " + use_disconnected_sockets + "\n" + ch + "\tUse message queues: " + use_message_queues + "\n" + ch + "\tUse connection confirmation: " + use_connection_confirmation + "\n" + ch + "\tUse socket timeout: " + use_socket_timeout;
+        to_string += "attribute values:\n" + ch + "\tState: " + state + "\n" + ch + "\tPort: " + port + "\n" + ch + "\tUse disconnected sockets: " + use_disconnected_sockets + "\n" + ch + "\tUse message queues: " + use_message_queues + "\n" + ch + "\tUse connection confirmation: " + use_connection_confirmation + "\n" + ch + "\tUse socket timeout: " + use_socket_timeout + "\n" + ch + "\tUse binary framing: " + use_binary_framing + "\n" + ch + "\tUse channels: " + use_channels + "\n" + ch + "\tUse compression: " + use_compression + "\n" + ch + "\tUse write batching: " + use_write_batching  + "\n" + ch + "\tMax flush delay: " + max_flush_delay + "\n" + ch + "\tUse unreliable channel: " + use_unreliable_channel + "\n" + ch + "\tUse file transfer: " + use_file_transfer + "\n" + ch + "\tUse selector transport: " + use_selector_transport + "\n" + ch + "\tUse virtual threads: " + use_virtual_threads + "\n" + ch + "\tUse heartbeat: " + use_heartbeat + "\n" + ch + "\tUnix domain path: " + unix_domain_path + "\n" + ch + "\tQueue capacity: " + queue_capacity + "\n" + ch + "\tQueue watermarks: " + queue_low_watermark + " - " + queue_high_watermark + "\n" + ch + "\tQueue overflow policy: " + queue_overflow_policy + "\n" + ch + "\tUse batched delivery: " + use_batched_delivery + "\n" + ch + "\tUse queue spill: " + use_queue_spill + "\n" + ch + "\tQueue spill size: " + queue_spill_size + "\n" + ch + "\tChannel drain mode: " + channel_drain + "\n" + ch + "\tUse coalescing: " + use_coalescing + "\n" + ch + "\tQueue ring size: " + queue_ring_size + "\n" + ch + "\tUse writer pool: " + use_writer_pool + "\n" + ch + "\tWriter pool size: " + writer_pool_size;
         if (use_disconnected_sockets) {
             to_string += "\n" + ch + "\tDisconnected Sockets";
             if (!disconnected_sockets.isEmpty()) {
@@ -2203,6 +5564,15 @@ public class Server extends fantasyteam.ft1.Networking {
         if (listen_thread != null) {
             to_string += "\n" + ch + "\tListenThread:\n" + listen_thread.toString(ch + "\t\t");
         }
+        if (selector_threads != null) {
+            to_string += "\n" + ch + "\tSelectorThreads (total selector threads - " + selector_threads.size() + "):";
+            int number_of_selectors = 0;
+            for (SelectorThread selector_thread : selector_threads) {
+                number_of_selectors++;
+                to_string += "\n" + ch + "\t\t" + number_of_selectors + ". SelectorThread attribute values:";
+                to_string += "\n" + selector_thread.toString(ch + "\t\t\t");
+            }
+        }
         to_string += "\n" + ch + "\tSocket List";
         if (socket_list != null && !socket_list.isEmpty()) {
             String sockets = "";
@@ -2242,15 +5612,7 @@ public class Server extends fantasyteam.ft1.Networking {
     @Override
     protected void sendMessage(String message, List<String> clientIds) {
         for (String hash : clientIds) {
-            if (socket_list.containsKey(hash) && (socket_list.get(hash).getRun() == SocketThread.RUNNING || socket_list.get(hash).getRun() == SocketThread.CONFIRMED || socket_list.get(hash).getRun() == SocketThread.ERROR)) {
-                if (use_message_queues) {
-                    queue_list.get(hash).queueMessage(message);
-                } else {
-                    socket_list.get(hash).sendMessage(message);
-                }
-            } else {
-                LOGGER.log(Level.INFO, "Socket with hash {0} does not exist or is not running", hash);
-            }
+            sendMessage(message, hash, socket_list.get(hash));
         }
     }
 
@@ -2263,14 +5625,219 @@ public class Server extends fantasyteam.ft1.Networking {
      */
     @Override
     protected void sendMessage(String message, String clientId) {
-        if (socket_list.containsKey(clientId) && (socket_list.get(clientId).getRun() == SocketThread.RUNNING || socket_list.get(clientId).getRun() == SocketThread.CONFIRMED || socket_list.get(clientId).getRun() == SocketThread.ERROR)) {
+        sendMessage(message, clientId, socket_list.get(clientId));
+    }
+
+    /**
+     * Used to send a message to every socket in a game. The socket list is
+     * copied once and walked in a single pass, and the same message String is
+     * queued or sent on every {@link SocketThread} whose game matches, so the
+     * action is only encoded once however many sockets it is sent to. Sockets
+     * that are disconnected are not part of any game and are not sent the
+     * message.
+     *
+     * @param message The String to send.
+     * @param game The int identifying the game to send to.
+     */
+    @Override
+    protected void sendMessageBroadcast(String message, int game) {
+        Map<String, SocketThread> sockets = socket_list;
+        if (sockets == null) {
+            LOGGER.log(Level.INFO, "Server is closed, could not broadcast to game {0}", game);
+            return;
+        }
+        ArrayList<SocketThread> recipients;
+        synchronized (sockets) {
+            recipients = new ArrayList<SocketThread>(sockets.values());
+        }
+        int sent = 0;
+        for (SocketThread socket : recipients) {
+            if (socket.getGame() == game) {
+                sendMessage(message, socket.getHash(), socket);
+                sent++;
+            }
+        }
+        LOGGER.log(Level.INFO, "Broadcast message to {0} sockets in game {1}", new Object[]{sent, game});
+    }
+
+    /**
+     * Sends a message to a socket that has already been looked up, so each
+     * socket is only looked up once however many sockets the message is sent
+     * to. If the socket is not running the message is spilled if the socket
+     * is disconnected and using the queue spill feature.
+     *
+     * @param message The String to send.
+     * @param hash The hash of the socket.
+     * @param socket The {@link SocketThread} associated with hash, or null if
+     * there is none.
+     */
+    private void sendMessage(String message, String hash, SocketThread socket) {
+        if (socket != null && (socket.getRun() == SocketThread.RUNNING || socket.getRun() == SocketThread.CONFIRMED || socket.getRun() == SocketThread.ERROR)) {
             if (use_message_queues) {
-                queue_list.get(clientId).queueMessage(message);
+                queue_list.get(hash).queueMessage(message);
             } else {
-                socket_list.get(clientId).sendMessage(message);
+                socket.sendMessage(message);
+            }
+        } else {
+            MessageQueue spilling = getSpillingQueue(hash);
+            if (spilling != null) {
+                spilling.queueMessage(message);
+            } else {
+                LOGGER.log(Level.INFO, "Socket with hash {0} does not exist or is not running", hash);
+            }
+        }
+    }
+
+    /**
+     * Used to send a message to a list of sockets through the unreliable
+     * channel. Takes the String to send and a List of the hashes associated
+     * with the sockets to send to as input.
+     *
+     * @param message The String to send.
+     * @param clientIds The List of hashes to send to.
+     */
+    @Override
+    protected void sendMessageUnreliable(String message, List<String> clientIds) {
+        for (String hash : clientIds) {
+            sendMessageUnreliable(message, hash);
+        }
+    }
+
+    /**
+     * Used to send a message to one socket through the unreliable channel.
+     * Takes the String to send and the hash associated with the socket to send
+     * to as input. The message is sent through the socket's connection instead
+     * if the unreliable channel feature is not in use, the socket's
+     * {@link DatagramSession} is not bound yet or the message does not fit in a
+     * single datagram.
+     *
+     * @param message The String to send.
+     * @param clientId The hash to send to.
+     */
+    @Override
+    protected void sendMessageUnreliable(String message, String clientId) {
+        DatagramThread datagram = datagram_thread;
+        if (datagram != null) {
+            SocketThread socket = socket_list.get(clientId);
+            if (socket != null && (socket.getRun() == SocketThread.RUNNING || socket.getRun() == SocketThread.CONFIRMED)) {
+                DatagramSession session = socket.getDatagramSession();
+                if (session != null && datagram.send(session, message)) {
+                    return;
+                }
+            }
+        }
+        sendMessage(message, clientId);
+    }
+
+    /**
+     * Used to send a message to a list of sockets through the reliable
+     * channel. Takes the String to send and a List of the hashes associated
+     * with the sockets to send to as input.
+     *
+     * @param message The String to send.
+     * @param clientIds The List of hashes to send to.
+     */
+    @Override
+    protected void sendMessageReliable(String message, List<String> clientIds) {
+        for (String hash : clientIds) {
+            sendMessageReliable(message, hash);
+        }
+    }
+
+    /**
+     * Used to send a message to one socket through the reliable channel.
+     * Takes the String to send and the hash associated with the socket to send
+     * to as input. The message is sent through the socket's connection instead
+     * if the unreliable channel feature is not in use or no
+     * {@link DatagramSession} was negotiated for the socket.
+     *
+     * @param message The String to send.
+     * @param clientId The hash to send to.
+     */
+    @Override
+    protected void sendMessageReliable(String message, String clientId) {
+        DatagramThread datagram = datagram_thread;
+        if (datagram != null) {
+            SocketThread socket = socket_list.get(clientId);
+            if (socket != null && (socket.getRun() == SocketThread.RUNNING || socket.getRun() == SocketThread.CONFIRMED)) {
+                DatagramSession session = socket.getDatagramSession();
+                if (session != null && datagram.sendReliable(session, message)) {
+                    return;
+                }
+            }
+        }
+        sendMessage(message, clientId);
+    }
+
+    /**
+     * Used to send a message to a list of sockets on a logical channel. Takes
+     * the String to send, a List of the hashes associated with the sockets to
+     * send to and the id of the channel as input.
+     *
+     * @param message The String to send.
+     * @param clientIds The List of hashes to send to.
+     * @param channel The id of the channel to send on.
+     */
+    @Override
+    protected void sendMessageChannel(String message, List<String> clientIds, int channel) {
+        for (String hash : clientIds) {
+            sendMessageChannel(message, hash, channel);
+        }
+    }
+
+    /**
+     * Used to send a message to one socket on a logical channel. When the
+     * message queues feature is in use the message is queued on the channel
+     * of the socket's {@link MessageQueue}, otherwise it is sent straight
+     * away. Channel 0 is the same channel used by sendMessage.
+     *
+     * @param message The String to send.
+     * @param clientId The hash to send to.
+     * @param channel The id of the channel to send on.
+     */
+    @Override
+    protected void sendMessageChannel(String message, String clientId, int channel) {
+        SocketThread socket = socket_list.get(clientId);
+        if (socket != null && (socket.getRun() == SocketThread.RUNNING || socket.getRun() == SocketThread.CONFIRMED || socket.getRun() == SocketThread.ERROR)) {
+            try {
+                if (use_message_queues) {
+                    queue_list.get(clientId).queueMessage(message, channel);
+                } else {
+                    socket.sendChannelMessage(channel, message);
+                }
+            } catch (InvalidArgumentException e) {
+                throw new NetworkingRuntimeException("Exception occurred", e);
             }
         } else {
-            LOGGER.log(Level.INFO, "Socket with hash {0} does not exist or is not running", clientId);
+            MessageQueue spilling = getSpillingQueue(clientId);
+            if (spilling != null) {
+                try {
+                    spilling.queueMessage(message, channel);
+                } catch (InvalidArgumentException e) {
+                    throw new NetworkingRuntimeException("Exception occurred", e);
+                }
+            } else {
+                LOGGER.log(Level.INFO, "Socket with hash {0} does not exist or is not running", clientId);
+            }
+        }
+    }
+
+    /**
+     * Returns the {@link MessageQueue} of a disconnected socket when using the
+     * queue spill feature, so messages sent to the socket while it is
+     * disconnected are spilled and replayed once it reconnects.
+     *
+     * @param hash The hash of the socket.
+     * @return the {@link MessageQueue} waiting for the socket to reconnect,
+     * or null if there is none or the queue spill feature is not in use.
+     */
+    private MessageQueue getSpillingQueue(String hash) {
+        if (use_queue_spill && use_message_queues && queue_list != null) {
+            MessageQueue queue = queue_list.get(hash);
+            if (queue != null && queue.getRun() == MessageQueue.DISCONNECT) {
+                return queue;
+            }
         }
+        return null;
     }
 }
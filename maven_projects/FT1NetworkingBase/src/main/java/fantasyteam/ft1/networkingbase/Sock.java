@@ -1,37 +1,334 @@
 package fantasyteam.ft1.networkingbase;
 
-import java.io.BufferedReader;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import static java.lang.System.in;
-import static java.lang.System.out;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
+ * <p>
  * The {@link Sock} class is a structure used to hold a Socket and
  * an input and output stream to send and receive messages through the Socket.
+ * A blocking {@link Sock} reads and writes through a {@link Transport}, which
+ * is a {@link SocketTransport} when built on a Socket but can be any other
+ * {@link Transport}, such as a {@link LoopbackTransport} connecting two
+ * {@link Server}s in the same JVM.
+ * </p>
+ * <p>
+ * Messages can be framed in one of two ways. TEXT framing, the default, ends
+ * each message with a line separator, the same as PrintWriter.println. BINARY
+ * framing prefixes each message with its length in bytes, encoded as a varint,
+ * followed by the UTF-8 encoded message. BINARY framing does not need to scan
+ * for line breaks and allows messages to contain them. CHANNEL framing is
+ * the same as BINARY framing with the id of a logical channel, encoded as a
+ * varint, in front of the length of each message, so several independent
+ * streams of messages can share the one connection. The framing used for
+ * reading and writing can be changed separately so two connected
+ * {@link Sock}s can switch from TEXT to BINARY or CHANNEL framing without
+ * losing any messages. See the customNetwork1 function of {@link Server} for
+ * how this is negotiated.
+ * </p>
+ * <p>
+ * Every message is encoded into a single reusable write buffer. By default the
+ * buffer is flushed as soon as each message has been encoded. If auto flush is
+ * turned off messages are batched in the buffer until flush() is called,
+ * allowing many messages to be sent with a single write. When a batch grows
+ * larger than the write buffer the full buffer is kept as a segment and a new
+ * buffer is started instead of copying, and every segment is written with a
+ * single gathering write. See the write batching feature of {@link Server} for
+ * how batches are flushed.
+ * </p>
+ * <p>
+ * The read and write buffers are direct ByteBuffers taken from the default
+ * {@link BufferPool} and are given back when the {@link Sock} is closed, so
+ * opening and closing connections and sending messages reuses the same
+ * buffers instead of allocating new ones.
+ * </p>
+ * <p>
+ * The bytes sent and received can be compressed as a single deflate stream
+ * per direction, using a preset dictionary agreed by both ends. Each batch is
+ * compressed as it is flushed and ended with a sync flush, so the remote end
+ * can decode every message in the batch straight away. Like the framing,
+ * compression is turned on separately for writing and reading so it can be
+ * switched on directly after a specific message. See the compression feature
+ * of {@link Server} for how this is negotiated.
+ * </p>
  *
  * @author javu
  */
 public class Sock {
 
+    /**
+     * Valid framing for {@link Sock}, each message ends with a line separator.
+     */
+    public static final int TEXT = 0;
+
+    /**
+     * Valid framing for {@link Sock}, each message is prefixed by its length
+     * encoded as a varint.
+     */
+    public static final int BINARY = 1;
+
+    /**
+     * Valid framing for {@link Sock}, each message is prefixed by the id of
+     * the channel it was sent on and its length, both encoded as varints.
+     */
+    public static final int CHANNEL = 2;
+
     /**
      * Socket used to hold the connection.
      */
     private Socket socket;
     /**
      * Output stream for the socket. Used to send information through the
-     * connected socket.
+     * connected socket. Bytes are written straight from write_buffer.
      */
-    private PrintWriter out;
+    private OutputStream out;
     /**
      * Input stream for the socket. Used to receive information through the
-     * connected socket.
+     * connected socket. Bytes read are placed in read_buffer.
+     */
+    private InputStream in;
+    /**
+     * The {@link Transport} used to read into the direct read_buffer and write
+     * the direct write_buffer when the {@link Sock} is not driven by a
+     * {@link SelectorThread}. Null once the {@link Sock} has been closed.
+     */
+    private Transport transport;
+    /**
+     * SocketChannel used when the {@link Sock} is driven by a
+     * {@link SelectorThread} instead of blocking streams. When this is not null
+     * the channel is in non-blocking mode and out and in are not used.
+     */
+    private SocketChannel channel;
+    /**
+     * The {@link SelectorThread} this {@link Sock} is registered on. Only used
+     * if channel is not null.
+     */
+    private volatile SelectorThread selector_thread;
+    /**
+     * Buffer that bytes read from in or channel are placed in until a full
+     * message has been received. Bytes between read_start and the buffer's
+     * position have been received but not yet returned as a message. Only
+     * used while holding read_lock.
+     */
+    private ByteBuffer read_buffer;
+    /**
+     * Lock held while reading into or decoding messages from read_buffer.
+     * Makes sure read_buffer is only released to the {@link BufferPool} once
+     * the thread reading messages has finished with it.
+     */
+    private final ReentrantLock read_lock;
+    /**
+     * Set once close() has been called.
+     */
+    private volatile boolean closed;
+    /**
+     * Reusable buffer messages are decoded into from read_buffer.
+     */
+    private CharBuffer decode_buffer;
+    /**
+     * Decoder used to decode TEXT framed messages from read_buffer.
+     */
+    private final CharsetDecoder text_decoder;
+    /**
+     * Decoder used to decode BINARY framed messages from read_buffer.
+     */
+    private final CharsetDecoder frame_decoder;
+    /**
+     * Index in read_buffer of the first byte that has not been returned as
+     * part of a message.
+     */
+    private int read_start;
+    /**
+     * Reusable buffer every message is encoded into before being written.
+     * Bytes between the start of the buffer and its position have not been
+     * flushed yet.
+     */
+    private ByteBuffer write_buffer;
+    /**
+     * Full buffers of batched messages, ready to be read, that are written
+     * before write_buffer on the next flush.
+     */
+    private final ArrayDeque<ByteBuffer> write_segments;
+    /**
+     * Reusable array used to pass every buffer to a single gathering write.
+     */
+    private ByteBuffer[] gather_buffers;
+    /**
+     * Encoder used to encode TEXT framed messages into write_buffer.
+     */
+    private final CharsetEncoder text_encoder;
+    /**
+     * Encoder used to encode BINARY framed messages into write_buffer.
+     */
+    private final CharsetEncoder frame_encoder;
+    /**
+     * Whether write_buffer is flushed after every message. When false
+     * messages are batched until flush() is called.
+     */
+    private volatile boolean auto_flush;
+    /**
+     * The value of System.nanoTime() when the oldest message in write_buffer
+     * that has not been flushed was written. Only valid while write_buffer is
+     * not empty.
+     */
+    private volatile long unflushed_since;
+    /**
+     * The {@link TimerWheel} flush_task is scheduled on when the first message
+     * of a batch is written while auto flush is off. Null if batches are only
+     * flushed by calling flush(). Access must be synchronized on write_queue.
+     */
+    private TimerWheel flush_timer;
+    /**
+     * The time in milliseconds the oldest batched message may wait before
+     * flush_task is run. Access must be synchronized on write_queue.
+     */
+    private long flush_delay;
+    /**
+     * Task run by flush_timer once the oldest batched message has waited
+     * flush_delay milliseconds. Access must be synchronized on write_queue.
+     */
+    private Runnable flush_task;
+    /**
+     * The deadline of the current batch on flush_timer. Cancelled when the
+     * batch is flushed. Null while there is no deadline pending. Access must
+     * be synchronized on write_queue.
+     */
+    private TimerWheel.Timeout flush_deadline;
+    /**
+     * The framing used when reading messages. Valid framings are: 0 - TEXT 1
+     * - BINARY 2 - CHANNEL
+     */
+    private volatile int read_framing;
+    /**
+     * The framing used when writing messages. Valid framings are: 0 - TEXT 1
+     * - BINARY 2 - CHANNEL
+     */
+    private volatile int write_framing;
+    /**
+     * The channel the last message taken from read_buffer was sent on. Always
+     * 0 unless the read framing is CHANNEL.
+     */
+    private volatile int read_channel;
+    /**
+     * Encoded messages waiting to be written to channel. Each buffer was
+     * acquired from the {@link BufferPool} and is released once written.
+     */
+    private final ArrayDeque<ByteBuffer> write_queue;
+    /**
+     * Deflater used to compress every batch before it is written. Null while
+     * write compression is turned off. Access must be synchronized on
+     * write_queue.
+     */
+    private Deflater deflater;
+    /**
+     * Reusable array batches are copied into to be compressed.
+     */
+    private byte[] deflate_input;
+    /**
+     * Reusable array compressed bytes are written into by deflater.
+     */
+    private byte[] deflate_output;
+    /**
+     * Inflater used to decompress bytes as they are read. Null while read
+     * compression is turned off. Must only be used while holding read_lock.
+     */
+    private volatile Inflater inflater;
+    /**
+     * Preset dictionary given to inflater when it asks for one.
+     */
+    private byte[] inflate_dictionary;
+    /**
+     * Reusable array compressed bytes are read into.
+     */
+    private byte[] inflate_input;
+    /**
+     * Wraps inflate_input so it can be read into from a channel.
+     */
+    private ByteBuffer inflate_wrapper;
+    /**
+     * Reusable array decompressed bytes are written into by inflater.
+     */
+    private byte[] inflate_output;
+    /**
+     * Number of bytes passed to deflater.
+     */
+    private volatile long uncompressed_written;
+    /**
+     * Number of compressed bytes produced by deflater.
+     */
+    private volatile long compressed_written;
+    /**
+     * Number of compressed bytes passed to inflater.
+     */
+    private volatile long compressed_read;
+    /**
+     * Number of bytes produced by inflater.
+     */
+    private volatile long uncompressed_read;
+    /**
+     * Charset used to encode and decode TEXT framed messages. Matches the
+     * charset used by a PrintWriter and BufferedReader on the remote end.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /**
+     * Line separator appended to each TEXT framed message. Matches the
+     * separator written by PrintWriter.println.
+     */
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes(CHARSET);
+    /**
+     * Charset used to encode and decode BINARY framed messages.
+     */
+    private static final Charset FRAME_CHARSET = StandardCharsets.UTF_8;
+    /**
+     * Initial size of read_buffer and write_buffer in bytes.
+     */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /**
+     * Maximum number of bytes used by a varint encoded int.
+     */
+    private static final int MAX_VARINT_LENGTH = 5;
+    /**
+     * Largest BINARY framed message in bytes that will be accepted when
+     * reading. Protects against a corrupt or malicious length prefix.
+     */
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    /**
+     * Initial length of gather_buffers.
+     */
+    private static final int GATHER_BUFFERS_SIZE = 8;
+    /**
+     * Initial size of decode_buffer in chars.
+     */
+    private static final int DECODE_BUFFER_SIZE = 1024;
+    /**
+     * The {@link BufferPool} read_buffer, write_buffer and the buffers in
+     * write_queue are acquired from.
      */
-    private BufferedReader in;
+    private static final BufferPool POOL = BufferPool.getDefault();
 
     /**
      * Logger for logging important actions and exceptions.
@@ -45,22 +342,101 @@ public class Sock {
         socket = null;
         out = null;
         in = null;
+        channel = null;
+        write_queue = new ArrayDeque<ByteBuffer>();
+        write_segments = new ArrayDeque<ByteBuffer>();
+        gather_buffers = new ByteBuffer[GATHER_BUFFERS_SIZE];
+        read_lock = new ReentrantLock();
+        text_encoder = createEncoder(CHARSET);
+        frame_encoder = createEncoder(FRAME_CHARSET);
+        text_decoder = createDecoder(CHARSET);
+        frame_decoder = createDecoder(FRAME_CHARSET);
+        auto_flush = true;
+        flush_timer = null;
+        flush_delay = 0;
+        flush_task = null;
+        flush_deadline = null;
     }
 
     /**
      * Takes a Socket as an argument.
      *
      * @param socket socket used to construct the Sock with.
-     * @throws IOException if an exception is encountered when starting
-     * the new PrinterWriter or BufferedReader.
+     * @throws IOException if an exception is encountered when opening the
+     * Socket's input or output streams.
      */
     public Sock(Socket socket) throws IOException {
         this.socket = socket;
-        out = new PrintWriter(this.socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(this.socket.getInputStream()));
+        out = this.socket.getOutputStream();
+        in = this.socket.getInputStream();
+        transport = new SocketTransport(this.socket);
+        channel = null;
+        read_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_queue = new ArrayDeque<ByteBuffer>();
+        write_segments = new ArrayDeque<ByteBuffer>();
+        gather_buffers = new ByteBuffer[GATHER_BUFFERS_SIZE];
+        read_lock = new ReentrantLock();
+        text_encoder = createEncoder(CHARSET);
+        frame_encoder = createEncoder(FRAME_CHARSET);
+        text_decoder = createDecoder(CHARSET);
+        frame_decoder = createDecoder(FRAME_CHARSET);
+        auto_flush = true;
+        flush_timer = null;
+        flush_delay = 0;
+        flush_task = null;
+        flush_deadline = null;
         LOGGER.log(Level.INFO, "Successfully created Socket using preconstructed Socket");
     }
 
+    /**
+     * Takes a connected SocketChannel as an argument. The channel is put into
+     * non-blocking mode and messages are read and written through it by a
+     * {@link SelectorThread} instead of through blocking streams.
+     *
+     * @param channel connected SocketChannel used to construct the Sock with.
+     * @throws IOException if an exception is encountered when setting the
+     * channel to non-blocking mode.
+     */
+    public Sock(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        this.channel.configureBlocking(false);
+        socket = getChannelSocket(this.channel);
+        out = null;
+        in = null;
+        read_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_queue = new ArrayDeque<ByteBuffer>();
+        write_segments = new ArrayDeque<ByteBuffer>();
+        gather_buffers = new ByteBuffer[GATHER_BUFFERS_SIZE];
+        read_lock = new ReentrantLock();
+        text_encoder = createEncoder(CHARSET);
+        frame_encoder = createEncoder(FRAME_CHARSET);
+        text_decoder = createDecoder(CHARSET);
+        frame_decoder = createDecoder(FRAME_CHARSET);
+        auto_flush = true;
+        flush_timer = null;
+        flush_delay = 0;
+        flush_task = null;
+        flush_deadline = null;
+        LOGGER.log(Level.INFO, "Successfully created Socket using non-blocking SocketChannel");
+    }
+
+    /**
+     * Returns the Socket of a SocketChannel, or null if the channel does not
+     * have one. A Unix domain SocketChannel does not have a Socket.
+     *
+     * @param channel the SocketChannel.
+     * @return the Socket of the channel.
+     */
+    private static Socket getChannelSocket(SocketChannel channel) {
+        try {
+            return channel.socket();
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
     /**
      * Takes a String for an IP address and an int for a port number as
      * arguments.
@@ -68,29 +444,208 @@ public class Sock {
      * @param ip IP address to connect the socket to.
      * @param port Port number to connect to.
      * @throws IOException if an exception is encountered when starting the new
-     * Socket, PrinterWriter or BufferedReader.
+     * Socket or opening its input or output streams.
      */
     public Sock(String ip, int port) throws IOException {
         socket = new Socket(ip, port);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        out = socket.getOutputStream();
+        in = socket.getInputStream();
+        transport = new SocketTransport(socket);
+        channel = null;
+        read_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_queue = new ArrayDeque<ByteBuffer>();
+        write_segments = new ArrayDeque<ByteBuffer>();
+        gather_buffers = new ByteBuffer[GATHER_BUFFERS_SIZE];
+        read_lock = new ReentrantLock();
+        text_encoder = createEncoder(CHARSET);
+        frame_encoder = createEncoder(FRAME_CHARSET);
+        text_decoder = createDecoder(CHARSET);
+        frame_decoder = createDecoder(FRAME_CHARSET);
+        auto_flush = true;
+        flush_timer = null;
+        flush_delay = 0;
+        flush_task = null;
+        flush_deadline = null;
         LOGGER.log(Level.INFO, "Successfully created Socket connected to IP {0} on port {1}", new Object[]{ip, port});
     }
 
     /**
-     * Closes the {@link Sock}.
+     * Takes a connected {@link Transport} as an argument. Messages are read
+     * and written through the {@link Transport} the same way as through a
+     * blocking Socket. Used to build a {@link Sock} on a
+     * {@link LoopbackTransport}.
+     *
+     * @param transport connected Transport used to construct the Sock with.
+     */
+    public Sock(Transport transport) {
+        this.transport = transport;
+        socket = null;
+        out = null;
+        in = null;
+        channel = null;
+        read_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        write_queue = new ArrayDeque<ByteBuffer>();
+        write_segments = new ArrayDeque<ByteBuffer>();
+        gather_buffers = new ByteBuffer[GATHER_BUFFERS_SIZE];
+        read_lock = new ReentrantLock();
+        text_encoder = createEncoder(CHARSET);
+        frame_encoder = createEncoder(FRAME_CHARSET);
+        text_decoder = createDecoder(CHARSET);
+        frame_decoder = createDecoder(FRAME_CHARSET);
+        auto_flush = true;
+        flush_timer = null;
+        flush_delay = 0;
+        flush_task = null;
+        flush_deadline = null;
+        LOGGER.log(Level.INFO, "Successfully created Socket using {0}", transport);
+    }
+
+    /**
+     * Opens a SocketChannel connected to the given IP address and port number
+     * and constructs a non-blocking {@link Sock} from it. The connect itself
+     * blocks until the connection is established.
+     *
+     * @param ip IP address to connect the socket to.
+     * @param port Port number to connect to.
+     * @return a {@link Sock} using a non-blocking SocketChannel.
+     * @throws IOException if an exception is encountered when opening or
+     * connecting the SocketChannel.
+     */
+    public static Sock openChannel(String ip, int port) throws IOException {
+        SocketChannel new_channel = SocketChannel.open(new InetSocketAddress(ip, port));
+        try {
+            return new Sock(new_channel);
+        } catch (IOException e) {
+            new_channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the {@link Sock}. Any batched messages that have not been flushed
+     * yet are written before closing if possible. The read and write buffers
+     * are released to the {@link BufferPool}.
      *
      * @throws IOException if an exception is encountered when closing the
      * Socket.
      */
     public synchronized void close() throws IOException {
         LOGGER.log(Level.INFO, "Attempting to close Sock");
-        if (socket != null) {
-            socket.close();
+        closed = true;
+        try {
+            synchronized (write_queue) {
+                try {
+                    flushBuffer();
+                } catch (IOException e) {
+                    LOGGER.log(Level.INFO, "Could not flush batched messages before closing Sock");
+                }
+                ByteBuffer buffer = write_queue.poll();
+                while (buffer != null) {
+                    POOL.release(buffer);
+                    buffer = write_queue.poll();
+                }
+                buffer = write_segments.poll();
+                while (buffer != null) {
+                    POOL.release(buffer);
+                    buffer = write_segments.poll();
+                }
+                POOL.release(write_buffer);
+                write_buffer = null;
+                if (deflater != null) {
+                    deflater.end();
+                    deflater = null;
+                }
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                    socket = null;
+                }
+            }
+            if (transport != null) {
+                transport.close();
+            } else if (socket != null) {
+                socket.close();
+            }
             socket = null;
+        } finally {
+            in = null;
+            out = null;
+            transport = null;
+            if (read_lock.tryLock()) {
+                try {
+                    releaseReadBuffer();
+                } finally {
+                    read_lock.unlock();
+                }
+            }
         }
-        in = null;
-        out = null;
+    }
+
+    /**
+     * Releases read_buffer to the {@link BufferPool} and frees inflater. Must
+     * be called while holding read_lock.
+     */
+    private void releaseReadBuffer() {
+        if (read_buffer != null) {
+            POOL.release(read_buffer);
+            read_buffer = null;
+            read_start = 0;
+        }
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Starts reading from read_buffer. Must be followed by a call to
+     * endRead().
+     */
+    private void startRead() {
+        read_lock.lock();
+    }
+
+    /**
+     * Finishes reading from read_buffer. If the {@link Sock} was closed while
+     * reading, close() could not release read_buffer so it is released here
+     * instead.
+     */
+    private void endRead() {
+        if (closed) {
+            releaseReadBuffer();
+        }
+        read_lock.unlock();
+        if (closed && read_buffer != null && read_lock.tryLock()) {
+            try {
+                releaseReadBuffer();
+            } finally {
+                read_lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Creates an encoder used to encode messages into write_buffer. Characters
+     * that cannot be encoded are replaced, the same as String.getBytes.
+     *
+     * @param charset the Charset to encode messages with.
+     * @return a new CharsetEncoder for charset.
+     */
+    private static CharsetEncoder createEncoder(Charset charset) {
+        return charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Creates a decoder used to decode messages from read_buffer. Bytes that
+     * cannot be decoded are replaced, the same as the String constructor.
+     *
+     * @param charset the Charset to decode messages with.
+     * @return a new CharsetDecoder for charset.
+     */
+    private static CharsetDecoder createDecoder(Charset charset) {
+        return charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
     }
 
     /**
@@ -102,70 +657,1268 @@ public class Sock {
         return socket;
     }
 
+    /**
+     * Returns the value of transport. This will be null if the {@link Sock}
+     * was constructed using a SocketChannel or has been closed.
+     *
+     * @return the Transport transport.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Returns the address of the remote end of the connection.
+     *
+     * @return the InetAddress of the remote end, or null if the {@link Sock}
+     * has been closed.
+     */
+    public InetAddress getRemoteAddress() {
+        Transport current = transport;
+        if (current != null) {
+            return current.getRemoteAddress();
+        }
+        SocketChannel current_channel = channel;
+        if (current_channel != null) {
+            return ChannelTransport.getRemoteAddress(current_channel);
+        }
+        Socket current_socket = socket;
+        if (current_socket != null) {
+            return current_socket.getInetAddress();
+        }
+        return null;
+    }
+
+    /**
+     * Sets the longest time in milliseconds a blocking read waits for before
+     * throwing a SocketTimeoutException. A timeout of 0 waits until a message
+     * is received.
+     *
+     * @param timeout the read timeout in milliseconds.
+     * @throws SocketException if the timeout could not be set.
+     */
+    public void setReadTimeout(int timeout) throws SocketException {
+        Transport current = transport;
+        if (current != null) {
+            current.setReadTimeout(timeout);
+        } else if (socket != null) {
+            socket.setSoTimeout(timeout);
+        }
+    }
+
     /**
      * Returns the value of out.
      *
-     * @return the PrintWriter out.
+     * @return the OutputStream out.
      */
-    public PrintWriter getOut() {
+    public OutputStream getOut() {
         return out;
     }
 
     /**
      * Returns the value of in.
      *
-     * @return the BufferedReader in.
+     * @return the InputStream in.
      */
-    public BufferedReader getIn() {
+    public InputStream getIn() {
         return in;
     }
 
     /**
-     * Sends a string message through the PrintWriter {@link out}.
+     * Returns the value of channel. This will be null unless the {@link Sock}
+     * was constructed using a SocketChannel.
      *
-     * @param message String message to send through the connection.
-     * @throws IOException if an exception is encountered when sending a message
-     * through out.
+     * @return the SocketChannel channel.
      */
-    public void sendMessage(String message) throws IOException {
-        out.println(message);
-        LOGGER.log(Level.INFO, "Sent message {0}", message);
+    public SocketChannel getChannel() {
+        return channel;
     }
 
     /**
-     * Reads message received through the BufferedReader {@link in}.
+     * Returns the {@link SelectorThread} this {@link Sock} is registered on.
      *
-     * @return message received through connection.
-     * @throws IOException if an exception is encountered when reading a message
-     * from in.
+     * @return the {@link SelectorThread} selector_thread.
      */
-    public String readMessage() throws IOException {
-        String message = in.readLine();
-        LOGGER.log(Level.INFO, "Read message {0}", message);
-        return message;
+    public SelectorThread getSelectorThread() {
+        return selector_thread;
     }
 
     /**
-     * Puts the attribute states of {@link Sock} in readable form.
+     * Sets the {@link SelectorThread} this {@link Sock} is registered on. Used
+     * by {@link SelectorThread} when the channel is registered.
      *
-     * @return Attributes of {@link Sock} in a readable String form.
+     * @param selector_thread the {@link SelectorThread} handling the channel.
      */
-    @Override
-    public String toString() {
-        String to_string = toString("");
-        return to_string;
+    void setSelectorThread(SelectorThread selector_thread) {
+        this.selector_thread = selector_thread;
     }
 
     /**
-     * Puts the attribute states of {@link Sock} in readable form. Takes String
-     * input to assist formatting. Useful to add special characters to assist
-     * formatting such as \t or \n.
+     * Sets the framing used when reading messages. This should only be called
+     * by the thread reading messages from this {@link Sock}, directly after
+     * reading the last message sent by the remote end using the old framing.
      *
-     * @param ch Adds the String ch to the start of each line in the String.
-     * @return Attributes of {@link Sock} in a readable String form.
+     * @param framing the framing to use, Sock.TEXT, Sock.BINARY or
+     * Sock.CHANNEL.
+     * @throws InvalidArgumentException if framing is not a valid framing.
      */
-    public String toString(String ch) {
-        String to_string = ch + "socket: " + socket.toString() + "\n" + ch + "out: " + out.toString() + "\n" + ch + "in: " + in.toString();
+    public void setReadFraming(int framing) throws InvalidArgumentException {
+        checkFraming(framing);
+        read_framing = framing;
+        LOGGER.log(Level.INFO, "Read framing set to {0}", framing);
+    }
+
+    /**
+     * Sets the framing used when writing messages. To make sure the remote end
+     * knows exactly which messages use the new framing use
+     * sendMessage(String message, int framing) instead.
+     *
+     * @param framing the framing to use, Sock.TEXT, Sock.BINARY or
+     * Sock.CHANNEL.
+     * @throws InvalidArgumentException if framing is not a valid framing.
+     */
+    public void setWriteFraming(int framing) throws InvalidArgumentException {
+        checkFraming(framing);
+        synchronized (write_queue) {
+            write_framing = framing;
+        }
+        LOGGER.log(Level.INFO, "Write framing set to {0}", framing);
+    }
+
+    /**
+     * Sets whether write_buffer is flushed after every message. When turned
+     * off messages are batched until flush() is called. Turning auto flush
+     * back on does not send messages that have already been batched, use
+     * flush() to send them.
+     *
+     * @param auto_flush Boolean specifying whether to flush after every
+     * message.
+     */
+    public void setAutoFlush(boolean auto_flush) {
+        this.auto_flush = auto_flush;
+    }
+
+    /**
+     * Sets the {@link TimerWheel} used to flush batches that have not been
+     * flushed in time. When the first message of a batch is written while
+     * auto flush is off task is scheduled on timer_wheel to run after delay
+     * milliseconds, and the deadline is cancelled if the batch is flushed
+     * first. Used by the write batching feature of {@link Server}.
+     *
+     * @param timer_wheel the {@link TimerWheel} to schedule task on, or null
+     * to stop scheduling deadlines.
+     * @param delay the time in milliseconds the oldest batched message may
+     * wait.
+     * @param task the task that flushes this {@link Sock}.
+     */
+    void setFlushDeadline(TimerWheel timer_wheel, long delay, Runnable task) {
+        synchronized (write_queue) {
+            cancelFlushDeadline();
+            flush_timer = timer_wheel;
+            flush_delay = delay;
+            flush_task = task;
+            if (flush_timer != null && !auto_flush && unflushedBytes() > 0) {
+                long waited = (System.nanoTime() - unflushed_since) / 1000000;
+                flush_deadline = flush_timer.schedule(flush_delay - waited, flush_task);
+            }
+        }
+    }
+
+    /**
+     * Cancels the deadline of the current batch, if there is one. Must be
+     * called while holding the lock on write_queue.
+     */
+    private void cancelFlushDeadline() {
+        if (flush_deadline != null) {
+            flush_deadline.cancel();
+            flush_deadline = null;
+        }
+    }
+
+    /**
+     * Returns whether write_buffer is flushed after every message.
+     *
+     * @return the boolean auto_flush.
+     */
+    public boolean getAutoFlush() {
+        return auto_flush;
+    }
+
+    /**
+     * Returns the number of bytes of batched messages that have not been
+     * flushed yet.
+     *
+     * @return the number of bytes waiting in write_buffer and write_segments.
+     */
+    public int getUnflushedBytes() {
+        synchronized (write_queue) {
+            return unflushedBytes();
+        }
+    }
+
+    /**
+     * Returns the number of bytes waiting in write_buffer and write_segments.
+     * Must be called while holding the lock on write_queue.
+     *
+     * @return the number of bytes that have not been flushed.
+     */
+    private int unflushedBytes() {
+        if (write_buffer == null) {
+            return 0;
+        }
+        int unflushed = write_buffer.position();
+        for (ByteBuffer segment : write_segments) {
+            unflushed += segment.remaining();
+        }
+        return unflushed;
+    }
+
+    /**
+     * Returns how long the oldest batched message that has not been flushed
+     * yet has been waiting.
+     *
+     * @return the time in milliseconds, or -1 if there are no batched
+     * messages.
+     */
+    public long getUnflushedTime() {
+        synchronized (write_queue) {
+            if (unflushedBytes() == 0) {
+                return -1;
+            }
+            return (System.nanoTime() - unflushed_since) / 1000000;
+        }
+    }
+
+    /**
+     * Returns the framing used when reading messages.
+     *
+     * @return the int read_framing.
+     */
+    public int getReadFraming() {
+        return read_framing;
+    }
+
+    /**
+     * Returns the framing used when writing messages.
+     *
+     * @return the int write_framing.
+     */
+    public int getWriteFraming() {
+        return write_framing;
+    }
+
+    /**
+     * Returns the channel the last message read was sent on. Only meaningful
+     * to the thread reading messages, directly after reading a message.
+     *
+     * @return the int read_channel, always 0 unless the read framing is
+     * CHANNEL.
+     */
+    public int getReadChannel() {
+        return read_channel;
+    }
+
+    /**
+     * Checks that framing is one of the valid framings.
+     *
+     * @param framing the framing to check.
+     * @throws InvalidArgumentException if framing is not a valid framing.
+     */
+    private static void checkFraming(int framing) throws InvalidArgumentException {
+        if (framing != TEXT && framing != BINARY && framing != CHANNEL) {
+            throw new InvalidArgumentException("Framing must be Sock.TEXT, Sock.BINARY or Sock.CHANNEL. framing = " + framing);
+        }
+    }
+
+    /**
+     * Sends a string message through the connection using the current write
+     * framing. If auto flush has been turned off the message is only added to
+     * the current batch and is not sent until flush() is called.
+     *
+     * @param message String message to send through the connection.
+     * @throws IOException if an exception is encountered when sending a message
+     * through out.
+     */
+    public void sendMessage(String message) throws IOException {
+        synchronized (write_queue) {
+            appendMessage(message);
+            if (auto_flush) {
+                flushBuffer();
+            }
+        }
+        LOGGER.log(Level.INFO, "Sent message {0}", message);
+    }
+
+    /**
+     * Sends a string message through the connection on a logical channel. The
+     * id of the channel is only written if the write framing is CHANNEL, with
+     * any other framing the message is sent the same as sendMessage(String
+     * message). If auto flush has been turned off the message is only added to
+     * the current batch and is not sent until flush() is called.
+     *
+     * @param channel the id of the channel to send the message on.
+     * @param message String message to send through the connection.
+     * @throws IOException if an exception is encountered when sending a message
+     * through out.
+     * @throws InvalidArgumentException if channel is less than 0.
+     */
+    public void sendChannelMessage(int channel, String message) throws IOException, InvalidArgumentException {
+        checkChannel(channel);
+        synchronized (write_queue) {
+            appendMessage(message, channel);
+            if (auto_flush) {
+                flushBuffer();
+            }
+        }
+        LOGGER.log(Level.INFO, "Sent message {0} on channel {1}", new Object[]{message, channel});
+    }
+
+    /**
+     * Sends a string message through the connection using the current write
+     * framing and then changes the write framing. No other message can be
+     * sent between the two, so the remote end can safely change its read
+     * framing once it has read message. The message, and any batched messages
+     * before it, are always flushed straight away.
+     *
+     * @param message String message to send through the connection.
+     * @param framing the framing to use for every message sent after message,
+     * Sock.TEXT, Sock.BINARY or Sock.CHANNEL.
+     * @throws IOException if an exception is encountered when sending a message
+     * through out.
+     * @throws InvalidArgumentException if framing is not a valid framing.
+     */
+    public void sendMessage(String message, int framing) throws IOException, InvalidArgumentException {
+        checkFraming(framing);
+        synchronized (write_queue) {
+            appendMessage(message);
+            write_framing = framing;
+            flushBuffer();
+        }
+        LOGGER.log(Level.INFO, "Sent message {0}. Write framing set to {1}", new Object[]{message, framing});
+    }
+
+    /**
+     * Sends a string message through the connection uncompressed and then
+     * compresses every message written after it. No other message can be sent
+     * between the two, so the remote end can safely turn on read compression
+     * once it has read message. The message, and any batched messages before
+     * it, are always flushed straight away. Does nothing more than send the
+     * message if write compression is already turned on.
+     *
+     * @param message String message to send through the connection.
+     * @param dictionary the preset dictionary to compress with, the remote end
+     * must read using the same dictionary. May be null.
+     * @throws IOException if an exception is encountered when sending a message
+     * through out.
+     */
+    public void startWriteCompression(String message, byte[] dictionary) throws IOException {
+        synchronized (write_queue) {
+            appendMessage(message);
+            flushBuffer();
+            if (deflater == null) {
+                deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+                if (dictionary != null && dictionary.length > 0) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflate_input = new byte[READ_BUFFER_SIZE];
+                deflate_output = new byte[READ_BUFFER_SIZE];
+            }
+        }
+        LOGGER.log(Level.INFO, "Sent message {0}. Write compression turned on", message);
+    }
+
+    /**
+     * Decompresses every byte read after the current message. Any bytes
+     * already read past the last message taken are decompressed straight
+     * away, so this must be called directly after reading the message that
+     * tells this end to turn on read compression. Does nothing if read
+     * compression is already turned on.
+     *
+     * @param dictionary the preset dictionary the remote end compresses with.
+     * May be null.
+     * @throws IOException if the bytes already read are not valid compressed
+     * data.
+     */
+    public void setReadCompression(byte[] dictionary) throws IOException {
+        startRead();
+        try {
+            if (inflater != null || read_buffer == null) {
+                return;
+            }
+            inflater = new Inflater();
+            inflate_dictionary = dictionary;
+            inflate_input = new byte[READ_BUFFER_SIZE];
+            inflate_wrapper = ByteBuffer.wrap(inflate_input);
+            inflate_output = new byte[READ_BUFFER_SIZE];
+            int pending = read_buffer.position() - read_start;
+            if (pending > 0) {
+                byte[] compressed = new byte[pending];
+                ByteBuffer unread = read_buffer.duplicate();
+                unread.limit(read_buffer.position());
+                unread.position(read_start);
+                unread.get(compressed);
+                read_buffer.position(read_start);
+                compressed_read += pending;
+                inflater.setInput(compressed);
+                inflate();
+            }
+        } finally {
+            endRead();
+        }
+        LOGGER.log(Level.INFO, "Read compression turned on");
+    }
+
+    /**
+     * Returns whether messages written are compressed.
+     *
+     * @return true if write compression is turned on.
+     */
+    public boolean getWriteCompression() {
+        synchronized (write_queue) {
+            return deflater != null;
+        }
+    }
+
+    /**
+     * Returns whether bytes read are decompressed.
+     *
+     * @return true if read compression is turned on.
+     */
+    public boolean getReadCompression() {
+        return inflater != null;
+    }
+
+    /**
+     * Returns the number of bytes written before being compressed.
+     *
+     * @return the long uncompressed_written.
+     */
+    public long getUncompressedBytesWritten() {
+        return uncompressed_written;
+    }
+
+    /**
+     * Returns the number of compressed bytes written.
+     *
+     * @return the long compressed_written.
+     */
+    public long getCompressedBytesWritten() {
+        return compressed_written;
+    }
+
+    /**
+     * Returns the number of compressed bytes read.
+     *
+     * @return the long compressed_read.
+     */
+    public long getCompressedBytesRead() {
+        return compressed_read;
+    }
+
+    /**
+     * Returns the number of bytes read once decompressed.
+     *
+     * @return the long uncompressed_read.
+     */
+    public long getUncompressedBytesRead() {
+        return uncompressed_read;
+    }
+
+    /**
+     * Returns the number of compressed bytes sent and received for every
+     * byte they decompress to, in both directions combined.
+     *
+     * @return the compression ratio, or 1 if nothing has been compressed yet.
+     */
+    public double getCompressionRatio() {
+        long uncompressed = uncompressed_written + uncompressed_read;
+        if (uncompressed == 0) {
+            return 1;
+        }
+        return (double) (compressed_written + compressed_read) / uncompressed;
+    }
+
+    /**
+     * Encodes every message in messages using the current write framing and
+     * adds them to the current batch, without flushing even if auto flush is
+     * turned on. Either every message is added or, if the {@link Sock} has
+     * been closed, none are. Use flush() to write the batch.
+     *
+     * @param messages the String messages to send through the connection, in
+     * order.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    public void batchMessages(List<String> messages) throws IOException {
+        batch(messages, 0);
+        LOGGER.log(Level.INFO, "Batched {0} messages", messages.size());
+    }
+
+    /**
+     * Encodes every message in messages on a logical channel and adds them to
+     * the current batch, the same as batchMessages(List(String) messages).
+     * The id of the channel is only written if the write framing is CHANNEL.
+     *
+     * @param messages the String messages to send through the connection, in
+     * order.
+     * @param channel the id of the channel to send the messages on.
+     * @throws IOException if the {@link Sock} has been closed.
+     * @throws InvalidArgumentException if channel is less than 0.
+     */
+    public void batchMessages(List<String> messages, int channel) throws IOException, InvalidArgumentException {
+        checkChannel(channel);
+        batch(messages, channel);
+        LOGGER.log(Level.INFO, "Batched {0} messages on channel {1}", new Object[]{messages.size(), channel});
+    }
+
+    /**
+     * Encodes every message in messages and adds them to the current batch.
+     *
+     * @param messages the String messages to encode, in order.
+     * @param channel the id of the channel to send the messages on.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void batch(List<String> messages, int channel) throws IOException {
+        synchronized (write_queue) {
+            if (write_buffer == null || (transport == null && this.channel == null)) {
+                throw new IOException("Sock has been closed");
+            }
+            for (String message : messages) {
+                appendMessage(message, channel);
+            }
+        }
+    }
+
+    /**
+     * Checks that channel is a valid channel id.
+     *
+     * @param channel the channel id to check.
+     * @throws InvalidArgumentException if channel is less than 0.
+     */
+    private static void checkChannel(int channel) throws InvalidArgumentException {
+        if (channel < 0) {
+            throw new InvalidArgumentException("Channel must be >= 0. channel = " + channel);
+        }
+    }
+
+    /**
+     * Writes every batched message that has not been flushed yet with a single
+     * write and cancels the flush deadline of the batch. Does nothing if there
+     * are no batched messages.
+     *
+     * @throws IOException if an exception is encountered when writing through
+     * out or channel.
+     */
+    public void flush() throws IOException {
+        synchronized (write_queue) {
+            flushBuffer();
+        }
+    }
+
+    /**
+     * Encodes a message using the current write framing and adds it to the end
+     * of write_buffer. Must be called while holding the lock on write_queue.
+     *
+     * @param message String message to encode.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void appendMessage(String message) throws IOException {
+        appendMessage(message, 0);
+    }
+
+    /**
+     * Encodes a message on a logical channel using the current write framing
+     * and adds it to the end of write_buffer. Must be called while holding the
+     * lock on write_queue.
+     *
+     * @param message String message to encode.
+     * @param channel the id of the channel, only written with CHANNEL framing.
+     * @throws IOException if the {@link Sock} has been closed.
+     */
+    private void appendMessage(String message, int channel) throws IOException {
+        if (write_buffer == null || (transport == null && this.channel == null)) {
+            throw new IOException("Sock has been closed");
+        }
+        if (write_buffer.position() == 0 && write_segments.isEmpty()) {
+            unflushed_since = System.nanoTime();
+            if (!auto_flush && flush_timer != null && flush_deadline == null) {
+                flush_deadline = flush_timer.schedule(flush_delay, flush_task);
+            }
+        }
+        if (write_framing == CHANNEL) {
+            ensureWriteCapacity(MAX_VARINT_LENGTH);
+            putVarint(channel);
+            appendFrame(message);
+        } else if (write_framing == BINARY) {
+            appendFrame(message);
+        } else {
+            ensureWriteCapacity((int) Math.ceil(message.length() * (double) text_encoder.maxBytesPerChar()) + LINE_SEPARATOR.length);
+            text_encoder.reset();
+            text_encoder.encode(CharBuffer.wrap(message), write_buffer, true);
+            text_encoder.flush(write_buffer);
+            write_buffer.put(LINE_SEPARATOR);
+        }
+    }
+
+    /**
+     * Encodes message as a BINARY frame at the end of write_buffer. The UTF-8
+     * length of the message is worked out first so the message can be encoded
+     * straight after its length. If the encoder replaced any characters
+     * differently than expected the message is moved to sit directly after
+     * the actual length.
+     *
+     * @param message String message to encode.
+     */
+    private void appendFrame(String message) {
+        int expected = utf8Length(message);
+        int header = varintLength(expected);
+        ensureWriteCapacity(MAX_VARINT_LENGTH + Math.max(expected, (int) Math.ceil(message.length() * (double) frame_encoder.maxBytesPerChar())));
+        int start = write_buffer.position();
+        write_buffer.position(start + header);
+        frame_encoder.reset();
+        frame_encoder.encode(CharBuffer.wrap(message), write_buffer, true);
+        frame_encoder.flush(write_buffer);
+        int length = write_buffer.position() - start - header;
+        if (length != expected && varintLength(length) != header) {
+            int actual_header = varintLength(length);
+            if (actual_header < header) {
+                for (int i = 0; i < length; i++) {
+                    write_buffer.put(start + actual_header + i, write_buffer.get(start + header + i));
+                }
+            } else {
+                for (int i = length - 1; i >= 0; i--) {
+                    write_buffer.put(start + actual_header + i, write_buffer.get(start + header + i));
+                }
+            }
+            header = actual_header;
+        }
+        write_buffer.position(start);
+        putVarint(length);
+        write_buffer.position(start + header + length);
+    }
+
+    /**
+     * Writes value as a varint at the position of write_buffer.
+     *
+     * @param value the value to write.
+     */
+    private void putVarint(int value) {
+        while ((value & ~0x7F) != 0) {
+            write_buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        write_buffer.put((byte) value);
+    }
+
+    /**
+     * Returns the number of bytes message takes up when encoded as UTF-8.
+     * Unpaired surrogates are counted as the single byte they are replaced
+     * with.
+     *
+     * @param message the String to measure.
+     * @return the encoded length of message in bytes.
+     */
+    private static int utf8Length(String message) {
+        int length = 0;
+        int chars = message.length();
+        for (int i = 0; i < chars; i++) {
+            char next = message.charAt(i);
+            if (next < 0x80) {
+                length++;
+            } else if (next < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(next) && i + 1 < chars && Character.isLowSurrogate(message.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(next)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Makes sure write_buffer has at least needed bytes of space left. If it
+     * already holds batched messages it is kept as a segment and a new
+     * write_buffer is started, otherwise it is swapped for a larger one.
+     *
+     * @param needed the number of bytes about to be added.
+     */
+    private void ensureWriteCapacity(int needed) {
+        if (write_buffer.remaining() < needed) {
+            if (write_buffer.position() > 0) {
+                write_buffer.flip();
+                write_segments.add(write_buffer);
+            } else {
+                POOL.release(write_buffer);
+            }
+            write_buffer = POOL.acquire(Math.max(READ_BUFFER_SIZE, needed));
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed to encode value as a varint.
+     *
+     * @param value the value to encode.
+     * @return the number of bytes between 1 and MAX_VARINT_LENGTH.
+     */
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Compresses the current batch if write compression is turned on and then
+     * writes it. Must be called while holding the lock on write_queue.
+     *
+     * @throws IOException if an exception is encountered when writing. Any
+     * bytes that were not written are kept so they can be flushed again,
+     * unless they were compressed, in which case the stream can not be
+     * recovered and they are dropped.
+     */
+    private void flushBuffer() throws IOException {
+        cancelFlushDeadline();
+        if (write_buffer == null || (write_buffer.position() == 0 && write_segments.isEmpty())) {
+            return;
+        }
+        if (deflater == null) {
+            writeBuffer();
+            return;
+        }
+        compressBatch();
+        try {
+            writeBuffer();
+        } catch (IOException e) {
+            write_buffer.clear();
+            ByteBuffer segment = write_segments.poll();
+            while (segment != null) {
+                POOL.release(segment);
+                segment = write_segments.poll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces the batch held in write_segments and write_buffer with its
+     * compressed form, ending it with a sync flush so the remote end can
+     * decompress every message in it. Must be called while holding the lock
+     * on write_queue.
+     */
+    private void compressBatch() {
+        int segments = write_segments.size();
+        write_segments.add(write_buffer);
+        write_buffer.flip();
+        write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+        for (int i = 0; i <= segments; i++) {
+            ByteBuffer source = write_segments.poll();
+            uncompressed_written += source.remaining();
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), deflate_input.length);
+                source.get(deflate_input, 0, length);
+                deflater.setInput(deflate_input, 0, length);
+                while (!deflater.needsInput()) {
+                    deflateBatch(Deflater.NO_FLUSH);
+                }
+            }
+            POOL.release(source);
+        }
+        int length;
+        do {
+            length = deflateBatch(Deflater.SYNC_FLUSH);
+        } while (length == deflate_output.length);
+    }
+
+    /**
+     * Runs deflater once and adds the compressed bytes it produces to the end
+     * of the batch.
+     *
+     * @param flush the flush mode to pass to deflater.
+     * @return the number of compressed bytes produced.
+     */
+    private int deflateBatch(int flush) {
+        int length = deflater.deflate(deflate_output, 0, deflate_output.length, flush);
+        if (length > 0) {
+            ensureWriteCapacity(length);
+            write_buffer.put(deflate_output, 0, length);
+            compressed_written += length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes write_segments and write_buffer through out or channel. When
+     * using channel every buffer is passed to a single gathering write and
+     * anything that cannot be written without blocking is moved to write_queue
+     * for the {@link SelectorThread} to finish. Must be called while holding
+     * the lock on write_queue.
+     *
+     * @throws IOException if an exception is encountered when writing. Any
+     * bytes that were not written are kept so they can be flushed again.
+     */
+    private void writeBuffer() throws IOException {
+        if (channel != null) {
+            boolean queued = !write_queue.isEmpty() && !flushWrites();
+            write_buffer.flip();
+            if (!queued) {
+                int count = gather(write_segments);
+                try {
+                    channel.write(gather_buffers, 0, count);
+                } catch (IOException e) {
+                    write_buffer.position(write_buffer.limit());
+                    write_buffer.limit(write_buffer.capacity());
+                    throw e;
+                } finally {
+                    Arrays.fill(gather_buffers, 0, count, null);
+                }
+            }
+            ByteBuffer segment = write_segments.poll();
+            while (segment != null) {
+                if (segment.hasRemaining()) {
+                    write_queue.add(segment);
+                } else {
+                    POOL.release(segment);
+                }
+                segment = write_segments.poll();
+            }
+            if (write_buffer.hasRemaining()) {
+                write_queue.add(write_buffer);
+                write_buffer = POOL.acquire(READ_BUFFER_SIZE);
+            } else {
+                write_buffer.clear();
+            }
+            if (!write_queue.isEmpty() && selector_thread != null) {
+                selector_thread.requestWrite(this);
+            }
+        } else if (transport != null) {
+            ByteBuffer segment = write_segments.peek();
+            while (segment != null) {
+                while (segment.hasRemaining()) {
+                    transport.write(segment);
+                }
+                POOL.release(write_segments.poll());
+                segment = write_segments.peek();
+            }
+            write_buffer.flip();
+            try {
+                while (write_buffer.hasRemaining()) {
+                    transport.write(write_buffer);
+                }
+            } catch (IOException e) {
+                write_buffer.position(write_buffer.limit());
+                write_buffer.limit(write_buffer.capacity());
+                throw e;
+            }
+            write_buffer.clear();
+        } else {
+            throw new IOException("Sock has been closed");
+        }
+    }
+
+    /**
+     * Copies every buffer in buffers into gather_buffers, followed by
+     * write_buffer, growing gather_buffers if necessary.
+     *
+     * @param buffers the buffers to write before write_buffer.
+     * @return the number of buffers copied into gather_buffers.
+     */
+    private int gather(ArrayDeque<ByteBuffer> buffers) {
+        if (gather_buffers.length < buffers.size() + 1) {
+            gather_buffers = new ByteBuffer[Math.max(gather_buffers.length * 2, buffers.size() + 1)];
+        }
+        int count = 0;
+        for (ByteBuffer buffer : buffers) {
+            gather_buffers[count] = buffer;
+            count++;
+        }
+        gather_buffers[count] = write_buffer;
+        return count + 1;
+    }
+
+    /**
+     * Writes as much of the queued data to channel as can be written without
+     * blocking. Used by the {@link SelectorThread} when the channel becomes
+     * writable.
+     *
+     * @return true if every queued message has been written.
+     * @throws IOException if an exception is encountered when writing to
+     * channel.
+     */
+    boolean flushWrites() throws IOException {
+        synchronized (write_queue) {
+            if (write_queue.isEmpty() || channel == null) {
+                return true;
+            }
+            int count = 0;
+            if (gather_buffers.length < write_queue.size()) {
+                gather_buffers = new ByteBuffer[Math.max(gather_buffers.length * 2, write_queue.size())];
+            }
+            for (ByteBuffer buffer : write_queue) {
+                gather_buffers[count] = buffer;
+                count++;
+            }
+            try {
+                channel.write(gather_buffers, 0, count);
+            } finally {
+                Arrays.fill(gather_buffers, 0, count, null);
+            }
+            ByteBuffer buffer = write_queue.peek();
+            while (buffer != null && !buffer.hasRemaining()) {
+                POOL.release(write_queue.poll());
+                buffer = write_queue.peek();
+            }
+            return write_queue.isEmpty();
+        }
+    }
+
+    /**
+     * Reads whatever is available on channel without blocking into
+     * read_buffer. Any complete messages can then be taken using
+     * nextMessage().
+     *
+     * @return false if the end of the stream has been reached or channel has
+     * been closed, otherwise true.
+     * @throws IOException if an exception is encountered when reading from
+     * channel.
+     */
+    boolean readChannel() throws IOException {
+        startRead();
+        try {
+            SocketChannel current = channel;
+            if (current == null || read_buffer == null) {
+                return false;
+            }
+            prepareRead();
+            return readFrom(current) != -1;
+        } finally {
+            endRead();
+        }
+    }
+
+    /**
+     * Reads whatever is available from source into read_buffer, decompressing
+     * it first if read compression is turned on. Must be called while holding
+     * read_lock.
+     *
+     * @param source the channel to read from.
+     * @return the number of bytes read from source, or -1 if the end of the
+     * stream has been reached.
+     * @throws IOException if an exception is encountered when reading from
+     * source or the bytes read are not valid compressed data.
+     */
+    private int readFrom(ReadableByteChannel source) throws IOException {
+        if (inflater == null) {
+            return source.read(read_buffer);
+        }
+        inflate_wrapper.clear();
+        int read = source.read(inflate_wrapper);
+        if (read > 0) {
+            compressed_read += read;
+            inflater.setInput(inflate_input, 0, read);
+            inflate();
+        }
+        return read;
+    }
+
+    /**
+     * Decompresses all of the input given to inflater into read_buffer,
+     * making room in read_buffer as needed. Must be called while holding
+     * read_lock.
+     *
+     * @throws IOException if the input is not valid compressed data or was
+     * compressed with a different dictionary.
+     */
+    private void inflate() throws IOException {
+        while (true) {
+            prepareRead();
+            int length;
+            try {
+                length = inflater.inflate(inflate_output, 0, Math.min(read_buffer.remaining(), inflate_output.length));
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed compressed data received", e);
+            }
+            if (length > 0) {
+                read_buffer.put(inflate_output, 0, length);
+                uncompressed_read += length;
+            } else if (inflater.needsDictionary()) {
+                if (inflate_dictionary == null) {
+                    throw new IOException("Compressed data needs a dictionary but none was given");
+                }
+                try {
+                    inflater.setDictionary(inflate_dictionary);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Compressed data was compressed with a different dictionary", e);
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Makes sure read_buffer has space to read more bytes into. Bytes already
+     * returned as messages are discarded first, if there are none the buffer
+     * is doubled in size.
+     */
+    private void prepareRead() {
+        if (!read_buffer.hasRemaining()) {
+            if (read_start > 0) {
+                read_buffer.limit(read_buffer.position());
+                read_buffer.position(read_start);
+                read_buffer.compact();
+                read_start = 0;
+            } else {
+                ByteBuffer larger = POOL.acquire(read_buffer.capacity() * 2);
+                read_buffer.flip();
+                larger.put(read_buffer);
+                POOL.release(read_buffer);
+                read_buffer = larger;
+            }
+        }
+    }
+
+    /**
+     * Takes the next complete message out of read_buffer using the current
+     * read framing. Only one message is taken at a time so that a message
+     * changing the read framing is handled before the bytes after it are
+     * decoded.
+     *
+     * @return the next message, or null if a complete message has not been
+     * received yet or the {@link Sock} has been closed.
+     * @throws IOException if a BINARY frame has an invalid length.
+     */
+    String nextMessage() throws IOException {
+        startRead();
+        try {
+            return takeMessage();
+        } finally {
+            endRead();
+        }
+    }
+
+    /**
+     * Takes the next complete message out of read_buffer. Must be called while
+     * holding read_lock.
+     *
+     * @return the next message, or null if a complete message has not been
+     * received yet or the {@link Sock} has been closed.
+     * @throws IOException if a BINARY frame has an invalid length.
+     */
+    private String takeMessage() throws IOException {
+        if ((socket == null && transport == null && channel == null) || read_buffer == null) {
+            return null;
+        }
+        String message;
+        if (read_framing == CHANNEL) {
+            message = nextFrame(true);
+        } else if (read_framing == BINARY) {
+            message = nextFrame(false);
+        } else {
+            message = nextLine();
+        }
+        if (message != null && read_start == read_buffer.position()) {
+            read_buffer.clear();
+            read_start = 0;
+        }
+        return message;
+    }
+
+    /**
+     * Takes the next line out of read_buffer. Lines are separated by line
+     * breaks, the same as BufferedReader.readLine.
+     *
+     * @return the next line without its line separator, or null if a complete
+     * line has not been received yet.
+     */
+    private String nextLine() {
+        int end_of_data = read_buffer.position();
+        for (int i = read_start; i < end_of_data; i++) {
+            if (read_buffer.get(i) == '\n') {
+                int end = i;
+                if (end > read_start && read_buffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                String message = decode(text_decoder, read_start, end);
+                read_start = i + 1;
+                read_channel = 0;
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the next BINARY or CHANNEL frame out of read_buffer.
+     *
+     * @param channels true if each frame starts with the id of its channel.
+     * @return the decoded message, or null if a complete frame has not been
+     * received yet.
+     * @throws IOException if the frame's channel or length prefix is malformed
+     * or the length is larger than MAX_FRAME_LENGTH.
+     */
+    private String nextFrame(boolean channels) throws IOException {
+        int end_of_data = read_buffer.position();
+        int index = read_start;
+        int channel = 0;
+        if (channels) {
+            long varint = varintAt(index, end_of_data);
+            if (varint == -1) {
+                return null;
+            }
+            channel = (int) varint;
+            index += (int) (varint >>> 32);
+            if (channel < 0) {
+                throw new IOException("Malformed frame channel received");
+            }
+        }
+        long varint = varintAt(index, end_of_data);
+        if (varint == -1) {
+            return null;
+        }
+        int length = (int) varint;
+        index += (int) (varint >>> 32);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame length " + length + " is larger than the maximum of " + MAX_FRAME_LENGTH);
+        }
+        if (end_of_data - index < length) {
+            return null;
+        }
+        String message = decode(frame_decoder, index, index + length);
+        read_start = index + length;
+        read_channel = channel;
+        return message;
+    }
+
+    /**
+     * Reads the varint starting at index in read_buffer.
+     *
+     * @param index index of the first byte of the varint.
+     * @param end_of_data index after the last byte received.
+     * @return the value in the low 32 bits and the number of bytes it takes up
+     * in the high 32 bits, or -1 if the whole varint has not been received
+     * yet.
+     * @throws IOException if the varint is longer than MAX_VARINT_LENGTH.
+     */
+    private long varintAt(int index, int end_of_data) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int start = index;
+        while (true) {
+            if (index >= end_of_data) {
+                return -1;
+            }
+            byte next = read_buffer.get(index);
+            index++;
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return ((long) (index - start) << 32) | (value & 0xFFFFFFFFL);
+            }
+            shift += 7;
+            if (shift >= 7 * MAX_VARINT_LENGTH) {
+                throw new IOException("Malformed frame header received");
+            }
+        }
+    }
+
+    /**
+     * Decodes the bytes of read_buffer between start and end into a String
+     * using decode_buffer. The position and limit of read_buffer are left
+     * unchanged.
+     *
+     * @param decoder the decoder for the framing being read.
+     * @param start index of the first byte of the message.
+     * @param end index after the last byte of the message.
+     * @return the decoded message.
+     */
+    private String decode(CharsetDecoder decoder, int start, int end) {
+        int needed = (int) Math.ceil((end - start) * (double) decoder.maxCharsPerByte());
+        if (decode_buffer == null || decode_buffer.capacity() < needed) {
+            decode_buffer = CharBuffer.allocate(Math.max(DECODE_BUFFER_SIZE, needed));
+        }
+        int position = read_buffer.position();
+        read_buffer.limit(end);
+        read_buffer.position(start);
+        decode_buffer.clear();
+        decoder.reset();
+        decoder.decode(read_buffer, decode_buffer, true);
+        decoder.flush(decode_buffer);
+        read_buffer.limit(read_buffer.capacity());
+        read_buffer.position(position);
+        decode_buffer.flip();
+        return decode_buffer.toString();
+    }
+
+    /**
+     * Reads the next message received through the InputStream {@link in},
+     * blocking until a complete message has been received.
+     *
+     * @return message received through connection, or null if the end of the
+     * stream has been reached.
+     * @throws IOException if an exception is encountered when reading a message
+     * from in.
+     */
+    public String readMessage() throws IOException {
+        String message;
+        startRead();
+        try {
+            message = takeMessage();
+            while (message == null) {
+                ReadableByteChannel current = transport;
+                if (current == null || read_buffer == null) {
+                    throw new IOException("Sock has been closed");
+                }
+                prepareRead();
+                if (readFrom(current) == -1) {
+                    LOGGER.log(Level.INFO, "Read message {0}", message);
+                    return null;
+                }
+                message = takeMessage();
+            }
+        } finally {
+            endRead();
+        }
+        LOGGER.log(Level.INFO, "Read message {0}", message);
+        return message;
+    }
+
+    /**
+     * Puts the attribute states of {@link Sock} in readable form.
+     *
+     * @return Attributes of {@link Sock} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link Sock} in readable form. Takes String
+     * input to assist formatting. Useful to add special characters to assist
+     * formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link Sock} in a readable String form.
+     */
+    public String toString(String ch) {
+        String to_string = ch + "socket: " + socket + "\n" + ch + "read framing: " + read_framing + "\n" + ch + "write framing: " + write_framing;
+        if (channel != null) {
+            to_string += "\n" + ch + "channel: " + channel.toString();
+        } else {
+            to_string += "\n" + ch + "out: " + out + "\n" + ch + "in: " + in + "\n" + ch + "transport: " + transport;
+        }
+        to_string += "\n" + ch + "auto flush: " + auto_flush;
+        if (deflater != null || inflater != null) {
+            to_string += "\n" + ch + "compression ratio: " + getCompressionRatio();
+        }
+        if (write_buffer != null) {
+            to_string += "\n" + ch + "unflushed bytes: " + getUnflushedBytes();
+        }
         return to_string;
     }
 }
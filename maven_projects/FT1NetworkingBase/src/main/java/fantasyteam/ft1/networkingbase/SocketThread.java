@@ -1,10 +1,13 @@
 package fantasyteam.ft1.networkingbase;
 
-import fantasyteam.ft1.Timing;
 import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -107,6 +110,44 @@ public class SocketThread extends Thread {
      * message from the socket it will set the counter back to 0.
      */
     private volatile boolean use_socket_timeout;
+    /**
+     * The {@link TimerWheel.Timeout} that disconnects this
+     * {@link SocketThread} if the connection is not confirmed before timeout
+     * is reached.
+     */
+    private volatile TimerWheel.Timeout confirmation_timeout;
+    /**
+     * The {@link TimerWheel.Timeout} used to check the socket timeout feature
+     * when this {@link SocketThread} is driven by a {@link SelectorThread}
+     * rather than its own run() loop.
+     */
+    private volatile TimerWheel.Timeout response_timeout;
+    /**
+     * The time in milliseconds the last message was read by a
+     * {@link SelectorThread}.
+     */
+    private volatile long last_read;
+    /**
+     * The {@link DatagramSession} binding this {@link SocketThread} to the
+     * unreliable channel of the {@link Server}. Null unless the unreliable
+     * channel feature has been negotiated for this connection.
+     */
+    private volatile DatagramSession datagram_session;
+    /**
+     * The {@link HeartbeatDetector} recording the heartbeats and messages
+     * received from the remote {@link Server}, used by the heartbeat feature.
+     */
+    private final HeartbeatDetector heartbeat_detector;
+    /**
+     * True while a thread started by requestFlush is flushing the
+     * {@link Sock}, so a slow flush is never joined by another.
+     */
+    private final AtomicBoolean flushing;
+    /**
+     * Counted down once state is first changed from NEW, which releases any
+     * thread waiting in awaitStart.
+     */
+    private final CountDownLatch started;
 
     /**
      * Logger for logging important actions and exceptions.
@@ -137,6 +178,13 @@ public class SocketThread extends Thread {
         socket_timeout_response_count = 5;
         use_socket_timeout = false;
         no_response_count = 0;
+        confirmation_timeout = null;
+        response_timeout = null;
+        last_read = 0;
+        datagram_session = null;
+        heartbeat_detector = new HeartbeatDetector();
+        flushing = new AtomicBoolean(false);
+        started = new CountDownLatch(1);
     }
 
     /**
@@ -146,20 +194,14 @@ public class SocketThread extends Thread {
      */
     @Override
     public void run() {
-        Timing confirmation_timer = null;
         if (state == NEW) {
             state = RUNNING;
+            signalQueue();
         }
+        started.countDown();
+        scheduleConfirmationTimeout();
         while (state == RUNNING || state == CONFIRMED) {
-            if (state == RUNNING && confirmation_timer == null) {
-                confirmation_timer = new Timing();
-            } else if (state == CONFIRMED && confirmation_timer != null) {
-                confirmation_timer = null;
-            }
-            if (state == RUNNING && confirmation_timer != null && confirmation_timer.getTime() > timeout) {
-                LOGGER.log(Level.INFO, "Remote server did not verify connection before timeout was reached. Closing SocketThread. Hash {0}", hash);
-                server.receiveMessage("disconnect", hash);
-            } else if (use_socket_timeout && no_response_count > socket_timeout_response_count) {
+            if (use_socket_timeout && no_response_count > socket_timeout_response_count) {
                 LOGGER.log(Level.INFO, "Have not received a response from the remote server within the given timeout. Closing SocketThread. Hash {0}", hash);
                 server.receiveMessage("disconnect", hash);
             } else {
@@ -185,19 +227,7 @@ public class SocketThread extends Thread {
                     }
                 }
                 if (read) {
-                    if (message == null) {
-                        LOGGER.log(Level.INFO, "Socket has been disconnected, attempting to close socket on Server. Hash {0}", hash);
-                        message = "disconnect";
-                    } else {
-                        LOGGER.log(Level.INFO, "Message received: {0}", message);
-                    }
-                    if (state == RUNNING) {
-                        if (message.compareTo("customnetwork1" + Character.toString((char) 31)) == 0) {
-                            server.receiveMessage(message, hash);
-                        }
-                    } else if (state != NEW) {
-                        server.receiveMessage(message, hash);
-                    }
+                    handleMessage(message);
                 }
             }
         }
@@ -209,6 +239,171 @@ public class SocketThread extends Thread {
         }
     }
 
+    /**
+     * Signals the {@link MessageQueue} of this {@link SocketThread}, if it has
+     * one, so messages queued while the socket could not be sent to are sent
+     * once it can.
+     */
+    private void signalQueue() {
+        Map<String, MessageQueue> queues = server.getQueueList();
+        if (queues != null) {
+            MessageQueue queue = queues.get(hash);
+            if (queue != null) {
+                queue.signal();
+            }
+        }
+    }
+
+    /**
+     * Removes the channel of this {@link SocketThread} from its
+     * {@link SelectorThread}, if it is driven by one, once it stops running.
+     */
+    private void removeFromSelector() {
+        Sock current = socket;
+        if (current != null && current.getSelectorThread() != null) {
+            current.getSelectorThread().removeSocket(current);
+        }
+    }
+
+    /**
+     * Passes a message read from the socket on to the {@link Server}. While
+     * the connection has not been confirmed only the connection confirmation
+     * message is passed on. A null message means the socket has been
+     * disconnected and is passed on as a disconnect. Heartbeats are recorded
+     * on the {@link HeartbeatDetector} and never passed on.
+     *
+     * @param message the message read from the socket.
+     */
+    void handleMessage(String message) {
+        if (message != null) {
+            long now = System.currentTimeMillis();
+            if (message.equals(Server.HEARTBEAT_MESSAGE)) {
+                heartbeat_detector.heartbeat(now);
+                return;
+            }
+            heartbeat_detector.messageReceived(now);
+        }
+        if (message == null) {
+            LOGGER.log(Level.INFO, "Socket has been disconnected, attempting to close socket on Server. Hash {0}", hash);
+            message = "disconnect";
+        } else {
+            LOGGER.log(Level.INFO, "Message received: {0}", message);
+        }
+        if (state == RUNNING) {
+            if (message.compareTo("customnetwork1" + Character.toString((char) 31)) == 0) {
+                server.receiveMessage(message, hash);
+            }
+        } else if (state != NEW) {
+            server.receiveMessage(message, hash);
+        }
+    }
+
+    /**
+     * Marks a {@link SocketThread} driven by a {@link SelectorThread} as
+     * started. This is the equivalent of run() setting the state to RUNNING
+     * for a {@link SocketThread} using its own thread.
+     */
+    synchronized void startSelector() {
+        if (state == NEW) {
+            state = RUNNING;
+            signalQueue();
+        }
+        started.countDown();
+        last_read = System.currentTimeMillis();
+        scheduleConfirmationTimeout();
+        scheduleResponseTimeout(socket_timeout_response);
+    }
+
+    /**
+     * Handles a message read by a {@link SelectorThread}. Records the time of
+     * the read for the socket timeout feature before passing the message on
+     * to handleMessage.
+     *
+     * @param message the message read from the socket.
+     */
+    void selectorMessage(String message) {
+        last_read = System.currentTimeMillis();
+        no_response_count = 0;
+        handleMessage(message);
+    }
+
+    /**
+     * Schedules the connection confirmation timeout on the {@link TimerWheel}
+     * of the {@link Server} if the connection has not been confirmed yet. If
+     * the state is still RUNNING once timeout is reached the
+     * {@link SocketThread} is disconnected.
+     */
+    private void scheduleConfirmationTimeout() {
+        if (state == RUNNING && confirmation_timeout == null) {
+            confirmation_timeout = server.getTimerWheel().schedule(timeout, new Runnable() {
+                @Override
+                public void run() {
+                    if (state == RUNNING) {
+                        LOGGER.log(Level.INFO, "Remote server did not verify connection before timeout was reached. Closing SocketThread. Hash {0}", hash);
+                        server.receiveMessage("disconnect", hash);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedules the next check of the socket timeout feature for a
+     * {@link SocketThread} driven by a {@link SelectorThread}. This replaces
+     * the SocketTimeoutExceptions counted by the run() loop, as a selector
+     * driven {@link SocketThread} never blocks on its own socket. Each check
+     * counts the socket timeouts that have passed since the last message was
+     * read and schedules the next check for when the count would next
+     * increase, so the check costs nothing while messages are being received.
+     *
+     * @param delay the time in milliseconds until the next check.
+     */
+    private void scheduleResponseTimeout(long delay) {
+        response_timeout = server.getTimerWheel().schedule(delay, new Runnable() {
+            @Override
+            public void run() {
+                checkResponseTimeout();
+            }
+        });
+    }
+
+    /**
+     * Checks the socket timeout feature for a {@link SocketThread} driven by a
+     * {@link SelectorThread} and schedules the next check if the
+     * {@link SocketThread} is still open.
+     */
+    private void checkResponseTimeout() {
+        if (state != RUNNING && state != CONFIRMED) {
+            return;
+        }
+        long time = System.currentTimeMillis() - last_read;
+        long interval = socket_timeout_response;
+        if (use_socket_timeout && socket_timeout_response_count != -1) {
+            no_response_count = (int) (time / interval);
+            if (no_response_count > socket_timeout_response_count) {
+                LOGGER.log(Level.INFO, "Have not received a response from the remote server within the given timeout. Closing SocketThread. Hash {0}", hash);
+                server.receiveMessage("disconnect", hash);
+                return;
+            }
+        }
+        scheduleResponseTimeout(interval - time % interval);
+    }
+
+    /**
+     * Cancels any timeout this {@link SocketThread} has scheduled on the
+     * {@link TimerWheel} of the {@link Server}.
+     */
+    private void cancelTimeouts() {
+        TimerWheel.Timeout timeout = confirmation_timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        timeout = response_timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
     /**
      * Closes the {@link SocketThread}.
      *
@@ -224,6 +419,7 @@ public class SocketThread extends Thread {
             }
         } else {
             state = CLOSED;
+            started.countDown();
             LOGGER.log(Level.INFO, "SocketThread {0} has successfully closed", hash);
         }
     }
@@ -237,6 +433,25 @@ public class SocketThread extends Thread {
         return socket;
     }
 
+    /**
+     * Returns the attribute datagram_session.
+     *
+     * @return the {@link DatagramSession} datagram_session, or null if the
+     * unreliable channel is not being used by this {@link SocketThread}.
+     */
+    public DatagramSession getDatagramSession() {
+        return datagram_session;
+    }
+
+    /**
+     * Returns the attribute heartbeat_detector.
+     *
+     * @return the {@link HeartbeatDetector} heartbeat_detector.
+     */
+    public HeartbeatDetector getHeartbeatDetector() {
+        return heartbeat_detector;
+    }
+
     /**
      * Returns the attribute server.
      *
@@ -264,6 +479,23 @@ public class SocketThread extends Thread {
         return state;
     }
 
+    /**
+     * Blocks until state is changed from NEW, either by the
+     * {@link SocketThread} starting or by it being closed, or until timeout
+     * milliseconds have passed.
+     *
+     * @param timeout the longest time in milliseconds to wait.
+     * @return true if state was changed from NEW before timeout was reached.
+     */
+    public boolean awaitStart(long timeout) {
+        try {
+            return started.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return state != NEW;
+        }
+    }
+
     /**
      * Returns the attribute game, the int specifying which game group the
      * {@link SocketThread} belongs to on the {@link Server}.
@@ -352,11 +584,31 @@ public class SocketThread extends Thread {
     public synchronized void setRun(int state) throws InvalidArgumentException {
         if (state == NEW || state == RUNNING || state == CONFIRMED || state == ERROR || state == CLOSED) {
             this.state = state;
+            if (state != NEW) {
+                started.countDown();
+            }
+            if (state == RUNNING || state == CONFIRMED || state == ERROR) {
+                signalQueue();
+            }
+            if (state != RUNNING && state != CONFIRMED) {
+                removeFromSelector();
+            }
         } else {
             throw new InvalidArgumentException("State must equal NEW, RUNNING, CONFIRMED, ERROR or CLOSED. State equals " + state);
         }
     }
 
+    /**
+     * Sets the attribute datagram_session. Used by {@link DatagramThread} when
+     * a session is added or removed.
+     *
+     * @param datagram_session the {@link DatagramSession} for this
+     * {@link SocketThread}.
+     */
+    void setDatagramSession(DatagramSession datagram_session) {
+        this.datagram_session = datagram_session;
+    }
+
     /**
      * Sets the attribute game, the int specifying which game group the
      * {@link SocketThread} belongs to on the {@link Server}.
@@ -401,7 +653,7 @@ public class SocketThread extends Thread {
         if (socket_timeout > 0) {
             socket_timeout_response = socket_timeout;
             if (use_socket_timeout) {
-                socket.getSocket().setSoTimeout(socket_timeout_response);
+                socket.setReadTimeout(socket_timeout_response);
             }
         } else {
             throw new InvalidArgumentException("Value of socket_timeout must be > 0. socket_timeout = " + socket_timeout);
@@ -448,9 +700,9 @@ public class SocketThread extends Thread {
      */
     public void setUseSocketTimeout(boolean use_socket_timeout) throws SocketException {
         if (this.use_socket_timeout && !use_socket_timeout) {
-            socket.getSocket().setSoTimeout(0);
+            socket.setReadTimeout(0);
         } else if (!this.use_socket_timeout && use_socket_timeout) {
-            socket.getSocket().setSoTimeout(getSocketTimeout());
+            socket.setReadTimeout(getSocketTimeout());
         }
         this.use_socket_timeout = use_socket_timeout;
     }
@@ -470,6 +722,9 @@ public class SocketThread extends Thread {
             running = true;
         }
         state = CLOSED;
+        started.countDown();
+        cancelTimeouts();
+        removeFromSelector();
         if (socket != null) {
             socket.close();
             socket = null;
@@ -498,6 +753,168 @@ public class SocketThread extends Thread {
         }
     }
 
+    /**
+     * Sends a heartbeat through the {@link Sock}. Used by the
+     * {@link HeartbeatThread}, the heartbeat is not logged as it is sent once
+     * every heartbeat interval.
+     */
+    void sendHeartbeat() {
+        Sock sock = socket;
+        if (sock != null) {
+            try {
+                sock.sendMessage(Server.HEARTBEAT_MESSAGE);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Could not send heartbeat through socket with hash: {0}", hash);
+                LOGGER.log(Level.INFO, "Caught exception: {0}", e);
+                server.disconnect(hash);
+            }
+        }
+    }
+
+    /**
+     * Sends a message through the {@link Sock} on a logical channel. The id of
+     * the channel is only sent if the {@link Sock} is writing CHANNEL framing,
+     * see {@link Sock} for more information.
+     *
+     * @param channel the id of the channel to send the message on.
+     * @param message the String message to send through the {@link Sock}.
+     * @throws InvalidArgumentException if channel is less than 0.
+     */
+    public void sendChannelMessage(int channel, String message) throws InvalidArgumentException {
+        try {
+            socket.sendChannelMessage(channel, message);
+            LOGGER.log(Level.INFO, "Sent message {0} on channel {1} through socket with hash {2}", new Object[]{message, channel, hash});
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not send message through socket with hash: {0}\nMessage was: '{1}'\nSocket data:\n{2}", new Object[]{hash, message, toString()});
+            LOGGER.log(Level.INFO, "Caught exception: {0}", e);
+            server.disconnect(hash);
+        }
+    }
+
+    /**
+     * Flushes any batched messages waiting on the {@link Sock}. Only has an
+     * effect when the write batching feature of {@link Server} is in use.
+     * Does nothing once the {@link Sock} has been closed.
+     */
+    public void flush() {
+        Sock current = socket;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.flush();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not flush batched messages through socket with hash: {0}\nSocket data:\n{1}", new Object[]{hash, toString()});
+            LOGGER.log(Level.INFO, "Caught exception: {0}", e);
+            server.disconnect(hash);
+        }
+    }
+
+    /**
+     * Sets whether batched messages on the {@link Sock} are flushed by a
+     * deadline on the {@link TimerWheel} of the {@link Server} once the oldest
+     * has waited the max flush delay. Used by the write batching feature. The
+     * deadline only runs requestFlush, so nothing is written on the thread of
+     * the {@link TimerWheel}.
+     *
+     * @param use Boolean specifying whether to schedule flush deadlines.
+     */
+    void setFlushDeadline(boolean use) {
+        Sock current = socket;
+        if (current != null) {
+            if (use) {
+                current.setFlushDeadline(server.getTimerWheel(), server.getMaxFlushDelay(), new Runnable() {
+                    @Override
+                    public void run() {
+                        requestFlush();
+                    }
+                });
+            } else {
+                current.setFlushDeadline(null, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Hands the flush of the batched messages on the {@link Sock} to the
+     * thread that writes for this {@link SocketThread}: its
+     * {@link MessageQueue} when the message queue feature is in use, otherwise
+     * its {@link SelectorThread}. A blocking {@link SocketThread} without a
+     * {@link MessageQueue} has no such thread, as its own thread is waiting
+     * for input, so the flush is run on a new thread of the {@link Server}
+     * unless one is still flushing.
+     */
+    void requestFlush() {
+        Sock current = socket;
+        if (current == null) {
+            return;
+        }
+        if (server.getUseMessageQueues() && server.getQueueList() != null) {
+            MessageQueue queue = server.getQueueList().get(hash);
+            if (queue != null) {
+                queue.requestFlush();
+                return;
+            }
+        }
+        SelectorThread selector_thread = current.getSelectorThread();
+        if (selector_thread != null) {
+            selector_thread.requestFlush(this);
+        } else if (flushing.compareAndSet(false, true)) {
+            server.runThread(new Thread("SocketThread-flush-" + hash) {
+                @Override
+                public void run() {
+                    try {
+                        flush();
+                    } finally {
+                        flushing.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a message through the {@link Sock} and then changes the framing
+     * the {@link Sock} uses to write every message after it. The message is
+     * sent directly rather than through a {@link MessageQueue} so the remote
+     * end receives it before any message using the new framing.
+     *
+     * @param message the String message to send through the {@link Sock}.
+     * @param framing the framing to use for every message sent after message,
+     * either Sock.TEXT or Sock.BINARY.
+     * @throws InvalidArgumentException if framing is not a valid framing.
+     */
+    public void sendMessage(String message, int framing) throws InvalidArgumentException {
+        try {
+            socket.sendMessage(message, framing);
+            LOGGER.log(Level.INFO, "Sent message {0} through socket with hash {1}. Write framing set to {2}", new Object[]{message, hash, framing});
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not send message through socket with hash: {0}\nMessage was: '{1}'\nSocket data:\n{2}", new Object[]{hash, message, toString()});
+            LOGGER.log(Level.INFO, "Caught exception: {0}", e);
+            server.disconnect(hash);
+        }
+    }
+
+    /**
+     * Sends a message through the {@link Sock} and then compresses every
+     * message written after it. The message is sent directly rather than
+     * through a {@link MessageQueue} so the remote end receives it before any
+     * compressed message.
+     *
+     * @param message the String message to send through the {@link Sock}.
+     * @param dictionary the preset dictionary to compress with.
+     */
+    public void startWriteCompression(String message, byte[] dictionary) {
+        try {
+            socket.startWriteCompression(message, dictionary);
+            LOGGER.log(Level.INFO, "Sent message {0} through socket with hash {1}. Write compression turned on", new Object[]{message, hash});
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not send message through socket with hash: {0}\nMessage was: '{1}'\nSocket data:\n{2}", new Object[]{hash, message, toString()});
+            LOGGER.log(Level.INFO, "Caught exception: {0}", e);
+            server.disconnect(hash);
+        }
+    }
+
     /**
      * Puts the attribute states of {@link SocketThread} in readable form.
      *
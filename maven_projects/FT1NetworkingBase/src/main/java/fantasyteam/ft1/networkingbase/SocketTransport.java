@@ -0,0 +1,95 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The {@link SocketTransport} class is the {@link Transport} used by a
+ * blocking {@link Sock} built on a TCP Socket. Bytes are read from and written
+ * to the input and output streams of the Socket.
+ *
+ * @author javu
+ */
+public class SocketTransport implements Transport {
+
+    /**
+     * Socket used to hold the connection.
+     */
+    private final Socket socket;
+    /**
+     * Channel wrapping the input stream of socket.
+     */
+    private final ReadableByteChannel in_channel;
+    /**
+     * Channel wrapping the output stream of socket.
+     */
+    private final WritableByteChannel out_channel;
+
+    /**
+     * Takes a connected Socket as an argument.
+     *
+     * @param socket the connected Socket.
+     * @throws IOException if an exception is encountered when opening the
+     * Socket's input or output streams.
+     */
+    public SocketTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        in_channel = Channels.newChannel(socket.getInputStream());
+        out_channel = Channels.newChannel(socket.getOutputStream());
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return in_channel.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return out_channel.write(src);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    /**
+     * Returns the value of socket.
+     *
+     * @return the Socket socket.
+     */
+    public Socket getSocket() {
+        return socket;
+    }
+
+    /**
+     * Puts the attribute states of {@link SocketTransport} in readable form.
+     *
+     * @return Attributes of {@link SocketTransport} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        return "SocketTransport " + socket;
+    }
+}
@@ -0,0 +1,409 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link TimerWheel} class is a hashed timing wheel shared by every
+ * component of a {@link Server} that needs to act when a timeout is reached.
+ * Instead of each {@link SocketThread} and {@link MessageQueue} polling its
+ * own timer, a task is scheduled on the {@link TimerWheel} and run once its
+ * delay has passed unless it is cancelled first. Scheduling and cancelling a
+ * task is O(1), and each tick of the wheel only looks at the tasks in one of
+ * its WHEEL_SIZE buckets, so thousands of pending timeouts cost a single
+ * thread that sleeps between ticks.
+ *
+ * Tasks are run on the {@link TimerWheel} thread and so must be short. A task
+ * is never run before its delay has passed and is run at most TICK_DURATION
+ * milliseconds after it. The thread is started by the first task scheduled and
+ * any task still pending when the {@link TimerWheel} is closed is never run.
+ *
+ * @author javu
+ */
+public class TimerWheel extends Thread {
+
+    /**
+     * Valid state for {@link TimerWheel}, used when the wheel has just been
+     * constructed and no task has been scheduled on it yet.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link TimerWheel}, used when the wheel is running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link TimerWheel}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * The time in milliseconds between each tick of the wheel.
+     */
+    public static final long TICK_DURATION = 10;
+
+    /**
+     * The number of buckets on the wheel. Must be a power of two.
+     */
+    public static final int WHEEL_SIZE = 512;
+
+    /**
+     * The tick duration in nanoseconds.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_DURATION);
+
+    /**
+     * Each bucket holds a linked list of the {@link Timeout}s due on the ticks
+     * that map to it. Only touched by the {@link TimerWheel} thread.
+     */
+    private final Timeout[] buckets;
+    /**
+     * Tasks scheduled since the last tick, waiting to be placed in a bucket.
+     */
+    private final Queue<Timeout> new_timeouts;
+    /**
+     * The number of tasks that have been scheduled but not run or dropped
+     * after being cancelled.
+     */
+    private final AtomicInteger pending;
+    /**
+     * The System.nanoTime() the wheel was created at. Every deadline is
+     * measured from this time.
+     */
+    private final long start_time;
+    /**
+     * The number of ticks since the wheel was created.
+     */
+    private long tick;
+    /**
+     * The current state of the {@link TimerWheel}. Valid states are: 0 - NEW
+     * 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(TimerWheel.class.getName());
+
+    /**
+     * Constructs an empty {@link TimerWheel}. The thread is a daemon thread
+     * and is not started until the first task is scheduled.
+     */
+    public TimerWheel() {
+        super("TimerWheel");
+        setDaemon(true);
+        buckets = new Timeout[WHEEL_SIZE];
+        new_timeouts = new ConcurrentLinkedQueue<Timeout>();
+        pending = new AtomicInteger(0);
+        start_time = System.nanoTime();
+        tick = 0;
+        state = NEW;
+    }
+
+    /**
+     * Schedules a task to be run once delay milliseconds have passed. If the
+     * {@link TimerWheel} has been closed the task is never run.
+     *
+     * @param delay the time in milliseconds to wait before running the task.
+     * A negative delay is treated as 0.
+     * @param task the task to run.
+     * @return the {@link Timeout} used to cancel the task.
+     */
+    public Timeout schedule(long delay, Runnable task) {
+        long deadline = System.nanoTime() - start_time + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+        Timeout timeout = new Timeout(task, deadline);
+        if (state == NEW) {
+            startWheel();
+        }
+        if (state == CLOSED) {
+            timeout.cancel();
+            return timeout;
+        }
+        pending.incrementAndGet();
+        new_timeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Starts the thread if it has not been started yet.
+     */
+    private synchronized void startWheel() {
+        if (state == NEW) {
+            state = RUNNING;
+            tick = (System.nanoTime() - start_time) / TICK_NANOS;
+            start();
+        }
+    }
+
+    /**
+     * Loop that waits for each tick, places newly scheduled tasks in their
+     * bucket and runs every task in the current bucket whose deadline has
+     * passed.
+     */
+    @Override
+    public void run() {
+        while (state == RUNNING) {
+            waitForNextTick();
+            if (state != RUNNING) {
+                break;
+            }
+            transferTimeouts();
+            expireTimeouts((int) (tick & (WHEEL_SIZE - 1)));
+            tick++;
+        }
+        LOGGER.log(Level.INFO, "TimerWheel has exited with {0} pending timeouts", pending.get());
+    }
+
+    /**
+     * Sleeps until the end of the current tick.
+     */
+    private void waitForNextTick() {
+        long end_of_tick = start_time + (tick + 1) * TICK_NANOS;
+        long sleep = end_of_tick - System.nanoTime();
+        while (sleep > 0 && state == RUNNING) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleep);
+            } catch (InterruptedException e) {
+                if (state != RUNNING) {
+                    return;
+                }
+            }
+            sleep = end_of_tick - System.nanoTime();
+        }
+    }
+
+    /**
+     * Places every task scheduled since the last tick in the bucket of the
+     * tick it is due on. Tasks already cancelled are dropped.
+     */
+    private void transferTimeouts() {
+        Timeout timeout = new_timeouts.poll();
+        while (timeout != null) {
+            if (timeout.isCancelled()) {
+                pending.decrementAndGet();
+            } else {
+                long due_tick = Math.max(timeout.deadline / TICK_NANOS, tick);
+                timeout.remaining_rounds = (due_tick - tick) / WHEEL_SIZE;
+                int index = (int) (due_tick & (WHEEL_SIZE - 1));
+                timeout.next = buckets[index];
+                buckets[index] = timeout;
+            }
+            timeout = new_timeouts.poll();
+        }
+    }
+
+    /**
+     * Runs every task in a bucket that is due this round and drops any that
+     * have been cancelled. Tasks due on a later round stay in the bucket.
+     *
+     * @param index the index of the bucket.
+     */
+    private void expireTimeouts(int index) {
+        Timeout previous = null;
+        Timeout timeout = buckets[index];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = false;
+            if (timeout.isCancelled()) {
+                remove = true;
+            } else if (timeout.remaining_rounds <= 0) {
+                remove = true;
+                if (timeout.expire()) {
+                    try {
+                        timeout.task.run();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.SEVERE, "Timeout task threw an exception", e);
+                    }
+                }
+            } else {
+                timeout.remaining_rounds--;
+            }
+            if (remove) {
+                pending.decrementAndGet();
+                timeout.next = null;
+                if (previous == null) {
+                    buckets[index] = next;
+                } else {
+                    previous.next = next;
+                }
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Closes the {@link TimerWheel}. The run() loop will exit and any task
+     * still pending will never be run.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        interrupt();
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the number of tasks that have been scheduled but not yet run or
+     * dropped after being cancelled.
+     *
+     * @return the number of pending timeouts.
+     */
+    public int getPendingTimeouts() {
+        return pending.get();
+    }
+
+    /**
+     * Puts the attribute states of {@link TimerWheel} in readable form.
+     *
+     * @return Attributes of {@link TimerWheel} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link TimerWheel} in readable form. Takes
+     * String input to assist formatting. Useful to add special characters to
+     * assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link TimerWheel} in a readable String form.
+     */
+    public String toString(String ch) {
+        return ch + "State: " + state + "\n" + ch + "Pending timeouts: " + pending.get();
+    }
+
+    /**
+     * A task scheduled on a {@link TimerWheel}, returned by schedule() so the
+     * task can be cancelled before it is run.
+     */
+    public static class Timeout {
+
+        /**
+         * Valid state for {@link Timeout}, used while the task is waiting to
+         * be run.
+         */
+        public static final int PENDING = 0;
+
+        /**
+         * Valid state for {@link Timeout}, used once the task has been run.
+         */
+        public static final int EXPIRED = 1;
+
+        /**
+         * Valid state for {@link Timeout}, used when the task was cancelled
+         * before it was run.
+         */
+        public static final int CANCELLED = 2;
+
+        /**
+         * The task to run.
+         */
+        private final Runnable task;
+        /**
+         * The time in nanoseconds, measured from the start of the wheel, the
+         * task is due to run at.
+         */
+        private final long deadline;
+        /**
+         * The number of times the wheel must go round before the task is due.
+         */
+        private long remaining_rounds;
+        /**
+         * The next {@link Timeout} in the same bucket.
+         */
+        private Timeout next;
+        /**
+         * The current state of the {@link Timeout}. Valid states are: 0 -
+         * PENDING 1 - EXPIRED 2 - CANCELLED
+         */
+        private volatile int state;
+
+        /**
+         * Takes the task to run and the time it is due to run at.
+         *
+         * @param task the task to run.
+         * @param deadline the time in nanoseconds, measured from the start of
+         * the wheel, the task is due to run at.
+         */
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+            remaining_rounds = 0;
+            next = null;
+            state = PENDING;
+        }
+
+        /**
+         * Cancels the task if it has not been run yet.
+         *
+         * @return true if the task was cancelled.
+         */
+        public synchronized boolean cancel() {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            return true;
+        }
+
+        /**
+         * Marks the task as run.
+         *
+         * @return true if the task was still PENDING.
+         */
+        private synchronized boolean expire() {
+            if (state != PENDING) {
+                return false;
+            }
+            state = EXPIRED;
+            return true;
+        }
+
+        /**
+         * Returns whether the task was cancelled.
+         *
+         * @return true if the state is CANCELLED.
+         */
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        /**
+         * Returns whether the task has been run.
+         *
+         * @return true if the state is EXPIRED.
+         */
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        /**
+         * Returns the attribute state.
+         *
+         * @return the int state.
+         */
+        public int getState() {
+            return state;
+        }
+    }
+}
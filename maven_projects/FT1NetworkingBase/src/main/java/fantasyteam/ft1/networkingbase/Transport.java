@@ -0,0 +1,40 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.channels.ByteChannel;
+
+/**
+ * The {@link Transport} interface is the connection a blocking {@link Sock}
+ * reads and writes bytes through. Every framing, batching and compression
+ * feature of {@link Sock} works on top of a {@link Transport}, so the same
+ * {@link Sock} can be used over a TCP Socket, using a {@link SocketTransport},
+ * or over an in-process pipe, using a {@link LoopbackTransport}.
+ *
+ * A {@link Transport} blocks on read until at least one byte is available,
+ * returning -1 once the remote end has been closed and every byte it sent has
+ * been read. It blocks on write until every byte has been accepted. Closing a
+ * {@link Transport} must unblock any thread blocked reading from it.
+ *
+ * @author javu
+ */
+public interface Transport extends ByteChannel {
+
+    /**
+     * Sets the longest time in milliseconds a read blocks for before throwing
+     * a SocketTimeoutException. A timeout of 0 blocks until bytes are
+     * received.
+     *
+     * @param timeout the read timeout in milliseconds.
+     * @throws SocketException if the timeout could not be set.
+     */
+    void setReadTimeout(int timeout) throws SocketException;
+
+    /**
+     * Returns the address of the remote end of the connection. Used to open
+     * the unreliable channel and file transfers to the same host.
+     *
+     * @return the InetAddress of the remote end, or null if it is not known.
+     */
+    InetAddress getRemoteAddress();
+}
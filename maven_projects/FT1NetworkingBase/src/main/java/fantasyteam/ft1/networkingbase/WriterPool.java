@@ -0,0 +1,246 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The {@link WriterPool} class is used by the writer pool feature of
+ * {@link Server}. Instead of each {@link MessageQueue} running its own thread,
+ * which loops even when it has nothing to send, a small fixed number of
+ * worker threads serve every {@link MessageQueue} attached to the pool. A
+ * {@link MessageQueue} is only handed to the workers when it is signalled, by a
+ * message being queued on it, its state or the state of its socket changing or
+ * one of its own deadlines on the {@link TimerWheel} of the {@link Server}, and
+ * the workers block while no {@link MessageQueue} needs them, so idle sockets
+ * use no CPU time however many are attached.
+ *
+ * @author javu
+ */
+public class WriterPool {
+
+    /**
+     * Valid state for {@link WriterPool}, used when the pool has just been
+     * constructed but its workers have not been started.
+     */
+    public static final int NEW = 0;
+
+    /**
+     * Valid state for {@link WriterPool}, used when the workers are running
+     * normally.
+     */
+    public static final int RUNNING = 1;
+
+    /**
+     * Valid state for {@link WriterPool}, used when it is flagged to be
+     * closed.
+     */
+    public static final int CLOSED = 2;
+
+    /**
+     * The number of milliseconds a worker waits for a {@link MessageQueue}
+     * before checking whether the pool has been closed.
+     */
+    public static final long POLL_TIMEOUT = 100;
+
+    /**
+     * The instance of {@link Server} that created this {@link WriterPool}.
+     */
+    private final Server server;
+    /**
+     * The {@link MessageQueue}s waiting for a worker, in the order they were
+     * handed to the pool. A {@link MessageQueue} is never in ready more than
+     * once.
+     */
+    private final LinkedBlockingQueue<MessageQueue> ready;
+    /**
+     * Every {@link MessageQueue} attached to this {@link WriterPool}. Only
+     * used to count them, the pool never walks them.
+     */
+    private final Set<MessageQueue> attached;
+    /**
+     * The worker threads.
+     */
+    private final ArrayList<Thread> workers;
+    /**
+     * The current state of the {@link WriterPool}. Valid states are: 0 - NEW
+     * 1 - RUNNING 2 - CLOSED
+     */
+    private volatile int state;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(WriterPool.class.getName());
+
+    /**
+     * Takes the instance of {@link Server} that created this
+     * {@link WriterPool} and the number of worker threads to run.
+     *
+     * @param server the {@link Server} that created this {@link WriterPool}.
+     * @param size the number of worker threads.
+     */
+    public WriterPool(Server server, int size) {
+        this.server = server;
+        ready = new LinkedBlockingQueue<MessageQueue>();
+        attached = Collections.newSetFromMap(new ConcurrentHashMap<MessageQueue, Boolean>());
+        workers = new ArrayList<Thread>();
+        for (int i = 0; i < size; i++) {
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    work();
+                }
+            };
+            worker.setName("WriterPool-" + i);
+            workers.add(worker);
+        }
+        state = NEW;
+    }
+
+    /**
+     * Starts the worker threads through the {@link Server}, so they are
+     * virtual threads if the virtual threads feature is in use.
+     */
+    public synchronized void start() {
+        if (state == NEW) {
+            state = RUNNING;
+            for (Thread worker : workers) {
+                server.runThread(worker);
+            }
+            LOGGER.log(Level.INFO, "Started WriterPool with {0} workers", workers.size());
+        }
+    }
+
+    /**
+     * Loop run by each worker. Takes the next {@link MessageQueue} that needs
+     * serving and serves it, blocking while there are none. Exits once the
+     * pool is closed and every {@link MessageQueue} handed to it has been
+     * served.
+     */
+    private void work() {
+        BufferPool.getDefault().enableThreadCache();
+        while (state == RUNNING || !ready.isEmpty()) {
+            try {
+                MessageQueue queue = ready.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (queue != null) {
+                    queue.serve();
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.INFO, "WriterPool worker was interrupted while waiting");
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "WriterPool worker caught an exception while serving a MessageQueue", e);
+            }
+        }
+        BufferPool.getDefault().disableThreadCache();
+        LOGGER.log(Level.INFO, "WriterPool worker has exited");
+    }
+
+    /**
+     * Attaches a {@link MessageQueue} to this {@link WriterPool}. The
+     * {@link MessageQueue} is served by the workers from now on instead of
+     * running its own thread.
+     *
+     * @param queue the {@link MessageQueue} to attach.
+     */
+    public void attach(MessageQueue queue) {
+        attached.add(queue);
+        queue.attach(this);
+    }
+
+    /**
+     * Detaches a {@link MessageQueue}. Run by the {@link MessageQueue} once it
+     * has closed.
+     *
+     * @param queue the {@link MessageQueue} to detach.
+     */
+    void detach(MessageQueue queue) {
+        attached.remove(queue);
+    }
+
+    /**
+     * Hands a {@link MessageQueue} to the workers. Only run by the
+     * {@link MessageQueue} itself, which makes sure it is not handed over
+     * again before a worker has served it.
+     *
+     * @param queue the {@link MessageQueue} to serve.
+     */
+    void submit(MessageQueue queue) {
+        ready.offer(queue);
+    }
+
+    /**
+     * Closes the {@link WriterPool}. The workers exit once every
+     * {@link MessageQueue} already handed to them has been served.
+     */
+    public synchronized void close() {
+        state = CLOSED;
+        LOGGER.log(Level.INFO, "Closing WriterPool");
+    }
+
+    /**
+     * Returns the attribute state.
+     *
+     * @return the int state.
+     */
+    public int getRun() {
+        return state;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the int number of workers.
+     */
+    public int getSize() {
+        return workers.size();
+    }
+
+    /**
+     * Returns the number of {@link MessageQueue}s served by this
+     * {@link WriterPool}.
+     *
+     * @return the int number of attached {@link MessageQueue}s.
+     */
+    public int getAttachedQueues() {
+        return attached.size();
+    }
+
+    /**
+     * Returns the number of {@link MessageQueue}s waiting for a worker.
+     *
+     * @return the int number of waiting {@link MessageQueue}s.
+     */
+    public int getReadyQueues() {
+        return ready.size();
+    }
+
+    /**
+     * Puts the attribute states of {@link WriterPool} in readable form.
+     *
+     * @return Attributes of {@link WriterPool} in a readable String form.
+     */
+    @Override
+    public String toString() {
+        String to_string = toString("");
+        return to_string;
+    }
+
+    /**
+     * Puts the attribute states of {@link WriterPool} in readable form. Takes
+     * String input to assist formatting. Useful to add special characters to
+     * assist formatting such as \t or \n.
+     *
+     * @param ch Adds the String ch to the start of each line in the String.
+     * @return Attributes of {@link WriterPool} in a readable String form.
+     */
+    public String toString(String ch) {
+        String to_string = ch + "State: " + state + "\n" + ch + "Workers: " + workers.size() + "\n" + ch + "Attached queues: " + attached.size() + "\n" + ch + "Ready queues: " + ready.size();
+        return to_string;
+    }
+}
@@ -0,0 +1,41 @@
+package fantasyteam.ft1.networkingbase.exceptions;
+
+/**
+ * <p>
+ * This exception should be thrown by any function that attempts to turn on a
+ * feature that is not supported by the Java runtime the engine is running
+ * on.
+ * </p>
+ * <p>
+ * The exception type for this class is FeatureNotSupportedException. See the
+ * {@link NetworkingBaseRuntimeException} class for more information regarding
+ * exception types.
+ * </p>
+ *
+ * @author javu
+ */
+public class FeatureNotSupportedException extends NetworkingBaseRuntimeException {
+
+    /**
+     * Constructor that takes a custom message as input.
+     *
+     * @param message Custom message String
+     */
+    public FeatureNotSupportedException(String message) {
+        super(message, "FeatureNotSupportedException");
+    }
+
+    /**
+     * Constructor that takes a custom message and another Throwable instance as
+     * input. Usually used if a different exception is caught and an instance of
+     * this exception is then thrown instead but the original Throwable's data
+     * still needs to be thrown.
+     *
+     * @param message Custom message String.
+     * @param cause a different instance of Throwable, usually the Throwable
+     * that caused this exception to be thrown.
+     */
+    public FeatureNotSupportedException(String message, Throwable cause) {
+        super(message, cause, "FeatureNotSupportedException");
+    }
+}
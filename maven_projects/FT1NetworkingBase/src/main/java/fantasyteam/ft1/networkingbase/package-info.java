@@ -60,6 +60,65 @@
  * to attempt to reconnect if they take too long. It also gives the socket the
  * option of recovering from IO errors on the socket, rather than just
  * dieing.</p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Queue
+ * Backpressure</strong></td></tr><tr><td>void
+ * {@link Server}.setQueueCapacity(int capacity)</td></tr><tr><td><p>
+ * Requires the Message Queue feature. Limits the number of messages each
+ * {@link MessageQueue} can hold so one slow client cannot grow the heap
+ * without limit. What happens to a message queued on a full MessageQueue is
+ * set with setQueueOverflowPolicy(int policy): drop the oldest message on the
+ * lowest priority channel, drop the new message, replace the latest message
+ * with the same action name or disconnect the socket. setQueueWatermarks(int low, int high) makes the
+ * {@link Server} pass the QUEUE_UNWRITABLE action to the Game once high
+ * messages are queued for a socket and QUEUE_WRITABLE once they have been
+ * sent down to low, so the Game can hold back messages before any are
+ * dropped. Each MessageQueue counts its queued, peak queued, dropped and
+ * coalesced messages.</p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Queue
+ * Ring</strong></td></tr><tr><td>void
+ * {@link Server}.setQueueRingSize(int size)</td></tr><tr><td><p>
+ * Requires the Message Queue feature. Gives each {@link MessageQueue} a
+ * bounded, lock-free {@link MessageRing} that threads sending messages add to
+ * without waiting for the lock the MessageQueue holds while it batches
+ * messages on its socket. The MessageQueue moves the messages onto their
+ * channels in the order they were sent, so capacity, coalescing and the
+ * watermarks still apply. The ring does not replace the channels of the
+ * MessageQueue: a message sent while the ring is full, or that would reach the
+ * capacity or the high watermark, is queued under the lock as before. Off by
+ * default. A JMH benchmark comparing the ring with queuing under a lock is
+ * built with the benchmark profile; run it on the target hardware before
+ * turning the ring on, as it only pays off when several cores are sending to
+ * the same socket.</p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Writer
+ * Pool</strong></td></tr><tr><td>void
+ * {@link Server}.setUseWriterPool(boolean use)</td></tr><tr><td><p>
+ * Requires the Message Queue feature. Instead of each {@link MessageQueue}
+ * running its own thread, the MessageQueues are served by a fixed number of
+ * worker threads in a {@link WriterPool}, set with setWriterPoolSize(int size)
+ * and defaulting to the number of processors. A MessageQueue is handed to the
+ * workers when a message is sent on it or its state changes, and the workers
+ * block while there is nothing to send, so idle sockets use no CPU time.</p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Coalescing</strong></td></tr><tr><td>void
+ * {@link Server}.setUseCoalescing(boolean use)</td></tr><tr><td><p>
+ * Requires the Message Queue feature. setCoalesceKey(String action, int field)
+ * gives an action a coalescing key made of its action name and its parameters
+ * up to parameter field, such as an entity id. Queuing a message with the same
+ * key as an unsent message on the same channel replaces that message where it
+ * is in the queue, so a client that falls behind only has the latest update
+ * for each entity waiting and catches up as soon as its connection recovers.
+ * removeCoalesceKey(String action) stops an action being
+ * coalesced.</p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Queue
+ * Spill</strong></td></tr><tr><td>void
+ * {@link Server}.setUseQueueSpill(boolean use)</td></tr><tr><td><p>
+ * Requires the Message Queue and Disconnect/Reconnect features. Instead of
+ * clearing the {@link MessageQueue} of a disconnected socket, its messages
+ * are moved off the heap into a memory-mapped {@link QueueSpill} file, along
+ * with any messages sent to the socket while it is disconnected. Once the
+ * socket is reconnected with connectDisconnectedSocket the spilled messages
+ * are sent in order before any new messages and the file is deleted. The size
+ * of the file is set with setQueueSpillSize(int size); messages that do not
+ * fit are dropped.</p></td></tr>
  * <tr><td>&nbsp;</td></tr><tr><td><strong>Confirm
  * Connection</strong></td></tr><tr><td>void
  * {@link Server}.setUseConnectionConfirmation(boolean use)</td></tr><tr><td><p>
@@ -70,12 +129,12 @@
  * ready or has not successfully established a connection.
  * </p>
  * <p>
- * The client will however wait forever until it detects activity on the socket
- * before trying to process anything else. To allow the socket to periodically
- * break input blocking and process other things use the socket timeout feature.
- * This allows the confirm connection feature to also close the socket and throw
- * an exception if the confirmation message is not received in time, allowing
- * appropriate action to be taken.</p></td></tr>
+ * If the confirmation message is not received before the timeout of the
+ * {@link SocketThread} the socket is closed, allowing appropriate action to be
+ * taken. The timeout is scheduled on the {@link TimerWheel} of the
+ * {@link Server}, which is shared with the error and disconnect timeouts of
+ * every {@link MessageQueue}, so it fires even while the socket is blocked
+ * waiting for input.</p></td></tr>
  * <tr><td>&nbsp;</td></tr><tr><td><strong>Socket
  * Timeout</strong></td></tr><tr><td>void
  * {@link Server}.setUseSocketTimeout(boolean use)</td></tr><tr><td><p>
@@ -95,6 +154,283 @@
  * if you do not want the socket to close after a number of consecutive timeouts
  * then set this value to -1.
  * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Heartbeat</strong></td></tr><tr><td>void
+ * {@link Server}.setUseHeartbeat(boolean use)</td></tr><tr><td><p>
+ * This feature detects dropped connections without any socket breaking input
+ * blocking. A {@link HeartbeatThread} sends a small heartbeat to every
+ * confirmed connection once every heartbeat interval (100 ms by default, set
+ * using the setHeartbeatInterval function of Server) and sleeps in between.
+ * </p>
+ * <p>
+ * Each {@link SocketThread} records the heartbeats it receives on a
+ * {@link HeartbeatDetector}, a phi accrual failure detector that learns the
+ * normal spacing of the heartbeats and works out how unlikely the current
+ * silence is. Once this passes the heartbeat threshold (set using the
+ * setHeartbeatThreshold function of Server) the connection is disconnected,
+ * moving it to the disconnected sockets list if that feature is in use. A
+ * dropped connection is normally detected within a few hundred milliseconds.
+ * Connections that never send heartbeats are never checked, so the feature
+ * does not need to be turned on at both ends. Turning it on turns the socket
+ * timeout feature off.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Binary
+ * Framing</strong></td></tr><tr><td>void
+ * {@link Server}.setUseBinaryFraming(boolean use)</td></tr><tr><td><p>
+ * By default each message is sent as a line of text and read by scanning for
+ * the line break. This feature sends each message as a varint length prefix
+ * followed by the UTF-8 encoded message instead, which avoids scanning for line
+ * breaks and allows messages to contain them.
+ * </p>
+ * <p>
+ * The framing is negotiated once a connection has been confirmed, so the
+ * connection confirmation feature must be turned on on the listen
+ * {@link Server}. If either end does not use this feature both ends keep
+ * sending lines of text, so older clients can still connect.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Channels</strong></td></tr><tr><td>void
+ * {@link Server}.setUseChannels(boolean use)</td></tr><tr><td><p>
+ * This feature lets several independent streams of actions, such as chat,
+ * lobby state, game actions and asset downloads, share a single connection
+ * instead of opening a connection and {@link SocketThread} for each. Actions
+ * sent with the sendActionChannel functions of Networking are tagged with a
+ * channel id, which is sent in front of each message when both ends use this
+ * feature. Actions on the same channel arrive in the order they were sent.
+ * While handling an action the {@link fantasyteam.ft1.Game} can find the
+ * channel it arrived on with the getReceiveChannel function of Server.
+ * </p>
+ * <p>
+ * When the message queues feature is in use each {@link MessageQueue} keeps a
+ * separate queue for each channel and sends the channels in order of the
+ * priority set with the setChannelPriority function of Server. While more than
+ * one channel has messages waiting only a limited number are taken from each
+ * channel at a time, so a large download on a low priority channel never holds
+ * up game actions for more than one batch. The framing is negotiated the same
+ * way as the binary framing feature.
+ * </p>
+ * <p>
+ * The channels can also be used as priority lanes without being sent to the
+ * remote Server. setActionChannel(String action, int channel) queues an action
+ * sent without a channel on a given channel, so latency critical actions such
+ * as hits can be moved ahead of chat without changing the code that sends
+ * them. setChannelWeight(int channel, int weight) lets a channel send more
+ * messages in each batch, and setChannelDrain(int mode) with
+ * MessageQueue.DRAIN_STRICT only sends lower priority channels once every
+ * higher priority channel is empty.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Compression</strong></td></tr><tr><td>void
+ * {@link Server}.setUseCompression(boolean use)</td></tr><tr><td><p>
+ * This feature compresses everything sent through a connection with a deflate
+ * stream. Every batch of messages is compressed as it is flushed and ended
+ * with a sync flush, so messages are never held back waiting for more data.
+ * As encoded actions repeat the same action names and separators they
+ * compress well, which cuts the bandwidth used by each connection. Use the
+ * getCompressionRatio function of {@link Sock} to see how many bytes are sent
+ * for every byte of messages.
+ * </p>
+ * <p>
+ * The stream starts from a preset dictionary so even the first messages sent
+ * are compressed. Pass the action names the game sends to the
+ * setCompressionActions function of Server to build the dictionary, with the
+ * most common actions last. Compression is negotiated once a connection has
+ * been confirmed, so the connection confirmation feature must be turned on on
+ * the listen {@link Server}. If either end does not use this feature, or the
+ * two ends built different dictionaries, the connection stays uncompressed.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Write
+ * Batching</strong></td></tr><tr><td>void
+ * {@link Server}.setUseWriteBatching(boolean use)</td></tr><tr><td><p>
+ * By default every message is written to the socket as soon as it is sent.
+ * This feature holds messages in a buffer on each {@link Sock} so that many
+ * small messages are written to the socket together. Each {@link MessageQueue}
+ * flushes its {@link Sock} once it has no more messages queued, the game loop
+ * can call the flushSockets function of Server once per tick, and when the
+ * first message of a batch is written a deadline is scheduled on the
+ * {@link TimerWheel} of the Server that flushes the batch once it has waited
+ * the max flush delay. The deadline is cancelled if the batch is flushed
+ * first. The deadline never writes on the thread of the TimerWheel: the
+ * flush is handed to the {@link MessageQueue} or {@link SelectorThread} of
+ * the socket, or to a new thread for a blocking socket without a
+ * MessageQueue.
+ * </p>
+ * <p>
+ * Use the setMaxFlushDelay function of Server to change how many milliseconds
+ * a message may wait before it is flushed. The default is 5 milliseconds.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Buffer Leak
+ * Detection</strong></td></tr><tr><td>void
+ * {@link BufferPool}.setLeakDetection(boolean use)</td></tr><tr><td><p>
+ * Every {@link Sock} reads and writes messages through direct ByteBuffers
+ * taken from the default {@link BufferPool} and gives them back once it is
+ * closed, so connections and messages reuse the same buffers. This feature
+ * records where each buffer was taken from the pool and logs any buffer that
+ * is garbage collected without being given back, or that is given back
+ * twice. Use getDefault on BufferPool to get the pool used by every
+ * {@link Sock}. The feature is slow and should only be used when debugging.
+ * It is turned on for the default pool if the system property
+ * fantasyteam.ft1.networkingbase.bufferpool.leakdetection is set to true.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Unreliable
+ * Channel</strong></td></tr><tr><td>void
+ * {@link Server}.setUseUnreliableChannel(boolean use)</td></tr><tr><td><p>
+ * This feature opens a UDP DatagramChannel on a {@link DatagramThread}
+ * alongside the TCP connections. Messages sent with the sendActionUnreliable
+ * functions of Networking are sent as single datagrams, so a lost packet
+ * never holds back newer messages. Datagrams may be lost, duplicated or
+ * arrive out of order, so this should only be used for messages such as
+ * state updates where only the newest value matters. Messages sent with
+ * sendAction are still sent through the connection.
+ * </p>
+ * <p>
+ * Each connection is given a {@link DatagramSession} with a random token once
+ * the connection has been confirmed, so the connection confirmation feature
+ * must be turned on on the listen {@link Server}. Until the session is bound,
+ * or if either end does not use this feature, unreliable messages are sent
+ * through the connection instead. The same happens to any message too large
+ * to fit in one datagram.
+ * </p>
+ * <p>
+ * Messages sent with the sendActionReliable functions of Networking use the
+ * same datagrams but are guaranteed to arrive, in order and only once. Each
+ * session has a {@link ReliableChannel} that gives every fragment of a message
+ * a sequence number, acknowledges received fragments with a bitfield and
+ * resends fragments that are not acknowledged within a timeout worked out
+ * from the measured round trip time. A lost datagram only holds back other
+ * reliable messages rather than the whole connection. If a fragment is never
+ * acknowledged the connection is disconnected.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>File
+ * Transfer</strong></td></tr><tr><td>void
+ * {@link Server}.setUseFileTransfer(boolean use)</td></tr><tr><td><p>
+ * This feature streams files such as maps and sprites between
+ * {@link Server}s. The sendFile function of Server offers a file through the
+ * connection, and the other end connects to the {@link FileTransferThread} of
+ * the sender to open a separate data connection for it, so a large file never
+ * holds up actions sent on the connection. Each {@link FileTransfer} writes the
+ * file straight from disk to the data connection with FileChannel.transferTo,
+ * one chunk at a time, so the file is never copied onto the heap.
+ * </p>
+ * <p>
+ * Received files are saved in the directory set with the setFileDirectory
+ * function of Server, offered files are rejected until it is set. A file is
+ * written to a temporary file ending in .part until it is complete, and if
+ * the same file is offered again after a failed attempt only the rest of the
+ * file is sent. Use the setFileTransferRate function of Server to limit the
+ * bytes per second each file is sent at. The {@link fantasyteam.ft1.Game} is
+ * passed a filereceived, filesent or filefailed action when a transfer
+ * finishes.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Selector
+ * Transport</strong></td></tr><tr><td>void
+ * {@link Server}.setUseSelectorTransport(boolean use)</td></tr><tr><td><p>
+ * This feature replaces the thread per connection model with a small pool of
+ * {@link SelectorThread}s, by default one per available processor. Each new
+ * connection is built on a non-blocking SocketChannel and registered with one
+ * of the {@link SelectorThread}s, which reads and writes messages for all of
+ * its connections through a single java.nio.channels.Selector. This allows a
+ * single {@link Server} to hold thousands of connections without running
+ * thousands of threads.
+ * </p>
+ * <p>
+ * The {@link SocketThread}s are still stored in the socket_list of the
+ * {@link Server} and every other feature works the same way. The connection
+ * confirmation and socket timeout features are checked by the
+ * {@link SelectorThread} instead of by breaking input blocking. Use the
+ * setSelectorThreadCount function of Server to change the number of
+ * {@link SelectorThread}s before turning the feature on. Connections that
+ * already exist keep the transport they were created with, and turning the
+ * feature off closes each {@link SelectorThread} once its last connection
+ * has been closed.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Multiple
+ * Acceptors</strong></td></tr><tr><td>void
+ * {@link Server}.setAcceptorCount(int count)</td></tr><tr><td><p>
+ * The {@link ListenThread} accepts new connections on separate acceptor
+ * threads and sets up each {@link SocketThread} on its own thread, so when many
+ * clients connect at once, such as at the start of a match, they are taken off
+ * the ServerSocket straight away instead of waiting for the connections before
+ * them to be set up. By default a single acceptor thread is used, this feature
+ * starts more acceptor threads on the same ServerSocket. Use the
+ * setListenBacklog function of Server to change the number of connections the
+ * ServerSocket queues, the default is 50. Both settings are used the next time
+ * a {@link ListenThread} is created and started.
+ * </p>
+ * <p>
+ * The {@link ListenThread} measures the time from each connection being
+ * accepted to its {@link SocketThread} being ready, see the
+ * getAverageReadyLatency and getMaxReadyLatency functions of
+ * {@link ListenThread}.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Asynchronous
+ * Connect</strong></td></tr><tr><td>{@link ConnectFuture}
+ * {@link Server}.addSocketAsync(String ip, int port)</td></tr><tr><td><p>
+ * The addSocket functions of Server block until the connection is made, which
+ * can take seconds for a slow or unreachable address. The addSocketAsync
+ * function returns straight away with a {@link ConnectFuture} and the
+ * connection is made with a non-blocking SocketChannel on the
+ * {@link ConnectThread}, so connections to many other {@link Server}s can be
+ * made in parallel. Once connected the {@link SocketThread} is started the
+ * same way as addSocket and its hash can be taken from the get function of
+ * {@link ConnectFuture}. Connections that are not made within the connect
+ * timeout fail with a TimeoutException, use the setConnectTimeout function of
+ * Server to change it, the default is 5000 milliseconds.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Loopback
+ * Transport</strong></td></tr><tr><td>String
+ * {@link Server}.addLoopbackSocket(Server listen_server)</td></tr><tr><td><p>
+ * A blocking {@link Sock} reads and writes through a {@link Transport}, which
+ * is a {@link SocketTransport} for normal TCP connections. The
+ * addLoopbackSocket function of Server connects to a listen {@link Server} in
+ * the same JVM through a pair of {@link LoopbackTransport}s instead, which pass
+ * bytes between the two {@link Server}s through in-memory ring buffers without
+ * going through the kernel. Every other feature works the same over a loopback
+ * connection, so tests and benchmarks can measure the cost of the
+ * {@link Server} and {@link MessageQueue} separately from the cost of the
+ * network.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Unix Domain
+ * Sockets</strong></td></tr><tr><td>void
+ * {@link Server}.setUnixDomainPath(String path)</td></tr><tr><td><p>
+ * This feature makes the {@link ListenThread} listen on a Unix domain socket
+ * at the given path instead of the TCP port, so a lobby {@link Server} and the
+ * game {@link Server}s on the same host can talk without going through the
+ * TCP/IP stack. Connect to it using the addUnixDomainSocket function of
+ * Server, or pass a UnixDomainSocketAddress to the addSocket(SocketAddress
+ * address) function. Without the selector transport feature each connection
+ * reads and writes through a {@link ChannelTransport}, so every other feature
+ * works the same as over TCP. The socket file is deleted when the
+ * {@link ListenThread} is closed, and a socket file left behind by a process
+ * that did not close cleanly is replaced. Unix domain sockets require Java 16
+ * or later, setting a path with an older Java runtime throws a
+ * FeatureNotSupportedException.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Batched
+ * Delivery</strong></td></tr><tr><td>void
+ * {@link Server}.setUseBatchedDelivery(boolean use)</td></tr><tr><td><p>
+ * Stops the threads reading from sockets from calling the Game for every
+ * action they receive. Each action is parsed and any networking actions are
+ * handled straight away, but every other action is held until the Game calls
+ * deliverActions, which it does once per simulation step. The held actions
+ * are then passed to handleActionBatch of the Game in one call from the
+ * thread running the simulation. Actions in a batch are grouped by socket
+ * hash, and each socket's actions stay in the order they were received.
+ * </p></td></tr>
+ * <tr><td>&nbsp;</td></tr><tr><td><strong>Virtual
+ * Threads</strong></td></tr><tr><td>void
+ * {@link Server}.setUseVirtualThreads(boolean use)</td></tr><tr><td><p>
+ * This feature runs each {@link SocketThread}, {@link MessageQueue} and the
+ * {@link ListenThread} on a virtual thread instead of a platform thread. The
+ * blocking model of each of these classes is unchanged, but a blocked virtual
+ * thread only costs a few kilobytes of heap instead of a full thread stack,
+ * allowing tens of thousands of idle connections to be held by the one
+ * {@link Server}. This feature requires Java 21 or later, turning it on with
+ * an older Java runtime throws a FeatureNotSupportedException. The feature is
+ * turned on for every new {@link Server} if the system property
+ * fantasyteam.ft1.networkingbase.virtualthreads is set to true.
+ * </p>
+ * <p>
+ * Any other ThreadFactory can be used instead through the setThreadFactory
+ * function of Server.
+ * </p></td></tr>
  * <tr><td>&nbsp;</td></tr><tr><td><strong>Multiple games handled by the one
  * Server</strong></td></tr><tr><td>void {@link Server}.setSocketGame(String
  * hash, int game)</td></tr><tr><td><p>
@@ -102,7 +438,9 @@
  * of the same game by grouping each {@link SocketThread} by an integer value.
  * This allows the server to know which connections belong to which group, or
  * instance of the game. This is especially useful for creating a dedicated
- * server for multiplayer games.
+ * server for multiplayer games. sendActionBroadcast(String action, int game)
+ * sends an action to every connection in a game, encoding it once and
+ * walking the connections in a single pass.
  * </p></td></tr>
  * </table>
  * <br><br>
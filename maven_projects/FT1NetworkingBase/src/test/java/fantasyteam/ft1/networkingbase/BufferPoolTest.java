@@ -0,0 +1,184 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link BufferPool} class.
+ *
+ * @author javu
+ */
+public class BufferPoolTest {
+
+    /**
+     * BufferPool used for all BufferPool testing. This BufferPool is built in
+     * the BeforeMethod.
+     */
+    private BufferPool pool;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(BufferPoolTest.class.getName());
+
+    /**
+     * Constructs a new {@link BufferPool} with leak detection turned off.
+     */
+    @BeforeMethod
+    private void setupPool() {
+        pool = new BufferPool();
+    }
+
+    /**
+     * Tests that acquired buffers are direct, cleared and rounded up to the
+     * next size class.
+     */
+    @Test
+    public void testAcquire() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAcquire -----");
+        ByteBuffer buffer = pool.acquire(3000);
+        Assert.assertTrue(buffer.isDirect(), "Acquired buffer is not direct");
+        Assert.assertEquals(buffer.capacity(), 4096, "Acquired buffer was not rounded up to the next size class");
+        Assert.assertEquals(buffer.position(), 0, "Acquired buffer was not cleared");
+        Assert.assertEquals(buffer.limit(), buffer.capacity(), "Acquired buffer was not cleared");
+        Assert.assertEquals(pool.acquire(1).capacity(), BufferPool.MIN_BUFFER_SIZE, "Acquired buffer was not rounded up to the smallest size class");
+        Assert.assertEquals(pool.getOutstandingBuffers(), 2, "Outstanding buffers not counted correctly");
+        Assert.assertEquals(pool.getAllocatedBuffers(), 2, "Allocated buffers not counted correctly");
+        LOGGER.log(Level.INFO, "----- TEST testAcquire COMPLETED -----");
+    }
+
+    /**
+     * Tests that a released buffer is reused by the next acquire of the same
+     * size class, both from the thread cache and from the shared pool.
+     */
+    @Test
+    public void testReleaseReuse() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testReleaseReuse -----");
+        pool.enableThreadCache();
+        ByteBuffer small = pool.acquire(8192);
+        small.put((byte) 1);
+        pool.release(small);
+        Assert.assertEquals(pool.getPooledBuffers(), 0, "Small buffer was not added to the thread cache");
+        ByteBuffer reused = pool.acquire(5000);
+        Assert.assertSame(reused, small, "Released buffer was not reused from the thread cache");
+        Assert.assertEquals(reused.position(), 0, "Reused buffer was not cleared");
+        ByteBuffer large = pool.acquire(1024 * 1024);
+        pool.release(large);
+        Assert.assertEquals(pool.getPooledBuffers(), 1, "Large buffer was not added to the shared pool");
+        Assert.assertSame(pool.acquire(1024 * 1024), large, "Released buffer was not reused from the shared pool");
+        Assert.assertEquals(pool.getAllocatedBuffers(), 2, "New buffers were allocated instead of reusing released buffers");
+        Assert.assertEquals(pool.getOutstandingBuffers(), 2, "Outstanding buffers not counted correctly");
+        pool.disableThreadCache();
+        LOGGER.log(Level.INFO, "----- TEST testReleaseReuse COMPLETED -----");
+    }
+
+    /**
+     * Tests that a thread only caches buffers once it has enabled its thread
+     * cache, and that disabling the cache gives the cached buffers back to
+     * the shared pool.
+     */
+    @Test
+    public void testThreadCache() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testThreadCache -----");
+        ByteBuffer buffer = pool.acquire(BufferPool.MIN_BUFFER_SIZE);
+        pool.release(buffer);
+        Assert.assertEquals(pool.getPooledBuffers(), 1, "Buffer released without a thread cache was not added to the shared pool");
+        pool.enableThreadCache();
+        ByteBuffer first = pool.acquire(BufferPool.MIN_BUFFER_SIZE);
+        ByteBuffer second = pool.acquire(BufferPool.MIN_BUFFER_SIZE);
+        pool.release(first);
+        pool.release(second);
+        Assert.assertEquals(pool.getPooledBuffers(), 0, "Buffers were not added to the thread cache");
+        pool.disableThreadCache();
+        Assert.assertEquals(pool.getPooledBuffers(), 2, "Cached buffers were not given back to the shared pool");
+        Assert.assertEquals(pool.getOutstandingBuffers(), 0, "Outstanding buffers not counted correctly");
+        Assert.assertEquals(pool.getAllocatedBuffers(), 2, "New buffers were allocated instead of reusing released buffers");
+        LOGGER.log(Level.INFO, "----- TEST testThreadCache COMPLETED -----");
+    }
+
+    /**
+     * Tests that buffers released by one thread can be acquired by another.
+     *
+     * @throws InterruptedException if the test is interrupted while waiting
+     * for the other thread.
+     */
+    @Test
+    public void testReleaseOtherThread() throws InterruptedException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testReleaseOtherThread -----");
+        pool.enableThreadCache();
+        final ByteBuffer[] buffers = new ByteBuffer[6];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(BufferPool.MIN_BUFFER_SIZE);
+        }
+        for (ByteBuffer buffer : buffers) {
+            pool.release(buffer);
+        }
+        Assert.assertTrue(pool.getPooledBuffers() > 0, "Buffers that did not fit in the thread cache were not added to the shared pool");
+        final ByteBuffer[] acquired = new ByteBuffer[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                acquired[0] = pool.acquire(BufferPool.MIN_BUFFER_SIZE);
+            }
+        };
+        thread.start();
+        thread.join();
+        pool.disableThreadCache();
+        Assert.assertEquals(pool.getAllocatedBuffers(), buffers.length, "Buffer was not taken from the shared pool by another thread");
+        LOGGER.log(Level.INFO, "----- TEST testReleaseOtherThread COMPLETED -----");
+    }
+
+    /**
+     * Tests that buffers larger than MAX_BUFFER_SIZE are allocated to the size
+     * asked for and are not pooled once released.
+     */
+    @Test
+    public void testUnpooledBuffer() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testUnpooledBuffer -----");
+        ByteBuffer buffer = pool.acquire(BufferPool.MAX_BUFFER_SIZE + 1);
+        Assert.assertEquals(buffer.capacity(), BufferPool.MAX_BUFFER_SIZE + 1, "Unpooled buffer was not allocated to the size asked for");
+        pool.release(buffer);
+        Assert.assertEquals(pool.getPooledBuffers(), 0, "Unpooled buffer was added to the pool");
+        Assert.assertEquals(pool.getOutstandingBuffers(), 0, "Outstanding buffers not counted correctly");
+        LOGGER.log(Level.INFO, "----- TEST testUnpooledBuffer COMPLETED -----");
+    }
+
+    /**
+     * Tests that leak detection reports buffers that have not been released
+     * and ignores buffers that are released twice.
+     */
+    @Test
+    public void testLeakDetection() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testLeakDetection -----");
+        pool.setLeakDetection(true);
+        Assert.assertTrue(pool.getLeakDetection(), "Leak detection was not turned on");
+        ByteBuffer buffer1 = pool.acquire(100);
+        ByteBuffer buffer2 = pool.acquire(100);
+        Assert.assertEquals(pool.reportLeaks(), 2, "Unreleased buffers were not reported");
+        pool.release(buffer1);
+        Assert.assertEquals(pool.reportLeaks(), 1, "Released buffer was still reported");
+        pool.release(buffer1);
+        Assert.assertEquals(pool.getOutstandingBuffers(), 1, "Buffer released twice was counted twice");
+        Assert.assertNotSame(pool.acquire(100), pool.acquire(100), "Buffer released twice was handed out twice");
+        pool.release(buffer2);
+        pool.setLeakDetection(false);
+        Assert.assertEquals(pool.reportLeaks(), 0, "Buffers were still tracked after turning off leak detection");
+        LOGGER.log(Level.INFO, "----- TEST testLeakDetection COMPLETED -----");
+    }
+
+    /**
+     * Tests the {@link BufferPool}.toString() function.
+     */
+    @Test
+    public void testToString() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        pool.acquire(100);
+        String to_string = "Allocated buffers: 1\nOutstanding buffers: 1\nPooled buffers: 0\nLeak detection: false";
+        Assert.assertEquals(pool.toString(), to_string, "BufferPool string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
@@ -0,0 +1,365 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.easymock.EasyMock.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link ConnectThread} and {@link ConnectFuture} classes
+ * and the addSocketAsync function of {@link Server}.
+ *
+ * @author javu
+ */
+public class ConnectThreadTest {
+
+    /**
+     * This Server is built as a listen Server by the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server by the BeforeMethod.
+     */
+    private Server server2;
+    /**
+     * The {@link Game} class that will be built as a mock class and passed to
+     * both {@link Server} instances as a parameter of their constructors.
+     */
+    private Game game;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ConnectThreadTest.class.getName());
+
+    /**
+     * Checks the state of the specified Server. Use this when waiting for a
+     * Server to finish closing.
+     *
+     * @param server The Server to check the state of.
+     * @param state The state expected on the Server.
+     */
+    private void waitServerState(Server server, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getState() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getState(), state, "Server state was not set in time");
+    }
+
+    /**
+     * Waits until a Server holds the given number of SocketThreads.
+     *
+     * @param server The Server to check socket_list on.
+     * @param size The number of SocketThreads expected.
+     */
+    private void waitSocketListSize(Server server, int size) {
+        Timing new_timer = new Timing();
+        while (server.getSocketList().size() != size && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server.getSocketList().size(), size, "SocketThreads were not added in time");
+    }
+
+    /**
+     * Waits until the {@link ConnectThread} of a Server has no pending
+     * connections.
+     *
+     * @param server The Server to check the ConnectThread of.
+     */
+    private void waitNoPendingConnections(Server server) {
+        Timing new_timer = new Timing();
+        while (server.getConnectThread().getPendingConnections() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server.getConnectThread().getPendingConnections(), 0, "Pending connection was not closed");
+    }
+
+    /**
+     * Opens a ServerSocket that never accepts and fills its backlog, so any
+     * further connection to it is left unanswered until it times out.
+     *
+     * @param fillers list the connections filling the backlog are added to.
+     * @return the full ServerSocket.
+     * @throws IOException if the ServerSocket fails to open.
+     */
+    private ServerSocket openFullServerSocket(ArrayList<Socket> fillers) throws IOException {
+        ServerSocket full = new ServerSocket(port + 1, 1, InetAddress.getByName("127.0.0.1"));
+        boolean filled = false;
+        while (!filled && fillers.size() < 16) {
+            Socket filler = new Socket();
+            fillers.add(filler);
+            try {
+                filler.connect(new InetSocketAddress("127.0.0.1", port + 1), 200);
+            } catch (IOException e) {
+                filled = true;
+            }
+        }
+        return full;
+    }
+
+    /**
+     * Closes the ServerSocket opened by openFullServerSocket and every
+     * connection filling its backlog.
+     *
+     * @param full the full ServerSocket.
+     * @param fillers the connections filling the backlog.
+     * @throws IOException if a socket fails to close.
+     */
+    private void closeFullServerSocket(ServerSocket full, ArrayList<Socket> fillers) throws IOException {
+        for (Socket filler : fillers) {
+            filler.close();
+        }
+        full.close();
+    }
+
+    /**
+     * Sets port and constructs both {@link Server}s.
+     *
+     * @throws IOException if either {@link Server} fails to construct.
+     */
+    @BeforeMethod
+    private void setupServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        port = 22231;
+        exception = false;
+        game = createMock(Game.class);
+        server1 = new Server(game, port, true);
+        server2 = new Server(game, port, false);
+    }
+
+    /**
+     * Closes both {@link Server}s and frees up port ready for the next test.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deleteServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        if (server2.getState() != Server.CLOSED) {
+            server2.close();
+        }
+        waitServerState(server2, Server.CLOSED);
+        if (server1.getState() != Server.CLOSED) {
+            server1.close();
+        }
+        waitServerState(server1, Server.CLOSED);
+    }
+
+    /**
+     * Tests starting several connections at once with addSocketAsync and
+     * ensures each {@link ConnectFuture} returns the hash of a running
+     * {@link SocketThread}.
+     */
+    @Test
+    public void testAddSocketAsync() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAddSocketAsync -----");
+        int connections = 8;
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        ArrayList<ConnectFuture> futures = new ArrayList<ConnectFuture>();
+        try {
+            for (int i = 0; i < connections; i++) {
+                futures.add(server2.addSocketAsync("127.0.0.1", port));
+            }
+        } catch (IOException e) {
+            exception = true;
+        }
+        HashSet<String> hashes = new HashSet<String>();
+        for (ConnectFuture future : futures) {
+            try {
+                String hash = future.get(timeout, TimeUnit.MILLISECONDS);
+                Assert.assertTrue(server2.getSocketList().containsKey(hash), "SocketThread was not added to socket_list");
+                Assert.assertEquals(future.getState(), ConnectFuture.CONNECTED, "ConnectFuture state not set to CONNECTED");
+                hashes.add(hash);
+            } catch (InterruptedException | ExecutionException | java.util.concurrent.TimeoutException e) {
+                exception = true;
+            }
+        }
+        Assert.assertEquals(hashes.size(), connections, "Connections were not given unique hashes");
+        waitSocketListSize(server1, connections);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testAddSocketAsync COMPLETED -----");
+    }
+
+    /**
+     * Tests that a refused connection fails the {@link ConnectFuture} with the
+     * exception that caused it.
+     */
+    @Test
+    public void testAddSocketAsyncRefused() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAddSocketAsyncRefused -----");
+        ConnectFuture future = null;
+        try {
+            ServerSocket closed = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            int closed_port = closed.getLocalPort();
+            closed.close();
+            future = server2.addSocketAsync("127.0.0.1", closed_port);
+            future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException, "ConnectFuture failed with the wrong exception");
+        } catch (IOException | InterruptedException | java.util.concurrent.TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertNotNull(future, "ConnectFuture was not created");
+        Assert.assertEquals(future.getState(), ConnectFuture.FAILED, "ConnectFuture state not set to FAILED");
+        Assert.assertTrue(server2.getSocketList().isEmpty(), "SocketThread was added for a refused connection");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testAddSocketAsyncRefused COMPLETED -----");
+    }
+
+    /**
+     * Tests that a connection that is never answered fails with a
+     * TimeoutException once connect_timeout is reached.
+     *
+     * @throws IOException if the full ServerSocket fails to open or close.
+     */
+    @Test
+    public void testAddSocketAsyncTimeout() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAddSocketAsyncTimeout -----");
+        ArrayList<Socket> fillers = new ArrayList<Socket>();
+        ServerSocket full = openFullServerSocket(fillers);
+        ConnectFuture future = null;
+        Timing timer = new Timing();
+        try {
+            server2.setConnectTimeout(300);
+            future = server2.addSocketAsync("127.0.0.1", port + 1);
+            future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException, "ConnectFuture did not fail with a TimeoutException");
+        } catch (InvalidArgumentException | IOException | InterruptedException | java.util.concurrent.TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertTrue(timer.getTime() < timeout, "Connection was not timed out");
+        Assert.assertEquals(future.getState(), ConnectFuture.FAILED, "ConnectFuture state not set to FAILED");
+        waitNoPendingConnections(server2);
+        closeFullServerSocket(full, fillers);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testAddSocketAsyncTimeout COMPLETED -----");
+    }
+
+    /**
+     * Tests that a connection still times out while the setup of a connection
+     * that has been made is held up. The setup is held up by holding the lock
+     * on the {@link Server} it is being added to.
+     *
+     * @throws IOException if the full ServerSocket fails to open or close.
+     */
+    @Test
+    public void testTimeoutDuringSetup() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testTimeoutDuringSetup -----");
+        ArrayList<Socket> fillers = new ArrayList<Socket>();
+        ServerSocket full = openFullServerSocket(fillers);
+        ConnectFuture made = null;
+        ConnectFuture unanswered = null;
+        try {
+            server1.startThread();
+            server2.setConnectTimeout(300);
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException | InvalidArgumentException e) {
+            exception = true;
+        }
+        synchronized (server2) {
+            try {
+                made = server2.addSocketAsync("127.0.0.1", port);
+                waitSocketListSize(server1, 1);
+                unanswered = server2.addSocketAsync("127.0.0.1", port + 1);
+                unanswered.get(timeout, TimeUnit.MILLISECONDS);
+                exception = true;
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof TimeoutException, "ConnectFuture did not fail with a TimeoutException");
+            } catch (IOException | InterruptedException | java.util.concurrent.TimeoutException e) {
+                exception = true;
+            }
+            Assert.assertFalse(made.isDone(), "Connection was set up while the Server was locked");
+        }
+        try {
+            String hash = made.get(timeout, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(server2.getSocketList().containsKey(hash), "SocketThread was not added to socket_list");
+        } catch (InterruptedException | ExecutionException | java.util.concurrent.TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertEquals(unanswered.getState(), ConnectFuture.FAILED, "ConnectFuture state not set to FAILED");
+        waitNoPendingConnections(server2);
+        closeFullServerSocket(full, fillers);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testTimeoutDuringSetup COMPLETED -----");
+    }
+
+    /**
+     * Tests cancelling a connection that has not been made yet.
+     *
+     * @throws IOException if the full ServerSocket fails to open or close.
+     */
+    @Test
+    public void testCancel() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testCancel -----");
+        ArrayList<Socket> fillers = new ArrayList<Socket>();
+        ServerSocket full = openFullServerSocket(fillers);
+        ConnectFuture future = server2.addSocketAsync("127.0.0.1", port + 1);
+        Assert.assertTrue(future.cancel(false), "ConnectFuture was not cancelled");
+        Assert.assertTrue(future.isCancelled(), "ConnectFuture not flagged as cancelled");
+        Assert.assertFalse(future.cancel(false), "ConnectFuture cancelled twice");
+        try {
+            future.get();
+            exception = true;
+        } catch (CancellationException e) {
+            LOGGER.log(Level.INFO, "ConnectFuture threw CancellationException as expected");
+        } catch (InterruptedException | ExecutionException e) {
+            exception = true;
+        }
+        waitNoPendingConnections(server2);
+        closeFullServerSocket(full, fillers);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testCancel COMPLETED -----");
+    }
+
+    /**
+     * Tests the toString function of {@link ConnectFuture}.
+     */
+    @Test
+    public void testToString() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        ConnectFuture future = new ConnectFuture("127.0.0.1", port, 0);
+        String to_string = "Address: 127.0.0.1:" + port + "\nState: " + ConnectFuture.PENDING + "\nHash: null";
+        Assert.assertEquals(future.toString(), to_string, "ConnectFuture string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
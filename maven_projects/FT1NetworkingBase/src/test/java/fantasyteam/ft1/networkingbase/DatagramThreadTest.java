@@ -0,0 +1,337 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.easymock.EasyMock.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link DatagramThread} class and the unreliable channel
+ * feature of {@link Server}.
+ *
+ * @author javu
+ */
+public class DatagramThreadTest {
+
+    /**
+     * This Server is built as a listen Server by the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server by the BeforeMethod.
+     */
+    private Server server2;
+    /**
+     * The {@link Game} class that will be built as a mock class and passed to
+     * both {@link Server} instances as a parameter of their constructors.
+     */
+    private Game game;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(DatagramThreadTest.class.getName());
+
+    /**
+     * Gets the hash of the last SocketThread in the socket_list Map on Server.
+     *
+     * @param server The Server to check for the hash on.
+     * @return the String hash for the last SocketThread
+     */
+    private String getServerLastSocketHash(Server server) {
+        String server_hash = "";
+        for (SocketThread socket : server.getSocketList().values()) {
+            server_hash = socket.getHash();
+        }
+        return server_hash;
+    }
+
+    /**
+     * Ensures the socket_list attribute of Server is not empty.
+     *
+     * @param server The Server to check socket_list on.
+     */
+    private void waitSocketThreadAddNotEmpty(Server server) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (!server.getSocketList().isEmpty() || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertFalse(server.getSocketList().isEmpty(), "SocketThread was not constructed");
+    }
+
+    /**
+     * Checks the state of a SocketThread on a Server. Use this when waiting for
+     * a new SocketThread to start before continuing.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     * @param state the state expected on the SocketThread.
+     */
+    private void waitSocketThreadState(Server server, String hash, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getSocketList().get(hash).getRun() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getSocketList().get(hash).getRun(), state, "SocketThread state was not set correctly");
+    }
+
+    /**
+     * Checks the state of the specified Server. Use this when waiting for a
+     * Server to finish closing.
+     *
+     * @param server The Server to check the state of.
+     * @param state The state expected on the Server.
+     */
+    private void waitServerState(Server server, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getState() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getState(), state, "Server state was not set in time");
+    }
+
+    /**
+     * Waits until the {@link DatagramSession} of a SocketThread on a Server
+     * is bound.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     */
+    private void waitDatagramSessionBound(Server server, String hash) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            DatagramSession session = server.getSocketList().get(hash).getDatagramSession();
+            if ((session != null && session.getBound()) || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertNotNull(server.getSocketList().get(hash).getDatagramSession(), "DatagramSession was not created");
+        Assert.assertTrue(server.getSocketList().get(hash).getDatagramSession().getBound(), "DatagramSession was not bound");
+    }
+
+    /**
+     * Starts server1 listening and connects server2 to it.
+     *
+     * @return the hash of the SocketThread on server2.
+     */
+    private String connectServers() {
+        String client_hash = "";
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        return client_hash;
+    }
+
+    /**
+     * Sets port and constructs both {@link Server}s with the connection
+     * confirmation feature turned on.
+     *
+     * @throws IOException if either {@link Server} fails to construct.
+     */
+    @BeforeMethod
+    private void setupServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        port = 22229;
+        exception = false;
+        game = createMock(Game.class);
+        server1 = new Server(game, port, true);
+        server1.setUseConnectionConfirmation(true);
+        server2 = new Server(game, port, false);
+        server2.setUseConnectionConfirmation(true);
+    }
+
+    /**
+     * Closes both {@link Server}s and frees up port ready for the next test.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deleteServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        if (server2.getState() != Server.CLOSED) {
+            server2.close();
+        }
+        waitServerState(server2, Server.CLOSED);
+        if (server1.getState() != Server.CLOSED) {
+            server1.close();
+        }
+        waitServerState(server1, Server.CLOSED);
+    }
+
+    /**
+     * Tests that a {@link DatagramSession} with the same token is created and
+     * bound on both ends of a new connection.
+     *
+     * @throws IOException if the DatagramChannel fails to open.
+     */
+    @Test
+    public void testUnreliableChannelBind() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testUnreliableChannelBind -----");
+        server1.setUseUnreliableChannel(true);
+        server2.setUseUnreliableChannel(true);
+        Assert.assertEquals(server1.getDatagramThread().getPort(), port, "DatagramThread on listen Server is not using the listen port");
+        String client_hash = connectServers();
+        waitDatagramSessionBound(server2, client_hash);
+        String server_hash = getServerLastSocketHash(server1);
+        DatagramSession server_session = server1.getSocketList().get(server_hash).getDatagramSession();
+        Assert.assertNotNull(server_session, "DatagramSession was not created on listen Server");
+        Assert.assertTrue(server_session.getBound(), "DatagramSession was not bound on listen Server");
+        Assert.assertEquals(server_session.getToken(), server2.getSocketList().get(client_hash).getDatagramSession().getToken(), "DatagramSession tokens do not match");
+        server2.disconnect(client_hash);
+        Assert.assertTrue(server2.getDatagramThread().getSessions().isEmpty(), "DatagramSession was not removed on disconnect");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testUnreliableChannelBind COMPLETED -----");
+    }
+
+    /**
+     * Tests sending actions through the unreliable channel in both directions
+     * and ensures they are received and passed to the {@link Game}.
+     *
+     * @throws IOException if the DatagramChannel fails to open.
+     */
+    @Test
+    public void testSendActionUnreliable() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendActionUnreliable -----");
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        parameters.add("PARAM1");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        expectLastCall().times(2);
+        replay(game);
+        server1.setUseUnreliableChannel(true);
+        server2.setUseUnreliableChannel(true);
+        String client_hash = connectServers();
+        waitDatagramSessionBound(server2, client_hash);
+        String server_hash = getServerLastSocketHash(server1);
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("PARAM1");
+        server2.sendActionUnreliable("ACTION", action_parameters, client_hash);
+        server1.sendActionUnreliable("ACTION", action_parameters, server_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(200);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSendActionUnreliable COMPLETED -----");
+    }
+
+    /**
+     * Tests sending actions through the reliable channel and ensures they are
+     * received and passed to the {@link Game} in the order they were sent.
+     *
+     * @throws IOException if the DatagramChannel fails to open.
+     */
+    @Test
+    public void testSendActionReliable() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendActionReliable -----");
+        checkOrder(game, true);
+        for (int i = 0; i < 3; i++) {
+            ArrayList<String> parameters = new ArrayList<String>();
+            parameters.add("ACTION");
+            parameters.add("PARAM" + i);
+            game.handleAction(eq(parameters), anyObject(String.class));
+        }
+        replay(game);
+        server1.setUseUnreliableChannel(true);
+        server2.setUseUnreliableChannel(true);
+        String client_hash = connectServers();
+        for (int i = 0; i < 3; i++) {
+            ArrayList<String> action_parameters = new ArrayList<String>();
+            action_parameters.add("PARAM" + i);
+            server2.sendActionReliable("ACTION", action_parameters, client_hash);
+        }
+        waitDatagramSessionBound(server2, client_hash);
+        ReliableChannel reliable = server2.getSocketList().get(client_hash).getDatagramSession().getReliableChannel();
+        Timing new_timer = new Timing();
+        while (reliable.getUnacknowledged() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(reliable.getUnacknowledged(), 0, "Reliable messages were not acknowledged");
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSendActionReliable COMPLETED -----");
+    }
+
+    /**
+     * Tests that unreliable actions are sent through the connection when the
+     * listen {@link Server} does not use the unreliable channel feature.
+     *
+     * @throws IOException if the DatagramChannel fails to open.
+     */
+    @Test
+    public void testSendActionUnreliableFallback() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendActionUnreliableFallback -----");
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        parameters.add("PARAM1");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        server2.setUseUnreliableChannel(true);
+        String client_hash = connectServers();
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("PARAM1");
+        server2.sendActionUnreliable("ACTION", action_parameters, client_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(200);
+        verify(game);
+        Assert.assertNull(server2.getSocketList().get(client_hash).getDatagramSession(), "DatagramSession was created without the listen Server using the feature");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSendActionUnreliableFallback COMPLETED -----");
+    }
+
+    /**
+     * Tests the {@link DatagramThread}.toString() function.
+     *
+     * @throws IOException if the DatagramChannel fails to open.
+     */
+    @Test
+    public void testToString() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        server1.setUseUnreliableChannel(true);
+        String to_string = "State: " + server1.getDatagramThread().getRun() + "\nPort: " + port + "\nSessions: 0";
+        Assert.assertEquals(server1.getDatagramThread().toString(), to_string, "DatagramThread string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
@@ -0,0 +1,396 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.HashNotFoundException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.easymock.EasyMock.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link FileTransfer} and {@link FileTransferThread}
+ * classes and the file transfer feature of {@link Server}.
+ *
+ * @author javu
+ */
+public class FileTransferTest {
+
+    /**
+     * This Server is built as a listen Server by the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server by the BeforeMethod.
+     */
+    private Server server2;
+    /**
+     * The {@link Game} class that will be built as a mock class and passed to
+     * both {@link Server} instances as a parameter of their constructors.
+     */
+    private Game game;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * Directory holding the file sent in each test.
+     */
+    private File source_directory;
+    /**
+     * Directory files are received into.
+     */
+    private File target_directory;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(FileTransferTest.class.getName());
+
+    /**
+     * Gets the hash of the last SocketThread in the socket_list Map on Server.
+     *
+     * @param server The Server to check for the hash on.
+     * @return the String hash for the last SocketThread
+     */
+    private String getServerLastSocketHash(Server server) {
+        String server_hash = "";
+        for (SocketThread socket : server.getSocketList().values()) {
+            server_hash = socket.getHash();
+        }
+        return server_hash;
+    }
+
+    /**
+     * Ensures the socket_list attribute of Server is not empty.
+     *
+     * @param server The Server to check socket_list on.
+     */
+    private void waitSocketThreadAddNotEmpty(Server server) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (!server.getSocketList().isEmpty() || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertFalse(server.getSocketList().isEmpty(), "SocketThread was not constructed");
+    }
+
+    /**
+     * Checks the state of a SocketThread on a Server. Use this when waiting for
+     * a new SocketThread to start before continuing.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     * @param state the state expected on the SocketThread.
+     */
+    private void waitSocketThreadState(Server server, String hash, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getSocketList().get(hash).getRun() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getSocketList().get(hash).getRun(), state, "SocketThread state was not set correctly");
+    }
+
+    /**
+     * Checks the state of the specified Server. Use this when waiting for a
+     * Server to finish closing.
+     *
+     * @param server The Server to check the state of.
+     * @param state The state expected on the Server.
+     */
+    private void waitServerState(Server server, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getState() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getState(), state, "Server state was not set in time");
+    }
+
+    /**
+     * Waits until a Server has no unfinished {@link FileTransfer}s.
+     *
+     * @param server The Server to check the file transfers of.
+     */
+    private void waitFileTransfersFinished(Server server) {
+        Timing new_timer = new Timing();
+        while (!server.getFileTransfers().isEmpty() && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertTrue(server.getFileTransfers().isEmpty(), "File transfer did not finish in time");
+    }
+
+    /**
+     * Waits until a file has been received and renamed from its temporary
+     * file.
+     *
+     * @param file the file expected to be received.
+     */
+    private void waitFileExists(File file) {
+        Timing new_timer = new Timing();
+        while (!file.exists() && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertTrue(file.exists(), "File was not received in time");
+    }
+
+    /**
+     * Starts server1 listening and connects server2 to it.
+     *
+     * @return the hash of the SocketThread on server2.
+     */
+    private String connectServers() {
+        String client_hash = "";
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        return client_hash;
+    }
+
+    /**
+     * Writes a file of random bytes into source_directory.
+     *
+     * @param name the name of the file.
+     * @param length the number of bytes to write.
+     * @return the contents of the file.
+     * @throws IOException if the file fails to write.
+     */
+    private byte[] createFile(String name, int length) throws IOException {
+        byte[] contents = new byte[length];
+        new Random(length).nextBytes(contents);
+        Files.write(new File(source_directory, name).toPath(), contents);
+        return contents;
+    }
+
+    /**
+     * Deletes a directory and every file in it.
+     *
+     * @param directory the directory to delete.
+     */
+    private void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * Sets port, creates the temporary directories and constructs both
+     * {@link Server}s with the connection confirmation and file transfer
+     * features turned on.
+     *
+     * @throws IOException if either {@link Server} fails to construct.
+     */
+    @BeforeMethod
+    private void setupServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        port = 22230;
+        exception = false;
+        source_directory = Files.createTempDirectory("ft1source").toFile();
+        target_directory = Files.createTempDirectory("ft1target").toFile();
+        game = createMock(Game.class);
+        server1 = new Server(game, port, true);
+        server1.setUseConnectionConfirmation(true);
+        server1.setUseFileTransfer(true);
+        server2 = new Server(game, port, false);
+        server2.setUseConnectionConfirmation(true);
+        server2.setUseFileTransfer(true);
+    }
+
+    /**
+     * Closes both {@link Server}s, frees up port ready for the next test and
+     * deletes the temporary directories.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deleteServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        if (server2.getState() != Server.CLOSED) {
+            server2.close();
+        }
+        waitServerState(server2, Server.CLOSED);
+        if (server1.getState() != Server.CLOSED) {
+            server1.close();
+        }
+        waitServerState(server1, Server.CLOSED);
+        deleteDirectory(source_directory);
+        deleteDirectory(target_directory);
+    }
+
+    /**
+     * Tests sending a file larger than CHUNK_SIZE from the listen
+     * {@link Server} to the client and ensures the {@link Game} is told on
+     * both ends.
+     *
+     * @throws IOException if the file fails to write or read.
+     */
+    @Test
+    public void testSendFile() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendFile -----");
+        File target = new File(target_directory, "map.dat");
+        game.handleAction(eq(Arrays.asList(Server.FILE_SENT, "map.dat")), anyObject(String.class));
+        game.handleAction(eq(Arrays.asList(Server.FILE_RECEIVED, "map.dat", target.getPath())), anyObject(String.class));
+        replay(game);
+        server2.setFileDirectory(target_directory.getPath());
+        byte[] contents = createFile("map.dat", (int) FileTransfer.CHUNK_SIZE * 3 + 17);
+        connectServers();
+        FileTransfer transfer = null;
+        try {
+            transfer = server1.sendFile(getServerLastSocketHash(server1), new File(source_directory, "map.dat").getPath());
+        } catch (FeatureNotUsedException | HashNotFoundException e) {
+            exception = true;
+        }
+        waitFileExists(target);
+        waitFileTransfersFinished(server2);
+        waitFileTransfersFinished(server1);
+        Assert.assertNotNull(transfer, "FileTransfer was not created");
+        Assert.assertEquals(transfer.getRun(), FileTransfer.COMPLETE, "FileTransfer did not complete");
+        Assert.assertEquals(transfer.getTransferred(), contents.length, "Transferred bytes not counted correctly");
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), contents), "Received file does not match the sent file");
+        Assert.assertFalse(new File(target.getPath() + FileTransfer.PART_SUFFIX).exists(), "Temporary file was not renamed");
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSendFile COMPLETED -----");
+    }
+
+    /**
+     * Tests that a file is resumed from the end of a temporary file left by an
+     * earlier attempt, and that only the rest of the file is sent.
+     *
+     * @throws IOException if the file fails to write or read.
+     */
+    @Test
+    public void testResumeFile() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testResumeFile -----");
+        game.handleAction(anyObject(ArrayList.class), anyObject(String.class));
+        expectLastCall().times(2);
+        replay(game);
+        server1.setFileDirectory(target_directory.getPath());
+        byte[] contents = createFile("sprite.png", 200000);
+        File target = new File(target_directory, "sprite.png");
+        Files.write(new File(target.getPath() + FileTransfer.PART_SUFFIX).toPath(), Arrays.copyOf(contents, 150000));
+        String client_hash = connectServers();
+        FileTransfer transfer = null;
+        try {
+            transfer = server2.sendFile(client_hash, new File(source_directory, "sprite.png").getPath());
+        } catch (FeatureNotUsedException | HashNotFoundException e) {
+            exception = true;
+        }
+        waitFileExists(target);
+        waitFileTransfersFinished(server1);
+        waitFileTransfersFinished(server2);
+        Assert.assertNotNull(transfer, "FileTransfer was not created");
+        Assert.assertEquals(transfer.getRun(), FileTransfer.COMPLETE, "FileTransfer did not complete");
+        Assert.assertEquals(transfer.getOffset(), 150000, "FileTransfer did not resume from the end of the temporary file");
+        Assert.assertEquals(transfer.getTransferred(), 50000, "More than the rest of the file was sent");
+        Assert.assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), contents), "Resumed file does not match the sent file");
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testResumeFile COMPLETED -----");
+    }
+
+    /**
+     * Tests that a file offered to a {@link Server} with no file directory set
+     * is rejected and the sending transfer fails.
+     *
+     * @throws IOException if the file fails to write.
+     */
+    @Test
+    public void testRejectFile() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testRejectFile -----");
+        game.handleAction(eq(Arrays.asList(Server.FILE_FAILED, "map.dat")), anyObject(String.class));
+        replay(game);
+        createFile("map.dat", 1000);
+        String client_hash = connectServers();
+        FileTransfer transfer = null;
+        try {
+            transfer = server2.sendFile(client_hash, new File(source_directory, "map.dat").getPath());
+        } catch (FeatureNotUsedException | HashNotFoundException e) {
+            exception = true;
+        }
+        waitFileTransfersFinished(server2);
+        Assert.assertNotNull(transfer, "FileTransfer was not created");
+        Assert.assertEquals(transfer.getRun(), FileTransfer.FAILED, "Rejected FileTransfer was not failed");
+        Assert.assertEquals(target_directory.list().length, 0, "Rejected file was written");
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testRejectFile COMPLETED -----");
+    }
+
+    /**
+     * Tests that sendFile throws a FeatureNotUsedException when the file
+     * transfer feature is not in use.
+     *
+     * @throws IOException if the file fails to write.
+     */
+    @Test
+    public void testSendFileFeatureNotUsed() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendFileFeatureNotUsed -----");
+        createFile("map.dat", 1000);
+        String client_hash = connectServers();
+        server2.setUseFileTransfer(false);
+        Assert.assertNull(server2.getFileTransferThread(), "FileTransferThread was not removed");
+        try {
+            server2.sendFile(client_hash, new File(source_directory, "map.dat").getPath());
+        } catch (FeatureNotUsedException e) {
+            exception = true;
+        } catch (HashNotFoundException e) {
+            LOGGER.log(Level.INFO, e.getMessage());
+        }
+        Assert.assertTrue(exception, "FeatureNotUsedException not thrown");
+        LOGGER.log(Level.INFO, "----- TEST testSendFileFeatureNotUsed COMPLETED -----");
+    }
+
+    /**
+     * Tests the {@link FileTransfer}.toString() function.
+     */
+    @Test
+    public void testToString() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        FileTransfer transfer = new FileTransfer(server1, 5, "HASH", new File(source_directory, "map.dat"));
+        String to_string = "Id: 5\nHash: HASH\nFile: map.dat\nDirection: " + FileTransfer.SEND + "\nState: " + FileTransfer.NEW + "\nOffset: 0\nTransferred: 0\nLength: 0";
+        Assert.assertEquals(transfer.toString(), to_string, "FileTransfer string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
@@ -0,0 +1,308 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.easymock.EasyMock.*;
+import org.easymock.IAnswer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the heartbeat feature of {@link Server}, covering the
+ * {@link HeartbeatDetector} and {@link HeartbeatThread} classes.
+ *
+ * @author javu
+ */
+public class HeartbeatTest {
+
+    /**
+     * This Server is built as a listen Server by the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server by the BeforeMethod.
+     */
+    private Server server2;
+    /**
+     * The {@link Game} class that will be built as a mock class and passed to
+     * both {@link Server} instances as a parameter of their constructors.
+     */
+    private Game game;
+    /**
+     * Counts the actions passed to game.
+     */
+    private AtomicInteger actions;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(HeartbeatTest.class.getName());
+
+    /**
+     * Checks the state of the specified Server. Use this when waiting for a
+     * Server to finish closing.
+     *
+     * @param server The Server to check the state of.
+     * @param state The state expected on the Server.
+     */
+    private void waitServerState(Server server, int state) {
+        Timing new_timer = new Timing();
+        while (server.getState() != state && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server.getState(), state, "Server state was not set in time");
+    }
+
+    /**
+     * Waits until every {@link SocketThread} on a Server is confirmed and has
+     * received a heartbeat.
+     *
+     * @param server The Server to check socket_list on.
+     */
+    private void waitHeartbeatActive(Server server) {
+        Timing new_timer = new Timing();
+        boolean active = false;
+        while (!active && new_timer.getTime() < timeout) {
+            active = !server.getSocketList().isEmpty();
+            for (SocketThread socket : server.getSocketList().values()) {
+                if (socket.getRun() != SocketThread.CONFIRMED || !socket.getHeartbeatDetector().isActive()) {
+                    active = false;
+                }
+            }
+            new_timer.waitTime(5);
+        }
+        Assert.assertTrue(active, "Heartbeats were not received");
+    }
+
+    /**
+     * Connects server2 to server1 and returns the hash of the connection on
+     * server2.
+     *
+     * @return the hash of the {@link SocketThread} on server2.
+     */
+    private String connect() {
+        String hash = "";
+        try {
+            server1.startThread();
+            hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException | TimeoutException e) {
+            exception = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Sets port and constructs both {@link Server}s.
+     *
+     * @throws IOException if either {@link Server} fails to construct.
+     */
+    @BeforeMethod
+    private void setupServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        port = 22233;
+        exception = false;
+        actions = new AtomicInteger(0);
+        game = createMock(Game.class);
+        game.handleAction(anyObject(List.class), anyObject(String.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                actions.incrementAndGet();
+                return null;
+            }
+        }).anyTimes();
+        replay(game);
+        server1 = new Server(game, port, true);
+        server2 = new Server(game, port, false);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+    }
+
+    /**
+     * Closes both {@link Server}s and frees up port ready for the next test.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deleteServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        if (server2.getState() != Server.CLOSED) {
+            server2.close();
+        }
+        waitServerState(server2, Server.CLOSED);
+        if (server1.getState() != Server.CLOSED) {
+            server1.close();
+        }
+        waitServerState(server1, Server.CLOSED);
+    }
+
+    /**
+     * Tests that phi stays low while heartbeats arrive on time, rises quickly
+     * once they stop and is reset by any message received.
+     */
+    @Test
+    public void testHeartbeatDetectorPhi() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testHeartbeatDetectorPhi -----");
+        HeartbeatDetector detector = new HeartbeatDetector();
+        Assert.assertFalse(detector.isActive(), "HeartbeatDetector active before a heartbeat was received");
+        Assert.assertEquals(detector.phi(100000, 100), 0.0, "Inactive HeartbeatDetector returned a phi above 0");
+        long now = 1000;
+        for (int i = 0; i < 20; i++) {
+            detector.heartbeat(now);
+            now += 95 + (i % 3) * 5;
+        }
+        Assert.assertTrue(detector.isActive(), "HeartbeatDetector not active after heartbeats were received");
+        Assert.assertEquals(detector.getIntervals(), 19, "Heartbeat intervals not recorded");
+        double on_time = detector.phi(now, 100);
+        double late = detector.phi(now + 300, 100);
+        Assert.assertTrue(on_time < 1, "Phi too high for a heartbeat on time: " + on_time);
+        Assert.assertTrue(late > 8, "Phi too low after missing several heartbeats: " + late);
+        detector.messageReceived(now + 300);
+        Assert.assertTrue(detector.phi(now + 300, 100) < 1, "Phi not reset by a received message");
+        LOGGER.log(Level.INFO, "----- TEST testHeartbeatDetectorPhi COMPLETED -----");
+    }
+
+    /**
+     * Tests that the {@link HeartbeatDetector} only keeps the last
+     * WINDOW_SIZE intervals.
+     */
+    @Test
+    public void testHeartbeatDetectorWindow() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testHeartbeatDetectorWindow -----");
+        HeartbeatDetector detector = new HeartbeatDetector();
+        long now = 0;
+        for (int i = 0; i <= HeartbeatDetector.WINDOW_SIZE; i++) {
+            detector.heartbeat(now);
+            now += 1000;
+        }
+        for (int i = 0; i <= HeartbeatDetector.WINDOW_SIZE; i++) {
+            detector.heartbeat(now);
+            now += 50;
+        }
+        Assert.assertEquals(detector.getIntervals(), HeartbeatDetector.WINDOW_SIZE, "Window size not kept");
+        Assert.assertEquals(detector.getMeanInterval(), 50.0, 0.001, "Old intervals not removed from the window");
+        LOGGER.log(Level.INFO, "----- TEST testHeartbeatDetectorWindow COMPLETED -----");
+    }
+
+    /**
+     * Tests that a connection whose remote {@link Server} stops sending
+     * heartbeats is moved to the disconnected sockets list within a second,
+     * and that heartbeats are never passed to the {@link Game}.
+     */
+    @Test
+    public void testHeartbeatDisconnect() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testHeartbeatDisconnect -----");
+        server1.setUseDisconnectedSockets(true);
+        try {
+            server1.setUseHeartbeat(true);
+            server2.setUseHeartbeat(true);
+        } catch (SocketException e) {
+            exception = true;
+        }
+        Assert.assertNotNull(server1.getHeartbeatThread(), "HeartbeatThread was not started");
+        connect();
+        waitHeartbeatActive(server1);
+        waitHeartbeatActive(server2);
+        String server_hash = server1.getSocketList().keySet().iterator().next();
+        try {
+            server2.setUseHeartbeat(false);
+        } catch (SocketException e) {
+            exception = true;
+        }
+        Assert.assertNull(server2.getHeartbeatThread(), "HeartbeatThread was not closed");
+        Timing timer = new Timing();
+        while (!server1.getDisconnectedSockets().contains(server_hash) && timer.getTime() < timeout) {
+            timer.waitTime(5);
+        }
+        long detected = timer.getTime();
+        Assert.assertTrue(server1.getDisconnectedSockets().contains(server_hash), "Socket was not moved to disconnected_sockets");
+        Assert.assertTrue(detected < 1000, "Lost heartbeat was not detected in time: " + detected);
+        Assert.assertEquals(actions.get(), 0, "Heartbeats were passed to the Game");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testHeartbeatDisconnect COMPLETED -----");
+    }
+
+    /**
+     * Tests that a connection to a {@link Server} that does not use the
+     * heartbeat feature is never disconnected by it.
+     */
+    @Test
+    public void testHeartbeatRemoteNotUsed() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testHeartbeatRemoteNotUsed -----");
+        try {
+            server1.setUseHeartbeat(true);
+        } catch (SocketException e) {
+            exception = true;
+        }
+        String client_hash = connect();
+        waitHeartbeatActive(server2);
+        Timing timer = new Timing();
+        timer.waitTime(500);
+        Assert.assertEquals(server1.getSocketList().size(), 1, "Connection without heartbeats was disconnected");
+        Assert.assertFalse(server1.getSocketList().values().iterator().next().getHeartbeatDetector().isActive(), "HeartbeatDetector active without heartbeats");
+        Assert.assertTrue(server2.getSocketList().containsKey(client_hash), "Connection was closed");
+        Assert.assertEquals(actions.get(), 0, "Heartbeats were passed to the Game");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testHeartbeatRemoteNotUsed COMPLETED -----");
+    }
+
+    /**
+     * Tests the heartbeat setters and that turning the feature on turns the
+     * socket timeout feature off.
+     */
+    @Test
+    public void testHeartbeatSettings() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testHeartbeatSettings -----");
+        try {
+            server1.setUseSocketTimeout(true);
+            server1.setUseHeartbeat(true);
+            server1.setHeartbeatInterval(50);
+            server1.setHeartbeatThreshold(4.5);
+        } catch (SocketException | InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertTrue(server1.getUseHeartbeat(), "Use heartbeat not set to true");
+        Assert.assertFalse(server1.getUseSocketTimeout(), "Socket timeout feature not turned off");
+        Assert.assertEquals(server1.getHeartbeatInterval(), 50, "Heartbeat interval not set");
+        Assert.assertEquals(server1.getHeartbeatThreshold(), 4.5, "Heartbeat threshold not set");
+        try {
+            server1.setHeartbeatInterval(0);
+            exception = true;
+        } catch (InvalidArgumentException e) {
+            LOGGER.log(Level.INFO, "Invalid heartbeat interval rejected as expected");
+        }
+        try {
+            server1.setHeartbeatThreshold(0);
+            exception = true;
+        } catch (InvalidArgumentException e) {
+            LOGGER.log(Level.INFO, "Invalid heartbeat threshold rejected as expected");
+        }
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testHeartbeatSettings COMPLETED -----");
+    }
+}
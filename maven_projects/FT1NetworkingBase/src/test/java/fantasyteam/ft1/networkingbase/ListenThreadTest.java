@@ -3,9 +3,12 @@ package fantasyteam.ft1.networkingbase;
 import fantasyteam.ft1.Game;
 import fantasyteam.ft1.Timing;
 import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
 import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.easymock.EasyMock;
@@ -153,6 +156,87 @@ public class ListenThreadTest {
         LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
     }
 
+    /**
+     * Tests that many clients connecting at once are accepted by multiple
+     * acceptor threads and set up, and that the time from accepting each
+     * connection to it being ready is measured.
+     *
+     * @throws IOException if the client {@link Server} fails to connect.
+     */
+    @Test
+    public void testMultipleAcceptors() throws IOException, ServerSocketCloseException, TimeoutException, FeatureNotUsedException, InvalidArgumentException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMultipleAcceptors -----");
+        server.setListenBacklog(128);
+        server.setAcceptorCount(4);
+        server.setListenThread();
+        server.startThread();
+        waitListenThreadStart(server);
+        Assert.assertEquals(server.getListenThread().getBacklog(), 128, "ListenThread did not use the listen backlog");
+        Server client = new Server(EasyMock.createMock(Game.class), port, false);
+        for (int i = 0; i < 16; i++) {
+            client.addSocket("127.0.0.1", port);
+        }
+        Timing new_timer = new Timing();
+        while (server.getListenThread().getReadyConnections() < 16 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        ListenThread listen_thread = server.getListenThread();
+        Assert.assertEquals(listen_thread.getAcceptorCount(), 4, "Acceptor threads were not started");
+        Assert.assertEquals(listen_thread.getReadyConnections(), 16, "Not every connection was set up");
+        Assert.assertEquals(server.getSocketList().size(), 16, "Not every connection was added to socket_list");
+        Assert.assertEquals(listen_thread.getPendingConnections(), 0, "Connections were left waiting to be set up");
+        Assert.assertTrue(listen_thread.getMaxReadyLatency() >= listen_thread.getAverageReadyLatency(), "Ready latency not measured correctly");
+        client.close();
+        LOGGER.log(Level.INFO, "----- TEST testMultipleAcceptors COMPLETED -----");
+    }
+
+    /**
+     * Tests listening on a Unix domain socket. Ensures clients connect through
+     * it, a second {@link ListenThread} cannot bind the same path while it is
+     * in use, a stale socket file is replaced and the socket file is deleted
+     * when the {@link ListenThread} is closed.
+     *
+     * @throws IOException if the client {@link Server} fails to connect.
+     */
+    @Test
+    public void testUnixDomainSocket() throws IOException, ServerSocketCloseException, TimeoutException, FeatureNotUsedException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testUnixDomainSocket -----");
+        Path directory = Files.createTempDirectory("ft1");
+        Path path = directory.resolve("listen.sock");
+        Files.createFile(path);
+        server.setUnixDomainPath(path.toString());
+        server.setListenThread();
+        server.startThread();
+        waitListenThreadStart(server);
+        ListenThread listen_thread = server.getListenThread();
+        Assert.assertEquals(listen_thread.getUnixDomainPath(), path.toString(), "ListenThread not using the Unix domain path");
+        Assert.assertNull(listen_thread.getServerSocket(), "ServerSocket opened for a Unix domain socket");
+        Assert.assertNotNull(listen_thread.getServerChannel(), "Stale socket file was not replaced");
+        Server client = new Server(EasyMock.createMock(Game.class), port, false);
+        for (int i = 0; i < 4; i++) {
+            client.addUnixDomainSocket(path.toString());
+        }
+        Timing new_timer = new Timing();
+        while (listen_thread.getReadyConnections() < 4 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server.getSocketList().size(), 4, "Not every connection was added to socket_list");
+        Server second = new Server(EasyMock.createMock(Game.class), port + 100, true);
+        boolean in_use = false;
+        try {
+            second.setUnixDomainPath(path.toString());
+        } catch (IOException e) {
+            in_use = true;
+        }
+        Assert.assertTrue(in_use, "Second ListenThread bound a Unix domain socket that is in use");
+        second.close();
+        client.close();
+        listen_thread.close();
+        Assert.assertFalse(Files.exists(path), "Socket file not deleted when the ListenThread was closed");
+        Files.deleteIfExists(directory);
+        LOGGER.log(Level.INFO, "----- TEST testUnixDomainSocket COMPLETED -----");
+    }
+
     /**
      * Tests the {@link ListenThread}.toString() function. Check the output from
      * LOGGER to assess human readability.
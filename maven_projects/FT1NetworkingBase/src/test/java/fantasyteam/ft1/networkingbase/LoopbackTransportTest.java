@@ -0,0 +1,246 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link LoopbackTransport} class.
+ *
+ * @author javu
+ */
+public class LoopbackTransportTest {
+
+    /**
+     * The first end of the connection built by the BeforeMethod.
+     */
+    private LoopbackTransport transport1;
+    /**
+     * The second end of the connection built by the BeforeMethod.
+     */
+    private LoopbackTransport transport2;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(LoopbackTransportTest.class.getName());
+
+    /**
+     * Builds a connected pair of {@link LoopbackTransport}s with a small
+     * buffer so tests can fill it.
+     */
+    @BeforeMethod
+    private void setupTransport() {
+        exception = false;
+        LoopbackTransport[] transports = LoopbackTransport.createPair(16);
+        transport1 = transports[0];
+        transport2 = transports[1];
+    }
+
+    /**
+     * Closes both ends of the connection.
+     */
+    @AfterMethod
+    private void deleteTransport() {
+        transport1.close();
+        transport2.close();
+    }
+
+    /**
+     * Tests that bytes written to one end are read from the other in both
+     * directions, including when they wrap around the end of the buffer.
+     */
+    @Test
+    public void testReadWrite() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testReadWrite -----");
+        ByteBuffer read = ByteBuffer.allocate(16);
+        try {
+            for (int i = 0; i < 10; i++) {
+                byte[] bytes = {(byte) i, (byte) (i + 1), (byte) (i + 2), (byte) (i + 3), (byte) (i + 4), (byte) (i + 5), (byte) (i + 6)};
+                Assert.assertEquals(transport1.write(ByteBuffer.wrap(bytes)), bytes.length, "Not every byte was written");
+                Assert.assertEquals(transport2.available(), bytes.length, "Bytes written not available to read");
+                read.clear();
+                Assert.assertEquals(transport2.read(read), bytes.length, "Not every byte was read");
+                read.flip();
+                byte[] received = new byte[read.remaining()];
+                read.get(received);
+                Assert.assertEquals(received, bytes, "Bytes read did not match bytes written");
+            }
+            transport2.write(ByteBuffer.wrap(new byte[]{42}));
+            read.clear();
+            Assert.assertEquals(transport1.read(read), 1, "Byte not read in the other direction");
+            Assert.assertEquals(read.get(0), 42, "Byte read did not match byte written");
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertEquals(transport1.getRemoteAddress(), InetAddress.getLoopbackAddress(), "Remote address not the loopback address");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testReadWrite COMPLETED -----");
+    }
+
+    /**
+     * Tests that a write larger than the buffer blocks until the remote end
+     * has read enough bytes, and that every byte arrives in order.
+     */
+    @Test
+    public void testWriteBlocksWhenFull() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testWriteBlocksWhenFull -----");
+        final byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        final AtomicInteger written = new AtomicInteger(0);
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    written.set(transport1.write(ByteBuffer.wrap(bytes)));
+                } catch (IOException e) {
+                    written.set(-1);
+                }
+            }
+        };
+        writer.start();
+        Timing new_timer = new Timing();
+        while (transport2.available() < 16 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(written.get(), 0, "Write did not block while the buffer was full");
+        ByteBuffer read = ByteBuffer.allocate(bytes.length);
+        try {
+            while (read.hasRemaining()) {
+                transport2.read(read);
+            }
+            writer.join(timeout);
+        } catch (IOException | InterruptedException e) {
+            exception = true;
+        }
+        Assert.assertEquals(written.get(), bytes.length, "Write did not finish once bytes were read");
+        Assert.assertEquals(read.array(), bytes, "Bytes read did not match bytes written");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testWriteBlocksWhenFull COMPLETED -----");
+    }
+
+    /**
+     * Tests that a read blocks for no longer than the read timeout and throws
+     * a SocketTimeoutException.
+     */
+    @Test
+    public void testReadTimeout() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testReadTimeout -----");
+        transport1.setReadTimeout(100);
+        boolean timed_out = false;
+        Timing new_timer = new Timing();
+        try {
+            transport1.read(ByteBuffer.allocate(16));
+        } catch (SocketTimeoutException e) {
+            timed_out = true;
+        } catch (IOException e) {
+            exception = true;
+        }
+        long time = new_timer.getTime();
+        Assert.assertTrue(timed_out, "SocketTimeoutException not thrown");
+        Assert.assertTrue(time >= 100 && time < timeout, "Read did not block for the read timeout: " + time);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testReadTimeout COMPLETED -----");
+    }
+
+    /**
+     * Tests that once one end is closed the other end reads the bytes left
+     * followed by the end of the stream, that writing to it fails and that a
+     * read blocked on the closed end is woken up.
+     */
+    @Test
+    public void testClose() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testClose -----");
+        final AtomicInteger result = new AtomicInteger(0);
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    transport1.read(ByteBuffer.allocate(16));
+                    result.set(1);
+                } catch (IOException e) {
+                    result.set(-1);
+                }
+            }
+        };
+        ByteBuffer read = ByteBuffer.allocate(16);
+        try {
+            transport1.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+            reader.start();
+            Timing new_timer = new Timing();
+            new_timer.waitTime(50);
+            transport1.close();
+            reader.join(timeout);
+            Assert.assertFalse(transport1.isOpen(), "Closed LoopbackTransport still open");
+            Assert.assertTrue(transport2.isOpen(), "Remote LoopbackTransport closed");
+            Assert.assertEquals(transport2.read(read), 3, "Bytes left were not read");
+            Assert.assertEquals(transport2.read(read), -1, "End of stream not read");
+        } catch (IOException | InterruptedException e) {
+            exception = true;
+        }
+        Assert.assertEquals(result.get(), -1, "Blocked read was not woken up by close");
+        boolean write_failed = false;
+        try {
+            transport2.write(ByteBuffer.wrap(new byte[]{4}));
+        } catch (IOException e) {
+            write_failed = true;
+        }
+        Assert.assertTrue(write_failed, "Write to a closed LoopbackTransport succeeded");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testClose COMPLETED -----");
+    }
+
+    /**
+     * Tests that two {@link Sock}s built on a pair of
+     * {@link LoopbackTransport}s exchange messages using every framing.
+     */
+    @Test
+    public void testSock() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSock -----");
+        LoopbackTransport[] transports = LoopbackTransport.createPair();
+        Sock sock1 = new Sock(transports[0]);
+        Sock sock2 = new Sock(transports[1]);
+        try {
+            sock1.sendMessage("TEXT MESSAGE");
+            Assert.assertEquals(sock2.readMessage(), "TEXT MESSAGE", "TEXT framed message not received");
+            sock1.setWriteFraming(Sock.BINARY);
+            sock2.setReadFraming(Sock.BINARY);
+            sock1.sendMessage("LINE1\nLINE2");
+            Assert.assertEquals(sock2.readMessage(), "LINE1\nLINE2", "BINARY framed message not received");
+            sock2.sendMessage("REPLY");
+            Assert.assertEquals(sock1.readMessage(), "REPLY", "Reply not received");
+            Assert.assertEquals(sock1.getRemoteAddress(), InetAddress.getLoopbackAddress(), "Remote address not the loopback address");
+            sock1.close();
+            Assert.assertNull(sock2.readMessage(), "End of stream not read after remote Sock was closed");
+            sock2.close();
+        } catch (IOException | InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertNull(sock1.getTransport(), "Transport not released on close");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSock COMPLETED -----");
+    }
+}
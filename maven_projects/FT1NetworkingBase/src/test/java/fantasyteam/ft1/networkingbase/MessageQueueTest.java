@@ -3,14 +3,19 @@ package fantasyteam.ft1.networkingbase;
 import fantasyteam.ft1.Game;
 import fantasyteam.ft1.Timing;
 import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.HashNotFoundException;
 import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import fantasyteam.ft1.networkingbase.exceptions.NullException;
 import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
 import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -33,6 +38,11 @@ public class MessageQueueTest {
      * Server to create new connections to port for testing.
      */
     private Server server2;
+    /**
+     * Mock of the Game used by both {@link Server}s, built by the
+     * BeforeMethod.
+     */
+    private Game game;
     /**
      * Port number used to listen on.
      */
@@ -204,7 +214,7 @@ public class MessageQueueTest {
     private void setupQueue() throws IOException, ServerSocketCloseException, TimeoutException, FeatureNotUsedException {
         port = 22222;
         exception = false;
-        Game game = EasyMock.createMock(Game.class);
+        game = EasyMock.createMock(Game.class);
         LOGGER.log(Level.INFO, "Building Server1");
         server1 = new Server(game, port, true);
         LOGGER.log(Level.INFO, "Building Server2");
@@ -383,6 +393,639 @@ public class MessageQueueTest {
         LOGGER.log(Level.INFO, "----- TEST testMessageQueuePauseAndResumeQueue COMPLETED -----");
     }
 
+    /**
+     * Tests that a backlog of messages built up while the {@link MessageQueue}
+     * is paused is sent in one go once the queue is resumed.
+     */
+    @Test
+    public void testMessageQueueDrainBacklog() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueDrainBacklog -----");
+        server2.getQueueList().get(hash).pauseQueue();
+        for (int i = 0; i < 200; i++) {
+            server2.sendMessage("TEST" + i, hash);
+        }
+        Assert.assertEquals(server2.getQueueList().get(hash).getMessages().size(), 200, "Messages were not queued while MessageQueue was paused");
+        server2.getQueueList().get(hash).resumeQueue();
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server2.getQueueList().get(hash).getMessages().isEmpty() || new_timer.getTime() > 5000) {
+                loop = false;
+            }
+        }
+        Assert.assertTrue(server2.getQueueList().get(hash).getMessages().isEmpty(), "Backlog in MessageQueue was not sent after queue was resumed");
+        new_timer.waitTime(100);
+        Assert.assertEquals(server2.getSocketList().get(hash).getSocket().getUnflushedBytes(), 0, "Backlog was not flushed");
+        Assert.assertEquals(server2.getQueueList().get(hash).getRun(), MessageQueue.RUNNING, "MessageQueue.run was not set to 1 (resume)");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueDrainBacklog COMPLETED -----");
+    }
+
+    /**
+     * Tests that {@link MessageQueue}.awaitStart waits for the state to change
+     * from NEW and returns false if it does not change in time.
+     */
+    @Test
+    public void testMessageQueueAwaitStart() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueAwaitStart -----");
+        Assert.assertTrue(server2.getQueueList().get(hash).awaitStart(0), "Running MessageQueue did not return as started");
+        final MessageQueue new_queue = new MessageQueue(server2, "TEST");
+        Timing new_timer = new Timing();
+        Assert.assertFalse(new_queue.awaitStart(100), "MessageQueue that was never started returned as started");
+        Assert.assertTrue(new_timer.getTime() >= 100, "awaitStart returned before its timeout");
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                new Timing().waitTime(50);
+                new_queue.close();
+            }
+        };
+        closer.start();
+        Assert.assertTrue(new_queue.awaitStart(timeout), "Closing the MessageQueue did not release awaitStart");
+        Assert.assertEquals(new_queue.getRun(), MessageQueue.CLOSED, "MessageQueue.run was not set to CLOSED");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueAwaitStart COMPLETED -----");
+    }
+
+    /**
+     * Tests that an idle {@link MessageQueue} parks its thread instead of
+     * looping, and that queuing a message wakes it up to send it.
+     */
+    @Test
+    public void testMessageQueueParksWhenIdle() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueParksWhenIdle -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        Timing new_timer = new Timing();
+        while (queue.getState() != Thread.State.WAITING && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getState(), Thread.State.WAITING, "Idle MessageQueue did not park");
+        server2.sendMessage("TEST", hash);
+        new_timer = new Timing();
+        while (queue.getQueuedMessages() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 0, "Parked MessageQueue did not send the message");
+        new_timer = new Timing();
+        while (queue.getState() != Thread.State.WAITING && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getState(), Thread.State.WAITING, "MessageQueue did not park again once idle");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueParksWhenIdle COMPLETED -----");
+    }
+
+    /**
+     * Tests that requestFlush wakes a parked {@link MessageQueue} to flush the
+     * messages batched on its {@link Sock}, even with no messages queued.
+     */
+    @Test
+    public void testMessageQueueRequestFlush() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueRequestFlush -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        Sock sock = server2.getSocketList().get(hash).getSocket();
+        sock.setAutoFlush(false);
+        try {
+            sock.sendMessage("TEST");
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertTrue(sock.getUnflushedBytes() > 0, "Message was not batched");
+        queue.requestFlush();
+        Timing new_timer = new Timing();
+        while (sock.getUnflushedBytes() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "MessageQueue did not flush the batch on its Sock");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueRequestFlush COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages queued on channels are kept in separate queues and
+     * that, while more than one channel has messages waiting, at most
+     * CHANNEL_BATCH_LIMIT messages are taken from each channel at a time.
+     */
+    @Test
+    public void testMessageQueueChannels() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueChannels -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        queue.pauseQueue();
+        try {
+            for (int i = 0; i < MessageQueue.CHANNEL_BATCH_LIMIT * 3; i++) {
+                queue.queueMessage("BULK" + i, 4);
+            }
+            queue.queueMessage("ACTION", 0);
+            queue.queueMessage("CHAT", 2);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertEquals(queue.getChannelMessages(4).size(), MessageQueue.CHANNEL_BATCH_LIMIT * 3, "Messages were not queued on channel 4");
+        Assert.assertEquals(queue.getChannelMessages(2).get(0), "CHAT", "Message was not queued on channel 2");
+        Assert.assertEquals(queue.getMessages().get(0), "ACTION", "Message on channel 0 was not queued with messages");
+        Assert.assertEquals(queue.getQueuedMessages(), MessageQueue.CHANNEL_BATCH_LIMIT * 3 + 2, "Queued messages not counted correctly");
+        try {
+            queue.queueMessage("INVALID", -1);
+            exception = true;
+        } catch (InvalidArgumentException e) {
+            LOGGER.log(Level.INFO, "Negative channel rejected as expected");
+        }
+        queue.resumeQueue();
+        Timing new_timer = new Timing();
+        while (queue.getQueuedMessages() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 0, "Messages on every channel were not sent");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueChannels COMPLETED -----");
+    }
+
+    /**
+     * Waits until the {@link Game} has received count of the messages sent by
+     * testMessageQueuePriorityLanes and then clears them.
+     *
+     * @param received the messages received so far.
+     * @param count the number of messages to wait for.
+     * @return a copy of the messages received, in the order they arrived.
+     */
+    private List<String> waitReceived(List<String> received, int count) {
+        Timing new_timer = new Timing();
+        while (received.size() < count && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        List<String> copy;
+        synchronized (received) {
+            copy = new ArrayList<String>(received);
+            received.clear();
+        }
+        Assert.assertEquals(copy.size(), count, "Messages were not received");
+        return copy;
+    }
+
+    /**
+     * Tests that channels are drained by weight with DRAIN_WEIGHTED, that only
+     * the highest priority channel is drained with DRAIN_STRICT until it is
+     * empty, and that messages sent without a channel are queued on the
+     * channel set for their action name.
+     */
+    @Test
+    public void testMessageQueuePriorityLanes() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueuePriorityLanes -----");
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        EasyMock.resetToNice(game);
+        game.handleAction(EasyMock.<List<String>>anyObject(), EasyMock.<String>anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                @SuppressWarnings("unchecked")
+                List<String> action = (List<String>) EasyMock.getCurrentArguments()[0];
+                if (action.get(0).startsWith("LANE")) {
+                    received.add(action.get(0));
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(game);
+        MessageQueue queue = server2.getQueueList().get(hash);
+        int limit = MessageQueue.CHANNEL_BATCH_LIMIT;
+        boolean invalid = false;
+        try {
+            server2.setChannelWeight(6, 0);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Channel weight below 1 accepted");
+        invalid = false;
+        try {
+            server2.setChannelDrain(2);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Invalid drain mode accepted");
+        try {
+            server2.setChannelWeight(6, 2);
+            queue.pauseQueue();
+            for (int i = 0; i < limit * 3; i++) {
+                queue.queueMessage("LANE4 " + i, 4);
+                queue.queueMessage("LANE6 " + i, 6);
+            }
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.resumeQueue();
+        List<String> weighted = waitReceived(received, limit * 6);
+        Assert.assertEquals(weighted.get(limit), "LANE6 0", "Channel 6 not sent after one batch of channel 4");
+        Assert.assertEquals(weighted.get(limit * 3), "LANE4 " + limit, "Channel 6 did not send twice as many messages as channel 4");
+        try {
+            server2.setChannelDrain(MessageQueue.DRAIN_STRICT);
+            server2.setChannelPriority(5, 10);
+            server2.setActionChannel("LANE5", 5);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.pauseQueue();
+        try {
+            for (int i = 0; i < limit * 3; i++) {
+                queue.queueMessage("LANE4 " + i, 4);
+            }
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        for (int i = 0; i < limit * 3; i++) {
+            server2.sendMessage("LANE5" + Character.toString((char) 31) + i, hash);
+        }
+        Assert.assertEquals(queue.getChannelMessages(5).size(), limit * 3, "Messages were not queued on the channel of their action");
+        Assert.assertTrue(queue.getMessages().isEmpty(), "Messages were queued on channel 0 instead of the channel of their action");
+        queue.resumeQueue();
+        List<String> strict = waitReceived(received, limit * 6);
+        for (int i = 0; i < limit * 3; i++) {
+            Assert.assertEquals(strict.get(i), "LANE5", "Lower priority channel sent before the highest priority channel was empty");
+        }
+        Assert.assertEquals(server2.getChannelDrain(), MessageQueue.DRAIN_STRICT, "Drain mode not set");
+        Assert.assertEquals(server2.getChannelWeight(4), 1, "Default channel weight not 1");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueuePriorityLanes COMPLETED -----");
+    }
+
+    /**
+     * Tests that with the coalescing feature a message replaces the unsent
+     * message with the same coalescing key in place, that messages on other
+     * channels or with other keys are kept, and that a message is queued again
+     * once the message it would replace has been sent.
+     */
+    @Test
+    public void testMessageQueueCoalescing() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueCoalescing -----");
+        String sep = Character.toString((char) 31);
+        MessageQueue queue = server2.getQueueList().get(hash);
+        boolean invalid = false;
+        try {
+            server2.setCoalesceKey("MOVE", -1);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Negative coalescing field accepted");
+        server2.setUseCoalescing(true);
+        try {
+            server2.setCoalesceKey("MOVE", 1);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.pauseQueue();
+        server2.sendMessage("MOVE" + sep + "1" + sep + "10" + sep, hash);
+        server2.sendMessage("MOVE" + sep + "2" + sep + "20" + sep, hash);
+        server2.sendMessage("CHAT" + sep + "hi" + sep, hash);
+        server2.sendMessage("MOVE" + sep + "1" + sep + "11" + sep, hash);
+        server2.sendMessage("MOVE" + sep + "2" + sep + "21" + sep, hash);
+        server2.sendMessage("MOVE" + sep + "1" + sep + "12" + sep, hash);
+        try {
+            queue.queueMessage("MOVE" + sep + "1" + sep + "13" + sep, 4);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        List<String> expected = new ArrayList<String>();
+        expected.add("MOVE" + sep + "1" + sep + "12" + sep);
+        expected.add("MOVE" + sep + "2" + sep + "21" + sep);
+        expected.add("CHAT" + sep + "hi" + sep);
+        Assert.assertEquals(queue.getMessages(), expected, "Messages were not replaced by the latest message with the same key");
+        Assert.assertEquals(queue.getChannelMessages(4).size(), 1, "Message on another channel was coalesced");
+        Assert.assertEquals(queue.getCoalescedMessages(), 3, "Coalesced messages not counted");
+        Assert.assertEquals(queue.getQueuedMessages(), 4, "Queued messages not counted correctly");
+        queue.resumeQueue();
+        Timing new_timer = new Timing();
+        while (queue.getQueuedMessages() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 0, "Coalesced messages were not sent");
+        queue.pauseQueue();
+        server2.sendMessage("MOVE" + sep + "1" + sep + "14" + sep, hash);
+        server2.sendMessage("MOVE" + sep + "1" + sep + "15" + sep, hash);
+        Assert.assertEquals(queue.getMessages(), Collections.singletonList("MOVE" + sep + "1" + sep + "15" + sep), "Message not queued again after the message with the same key was sent");
+        server2.removeCoalesceKey("MOVE");
+        server2.sendMessage("MOVE" + sep + "1" + sep + "16" + sep, hash);
+        Assert.assertEquals(queue.getMessages().size(), 2, "Message coalesced after its key was removed");
+        queue.resumeQueue();
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueCoalescing COMPLETED -----");
+    }
+
+    /**
+     * Tests that with a {@link MessageRing} messages sent from several threads
+     * are all queued and sent, that a message queued while the ring is full
+     * stays behind the messages already on it, and that the watermarks are
+     * still used.
+     */
+    @Test
+    public void testMessageQueueRing() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueRing -----");
+        final MessageQueue queue = server2.getQueueList().get(hash);
+        boolean invalid = false;
+        try {
+            server2.setQueueRingSize(-1);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Negative ring size accepted");
+        try {
+            server2.setQueueRingSize(4);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertEquals(queue.getRingSize(), 4, "Ring size not set on existing MessageQueue");
+        queue.pauseQueue();
+        for (int i = 0; i < 10; i++) {
+            server2.sendMessage("RING" + i, hash);
+        }
+        ArrayList<String> queued = queue.getMessages();
+        Assert.assertEquals(queued.size(), 10, "Messages on the MessageRing were not queued");
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(queued.get(i), "RING" + i, "Messages not queued in order");
+        }
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        server2.sendMessage("THREAD" + i, hash);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(timeout);
+            } catch (InterruptedException e) {
+                exception = true;
+            }
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 1510, "Messages sent from several threads were not all queued");
+        queue.resumeQueue();
+        Timing new_timer = new Timing();
+        while (queue.getQueuedMessages() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 0, "Messages were not sent");
+        try {
+            server2.setQueueWatermarks(1, 3);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.pauseQueue();
+        for (int i = 0; i < 3; i++) {
+            server2.sendMessage("RING" + i, hash);
+        }
+        Assert.assertFalse(queue.getWritable(), "Watermarks not used for messages on the MessageRing");
+        queue.resumeQueue();
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueRing COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages queued through a {@link MessageRing} still reach the
+     * high watermark and the capacity as soon as they are queued, rather than
+     * only once the ring is drained.
+     */
+    @Test
+    public void testMessageQueueRingCapacity() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueRingCapacity -----");
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        EasyMock.resetToNice(game);
+        game.handleAction(EasyMock.<List<String>>anyObject(), EasyMock.<String>anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                @SuppressWarnings("unchecked")
+                List<String> action = (List<String>) EasyMock.getCurrentArguments()[0];
+                if (action.get(0).equals(Server.QUEUE_UNWRITABLE)) {
+                    changes.add(action.get(0) + " " + action.get(1));
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(game);
+        MessageQueue queue = server2.getQueueList().get(hash);
+        try {
+            server2.setQueueRingSize(16);
+            server2.setQueueCapacity(3);
+            server2.setQueueWatermarks(1, 3);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.pauseQueue();
+        for (int i = 0; i < 3; i++) {
+            server2.sendMessage("RING" + i, hash);
+        }
+        Assert.assertEquals(changes, Collections.singletonList(Server.QUEUE_UNWRITABLE + " 3"), "High watermark not reached by messages on the MessageRing");
+        server2.sendMessage("RING3", hash);
+        Assert.assertEquals(queue.getDroppedMessages(), 1, "Capacity not used for messages on the MessageRing");
+        Assert.assertEquals(queue.getMessages().get(0), "RING1", "Oldest message was not dropped");
+        Assert.assertEquals(queue.getQueuedMessages(), 3, "Queue grew past its capacity");
+        queue.resumeQueue();
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueRingCapacity COMPLETED -----");
+    }
+
+    /**
+     * Tests that once capacity messages are queued each overflow policy drops,
+     * replaces or disconnects as intended and that the queue depth metrics
+     * are kept.
+     */
+    @Test
+    public void testMessageQueueOverflow() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueOverflow -----");
+        String seperator = Character.toString((char) 31);
+        MessageQueue queue = server2.getQueueList().get(hash);
+        queue.pauseQueue();
+        try {
+            server2.setQueueCapacity(3);
+            for (int i = 0; i < 4; i++) {
+                queue.queueMessage("OLDEST" + i);
+            }
+            Assert.assertEquals(queue.getMessages().get(0), "OLDEST1", "Oldest message was not dropped");
+            Assert.assertEquals(queue.getQueuedMessages(), 3, "Queue grew past its capacity");
+            Assert.assertEquals(server2.getQueuedMessagesIndividual(hash), 3, "Queued messages not returned by Server");
+            queue.clearQueue();
+            server2.setQueueOverflowPolicy(MessageQueue.OVERFLOW_DROP_NEWEST);
+            for (int i = 0; i < 4; i++) {
+                queue.queueMessage("NEWEST" + i, 2);
+            }
+            Assert.assertEquals(queue.getChannelMessages(2).get(2), "NEWEST2", "Newest message was not dropped");
+            Assert.assertEquals(queue.getDroppedMessages(), 2, "Dropped messages not counted");
+            queue.clearQueue();
+            server2.setQueueOverflowPolicy(MessageQueue.OVERFLOW_COALESCE);
+            queue.queueMessage("pos" + seperator + "1" + seperator);
+            queue.queueMessage("chat" + seperator + "hi" + seperator);
+            queue.queueMessage("pos" + seperator + "2" + seperator);
+            queue.queueMessage("pos" + seperator + "3" + seperator);
+            Assert.assertEquals(queue.getMessages().get(2), "pos" + seperator + "3" + seperator, "Latest message with the same action was not replaced");
+            Assert.assertEquals(queue.getMessages().get(0), "pos" + seperator + "1" + seperator, "Older message with the same action was replaced");
+            Assert.assertEquals(queue.getCoalescedMessages(), 1, "Coalesced messages not counted");
+            queue.queueMessage("other" + seperator);
+            Assert.assertEquals(queue.getMessages().get(0), "chat" + seperator + "hi" + seperator, "Oldest message was not dropped when nothing could be coalesced");
+            Assert.assertEquals(queue.getDroppedMessages(), 3, "Dropped messages not counted");
+            Assert.assertEquals(queue.getPeakQueuedMessages(), 3, "Peak queued messages not kept");
+        } catch (InvalidArgumentException | FeatureNotUsedException | NullException | HashNotFoundException e) {
+            exception = true;
+        }
+        boolean invalid = false;
+        try {
+            server2.setQueueOverflowPolicy(7);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Invalid overflow policy accepted");
+        try {
+            server2.setQueueOverflowPolicy(MessageQueue.OVERFLOW_DISCONNECT);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.queueMessage("DISCONNECT");
+        Timing new_timer = new Timing();
+        while (server2.getSocketList().containsKey(hash) && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertFalse(server2.getSocketList().containsKey(hash), "Socket was not disconnected when the queue overflowed");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueOverflow COMPLETED -----");
+    }
+
+    /**
+     * Tests that when the queue is full the oldest message on the lowest
+     * priority channel is dropped, so a message on a high priority channel is
+     * still queued when a low priority channel fills the queue.
+     */
+    @Test
+    public void testMessageQueueOverflowPriority() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueOverflowPriority -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        queue.pauseQueue();
+        try {
+            server2.setChannelPriority(3, 10);
+            server2.setQueueCapacity(3);
+            for (int i = 0; i < 3; i++) {
+                queue.queueMessage("LOW" + i, 4);
+            }
+            queue.queueMessage("HIGH0", 3);
+            Assert.assertEquals(queue.getChannelMessages(3).size(), 1, "Message on the high priority channel was dropped");
+            Assert.assertEquals(queue.getChannelMessages(3).get(0), "HIGH0", "Message on the high priority channel was dropped");
+            Assert.assertEquals(queue.getChannelMessages(4).get(0), "LOW1", "Oldest message on the low priority channel was not dropped");
+            queue.queueMessage("HIGH1", 3);
+            queue.queueMessage("HIGH2", 3);
+            Assert.assertTrue(queue.getChannelMessages(4).isEmpty(), "Messages on the low priority channel were not dropped first");
+            queue.queueMessage("LOW3", 4);
+            Assert.assertTrue(queue.getChannelMessages(4).isEmpty(), "Message on the low priority channel replaced a higher priority message");
+            Assert.assertEquals(queue.getChannelMessages(3).size(), 3, "Message on the high priority channel was dropped for a lower priority message");
+            queue.queueMessage("HIGH3", 3);
+            Assert.assertEquals(queue.getChannelMessages(3).get(0), "HIGH1", "Oldest message on the high priority channel was not dropped");
+            Assert.assertEquals(queue.getQueuedMessages(), 3, "Queue grew past its capacity");
+            Assert.assertEquals(queue.getDroppedMessages(), 5, "Dropped messages not counted");
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueOverflowPriority COMPLETED -----");
+    }
+
+    /**
+     * Tests that a queue held at capacity while many more messages are queued
+     * keeps the newest capacity messages in order, on channel 0 and on
+     * another channel, and still sends them once resumed.
+     */
+    @Test
+    public void testMessageQueueOverflowBacklog() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueOverflowBacklog -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        queue.pauseQueue();
+        try {
+            server2.setQueueCapacity(100);
+            for (int i = 0; i < 1000; i++) {
+                queue.queueMessage("BACKLOG" + i);
+            }
+            ArrayList<String> queued = queue.getMessages();
+            Assert.assertEquals(queued.size(), 100, "Queue grew past its capacity");
+            for (int i = 0; i < 100; i++) {
+                Assert.assertEquals(queued.get(i), "BACKLOG" + (900 + i), "Newest messages were not kept in order");
+            }
+            queue.clearQueue();
+            for (int i = 0; i < 1000; i++) {
+                queue.queueMessage("CHANNEL" + i, 2);
+            }
+            queued = queue.getChannelMessages(2);
+            Assert.assertEquals(queued.size(), 100, "Queue grew past its capacity");
+            Assert.assertEquals(queued.get(0), "CHANNEL900", "Oldest messages on the channel were not dropped");
+            Assert.assertEquals(queued.get(99), "CHANNEL999", "Newest message on the channel was not kept");
+            Assert.assertEquals(queue.getDroppedMessages(), 1800, "Dropped messages not counted");
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.resumeQueue();
+        Timing new_timer = new Timing();
+        while (queue.getQueuedMessages() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getQueuedMessages(), 0, "Backlog was not sent after the queue was resumed");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueOverflowBacklog COMPLETED -----");
+    }
+
+    /**
+     * Tests that the Game is told the queue is no longer writable once the
+     * high watermark is reached, and that it is writable again once the queue
+     * has been flushed down to the low watermark.
+     */
+    @Test
+    public void testMessageQueueWatermarks() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageQueueWatermarks -----");
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        EasyMock.resetToNice(game);
+        game.handleAction(EasyMock.<List<String>>anyObject(), EasyMock.<String>anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                @SuppressWarnings("unchecked")
+                List<String> action = (List<String>) EasyMock.getCurrentArguments()[0];
+                if (action.get(0).equals(Server.QUEUE_UNWRITABLE) || action.get(0).equals(Server.QUEUE_WRITABLE)) {
+                    changes.add(action.get(0) + " " + action.get(1));
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(game);
+        MessageQueue queue = server2.getQueueList().get(hash);
+        boolean invalid = false;
+        try {
+            server2.setQueueWatermarks(3, 3);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "High watermark not above low watermark accepted");
+        try {
+            server2.setQueueWatermarks(1, 3);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        queue.pauseQueue();
+        server2.sendMessage("TEST1", hash);
+        server2.sendMessage("TEST2", hash);
+        Assert.assertTrue(queue.getWritable(), "Queue stopped being writable below the high watermark");
+        server2.sendMessage("TEST3", hash);
+        Assert.assertFalse(queue.getWritable(), "Queue still writable at the high watermark");
+        Assert.assertEquals(changes, Collections.singletonList(Server.QUEUE_UNWRITABLE + " 3"), "Game was not told the queue is not writable");
+        queue.resumeQueue();
+        Timing new_timer = new Timing();
+        while (changes.size() < 2 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertTrue(queue.getWritable(), "Queue not writable after being flushed");
+        Assert.assertEquals(changes.size(), 2, "Game was not told the queue is writable again");
+        Assert.assertEquals(changes.get(1), Server.QUEUE_WRITABLE + " 0", "Game was not told the queue is writable again");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageQueueWatermarks COMPLETED -----");
+    }
+
     /**
      * Tests the behaviour of {@link MessageQueue} when its state is set to
      * DISCONNECT and the use_disconnected_sockets flag is not set to true on
@@ -0,0 +1,154 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link MessageRing} class.
+ *
+ * @author javu
+ */
+public class MessageRingTest {
+
+    /**
+     * The {@link MessageRing} built by the BeforeMethod.
+     */
+    private MessageRing ring;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(MessageRingTest.class.getName());
+
+    /**
+     * Builds a {@link MessageRing} holding 4 messages.
+     */
+    @BeforeMethod
+    private void setupRing() {
+        exception = false;
+        try {
+            ring = new MessageRing(3);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+    }
+
+    /**
+     * Tests that the size is rounded up to a power of two and that invalid
+     * sizes are refused.
+     */
+    @Test
+    public void testMessageRingSize() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageRingSize -----");
+        Assert.assertEquals(ring.getCapacity(), 4, "Size not rounded up to a power of two");
+        boolean invalid = false;
+        try {
+            new MessageRing(0);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Size of 0 accepted");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageRingSize COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages are taken with their channels in the order they were
+     * added, that a full {@link MessageRing} refuses messages and that slots
+     * are reused once taken.
+     */
+    @Test
+    public void testMessageRingOfferPoll() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageRingOfferPoll -----");
+        Assert.assertTrue(ring.isEmpty(), "New MessageRing not empty");
+        Assert.assertEquals(ring.peekChannel(), -1, "Channel returned for an empty MessageRing");
+        Assert.assertNull(ring.poll(), "Message taken from an empty MessageRing");
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(ring.offer("TEST" + i, i), "Message not added");
+        }
+        Assert.assertFalse(ring.offer("FULL", 0), "Message added to a full MessageRing");
+        Assert.assertEquals(ring.size(), 4, "Size not counted");
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals(ring.peekChannel(), i, "Channel not returned in order");
+                Assert.assertEquals(ring.poll(), "TEST" + i, "Message not taken in order");
+                Assert.assertTrue(ring.offer("TEST" + i, i), "Slot not reused once taken");
+            }
+        }
+        Assert.assertEquals(ring.clear(), 4, "Messages not cleared");
+        Assert.assertTrue(ring.isEmpty(), "MessageRing not empty after clear");
+        LOGGER.log(Level.INFO, "----- TEST testMessageRingOfferPoll COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages added by several threads at once are all taken by
+     * the consumer exactly once, and that the messages of each thread keep
+     * their order.
+     */
+    @Test
+    public void testMessageRingProducers() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testMessageRingProducers -----");
+        final int producers = 3;
+        final int count = 20000;
+        final MessageRing shared;
+        try {
+            shared = new MessageRing(64);
+        } catch (InvalidArgumentException e) {
+            Assert.fail("Could not build MessageRing", e);
+            return;
+        }
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        while (!shared.offer(Integer.toString(i), producer)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        int[] next = new int[producers];
+        int taken = 0;
+        long deadline = System.currentTimeMillis() + 30000;
+        while (taken < producers * count && System.currentTimeMillis() < deadline) {
+            int channel = shared.peekChannel();
+            if (channel == -1) {
+                Thread.yield();
+                continue;
+            }
+            String message = shared.poll();
+            Assert.assertEquals(Integer.parseInt(message), next[channel], "Messages of producer " + channel + " taken out of order");
+            next[channel]++;
+            taken++;
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                exception = true;
+            }
+        }
+        Assert.assertEquals(taken, producers * count, "Not every message was taken");
+        Assert.assertTrue(shared.isEmpty(), "Messages left on the MessageRing");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testMessageRingProducers COMPLETED -----");
+    }
+}
@@ -553,6 +553,94 @@ public class NetworkingBaseTest {
         LOGGER.log(Level.INFO, "----- TEST testServerClientDisconnectAndReconnect COMPLETED -----");
     }
 
+    /**
+     * Tests the queue spill feature. Ensures that the messages queued for a
+     * disconnected {@link SocketThread}, and the messages sent to it while it
+     * is disconnected, are spilled to a {@link QueueSpill} file instead of
+     * being cleared, and that they are replayed in order once
+     * connectDisconnectedSocket() is run and the file is deleted.
+     */
+    @Test
+    public void testServerClientDisconnectAndReplaySpill() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientDisconnectAndReplaySpill -----");
+        String client_hash = "";
+        String server_hash = "";
+        String server_hash2 = "";
+        checkOrder(game, true);
+        for (int i = 1; i <= 3; i++) {
+            ArrayList<String> action = new ArrayList<String>();
+            action.add("TEST" + i);
+            game.handleAction(eq(action), anyObject(String.class));
+        }
+        replay(game);
+        try {
+            server1.setUseMessageQueues(true);
+            server2.setUseMessageQueues(true);
+        } catch (TimeoutException e) {
+            exception = true;
+        }
+        server1.setUseDisconnectedSockets(true);
+        server1.setUseQueueSpill(true);
+        try {
+            server1.startThread();
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        waitSocketThreadState(server1, server_hash, SocketThread.CONFIRMED);
+        waitMessageQueueAddNotEmpty(server1);
+        waitMessageQueueState(server1, server_hash, MessageQueue.RUNNING);
+        MessageQueue queue = server1.getQueueList().get(server_hash);
+        queue.pauseQueue();
+        server1.sendAction("TEST1", server_hash);
+        server1.sendAction("TEST2", server_hash);
+        server2.disconnect(client_hash);
+        waitMessageQueueState(server1, server_hash, MessageQueue.DISCONNECT);
+        server1.sendAction("TEST3", server_hash);
+        Timing new_timer = new Timing();
+        while ((queue.getSpilledMessages() != 3 || !queue.getMessages().isEmpty()) && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getSpilledMessages(), 3, "Messages were not spilled while the socket was disconnected");
+        Assert.assertTrue(queue.getMessages().isEmpty(), "Spilled messages were kept on the heap");
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        new_timer.startTiming();
+        while (server2.getSocketList().size() < 1 || server1.getSocketList().size() < 1 || server_hash2.isEmpty()) {
+            for (SocketThread socket : server1.getSocketList().values()) {
+                if (socket.getHash().compareTo(server_hash) != 0) {
+                    server_hash2 = socket.getHash();
+                }
+            }
+            if (new_timer.getTime() > timeout) {
+                break;
+            }
+        }
+        waitSocketThreadState(server1, server_hash2, SocketThread.CONFIRMED);
+        waitMessageQueueState(server1, server_hash2, MessageQueue.RUNNING);
+        try {
+            server1.connectDisconnectedSocket(server_hash2, server_hash);
+        } catch (HashNotFoundException | InvalidArgumentException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        new_timer.startTiming();
+        while (queue.getSpilledMessages() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(queue.getSpilledMessages(), 0, "Spilled messages were not replayed");
+        new_timer.waitTime(200);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientDisconnectAndReplaySpill COMPLETED -----");
+    }
+
     /**
      * Tests the use of {@link MessageQueues} to aid in timing out
      * reconnections. Ensures that when a {@link SocketThread} is disconnected
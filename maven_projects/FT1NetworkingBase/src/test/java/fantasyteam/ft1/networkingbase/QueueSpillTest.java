@@ -0,0 +1,112 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link QueueSpill} class.
+ *
+ * @author javu
+ */
+public class QueueSpillTest {
+
+    /**
+     * The {@link QueueSpill} built by the BeforeMethod.
+     */
+    private QueueSpill spill;
+    /**
+     * The size in bytes of the {@link QueueSpill} built by the BeforeMethod.
+     */
+    private int size = 64;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(QueueSpillTest.class.getName());
+
+    /**
+     * Builds a small {@link QueueSpill} so tests can fill it.
+     *
+     * @throws IOException if the spill file could not be created.
+     */
+    @BeforeMethod
+    private void setupSpill() throws IOException {
+        spill = QueueSpill.create(size);
+    }
+
+    /**
+     * Closes the {@link QueueSpill}, deleting its file.
+     */
+    @AfterMethod
+    private void deleteSpill() {
+        spill.close();
+    }
+
+    /**
+     * Tests that messages are read back with their channels in the order they
+     * were appended, and that the segment is reused from the start once every
+     * message has been read.
+     */
+    @Test
+    public void testAppendRead() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAppendRead -----");
+        Assert.assertTrue(spill.append("FIRST", 0), "Message not appended");
+        Assert.assertTrue(spill.append("SECONDé", 3), "Message not appended");
+        Assert.assertEquals(spill.getSpilledMessages(), 2, "Spilled messages not counted");
+        Assert.assertEquals(spill.peekChannel(), 0, "Channel of first message not returned");
+        Assert.assertEquals(spill.read(), "FIRST", "First message not read first");
+        Assert.assertEquals(spill.peekChannel(), 3, "Channel of second message not returned");
+        Assert.assertEquals(spill.read(), "SECONDé", "Second message not read back intact");
+        Assert.assertNull(spill.read(), "Message read from an empty QueueSpill");
+        Assert.assertEquals(spill.peekChannel(), -1, "Channel returned for an empty QueueSpill");
+        Assert.assertEquals(spill.getUsedBytes(), 0, "Segment not reused once every message was read");
+        LOGGER.log(Level.INFO, "----- TEST testAppendRead COMPLETED -----");
+    }
+
+    /**
+     * Tests that a message is refused once it no longer fits in the segment,
+     * and that a message filling the rest of the segment exactly fits.
+     */
+    @Test
+    public void testFull() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testFull -----");
+        String message = "0123456789012345678901234567890123456789";
+        Assert.assertTrue(spill.append(message, 0), "Message not appended");
+        int left = size - QueueSpill.HEADER_SIZE * 2 - message.getBytes(StandardCharsets.UTF_8).length;
+        Assert.assertFalse(spill.append(message, 0), "Message appended past the end of the segment");
+        StringBuilder exact = new StringBuilder();
+        for (int i = 0; i < left; i++) {
+            exact.append('x');
+        }
+        Assert.assertTrue(spill.append(exact.toString(), 1), "Message filling the segment exactly not appended");
+        Assert.assertFalse(spill.append("", 0), "Message appended to a full segment");
+        Assert.assertEquals(spill.getUsedBytes(), size, "Used bytes not counted");
+        Assert.assertEquals(spill.read(), message, "First message not read back");
+        Assert.assertEquals(spill.read(), exact.toString(), "Last message not read back");
+        LOGGER.log(Level.INFO, "----- TEST testFull COMPLETED -----");
+    }
+
+    /**
+     * Tests that closing the {@link QueueSpill} deletes its file and refuses
+     * any more messages.
+     */
+    @Test
+    public void testClose() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testClose -----");
+        File file = spill.getFile();
+        Assert.assertTrue(file.exists(), "Spill file not created");
+        spill.append("LOST", 0);
+        spill.close();
+        Assert.assertFalse(file.exists(), "Spill file not deleted on close");
+        Assert.assertEquals(spill.getSpilledMessages(), 0, "Messages still counted after close");
+        Assert.assertFalse(spill.append("CLOSED", 0), "Message appended to a closed QueueSpill");
+        LOGGER.log(Level.INFO, "----- TEST testClose COMPLETED -----");
+    }
+}
@@ -0,0 +1,218 @@
+package fantasyteam.ft1.networkingbase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link ReliableChannel} class.
+ *
+ * @author javu
+ */
+public class ReliableChannelTest {
+
+    /**
+     * ReliableChannel used as the sending end. This ReliableChannel is built
+     * in the BeforeMethod.
+     */
+    private ReliableChannel sender;
+    /**
+     * ReliableChannel used as the receiving end. This ReliableChannel is built
+     * in the BeforeMethod.
+     */
+    private ReliableChannel receiver;
+    /**
+     * List the fragments due to be sent are added to.
+     */
+    private ArrayList<ReliableChannel.Fragment> due;
+    /**
+     * List the messages completed by the receiver are added to.
+     */
+    private ArrayList<String> delivered;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ReliableChannelTest.class.getName());
+
+    /**
+     * Passes a fragment to the receiver.
+     *
+     * @param fragment the fragment to receive.
+     */
+    private void receive(ReliableChannel.Fragment fragment) {
+        receiver.receive(fragment.sequence, ByteBuffer.wrap(fragment.payload), fragment.last, delivered);
+    }
+
+    /**
+     * Passes the acknowledgement of the receiver back to the sender.
+     *
+     * @param now the time the acknowledgement is received.
+     */
+    private void acknowledge(long now) {
+        sender.acknowledge(receiver.getCumulativeAck(), receiver.getLatestAck(), receiver.getAckBits(), now);
+    }
+
+    /**
+     * Constructs the sending and receiving {@link ReliableChannel}s.
+     */
+    @BeforeMethod
+    private void setupChannels() {
+        sender = new ReliableChannel();
+        receiver = new ReliableChannel();
+        due = new ArrayList<ReliableChannel.Fragment>();
+        delivered = new ArrayList<String>();
+    }
+
+    /**
+     * Tests that messages received out of order are held back and passed on
+     * in the order they were sent, and that duplicates are dropped.
+     */
+    @Test
+    public void testReceiveInOrder() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testReceiveInOrder -----");
+        sender.queue("ONE");
+        sender.queue("TWO");
+        sender.queue("THREE");
+        sender.poll(0, due);
+        Assert.assertEquals(due.size(), 3, "Queued messages were not due to be sent");
+        receive(due.get(2));
+        receive(due.get(1));
+        Assert.assertTrue(delivered.isEmpty(), "Message was passed on before the messages sent before it");
+        receive(due.get(0));
+        receive(due.get(1));
+        Assert.assertEquals(delivered.size(), 3, "Messages were not passed on once the missing message arrived");
+        Assert.assertEquals(delivered.get(0), "ONE", "Messages not passed on in order");
+        Assert.assertEquals(delivered.get(1), "TWO", "Messages not passed on in order");
+        Assert.assertEquals(delivered.get(2), "THREE", "Messages not passed on in order");
+        LOGGER.log(Level.INFO, "----- TEST testReceiveInOrder COMPLETED -----");
+    }
+
+    /**
+     * Tests that a message larger than MAX_FRAGMENT_SIZE is split into
+     * fragments and put back together by the receiver.
+     */
+    @Test
+    public void testFragmentation() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testFragmentation -----");
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < ReliableChannel.MAX_FRAGMENT_SIZE; i++) {
+            builder.append("é");
+        }
+        String message = builder.toString();
+        sender.queue(message);
+        sender.poll(0, due);
+        Assert.assertEquals(due.size(), 2, "Message was not split into fragments");
+        Assert.assertFalse(due.get(0).last, "First fragment was marked as the last");
+        Assert.assertTrue(due.get(1).last, "Last fragment was not marked as the last");
+        receive(due.get(1));
+        receive(due.get(0));
+        Assert.assertEquals(delivered.size(), 1, "Fragments were not put back together");
+        Assert.assertEquals(delivered.get(0), message, "Fragments were not put back together correctly");
+        Assert.assertEquals(delivered.get(0).getBytes(StandardCharsets.UTF_8).length, ReliableChannel.MAX_FRAGMENT_SIZE * 2, "Message length changed");
+        LOGGER.log(Level.INFO, "----- TEST testFragmentation COMPLETED -----");
+    }
+
+    /**
+     * Tests that the cumulative acknowledgement and ack bitfield only remove
+     * the fragments that were received, and that the rest are sent again once
+     * the retransmit timeout has passed.
+     */
+    @Test
+    public void testSelectiveAck() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectiveAck -----");
+        for (int i = 0; i < 5; i++) {
+            sender.queue("MESSAGE" + i);
+        }
+        sender.poll(0, due);
+        receive(due.get(0));
+        receive(due.get(2));
+        receive(due.get(4));
+        Assert.assertEquals(receiver.getCumulativeAck(), 1, "Cumulative acknowledgement not set correctly");
+        Assert.assertEquals(receiver.getLatestAck(), 4, "Latest acknowledgement not set correctly");
+        Assert.assertEquals(receiver.getAckBits() & 0xF, 0xA, "Ack bitfield not set correctly");
+        acknowledge(50);
+        Assert.assertEquals(sender.getUnacknowledged(), 2, "Acknowledged fragments were not removed");
+        due.clear();
+        sender.poll(50, due);
+        Assert.assertTrue(due.isEmpty(), "Fragments were sent again before the retransmit timeout");
+        sender.poll(1000, due);
+        Assert.assertEquals(due.size(), 2, "Unacknowledged fragments were not sent again");
+        Assert.assertEquals(due.get(0).sequence, 1, "Wrong fragment sent again");
+        Assert.assertEquals(due.get(1).sequence, 3, "Wrong fragment sent again");
+        Assert.assertEquals(sender.getRetransmissions(), 2, "Retransmissions not counted");
+        LOGGER.log(Level.INFO, "----- TEST testSelectiveAck COMPLETED -----");
+    }
+
+    /**
+     * Tests that the round trip time is measured from acknowledged fragments
+     * and used to set the retransmit timeout.
+     */
+    @Test
+    public void testRoundTripTime() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testRoundTripTime -----");
+        Assert.assertEquals(sender.getRoundTripTime(), -1, "Round trip time was set before being measured");
+        sender.queue("MESSAGE");
+        sender.poll(1000, due);
+        receive(due.get(0));
+        acknowledge(1040);
+        Assert.assertEquals(sender.getRoundTripTime(), 40, "Round trip time not measured correctly");
+        Assert.assertEquals(sender.getRetransmitTimeout(), 120, "Retransmit timeout not set from round trip time");
+        LOGGER.log(Level.INFO, "----- TEST testRoundTripTime COMPLETED -----");
+    }
+
+    /**
+     * Tests that no more than WINDOW_SIZE fragments are sent ahead of the
+     * oldest unacknowledged fragment.
+     */
+    @Test
+    public void testWindow() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testWindow -----");
+        for (int i = 0; i < ReliableChannel.WINDOW_SIZE + 10; i++) {
+            sender.queue("MESSAGE" + i);
+        }
+        sender.poll(0, due);
+        Assert.assertEquals(due.size(), ReliableChannel.WINDOW_SIZE, "Fragments were sent outside the window");
+        receive(due.get(0));
+        acknowledge(10);
+        due.clear();
+        sender.poll(10, due);
+        Assert.assertEquals(due.size(), 1, "Window did not move once the oldest fragment was acknowledged");
+        LOGGER.log(Level.INFO, "----- TEST testWindow COMPLETED -----");
+    }
+
+    /**
+     * Tests that the channel is flagged as failed once a fragment has been
+     * sent MAX_TRANSMISSIONS times without being acknowledged.
+     */
+    @Test
+    public void testFailed() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testFailed -----");
+        sender.queue("MESSAGE");
+        long now = 0;
+        for (int i = 0; i <= ReliableChannel.MAX_TRANSMISSIONS; i++) {
+            sender.poll(now, due);
+            now += 10000;
+        }
+        Assert.assertEquals(due.size(), ReliableChannel.MAX_TRANSMISSIONS, "Fragment was not sent MAX_TRANSMISSIONS times");
+        Assert.assertTrue(sender.getFailed(), "Channel was not flagged as failed");
+        LOGGER.log(Level.INFO, "----- TEST testFailed COMPLETED -----");
+    }
+
+    /**
+     * Tests the {@link ReliableChannel}.toString() function.
+     */
+    @Test
+    public void testToString() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        sender.queue("MESSAGE");
+        String to_string = "Unacknowledged: 1\nRound trip time: -1\nRetransmit timeout: 200\nRetransmissions: 0\nFailed: false";
+        Assert.assertEquals(sender.toString(), to_string, "ReliableChannel string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
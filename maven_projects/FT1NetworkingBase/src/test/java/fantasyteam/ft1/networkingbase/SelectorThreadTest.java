@@ -0,0 +1,462 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static org.easymock.EasyMock.*;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link SelectorThread} class and the selector transport
+ * feature of {@link Server}.
+ *
+ * @author javu
+ */
+public class SelectorThreadTest {
+
+    /**
+     * This Server is built as a listen Server using the selector transport by
+     * the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server using the selector transport by
+     * the BeforeMethod.
+     */
+    private Server server2;
+    /**
+     * The {@link Game} class that will be built as a mock class and passed to
+     * both {@link Server} instances as a parameter of their constructors.
+     */
+    private Game game;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(SelectorThreadTest.class.getName());
+
+    /**
+     * Gets the hash of the last SocketThread in the socket_list Map on Server.
+     *
+     * @param server The Server to check for the hash on.
+     * @return the String hash for the last SocketThread
+     */
+    private String getServerLastSocketHash(Server server) {
+        String server_hash = "";
+        for (SocketThread socket : server.getSocketList().values()) {
+            server_hash = socket.getHash();
+        }
+        return server_hash;
+    }
+
+    /**
+     * Ensures the socket_list attribute of Server is not empty.
+     *
+     * @param server The Server to check socket_list on.
+     */
+    private void waitSocketThreadAddNotEmpty(Server server) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (!server.getSocketList().isEmpty() || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertFalse(server.getSocketList().isEmpty(), "SocketThread was not constructed");
+    }
+
+    /**
+     * Ensures the socket_list attribute of Server is empty.
+     *
+     * @param server The Server to check socket_list on.
+     */
+    private void waitSocketThreadRemoveEmpty(Server server) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getSocketList().isEmpty() || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertTrue(server.getSocketList().isEmpty(), "SocketThread was not removed");
+    }
+
+    /**
+     * Checks the state of a SocketThread on a Server. Use this when waiting for
+     * a new SocketThread to start before continuing.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     * @param state the state expected on the SocketThread.
+     */
+    private void waitSocketThreadState(Server server, String hash, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getSocketList().get(hash).getRun() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getSocketList().get(hash).getRun(), state, "SocketThread state was not set correctly");
+    }
+
+    /**
+     * Checks the state of the specified Server. Use this when waiting for a
+     * Server to finish closing.
+     *
+     * @param server The Server to check the state of.
+     * @param state The state expected on the Server.
+     */
+    private void waitServerState(Server server, int state) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            if (server.getState() == state || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getState(), state, "Server state was not set in time");
+    }
+
+    /**
+     * Sets port, constructs both {@link Server}s with the selector transport
+     * turned on and connects server2 to server1.
+     *
+     * @throws IOException if either {@link Server} fails to construct.
+     */
+    @BeforeMethod
+    private void setupServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        port = 22228;
+        exception = false;
+        game = createMock(Game.class);
+        server1 = new Server(game, port, true);
+        server1.setSelectorThreadCount(2);
+        server1.setUseSelectorTransport(true);
+        server2 = new Server(game, port, false);
+        server2.setSelectorThreadCount(1);
+        server2.setUseSelectorTransport(true);
+    }
+
+    /**
+     * Closes both {@link Server}s and frees up port ready for the next test.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deleteServer() throws IOException, ServerSocketCloseException, TimeoutException {
+        if (server2.getState() != Server.CLOSED) {
+            server2.close();
+        }
+        waitServerState(server2, Server.CLOSED);
+        if (server1.getState() != Server.CLOSED) {
+            server1.close();
+        }
+        waitServerState(server1, Server.CLOSED);
+    }
+
+    /**
+     * Tests that new connections on both ends are registered with a
+     * {@link SelectorThread} rather than starting their own thread.
+     */
+    @Test
+    public void testSelectorTransportConnect() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportConnect -----");
+        String client_hash = "";
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertFalse(exception, "Exception found");
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        String server_hash = getServerLastSocketHash(server1);
+        waitSocketThreadState(server1, server_hash, SocketThread.CONFIRMED);
+        Assert.assertNotNull(server1.getSocketList().get(server_hash).getSocket().getChannel(), "Accepted connection was not built on a SocketChannel");
+        Assert.assertNotNull(server2.getSocketList().get(client_hash).getSocket().getChannel(), "Client connection was not built on a SocketChannel");
+        Assert.assertFalse(server2.getSocketList().get(client_hash).isAlive(), "SocketThread was started as a thread");
+        Assert.assertEquals(server1.getSelectorThreads().size(), 2, "Incorrect number of SelectorThreads started");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportConnect COMPLETED -----");
+    }
+
+    /**
+     * Tests sending an action through the selector transport and ensures it
+     * is received and passed to the {@link Game}.
+     */
+    @Test
+    public void testSelectorTransportSendAction() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportSendAction -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        parameters.add("PARAM1");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("PARAM1");
+        server2.sendAction("ACTION", action_parameters, client_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportSendAction COMPLETED -----");
+    }
+
+    /**
+     * Tests that when using the write batching feature through the selector
+     * transport a batch is flushed by its {@link SelectorThread} once it has
+     * waited the max flush delay.
+     */
+    @Test
+    public void testSelectorTransportWriteBatching() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportWriteBatching -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        try {
+            server2.setMaxFlushDelay(10);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        server2.setUseWriteBatching(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        Sock sock = server2.getSocketList().get(client_hash).getSocket();
+        server2.sendAction("ACTION", client_hash);
+        Timing new_timer = new Timing();
+        while (sock.getUnflushedBytes() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batched messages were not flushed after max flush delay");
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportWriteBatching COMPLETED -----");
+    }
+
+    /**
+     * Tests that binary framing is negotiated through the selector transport
+     * and that actions are still received after switching framing.
+     */
+    @Test
+    public void testSelectorTransportBinaryFraming() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportBinaryFraming -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        parameters.add("LINE1\nLINE2");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseBinaryFraming(true);
+        server2.setUseBinaryFraming(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        String server_hash = getServerLastSocketHash(server1);
+        Sock server_sock = server1.getSocketList().get(server_hash).getSocket();
+        Timing new_timer = new Timing();
+        while (server_sock.getReadFraming() != Sock.BINARY && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server_sock.getReadFraming(), Sock.BINARY, "Binary framing was not negotiated");
+        Assert.assertEquals(server2.getSocketList().get(client_hash).getSocket().getWriteFraming(), Sock.BINARY, "Binary framing was not negotiated");
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("LINE1\nLINE2");
+        server2.sendAction("ACTION", action_parameters, client_hash);
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportBinaryFraming COMPLETED -----");
+    }
+
+    /**
+     * Tests that compression is negotiated through the selector transport and
+     * that actions are still received once compressed.
+     */
+    @Test
+    public void testSelectorTransportCompression() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportCompression -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        parameters.add("PARAM1");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        expectLastCall().times(20);
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseCompression(true);
+        server2.setUseCompression(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        String server_hash = getServerLastSocketHash(server1);
+        Sock server_sock = server1.getSocketList().get(server_hash).getSocket();
+        Timing new_timer = new Timing();
+        while (!server_sock.getReadCompression() && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertTrue(server_sock.getReadCompression(), "Compression was not negotiated");
+        Assert.assertTrue(server2.getSocketList().get(client_hash).getSocket().getWriteCompression(), "Compression was not negotiated");
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("PARAM1");
+        for (int i = 0; i < 20; i++) {
+            server2.sendAction("ACTION", action_parameters, client_hash);
+        }
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportCompression COMPLETED -----");
+    }
+
+    /**
+     * Tests that disconnecting a client is detected by the
+     * {@link SelectorThread} on the listen {@link Server}.
+     */
+    @Test
+    public void testSelectorTransportDisconnect() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportDisconnect -----");
+        String client_hash = "";
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server2.disconnect(client_hash);
+        waitSocketThreadRemoveEmpty(server2);
+        waitSocketThreadRemoveEmpty(server1);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportDisconnect COMPLETED -----");
+    }
+
+    /**
+     * Tests that a disconnected {@link SocketThread} removes its channel from
+     * its {@link SelectorThread}, and that turning the selector transport off
+     * closes each {@link SelectorThread} once its last connection is closed.
+     */
+    @Test
+    public void testSelectorTransportRetire() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSelectorTransportRetire -----");
+        String client_hash = "";
+        String second_hash = "";
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+            second_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadState(server2, second_hash, SocketThread.CONFIRMED);
+        SelectorThread selector_thread = server2.getSelectorThreads().get(0);
+        Assert.assertEquals(selector_thread.getSocketCount(), 2, "Connections were not registered with the SelectorThread");
+        server2.disconnect(client_hash);
+        Timing new_timer = new Timing();
+        while (selector_thread.getSocketCount() != 1 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(selector_thread.getSocketCount(), 1, "Channel was not removed from the SelectorThread when its SocketThread closed");
+        try {
+            server2.setUseSelectorTransport(false);
+        } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertNull(server2.getSelectorThreads(), "SelectorThreads were not removed from the Server");
+        Assert.assertEquals(selector_thread.getRun(), SelectorThread.RETIRING, "SelectorThread was not retired");
+        Assert.assertTrue(selector_thread.isAlive(), "SelectorThread closed while it still had a connection");
+        server2.disconnect(second_hash);
+        new_timer = new Timing();
+        while (selector_thread.isAlive() && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertFalse(selector_thread.isAlive(), "SelectorThread did not close after its last connection closed");
+        Assert.assertEquals(selector_thread.getRun(), SelectorThread.CLOSED, "SelectorThread state was not set to CLOSED");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSelectorTransportRetire COMPLETED -----");
+    }
+}
@@ -11,11 +11,18 @@ import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import static org.easymock.EasyMock.*;
+import org.easymock.IAnswer;
 import org.testng.Assert;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -228,6 +235,49 @@ public class ServerTest {
         Assert.assertTrue(server.getQueueList().isEmpty(), "MessageQueue was not removed");
     }
 
+    /**
+     * Checks the read and write framing of the {@link Sock} of a SocketThread
+     * on a Server. Use this when waiting for framing to be negotiated.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     * @param framing the framing expected on the Sock.
+     */
+    private void waitSockFraming(Server server, String hash, int framing) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            Sock sock = server.getSocketList().get(hash).getSocket();
+            if ((sock.getReadFraming() == framing && sock.getWriteFraming() == framing) || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getSocketList().get(hash).getSocket().getReadFraming(), framing, "Sock read framing was not set correctly");
+        Assert.assertEquals(server.getSocketList().get(hash).getSocket().getWriteFraming(), framing, "Sock write framing was not set correctly");
+    }
+
+    /**
+     * Checks whether the {@link Sock} of a SocketThread on a Server compresses
+     * in both directions. Use this when waiting for compression to be
+     * negotiated.
+     *
+     * @param server The Server containing the SocketThread.
+     * @param hash the hash of the SocketThread.
+     * @param compression whether compression is expected on the Sock.
+     */
+    private void waitSockCompression(Server server, String hash, boolean compression) {
+        boolean loop = true;
+        Timing new_timer = new Timing();
+        while (loop) {
+            Sock sock = server.getSocketList().get(hash).getSocket();
+            if ((sock.getReadCompression() == compression && sock.getWriteCompression() == compression) || new_timer.getTime() > timeout) {
+                loop = false;
+            }
+        }
+        Assert.assertEquals(server.getSocketList().get(hash).getSocket().getReadCompression(), compression, "Sock read compression was not set correctly");
+        Assert.assertEquals(server.getSocketList().get(hash).getSocket().getWriteCompression(), compression, "Sock write compression was not set correctly");
+    }
+
     /**
      * Checks the state of the specified Server. Use this when waiting for a
      * Server to finish closing.
@@ -1295,6 +1345,209 @@ public class ServerTest {
         LOGGER.log(Level.INFO, "----- TEST testServerClientConnectIpPort COMPLETED -----");
     }
 
+    /**
+     * Tests using the addLoopbackSocket method. Ensures both {@link Server}s
+     * negotiate the connection and binary framing and exchange actions
+     * without the ListenThread running, and that closing the client
+     * {@link Server} disconnects the listen {@link Server}.
+     */
+    @Test
+    public void testServerClientConnectLoopback() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientConnectLoopback -----");
+        String server_hash = "";
+        String client_hash = "";
+        ArrayList<String> client_parameters = new ArrayList<String>();
+        client_parameters.add("ACTION");
+        client_parameters.add("LINE1\nLINE2");
+        ArrayList<String> server_parameters = new ArrayList<String>();
+        server_parameters.add("REPLY");
+        game.handleAction(eq(client_parameters), anyObject(String.class));
+        game.handleAction(eq(server_parameters), anyObject(String.class));
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseBinaryFraming(true);
+        server2.setUseBinaryFraming(true);
+        try {
+            client_hash = server2.addLoopbackSocket(server1);
+        } catch (IOException | TimeoutException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        Assert.assertTrue(server2.getSocketList().get(client_hash).getSocket().getTransport() instanceof LoopbackTransport, "Connection not made through a LoopbackTransport");
+        waitSockFraming(server2, client_hash, Sock.BINARY);
+        waitSockFraming(server1, server_hash, Sock.BINARY);
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("LINE1\nLINE2");
+        server2.sendAction("ACTION", action_parameters, client_hash);
+        server1.sendAction("REPLY", server_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        verify(game);
+        try {
+            server2.close();
+        } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+            exception = true;
+        }
+        waitServerState(server2, Server.CLOSED);
+        waitSocketThreadRemoveEmpty(server1);
+        Assert.assertFalse(server1.containsHash(server_hash), "Loopback connection not closed on the listen Server");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientConnectLoopback COMPLETED -----");
+    }
+
+    /**
+     * Tests connecting through a Unix domain socket. Ensures both
+     * {@link Server}s confirm the connection and exchange actions, once with
+     * blocking {@link SocketThread}s reading through a {@link ChannelTransport}
+     * and once using the selector transport feature.
+     */
+    @Test
+    public void testServerClientConnectUnixDomain() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientConnectUnixDomain -----");
+        ArrayList<String> client_parameters = new ArrayList<String>();
+        client_parameters.add("ACTION");
+        ArrayList<String> server_parameters = new ArrayList<String>();
+        server_parameters.add("REPLY");
+        final AtomicInteger handled = new AtomicInteger(0);
+        IAnswer<Object> count = new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                handled.incrementAndGet();
+                return null;
+            }
+        };
+        game.handleAction(eq(client_parameters), anyObject(String.class));
+        expectLastCall().andAnswer(count).times(2);
+        game.handleAction(eq(server_parameters), anyObject(String.class));
+        expectLastCall().andAnswer(count).times(2);
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("ft1");
+            String path = directory.resolve("server.sock").toString();
+            server1.setUnixDomainPath(path);
+            server1.startThread();
+            waitListenThreadStart(server1);
+            String client_hash = server2.addUnixDomainSocket(path);
+            waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+            waitSocketThreadAddNotEmpty(server1);
+            String server_hash = getServerLastSocketHash(server1);
+            Assert.assertTrue(server2.getSocketList().get(client_hash).getSocket().getTransport() instanceof ChannelTransport, "Blocking connection not made through a ChannelTransport");
+            server2.sendAction("ACTION", client_hash);
+            server1.sendAction("REPLY", server_hash);
+            server2.disconnect(client_hash);
+            waitSocketThreadRemoveEmpty(server1);
+            server1.setUseSelectorTransport(true);
+            server2.setUseSelectorTransport(true);
+            server1.setListenThread();
+            server1.startThread();
+            waitListenThreadStart(server1);
+            client_hash = server2.addUnixDomainSocket(path);
+            waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+            waitSocketThreadAddNotEmpty(server1);
+            server_hash = getServerLastSocketHash(server1);
+            Assert.assertNotNull(server2.getSocketList().get(client_hash).getSocket().getChannel(), "Selector connection not made through a SocketChannel");
+            server2.sendAction("ACTION", client_hash);
+            server1.sendAction("REPLY", server_hash);
+        } catch (IOException | ServerSocketCloseException | TimeoutException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        Timing new_timer = new Timing();
+        while (handled.get() < 4 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        verify(game);
+        try {
+            server1.close();
+            waitServerState(server1, Server.CLOSED);
+            if (directory != null) {
+                Files.deleteIfExists(directory);
+            }
+        } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientConnectUnixDomain COMPLETED -----");
+    }
+
+    /**
+     * Tests the batched delivery feature. Ensures actions received are held
+     * until deliverActions is called and are then passed to the {@link Game}
+     * in one batch, in the order they were received.
+     */
+    @Test
+    public void testServerClientBatchedDelivery() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientBatchedDelivery -----");
+        final List<List<String>> delivered = new ArrayList<List<String>>();
+        final List<String> delivered_hashes = new ArrayList<String>();
+        game.handleActionBatch(anyObject(List.class), anyObject(List.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object answer() {
+                delivered.addAll((List<List<String>>) getCurrentArguments()[0]);
+                delivered_hashes.addAll((List<String>) getCurrentArguments()[1]);
+                return null;
+            }
+        });
+        replay(game);
+        server1.setUseBatchedDelivery(true);
+        String client_hash = "";
+        try {
+            client_hash = server2.addLoopbackSocket(server1);
+        } catch (IOException | TimeoutException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server1);
+        String server_hash = getServerLastSocketHash(server1);
+        for (int i = 0; i < 3; i++) {
+            server2.sendAction("ACTION" + i, client_hash);
+        }
+        Timing new_timer = new Timing();
+        while (server1.getBatchedActions() < 3 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server1.getBatchedActions(), 3, "Actions were not held for the next batch");
+        Assert.assertTrue(delivered.isEmpty(), "Actions were passed to the Game before deliverActions was called");
+        server1.deliverActions();
+        Assert.assertEquals(server1.getBatchedActions(), 0, "Batch was not emptied once delivered");
+        Assert.assertEquals(delivered.size(), 3, "Batch was not passed to the Game");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(delivered.get(i), Collections.singletonList("ACTION" + i), "Actions in batch not in the order they were received");
+            Assert.assertEquals(delivered_hashes.get(i), server_hash, "Action not passed with the hash it was received from");
+        }
+        server1.deliverActions();
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientBatchedDelivery COMPLETED -----");
+    }
+
+    /**
+     * Tests that addLoopbackSocket throws a FeatureNotUsedException when
+     * connecting to a {@link Server} that is not a listen {@link Server}.
+     */
+    @Test
+    public void testServerClientConnectLoopbackClient() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientConnectLoopbackClient -----");
+        boolean not_used = false;
+        try {
+            server1.addLoopbackSocket(server2);
+        } catch (FeatureNotUsedException e) {
+            not_used = true;
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertTrue(not_used, "Connected to a client Server through a LoopbackTransport");
+        Assert.assertTrue(server1.getSocketList().isEmpty(), "SocketThread added for a failed loopback connection");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientConnectLoopbackClient COMPLETED -----");
+    }
+
     /**
      * Tests using the addSocket method with use_message_queues == true. Ensures
      * that a {@link SocketThread} will be constructed as well as a
@@ -1340,6 +1593,479 @@ public class ServerTest {
         LOGGER.log(Level.INFO, "----- TEST testServerClientConnectWithMessageQueue COMPLETED -----");
     }
 
+    /**
+     * This test ensures that when a ThreadFactory is set on both
+     * {@link Server}s the {@link ListenThread} and its acceptors, the
+     * {@link SocketThread}s and the {@link MessageQueue}s are all run on
+     * threads created by the factory.
+     */
+    @Test
+    public void testServerClientConnectWithThreadFactory() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientConnectWithThreadFactory -----");
+        String server_hash = "";
+        String client_hash = "";
+        final AtomicInteger threads_created = new AtomicInteger(0);
+        ThreadFactory factory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                threads_created.incrementAndGet();
+                return new Thread(runnable);
+            }
+        };
+        server1.setThreadFactory(factory);
+        server2.setThreadFactory(factory);
+        Assert.assertEquals(server1.getThreadFactory(), factory, "ThreadFactory was not set on Server");
+        Assert.assertFalse(server1.getUseVirtualThreads(), "Setting a ThreadFactory did not turn off the virtual threads feature");
+        try {
+            server1.setUseMessageQueues(true);
+            server2.setUseMessageQueues(true);
+        } catch (TimeoutException e) {
+            exception = true;
+        }
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server2);
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        waitSocketThreadState(server1, server_hash, SocketThread.CONFIRMED);
+        waitMessageQueueAddNotEmpty(server2);
+        waitMessageQueueState(server2, client_hash, MessageQueue.RUNNING);
+        waitMessageQueueAddNotEmpty(server1);
+        waitMessageQueueState(server1, server_hash, MessageQueue.RUNNING);
+        Assert.assertFalse(server2.getSocketList().get(client_hash).isAlive(), "SocketThread was started as its own thread");
+        int expected_threads = 5 + server1.getAcceptorCount();
+        Timing new_timer = new Timing();
+        while (threads_created.get() < expected_threads && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(threads_created.get(), expected_threads, "Incorrect number of threads created by the ThreadFactory");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientConnectWithThreadFactory COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that two {@link Server}s using the binary framing
+     * feature negotiate BINARY framing during connection confirmation and that
+     * actions, including ones containing line breaks, are still received
+     * correctly on both ends.
+     */
+    @Test
+    public void testServerClientBinaryFraming() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientBinaryFraming -----");
+        String server_hash = "";
+        String client_hash = "";
+        ArrayList<String> client_parameters = new ArrayList<String>();
+        client_parameters.add("ACTION");
+        client_parameters.add("LINE1\nLINE2");
+        ArrayList<String> server_parameters = new ArrayList<String>();
+        server_parameters.add("REPLY");
+        game.handleAction(eq(client_parameters), anyObject(String.class));
+        game.handleAction(eq(server_parameters), anyObject(String.class));
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseBinaryFraming(true);
+        server2.setUseBinaryFraming(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        waitSockFraming(server2, client_hash, Sock.BINARY);
+        waitSockFraming(server1, server_hash, Sock.BINARY);
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("LINE1\nLINE2");
+        server2.sendAction("ACTION", action_parameters, client_hash);
+        server1.sendAction("REPLY", server_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientBinaryFraming COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that a client {@link Server} using the binary framing
+     * feature keeps using TEXT framing when connected to a listen
+     * {@link Server} that does not use the feature.
+     */
+    @Test
+    public void testServerClientBinaryFramingNotSupported() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientBinaryFramingNotSupported -----");
+        String server_hash = "";
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server2.setUseBinaryFraming(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        waitSockFraming(server2, client_hash, Sock.TEXT);
+        waitSockFraming(server1, server_hash, Sock.TEXT);
+        server2.sendAction("ACTION", client_hash);
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientBinaryFramingNotSupported COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that two {@link Server}s using the channels feature
+     * negotiate CHANNEL framing, that each action is received with the channel
+     * it was sent on, and that a higher priority channel is sent ahead of a
+     * backlog queued earlier on a lower priority channel.
+     */
+    @Test
+    public void testServerClientChannels() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientChannels -----");
+        String server_hash = "";
+        String client_hash = "";
+        final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        game.handleAction(anyObject(List.class), anyObject(String.class));
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() throws Throwable {
+                List<?> action = (List<?>) getCurrentArguments()[0];
+                received.add(action.get(0) + ":" + server1.getReceiveChannel((String) getCurrentArguments()[1]));
+                return null;
+            }
+        }).times(102);
+        replay(game);
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseChannels(true);
+        server2.setUseChannels(true);
+        try {
+            server2.setUseMessageQueues(true);
+            server2.setChannelPriority(1, 10);
+            server2.setChannelPriority(5, -5);
+        } catch (TimeoutException | InvalidArgumentException e) {
+            exception = true;
+        }
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        waitSockFraming(server2, client_hash, Sock.CHANNEL);
+        waitSockFraming(server1, server_hash, Sock.CHANNEL);
+        server2.getQueueList().get(client_hash).pauseQueue();
+        for (int i = 0; i < 100; i++) {
+            server2.sendActionChannel("BULK" + i, client_hash, 5);
+        }
+        server2.sendAction("ACTION", client_hash);
+        server2.sendActionChannel("CHAT", client_hash, 1);
+        Assert.assertEquals(server2.getQueueList().get(client_hash).getQueuedMessages(), 102, "Messages were not queued on their channels");
+        server2.getQueueList().get(client_hash).resumeQueue();
+        Timing new_timer = new Timing();
+        while (received.size() < 102 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(received.size(), 102, "Not every action was received");
+        Assert.assertEquals(received.get(0), "CHAT:1", "Highest priority channel was not sent first");
+        Assert.assertEquals(received.get(1), "ACTION:0", "Default channel was not sent second");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(received.get(i + 2), "BULK" + i + ":5", "Lowest priority channel was not sent in order");
+        }
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientChannels COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that two {@link Server}s using the compression feature
+     * negotiate compression once the connection is confirmed, that messages
+     * are still received in both directions and that repetitive messages are
+     * compressed.
+     */
+    @Test
+    public void testServerClientCompression() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientCompression -----");
+        String server_hash = "";
+        String client_hash = "";
+        ArrayList<String> client_parameters = new ArrayList<String>();
+        client_parameters.add("MOVE");
+        client_parameters.add("12");
+        ArrayList<String> server_parameters = new ArrayList<String>();
+        server_parameters.add("REPLY");
+        game.handleAction(eq(client_parameters), anyObject(String.class));
+        expectLastCall().times(50);
+        game.handleAction(eq(server_parameters), anyObject(String.class));
+        replay(game);
+        ArrayList<String> actions = new ArrayList<String>();
+        actions.add("REPLY");
+        actions.add("MOVE");
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseCompression(true);
+        server2.setUseCompression(true);
+        server1.setCompressionActions(actions);
+        server2.setCompressionActions(actions);
+        server1.setUseBinaryFraming(true);
+        server2.setUseBinaryFraming(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        waitSockCompression(server2, client_hash, true);
+        waitSockCompression(server1, server_hash, true);
+        waitSockFraming(server1, server_hash, Sock.BINARY);
+        ArrayList<String> action_parameters = new ArrayList<String>();
+        action_parameters.add("12");
+        for (int i = 0; i < 50; i++) {
+            server2.sendAction("MOVE", action_parameters, client_hash);
+        }
+        server1.sendAction("REPLY", server_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        verify(game);
+        Sock sock = server2.getSocketList().get(client_hash).getSocket();
+        Assert.assertTrue(sock.getCompressedBytesWritten() < sock.getUncompressedBytesWritten(), "Messages were not compressed");
+        Assert.assertTrue(sock.getCompressionRatio() < 1, "Compression ratio not measured");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientCompression COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that a connection stays uncompressed when the two
+     * {@link Server}s have built different compression dictionaries.
+     */
+    @Test
+    public void testServerClientCompressionDictionaryMismatch() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientCompressionDictionaryMismatch -----");
+        String server_hash = "";
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        ArrayList<String> actions = new ArrayList<String>();
+        actions.add("ACTION");
+        server1.setUseConnectionConfirmation(true);
+        server2.setUseConnectionConfirmation(true);
+        server1.setUseCompression(true);
+        server2.setUseCompression(true);
+        server2.setCompressionActions(actions);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadState(server2, client_hash, SocketThread.CONFIRMED);
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        waitSockCompression(server2, client_hash, false);
+        waitSockCompression(server1, server_hash, false);
+        server2.sendAction("ACTION", client_hash);
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientCompressionDictionaryMismatch COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that when using the write batching feature messages
+     * are held by the {@link Sock} until flushSockets is called.
+     */
+    @Test
+    public void testServerClientWriteBatching() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientWriteBatching -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        expectLastCall().times(2);
+        replay(game);
+        try {
+            server2.setMaxFlushDelay(60000);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        server2.setUseWriteBatching(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server1);
+        Sock sock = server2.getSocketList().get(client_hash).getSocket();
+        Assert.assertFalse(sock.getAutoFlush(), "Auto flush was not turned off for new connection");
+        server2.sendAction("ACTION", client_hash);
+        server2.sendAction("ACTION", client_hash);
+        Assert.assertTrue(sock.getUnflushedBytes() > 0, "Messages were not batched");
+        server2.flushSockets();
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batched messages were not flushed");
+        Timing new_timer = new Timing();
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientWriteBatching COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that when using the write batching feature batched
+     * messages are flushed once they have waited the max flush delay.
+     */
+    @Test
+    public void testServerClientWriteBatchingMaxFlushDelay() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientWriteBatchingMaxFlushDelay -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        try {
+            server2.setMaxFlushDelay(10);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        server2.setUseWriteBatching(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server1);
+        server2.sendAction("ACTION", client_hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(200);
+        Assert.assertEquals(server2.getSocketList().get(client_hash).getSocket().getUnflushedBytes(), 0, "Batched messages were not flushed after max flush delay");
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientWriteBatchingMaxFlushDelay COMPLETED -----");
+    }
+
+    /**
+     * This test ensures that when using the write batching feature without
+     * message queues the flush deadline of a blocking connection hands the
+     * flush to a thread of the {@link Server} rather than writing on the
+     * thread of the {@link TimerWheel}.
+     */
+    @Test
+    public void testServerClientWriteBatchingFlushThread() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testServerClientWriteBatchingFlushThread -----");
+        String client_hash = "";
+        ArrayList<String> parameters = new ArrayList<String>();
+        parameters.add("ACTION");
+        game.handleAction(eq(parameters), anyObject(String.class));
+        replay(game);
+        final AtomicInteger flush_threads = new AtomicInteger(0);
+        server2.setThreadFactory(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                if (runnable instanceof Thread && ((Thread) runnable).getName().startsWith("SocketThread-flush-")) {
+                    flush_threads.incrementAndGet();
+                }
+                return new Thread(runnable);
+            }
+        });
+        try {
+            server2.setMaxFlushDelay(10);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        server2.setUseWriteBatching(true);
+        try {
+            server1.startThread();
+        } catch (IOException | ServerSocketCloseException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitListenThreadStart(server1);
+        try {
+            client_hash = server2.addSocket("127.0.0.1", port);
+        } catch (IOException | TimeoutException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server1);
+        Sock sock = server2.getSocketList().get(client_hash).getSocket();
+        server2.sendAction("ACTION", client_hash);
+        Timing new_timer = new Timing();
+        while (sock.getUnflushedBytes() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batched messages were not flushed after max flush delay");
+        Assert.assertEquals(flush_threads.get(), 1, "Batch was not flushed on a thread of the Server");
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testServerClientWriteBatchingFlushThread COMPLETED -----");
+    }
+
     /**
      * This test ensures that the disconnect method correctly removes the
      * SocketThread corresponding to the given hash String from the socket_list
@@ -1879,6 +2605,65 @@ public class ServerTest {
         LOGGER.log(Level.INFO, "----- TEST testSendMessageToListNotExist COMPLETED -----");
     }
 
+    /**
+     * Tests the {@link Server}.sendActionBroadcast function. Ensures the action
+     * is only sent to the sockets in the game, and that sending an action to a
+     * list of sockets sends it to each socket once.
+     */
+    @Test
+    public void testSendActionBroadcast() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSendActionBroadcast -----");
+        String server_hash = "";
+        String server_hash2 = "";
+        ArrayList<String> broadcast_parameters = new ArrayList<String>();
+        broadcast_parameters.add("BROADCAST");
+        broadcast_parameters.add("1");
+        ArrayList<String> list_parameters = new ArrayList<String>();
+        list_parameters.add("LIST");
+        game.handleAction(eq(broadcast_parameters), anyObject(String.class));
+        game.handleAction(eq(list_parameters), anyObject(String.class));
+        expectLastCall().times(2);
+        replay(game);
+        try {
+            server2.addLoopbackSocket(server1);
+        } catch (IOException | TimeoutException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        waitSocketThreadAddNotEmpty(server1);
+        server_hash = getServerLastSocketHash(server1);
+        try {
+            server2.addLoopbackSocket(server1);
+        } catch (IOException | TimeoutException | FeatureNotUsedException e) {
+            exception = true;
+        }
+        Timing new_timer = new Timing();
+        while (server1.getSocketList().size() < 2 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        for (SocketThread socket : server1.getSocketList().values()) {
+            if (socket.getHash().compareTo(server_hash) != 0) {
+                server_hash2 = socket.getHash();
+            }
+        }
+        waitSocketThreadState(server1, server_hash, SocketThread.CONFIRMED);
+        waitSocketThreadState(server1, server_hash2, SocketThread.CONFIRMED);
+        try {
+            server1.setSocketGame(server_hash, 1);
+        } catch (NullException | HashNotFoundException e) {
+            exception = true;
+        }
+        server1.sendActionBroadcast("BROADCAST", Collections.singletonList("1"), 1);
+        server1.sendActionBroadcast("BROADCAST", 2);
+        ArrayList<String> sockets = new ArrayList<String>();
+        sockets.add(server_hash);
+        sockets.add(server_hash2);
+        server1.sendAction("LIST", sockets);
+        new_timer.waitTime(100);
+        verify(game);
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testSendActionBroadcast COMPLETED -----");
+    }
+
     /**
      * Tests the {@link Server}.toString() function if state is set to
      * {@link Server}.CLIENT. Check the output from LOGGER to assess human
@@ -3,9 +3,15 @@ package fantasyteam.ft1.networkingbase;
 import fantasyteam.ft1.Game;
 import fantasyteam.ft1.Timing;
 import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
 import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
 import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.easymock.EasyMock;
@@ -209,6 +215,153 @@ public class SockTest {
         Assert.assertFalse(exception, "Exception found");
     }
 
+    /**
+     * Tests that messages are batched when auto flush is turned off and are
+     * only written once flush is called.
+     */
+    @Test
+    public void testBatchedSendMessage() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testBatchedSendMessage -----");
+        sock.setAutoFlush(false);
+        try {
+            sock.sendMessage("MESSAGE1");
+            sock.sendMessage("MESSAGE2");
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertTrue(sock.getUnflushedBytes() > 0, "Messages were not batched");
+        Assert.assertTrue(sock.getUnflushedTime() >= 0, "Time of oldest batched message was not recorded");
+        try {
+            sock.flush();
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batched messages were not flushed");
+        Assert.assertEquals(sock.getUnflushedTime(), -1, "Time of oldest batched message was not reset");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testBatchedSendMessage COMPLETED -----");
+    }
+
+    /**
+     * Tests that a batch is flushed by its deadline on the {@link TimerWheel}
+     * once it has waited the flush delay, and that flushing a batch first
+     * cancels its deadline.
+     */
+    @Test
+    public void testBatchedFlushDeadline() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testBatchedFlushDeadline -----");
+        final AtomicInteger deadlines = new AtomicInteger(0);
+        sock.setAutoFlush(false);
+        sock.setFlushDeadline(server.getTimerWheel(), 10, new Runnable() {
+            @Override
+            public void run() {
+                deadlines.incrementAndGet();
+                try {
+                    sock.flush();
+                } catch (IOException e) {
+                    exception = true;
+                }
+            }
+        });
+        try {
+            sock.sendMessage("MESSAGE1");
+        } catch (IOException e) {
+            exception = true;
+        }
+        Timing new_timer = new Timing();
+        while (sock.getUnflushedBytes() > 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batch was not flushed by its deadline");
+        Assert.assertEquals(deadlines.get(), 1, "Deadline was not run once");
+        try {
+            sock.sendMessage("MESSAGE2");
+            sock.flush();
+        } catch (IOException e) {
+            exception = true;
+        }
+        new_timer.waitTime(100);
+        Assert.assertEquals(deadlines.get(), 1, "Deadline was not cancelled when the batch was flushed");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testBatchedFlushDeadline COMPLETED -----");
+    }
+
+    /**
+     * Tests that a backlog of messages larger than the write buffer is
+     * batched in full and written by a single flush.
+     */
+    @Test
+    public void testBatchMessages() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testBatchMessages -----");
+        ArrayList<String> messages = new ArrayList<String>();
+        String message = "";
+        for (int i = 0; i < 200; i++) {
+            message += "M";
+        }
+        for (int i = 0; i < 100; i++) {
+            messages.add(message);
+        }
+        try {
+            sock.batchMessages(messages);
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 100 * (200 + System.getProperty("line.separator").length()), "Messages were not all batched");
+        try {
+            sock.flush();
+        } catch (IOException e) {
+            exception = true;
+        }
+        Assert.assertEquals(sock.getUnflushedBytes(), 0, "Batched messages were not flushed");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testBatchMessages COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages sent with CHANNEL framing are read back in order
+     * with the channel they were sent on, and that messages sent without a
+     * channel are read on channel 0.
+     *
+     * @throws IOException if the loopback connection fails to open.
+     */
+    @Test
+    public void testChannelFraming() throws IOException {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testChannelFraming -----");
+        ServerSocket loopback = new ServerSocket(0, 1, InetAddress.getByName(ip));
+        Sock writer = new Sock(ip, loopback.getLocalPort());
+        Sock reader = new Sock(loopback.accept());
+        try {
+            writer.setWriteFraming(Sock.CHANNEL);
+            reader.setReadFraming(Sock.CHANNEL);
+            writer.setAutoFlush(false);
+            writer.sendChannelMessage(3, "CHAT");
+            writer.batchMessages(Arrays.asList("ASSET1", "ASSET2"), 200);
+            writer.sendMessage("ACTION");
+            writer.flush();
+            Assert.assertEquals(reader.readMessage(), "CHAT", "First message not read correctly");
+            Assert.assertEquals(reader.getReadChannel(), 3, "Channel of first message not read correctly");
+            Assert.assertEquals(reader.readMessage(), "ASSET1", "Second message not read correctly");
+            Assert.assertEquals(reader.getReadChannel(), 200, "Channel of second message not read correctly");
+            Assert.assertEquals(reader.readMessage(), "ASSET2", "Third message not read correctly");
+            Assert.assertEquals(reader.getReadChannel(), 200, "Channel of third message not read correctly");
+            Assert.assertEquals(reader.readMessage(), "ACTION", "Fourth message not read correctly");
+            Assert.assertEquals(reader.getReadChannel(), 0, "Message without a channel not read on channel 0");
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        try {
+            writer.sendChannelMessage(-1, "INVALID");
+            exception = true;
+        } catch (InvalidArgumentException e) {
+            LOGGER.log(Level.INFO, "Negative channel rejected as expected");
+        }
+        writer.close();
+        reader.close();
+        loopback.close();
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testChannelFraming COMPLETED -----");
+    }
+
     /**
      * Tests the {@link Sock}.toString() function. Check the output from LOGGER
      * to assess human readability.
@@ -340,6 +340,27 @@ public class SocketThreadTest {
         LOGGER.log(Level.INFO, "----- TEST testCloseBeforeUnblock COMPLETED -----");
     }
 
+    /**
+     * Tests that {@link SocketThread}.awaitStart returns once the state changes
+     * from NEW and returns false if it does not change in time.
+     */
+    @Test
+    public void testAwaitStart() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testAwaitStart -----");
+        SocketThread new_thread = new SocketThread(null, server2, "TEST");
+        Timing new_timer = new Timing();
+        Assert.assertFalse(new_thread.awaitStart(100), "SocketThread that was never started returned as started");
+        Assert.assertTrue(new_timer.getTime() >= 100, "awaitStart returned before its timeout");
+        try {
+            new_thread.setRun(SocketThread.CONFIRMED);
+        } catch (InvalidArgumentException e) {
+            exception = true;
+        }
+        Assert.assertTrue(new_thread.awaitStart(0), "Changing the state from NEW did not release awaitStart");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testAwaitStart COMPLETED -----");
+    }
+
     /**
      * Tests the {@link SocketThread}.toString() function. Check the output from
      * LOGGER to assess human readability.
@@ -0,0 +1,216 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Timing;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link TimerWheel} class.
+ *
+ * @author javu
+ */
+public class TimerWheelTest {
+
+    /**
+     * The {@link TimerWheel} built by the BeforeMethod.
+     */
+    private TimerWheel wheel;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(TimerWheelTest.class.getName());
+
+    /**
+     * Builds a task that records the time it was run at.
+     *
+     * @param times the list the time is added to.
+     * @return the task.
+     */
+    private Runnable recordTime(final List<Long> times) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                times.add(System.currentTimeMillis());
+            }
+        };
+    }
+
+    /**
+     * Waits until a list holds the given number of entries.
+     *
+     * @param list the list to check.
+     * @param size the number of entries expected.
+     * @param wait the longest time in milliseconds to wait.
+     */
+    private void waitListSize(List<?> list, int size, long wait) {
+        Timing new_timer = new Timing();
+        while (list.size() < size && new_timer.getTime() < wait) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(list.size(), size, "Tasks were not run in time");
+    }
+
+    /**
+     * Constructs the {@link TimerWheel}.
+     */
+    @BeforeMethod
+    private void setupWheel() {
+        wheel = new TimerWheel();
+    }
+
+    /**
+     * Closes the {@link TimerWheel}.
+     */
+    @AfterMethod
+    private void deleteWheel() {
+        wheel.close();
+    }
+
+    /**
+     * Tests that a scheduled task is run once, never before its delay and
+     * within a tick of it.
+     */
+    @Test
+    public void testSchedule() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testSchedule -----");
+        Assert.assertEquals(wheel.getRun(), TimerWheel.NEW, "TimerWheel started before a task was scheduled");
+        List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        long start = System.currentTimeMillis();
+        TimerWheel.Timeout scheduled = wheel.schedule(100, recordTime(times));
+        Assert.assertEquals(wheel.getRun(), TimerWheel.RUNNING, "TimerWheel was not started by schedule");
+        waitListSize(times, 1, timeout);
+        long elapsed = times.get(0) - start;
+        Assert.assertTrue(elapsed >= 100, "Task was run before its delay: " + elapsed);
+        Assert.assertTrue(elapsed < 100 + TimerWheel.TICK_DURATION * 10, "Task was run too long after its delay: " + elapsed);
+        Assert.assertTrue(scheduled.isExpired(), "Timeout not flagged as expired");
+        Assert.assertFalse(scheduled.cancel(), "Expired Timeout was cancelled");
+        Timing new_timer = new Timing();
+        new_timer.waitTime(50);
+        Assert.assertEquals(times.size(), 1, "Task was run more than once");
+        Assert.assertEquals(wheel.getPendingTimeouts(), 0, "Expired Timeout still pending");
+        LOGGER.log(Level.INFO, "----- TEST testSchedule COMPLETED -----");
+    }
+
+    /**
+     * Tests that tasks are run in order of their delay regardless of the order
+     * they were scheduled in, including a task due after the wheel has gone
+     * round more than once.
+     */
+    @Test
+    public void testScheduleOrder() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testScheduleOrder -----");
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        long[] delays = {TimerWheel.WHEEL_SIZE * TimerWheel.TICK_DURATION + 100, 300, 0, 150};
+        for (int i = 0; i < delays.length; i++) {
+            final int task = i;
+            wheel.schedule(delays[i], new Runnable() {
+                @Override
+                public void run() {
+                    order.add(task);
+                }
+            });
+        }
+        waitListSize(order, 4, timeout * 2);
+        Assert.assertEquals(order.get(0).intValue(), 2, "Tasks were not run in order of delay");
+        Assert.assertEquals(order.get(1).intValue(), 3, "Tasks were not run in order of delay");
+        Assert.assertEquals(order.get(2).intValue(), 1, "Tasks were not run in order of delay");
+        Assert.assertEquals(order.get(3).intValue(), 0, "Task due after a full rotation was not run last");
+        LOGGER.log(Level.INFO, "----- TEST testScheduleOrder COMPLETED -----");
+    }
+
+    /**
+     * Tests that a cancelled task is never run and is dropped from the wheel.
+     */
+    @Test
+    public void testCancel() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testCancel -----");
+        List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        TimerWheel.Timeout cancelled = wheel.schedule(50, recordTime(times));
+        wheel.schedule(100, recordTime(times));
+        Assert.assertTrue(cancelled.cancel(), "Timeout was not cancelled");
+        Assert.assertTrue(cancelled.isCancelled(), "Timeout not flagged as cancelled");
+        Assert.assertFalse(cancelled.cancel(), "Timeout cancelled twice");
+        waitListSize(times, 1, timeout);
+        Timing new_timer = new Timing();
+        while (wheel.getPendingTimeouts() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(wheel.getPendingTimeouts(), 0, "Cancelled Timeout was not dropped");
+        Assert.assertEquals(times.size(), 1, "Cancelled task was run");
+        Assert.assertFalse(cancelled.isExpired(), "Cancelled Timeout flagged as expired");
+        LOGGER.log(Level.INFO, "----- TEST testCancel COMPLETED -----");
+    }
+
+    /**
+     * Tests that many tasks scheduled at once are all run and that a task
+     * throwing an exception does not stop the others.
+     */
+    @Test
+    public void testScheduleMany() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testScheduleMany -----");
+        final AtomicInteger run = new AtomicInteger(0);
+        int tasks = 10000;
+        for (int i = 0; i < tasks; i++) {
+            final boolean fail = i % 1000 == 0;
+            wheel.schedule(i % 200, new Runnable() {
+                @Override
+                public void run() {
+                    run.incrementAndGet();
+                    if (fail) {
+                        throw new IllegalStateException("Task failed");
+                    }
+                }
+            });
+        }
+        Timing new_timer = new Timing();
+        while (run.get() < tasks && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(run.get(), tasks, "Not every task was run");
+        LOGGER.log(Level.INFO, "----- TEST testScheduleMany COMPLETED -----");
+    }
+
+    /**
+     * Tests that closing the {@link TimerWheel} drops every pending task and
+     * that tasks scheduled afterwards are never run.
+     */
+    @Test
+    public void testClose() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testClose -----");
+        List<Long> times = Collections.synchronizedList(new ArrayList<Long>());
+        wheel.schedule(100, recordTime(times));
+        wheel.close();
+        Assert.assertEquals(wheel.getRun(), TimerWheel.CLOSED, "TimerWheel state not set to CLOSED");
+        TimerWheel.Timeout late = wheel.schedule(0, recordTime(times));
+        Assert.assertTrue(late.isCancelled(), "Timeout scheduled on a closed TimerWheel was not cancelled");
+        Timing new_timer = new Timing();
+        new_timer.waitTime(200);
+        Assert.assertTrue(times.isEmpty(), "Task was run after the TimerWheel was closed");
+        LOGGER.log(Level.INFO, "----- TEST testClose COMPLETED -----");
+    }
+
+    /**
+     * Tests the toString function of {@link TimerWheel}.
+     */
+    @Test
+    public void testToString() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testToString -----");
+        String to_string = "State: " + TimerWheel.NEW + "\nPending timeouts: 0";
+        Assert.assertEquals(wheel.toString(), to_string, "TimerWheel string not as expected");
+        LOGGER.log(Level.INFO, "----- TEST testToString COMPLETED -----");
+    }
+}
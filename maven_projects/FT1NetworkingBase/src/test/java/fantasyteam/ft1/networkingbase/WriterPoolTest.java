@@ -0,0 +1,257 @@
+package fantasyteam.ft1.networkingbase;
+
+import fantasyteam.ft1.Game;
+import fantasyteam.ft1.Timing;
+import fantasyteam.ft1.networkingbase.exceptions.FeatureNotUsedException;
+import fantasyteam.ft1.networkingbase.exceptions.HashNotFoundException;
+import fantasyteam.ft1.networkingbase.exceptions.InvalidArgumentException;
+import fantasyteam.ft1.networkingbase.exceptions.NullException;
+import fantasyteam.ft1.networkingbase.exceptions.ServerSocketCloseException;
+import fantasyteam.ft1.networkingbase.exceptions.TimeoutException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for the {@link WriterPool} class and the writer pool feature of
+ * {@link Server}.
+ *
+ * @author javu
+ */
+public class WriterPoolTest {
+
+    /**
+     * This Server is built as a listen Server by the BeforeMethod.
+     */
+    private Server server1;
+    /**
+     * This Server is built as a client Server by the BeforeMethod, with the
+     * writer pool feature turned on.
+     */
+    private Server server2;
+    /**
+     * Mock of the Game used by both {@link Server}s, built by the
+     * BeforeMethod.
+     */
+    private Game game;
+    /**
+     * The number of TEST actions received by the Game.
+     */
+    private AtomicInteger received;
+    /**
+     * Port number used to listen on.
+     */
+    private int port;
+    /**
+     * This boolean is set to true in any test if an exception is found. The
+     * test should the assert that this boolean is false to ensure no exceptions
+     * were encountered during testing.
+     */
+    private boolean exception;
+    /**
+     * The hash of the SocketThread created in BeforeMethod by running
+     * server2.addSocket().
+     */
+    private String hash;
+    /**
+     * The time waited before asserting that a function did not work as
+     * intended.
+     */
+    private long timeout = 5000;
+
+    /**
+     * Logger for logging important actions and exceptions.
+     */
+    private static final Logger LOGGER = Logger.getLogger(WriterPoolTest.class.getName());
+
+    /**
+     * Waits until the {@link Game} has received count TEST actions.
+     *
+     * @param count the number of actions expected.
+     */
+    private void waitReceived(int count) {
+        Timing new_timer = new Timing();
+        while (received.get() < count && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(received.get(), count, "Messages were not received");
+    }
+
+    /**
+     * Waits for the {@link MessageQueue} of a socket to reach a state.
+     *
+     * @param server The Server containing the MessageQueue.
+     * @param hash the hash of the MessageQueue.
+     * @param state the state expected on the MessageQueue.
+     */
+    private void waitMessageQueueState(Server server, String hash, int state) {
+        Timing new_timer = new Timing();
+        while ((server.getQueueList().get(hash) == null || server.getQueueList().get(hash).getRun() != state) && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(server.getQueueList().get(hash).getRun(), state, "MessageQueue state was not set correctly");
+    }
+
+    /**
+     * Constructs both {@link Server}s with the message queues feature, turns
+     * on the writer pool feature on server2 and connects them.
+     *
+     * @throws IOException if {@link ListenThread} fails to start or the
+     * connection fails to connect.
+     * @throws InvalidArgumentException if the writer pool size is refused.
+     */
+    @BeforeMethod
+    private void setupPool() throws IOException, ServerSocketCloseException, TimeoutException, FeatureNotUsedException, InvalidArgumentException {
+        port = 22234;
+        exception = false;
+        received = new AtomicInteger(0);
+        game = EasyMock.createNiceMock(Game.class);
+        game.handleAction(EasyMock.<List<String>>anyObject(), EasyMock.<String>anyObject());
+        EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+            @Override
+            public Object answer() {
+                @SuppressWarnings("unchecked")
+                List<String> action = (List<String>) EasyMock.getCurrentArguments()[0];
+                if (action.get(0).startsWith("TEST")) {
+                    received.incrementAndGet();
+                }
+                return null;
+            }
+        }).anyTimes();
+        EasyMock.replay(game);
+        server1 = new Server(game, port, true);
+        server2 = new Server(game, port, false);
+        server2.setWriterPoolSize(2);
+        server2.setUseWriterPool(true);
+        server1.setUseMessageQueues(true);
+        server2.setUseMessageQueues(true);
+        server1.startThread();
+        Timing new_timer = new Timing();
+        while (!server1.getListenThread().getRun() && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        hash = server2.addSocket("127.0.0.1", port);
+        waitMessageQueueState(server2, hash, MessageQueue.RUNNING);
+    }
+
+    /**
+     * Closes both {@link Server}s and frees up port ready for the next test.
+     *
+     * @throws IOException if either {@link Server} fails to close.
+     */
+    @AfterMethod
+    private void deletePool() throws IOException, ServerSocketCloseException, TimeoutException {
+        server2.close();
+        server1.close();
+    }
+
+    /**
+     * Tests that the {@link MessageQueue} is attached to the
+     * {@link WriterPool} instead of running its own thread, and that an
+     * invalid pool size is refused.
+     */
+    @Test
+    public void testWriterPoolAttach() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testWriterPoolAttach -----");
+        WriterPool pool = server2.getWriterPool();
+        Assert.assertNotNull(pool, "WriterPool was not created");
+        Assert.assertEquals(pool.getRun(), WriterPool.RUNNING, "WriterPool was not started");
+        Assert.assertEquals(pool.getSize(), 2, "WriterPool size not set");
+        Assert.assertEquals(pool.getAttachedQueues(), 1, "MessageQueue was not attached to the WriterPool");
+        Assert.assertFalse(server2.getQueueList().get(hash).isAlive(), "MessageQueue started its own thread");
+        Assert.assertNull(server1.getWriterPool(), "WriterPool created without the feature");
+        boolean invalid = false;
+        try {
+            server2.setWriterPoolSize(0);
+        } catch (InvalidArgumentException e) {
+            invalid = true;
+        }
+        Assert.assertTrue(invalid, "Writer pool size of 0 accepted");
+        LOGGER.log(Level.INFO, "----- TEST testWriterPoolAttach COMPLETED -----");
+    }
+
+    /**
+     * Tests that messages sent from several threads through a pooled
+     * {@link MessageQueue} are all sent, including messages queued while it
+     * was paused once it is resumed, and that the {@link MessageQueue} is not
+     * waiting for a worker once it has nothing left to send.
+     */
+    @Test
+    public void testWriterPoolSendMessages() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testWriterPoolSendMessages -----");
+        MessageQueue queue = server2.getQueueList().get(hash);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        server2.sendMessage("TEST" + i, hash);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join(timeout);
+            } catch (InterruptedException e) {
+                exception = true;
+            }
+        }
+        waitReceived(600);
+        queue.pauseQueue();
+        server2.sendMessage("TEST", hash);
+        Timing new_timer = new Timing();
+        new_timer.waitTime(50);
+        Assert.assertEquals(queue.getQueuedMessages(), 1, "Message sent while MessageQueue was paused");
+        queue.resumeQueue();
+        waitReceived(601);
+        new_timer.waitTime(50);
+        Assert.assertEquals(server2.getWriterPool().getReadyQueues(), 0, "Idle MessageQueue still waiting for a worker");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testWriterPoolSendMessages COMPLETED -----");
+    }
+
+    /**
+     * Tests that a pooled {@link MessageQueue} is detached from the
+     * {@link WriterPool} once it is removed, and that the pool is closed with
+     * the {@link Server}.
+     */
+    @Test
+    public void testWriterPoolClose() {
+        LOGGER.log(Level.INFO, "----- STARTING TEST testWriterPoolClose -----");
+        WriterPool pool = server2.getWriterPool();
+        MessageQueue queue = server2.getQueueList().get(hash);
+        try {
+            server2.removeQueue(hash);
+        } catch (HashNotFoundException | NullException e) {
+            exception = true;
+        }
+        Timing new_timer = new Timing();
+        while (pool.getAttachedQueues() != 0 && new_timer.getTime() < timeout) {
+            new_timer.waitTime(5);
+        }
+        Assert.assertEquals(pool.getAttachedQueues(), 0, "Closed MessageQueue was not detached from the WriterPool");
+        Assert.assertNull(queue.getMessages(), "Closed MessageQueue was not cleared");
+        try {
+            server2.close();
+        } catch (IOException | ServerSocketCloseException | TimeoutException e) {
+            exception = true;
+        }
+        Assert.assertEquals(pool.getRun(), WriterPool.CLOSED, "WriterPool was not closed with the Server");
+        Assert.assertNull(server2.getWriterPool(), "WriterPool not removed from the closed Server");
+        Assert.assertFalse(exception, "Exception found");
+        LOGGER.log(Level.INFO, "----- TEST testWriterPoolClose COMPLETED -----");
+    }
+}